@@ -0,0 +1,11 @@
+#!/bin/sh
+# Runs the benchmarks and stores the results as results/<label>.csv, for example:
+#   ./run-benchmarks.sh 1.0 -p rows=1000000
+#   java -cp target/benchmarks.jar com.pluralsight.bench.ResultsDiff results/0.9.csv results/1.0.csv
+set -e
+cd "$(dirname "$0")"
+label=${1:-$(git rev-parse --short HEAD)}
+[ $# -gt 0 ] && shift
+mkdir -p results
+java -jar target/benchmarks.jar -rf csv -rff "results/$label.csv" "$@"
+echo "Results written to results/$label.csv"
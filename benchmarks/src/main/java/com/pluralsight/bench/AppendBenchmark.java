@@ -0,0 +1,67 @@
+package com.pluralsight.bench;
+
+import com.pluralsight.AppendWriter;
+import com.pluralsight.Transaction;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Rows per second: open/write/close per row against the batched AppendWriter,
+ * and group commit with fsync from one and from eight threads.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class AppendBenchmark {
+
+    private final Transaction transaction = new Transaction(LocalDate.of(2024, 4, 18), LocalTime.of(12, 30),
+            "Monthly rent payment", "ABC Apartments", -200_000);
+
+    private Path file;
+    private AppendWriter buffered;
+    private AppendWriter groupCommit;
+
+    @Setup(Level.Iteration)
+    public void open() throws IOException {
+        file = Files.createTempFile("append-", ".csv");
+        buffered = new AppendWriter(file, AppendWriter.Durability.BUFFERED);
+        groupCommit = new AppendWriter(file, AppendWriter.Durability.GROUP_COMMIT);
+    }
+
+    @TearDown(Level.Iteration)
+    public void close() throws IOException {
+        buffered.close();
+        groupCommit.close();
+        Files.deleteIfExists(file);
+    }
+
+    @Benchmark
+    public void legacyOpenWriteClose() throws IOException {
+        LegacyWriter.write(file.toString(), transaction);
+    }
+
+    @Benchmark
+    public void appendWriterBuffered() throws IOException {
+        buffered.append(transaction);
+    }
+
+    @Benchmark
+    public void appendWriterGroupCommit() throws IOException {
+        groupCommit.append(transaction);
+    }
+
+    @Benchmark
+    @Threads(8)
+    public void appendWriterGroupCommit8Threads() throws IOException {
+        groupCommit.append(transaction);
+    }
+}
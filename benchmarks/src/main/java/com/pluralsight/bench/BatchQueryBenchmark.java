@@ -0,0 +1,233 @@
+package com.pluralsight.bench;
+
+import com.pluralsight.BatchQueries;
+import com.pluralsight.IntList;
+import com.pluralsight.Ledger;
+import com.pluralsight.QueryEngine;
+import com.pluralsight.TransactionLoader;
+import com.pluralsight.TransactionStore;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * A batch of monthly, vendor, description and amount queries over a synthetic ledger. First in one process:
+ * the shared scan of BatchQueries against one scan per query and against QueryEngine per query, checking that every
+ * query gets the same rows from all three. Then as cron would run it, a new JVM per run of FinancialTracker --batch:
+ * without a snapshot (parse, then write the snapshot), from the snapshot, and from the snapshot after rows were
+ * appended to the transactions file; the output must not depend on whether the snapshot was used.
+ * Exits with status 1 when a check fails.
+ * java -cp target/benchmarks.jar com.pluralsight.bench.BatchQueryBenchmark [rows]
+ */
+public class BatchQueryBenchmark {
+
+    private static final int ROUNDS = 3;
+    private static final int APPENDED_ROWS = 10_000;
+
+    private static int failures;
+    // stderr of the last run
+    private static String lastErrors = "";
+
+    public static void main(String[] args) throws Exception {
+        long rows = args.length > 0 ? Long.parseLong(args[0]) : 2_000_000;
+        Path dir = Files.createTempDirectory("batch");
+        Path csv = dir.resolve("transactions.csv");
+        Files.move(SyntheticLedger.generate(rows, 42), csv);
+        try {
+            Ledger ledger = new Ledger();
+            ledger.addAll(TransactionLoader.load(csv).getStore());
+            List<String> lines = queryLines(ledger);
+            Path queryFile = dir.resolve("queries.txt");
+            Files.write(queryFile, lines);
+            List<BatchQueries.Query> queries = BatchQueries.parse(lines);
+            System.out.printf("%,d rows, %d queries%n", ledger.size(), queries.size());
+
+            compareInProcess(ledger, queries);
+            compareStartup(dir, csv, queryFile);
+        } finally {
+            try (Stream<Path> files = Files.walk(dir)) {
+                for (Path file : files.sorted(Comparator.reverseOrder()).toList()) {
+                    Files.deleteIfExists(file);
+                }
+            }
+        }
+        System.out.println(failures == 0 ? "all checks passed" : failures + " checks failed");
+        if (failures > 0) {
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Every month of the last year, the busiest vendors and some descriptions over that year, and amount bands.
+     */
+    private static List<String> queryLines(Ledger ledger) {
+        LocalDate last = LocalDate.ofEpochDay(ledger.getDateIndex().day(ledger.getDateIndex().size() - 1));
+        YearMonth lastMonth = YearMonth.from(last);
+        LocalDate yearStart = lastMonth.minusMonths(11).atDay(1);
+        List<String> lines = new ArrayList<>();
+        lines.add("# generated by BatchQueryBenchmark");
+        for (int i = 11; i >= 0; i--) {
+            YearMonth month = lastMonth.minusMonths(i);
+            lines.add("month-" + month + "|start=" + month.atDay(1) + "|end=" + month.atEndOfMonth());
+        }
+        for (int vendor = 0; vendor < 8; vendor++) {
+            lines.add("vendor-" + vendor + "|start=" + yearStart + "|end=" + last + "|vendor="
+                    + SyntheticLedger.vendorName(vendor).toUpperCase());
+        }
+        for (int item = 0; item < 4; item++) {
+            lines.add("description-" + item + "|start=" + yearStart + "|description="
+                    + SyntheticLedger.description(item * 11, item).split(" ")[0]);
+        }
+        lines.add("large-deposits|start=" + yearStart + "|minAmount=500");
+        lines.add("large-payments|start=" + yearStart + "|maxAmount=-500");
+        lines.add("exact|amount=-29.81");
+        lines.add("all-time-vendor|vendor=" + SyntheticLedger.vendorName(3));
+        return lines;
+    }
+
+    /* ------------------------------------------------------------------
+       One process
+       ------------------------------------------------------------------ */
+
+    private static void compareInProcess(Ledger ledger, List<BatchQueries.Query> queries) throws IOException {
+        //Rows of each query from the shared scan, from a scan of its own and from the query engine
+        StringWriter shared = new StringWriter();
+        BatchQueries.run(ledger, queries, BatchQueries.Format.CSV, shared);
+        List<List<String>> sharedLines = new ArrayList<>();
+        for (int i = 0; i < queries.size(); i++) {
+            sharedLines.add(new ArrayList<>());
+        }
+        for (String line : shared.toString().split("\n")) {
+            for (int i = 0; i < queries.size(); i++) {
+                if (line.startsWith(queries.get(i).getName() + ",")) {
+                    sharedLines.get(i).add(line);
+                }
+            }
+        }
+        long sharedRows = 0;
+        for (int i = 0; i < queries.size(); i++) {
+            BatchQueries.Query query = queries.get(i);
+            long rows = query.getRows();
+            long cents = query.getDeposits() + query.getPayments();
+            sharedRows += rows;
+
+            StringWriter alone = new StringWriter();
+            BatchQueries.run(ledger, List.of(query), BatchQueries.Format.CSV, alone);
+            List<String> aloneLines = List.of(alone.toString().split("\n"));
+            check(aloneLines.subList(1, aloneLines.size()).equals(sharedLines.get(i)),
+                    query.getName() + ": the shared scan wrote other rows than a scan of its own");
+
+            IntList result = QueryEngine.execute(ledger.snapshot(), query.getCondition()).getRows();
+            TransactionStore store = ledger.getStore();
+            long engineCents = 0;
+            for (int r = 0; r < result.size(); r++) {
+                engineCents += store.getCents(result.get(r));
+            }
+            check(result.size() == rows && engineCents == cents, query.getName() + ": " + rows + " rows, the query engine "
+                    + result.size());
+        }
+
+        long sharedNanos = Long.MAX_VALUE;
+        long separateNanos = Long.MAX_VALUE;
+        long engineNanos = Long.MAX_VALUE;
+        for (int round = 0; round < ROUNDS; round++) {
+            long start = System.nanoTime();
+            BatchQueries.run(ledger, queries, BatchQueries.Format.CSV, Writer.nullWriter());
+            sharedNanos = Math.min(sharedNanos, System.nanoTime() - start);
+            start = System.nanoTime();
+            for (BatchQueries.Query query : queries) {
+                BatchQueries.run(ledger, List.of(query), BatchQueries.Format.CSV, Writer.nullWriter());
+            }
+            separateNanos = Math.min(separateNanos, System.nanoTime() - start);
+            start = System.nanoTime();
+            for (BatchQueries.Query query : queries) {
+                QueryEngine.execute(ledger.snapshot(), query.getCondition());
+            }
+            engineNanos = Math.min(engineNanos, System.nanoTime() - start);
+        }
+        System.out.printf("%,d rows matched; shared scan %.0f ms, a scan per query %.0f ms, "
+                        + "query engine per query %.0f ms (rows only, not written)%n",
+                sharedRows, sharedNanos / 1e6, separateNanos / 1e6, engineNanos / 1e6);
+    }
+
+    /* ------------------------------------------------------------------
+       A JVM per run
+       ------------------------------------------------------------------ */
+
+    private static void compareStartup(Path dir, Path csv, Path queryFile) throws Exception {
+        Path snapshot = dir.resolve("transactions.snapshot");
+        System.out.printf("%-34s %10s %10s%n", "FinancialTracker --batch", "ms", "snapshot");
+        String cold = run(dir, queryFile, "no snapshot");
+        check(Files.exists(snapshot), "the first run did not write a snapshot");
+        String warm = run(dir, queryFile, "from snapshot");
+        check(warm.equals(cold), "output from the snapshot differs from the output of the transactions file");
+        check(!lastErrors.contains("Loading the transaction files"), "the snapshot was not used: " + lastErrors);
+
+        //Rows are appended as "\n" + row, like the app does
+        SyntheticLedger generator = new SyntheticLedger(APPENDED_ROWS, 7);
+        StringBuilder appended = new StringBuilder();
+        StringBuilder line = new StringBuilder();
+        for (int i = 0; i < APPENDED_ROWS; i++) {
+            line.setLength(0);
+            generator.nextRow(line, SyntheticLedger.DAYS - 1);
+            appended.append('\n').append(line);
+        }
+        try (BufferedWriter out = Files.newBufferedWriter(csv, StandardOpenOption.APPEND)) {
+            out.append(appended);
+        }
+        String tail = run(dir, queryFile, "snapshot + " + APPENDED_ROWS + " appended rows");
+        check(!lastErrors.contains("Loading the transaction files"), "the snapshot was not used after the append: " + lastErrors);
+        Files.delete(snapshot);
+        String reloaded = run(dir, queryFile, "no snapshot, after the append");
+        check(tail.equals(reloaded), "output of the snapshot and the appended rows differs from loading the file");
+        check(!tail.equals(cold), "the appended rows are not in the output");
+    }
+
+    /**
+     * Runs FinancialTracker --batch in a new JVM in the directory.
+     * @return - what it wrote to stdout
+     */
+    private static String run(Path dir, Path queryFile, String name) throws Exception {
+        String java = Path.of(System.getProperty("java.home"), "bin", "java").toString();
+        Path out = dir.resolve("out.txt");
+        Path err = dir.resolve("err.txt");
+        boolean hadSnapshot = Files.exists(dir.resolve("transactions.snapshot"));
+        long start = System.nanoTime();
+        //The run's working directory is the temporary one, so the class path must not be relative
+        List<String> classPath = new ArrayList<>();
+        for (String entry : System.getProperty("java.class.path").split(File.pathSeparator)) {
+            classPath.add(Path.of(entry).toAbsolutePath().toString());
+        }
+        Process process = new ProcessBuilder(java, "-cp", String.join(File.pathSeparator, classPath),
+                "com.pluralsight.FinancialTracker", "--batch", queryFile.toString())
+                .directory(dir.toFile())
+                .redirectOutput(out.toFile())
+                .redirectError(err.toFile())
+                .start();
+        int status = process.waitFor();
+        long nanos = System.nanoTime() - start;
+        System.out.printf("%-34s %10.0f %10s%n", name, nanos / 1e6, hadSnapshot ? "read" : "written");
+        check(status == 0, name + ": exit status " + status);
+        lastErrors = Files.readString(err);
+        return Files.readString(out);
+    }
+
+    private static void check(boolean ok, String message) {
+        if (!ok) {
+            System.out.println("FAILED: " + message);
+            failures++;
+        }
+    }
+}
@@ -0,0 +1,138 @@
+package com.pluralsight.bench;
+
+import com.pluralsight.IntList;
+import com.pluralsight.Ledger;
+import com.pluralsight.Transaction;
+import com.pluralsight.TransactionLoader;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Stress test for the concurrent ledger: 1, 2, 4, 8 and 16 threads share one Ledger, every thread appends
+ * one transaction in ten operations and otherwise reads a snapshot (vendor lookup, month range, month totals).
+ * Prints reads and writes per second for every thread count, and checks on every read that the snapshot stays
+ * the same while appends continue. Exits with status 1 when a check fails or a thread stops with an exception.
+ * java -cp target/benchmarks.jar com.pluralsight.bench.ConcurrencyStress [rows] [seconds per step]
+ */
+public class ConcurrencyStress {
+
+    private static final int[] THREADS = {1, 2, 4, 8, 16};
+    private static final int WRITE_EVERY = 10;
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        long rows = args.length > 0 ? Long.parseLong(args[0]) : 1_000_000;
+        int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+        Path file = SyntheticLedger.generate(rows, 42);
+        Ledger ledger = new Ledger();
+        try {
+            ledger.addAll(TransactionLoader.load(file).getStore());
+        } finally {
+            Files.deleteIfExists(file);
+        }
+
+        LongAdder violations = new LongAdder();
+        LongAdder crashes = new LongAdder();
+        System.out.printf("%-8s %15s %15s %12s%n", "threads", "reads/s", "writes/s", "rows");
+        for (int threads : THREADS) {
+            LongAdder reads = new LongAdder();
+            LongAdder writes = new LongAdder();
+            AtomicBoolean running = new AtomicBoolean(true);
+            CountDownLatch done = new CountDownLatch(threads);
+            List<Thread> workers = new ArrayList<>();
+            for (int i = 0; i < threads; i++) {
+                Thread worker = new Thread(() -> {
+                    try {
+                        work(ledger, running, reads, writes, violations);
+                    } catch (RuntimeException e) {
+                        //A thread that dies would only lower the throughput, it counts as a failed check
+                        System.out.println(Thread.currentThread().getName() + " failed: " + e);
+                        crashes.increment();
+                    } finally {
+                        done.countDown();
+                    }
+                }, "stress-" + i);
+                workers.add(worker);
+            }
+            long start = System.nanoTime();
+            workers.forEach(Thread::start);
+            Thread.sleep(seconds * 1000L);
+            running.set(false);
+            done.await();
+            double elapsed = (System.nanoTime() - start) / 1e9;
+            System.out.printf("%-8d %,15.0f %,15.0f %,12d%n", threads, reads.sum() / elapsed, writes.sum() / elapsed, ledger.size());
+        }
+        if (violations.sum() > 0 || crashes.sum() > 0) {
+            System.out.println("Inconsistent snapshot reads: " + violations.sum() + ", failed threads: " + crashes.sum());
+            System.exit(1);
+        }
+        System.out.println("All snapshot reads were consistent");
+    }
+
+    private static void work(Ledger ledger, AtomicBoolean running, LongAdder reads, LongAdder writes, LongAdder violations) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        LocalDate today = LocalDate.of(2025, 1, 1);
+        long operation = 0;
+        while (running.get()) {
+            if (++operation % WRITE_EVERY == 0) {
+                int vendor = random.nextInt(SyntheticLedger.VENDORS);
+                //Mostly in date order, now and then a late entry that has to be inserted into the date index
+                LocalDate date = random.nextInt(100) == 0 ? today.minusDays(random.nextInt(365)) : today;
+                ledger.add(new Transaction(date, LocalTime.ofSecondOfDay(random.nextInt(86_400)),
+                        SyntheticLedger.description(vendor, random.nextInt(8)), SyntheticLedger.vendorName(vendor),
+                        -random.nextInt(1, 100_000)));
+                writes.increment();
+            } else {
+                if (!read(ledger.snapshot(), random)) {
+                    violations.increment();
+                }
+                reads.increment();
+            }
+        }
+    }
+
+    /**
+     * Runs one lookup twice on the same snapshot.
+     * @return - false when the snapshot changed between the two lookups or returned a row it should not see
+     */
+    private static boolean read(Ledger snapshot, ThreadLocalRandom random) {
+        int size = snapshot.size();
+        switch (random.nextInt(3)) {
+            case 0: {
+                String vendor = SyntheticLedger.vendorName(random.nextInt(SyntheticLedger.VENDORS));
+                IntList first = snapshot.getVendorIndex().exact(vendor);
+                if (first.size() > 0 && first.get(first.size() - 1) >= size) {
+                    return false;
+                }
+                return snapshot.getVendorIndex().exact(vendor).size() == first.size() && snapshot.size() == size;
+            }
+            case 1: {
+                YearMonth month = YearMonth.of(2020 + random.nextInt(6), 1 + random.nextInt(12));
+                int[] first = snapshot.dateRange(month.atDay(1), month.atEndOfMonth());
+                for (int i = first[0]; i < first[1]; i += Math.max(1, (first[1] - first[0]) / 64)) {
+                    if (snapshot.getDateIndex().row(i) >= size) {
+                        return false;
+                    }
+                }
+                int[] second = snapshot.dateRange(month.atDay(1), month.atEndOfMonth());
+                return first[1] - first[0] == second[1] - second[0];
+            }
+            default: {
+                //Totals are shared with the live ledger, they may only grow
+                YearMonth month = YearMonth.of(2024 + random.nextInt(2), 1 + random.nextInt(12));
+                long first = snapshot.getTotals().forMonth(month).getCount();
+                return snapshot.getTotals().forMonth(month).getCount() >= first;
+            }
+        }
+    }
+}
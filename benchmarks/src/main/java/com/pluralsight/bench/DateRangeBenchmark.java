@@ -0,0 +1,70 @@
+package com.pluralsight.bench;
+
+import com.pluralsight.DateIndex;
+import com.pluralsight.Ledger;
+import com.pluralsight.Transaction;
+import com.pluralsight.TransactionLoader;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One-month report: linear isAfter/isBefore scan over the old list against the binary-searched DateIndex.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx16g"})
+public class DateRangeBenchmark {
+
+    @Param({"100000", "1000000", "10000000"})
+    public long rows;
+
+    private List<Transaction> list;
+    private Ledger ledger;
+    private LocalDate start;
+    private LocalDate end;
+
+    @Setup(Level.Trial)
+    public void load() throws IOException {
+        Path file = SyntheticLedger.generate(rows, 42);
+        try {
+            list = LegacyLoader.load(file.toString());
+            ledger = new Ledger();
+            ledger.addAll(TransactionLoader.load(file).getStore());
+        } finally {
+            Files.deleteIfExists(file);
+        }
+        LocalDate middle = list.get(list.size() / 2).getDate();
+        start = middle.withDayOfMonth(1);
+        end = middle.withDayOfMonth(middle.lengthOfMonth());
+    }
+
+    @Benchmark
+    public void linearScan(Blackhole blackhole) {
+        LocalDate after = start.minusDays(1);
+        LocalDate before = end.plusDays(1);
+        for (Transaction transaction : list) {
+            if (transaction.getDate().isAfter(after) && transaction.getDate().isBefore(before)) {
+                blackhole.consume(transaction);
+            }
+        }
+    }
+
+    @Benchmark
+    public void dateIndex(Blackhole blackhole) {
+        int[] range = ledger.dateRange(start, end);
+        DateIndex index = ledger.getDateIndex();
+        for (int i = range[0]; i < range[1]; i++) {
+            blackhole.consume(index.row(i));
+        }
+    }
+}
@@ -0,0 +1,176 @@
+package com.pluralsight.bench;
+
+import com.pluralsight.AppendWriter;
+import com.pluralsight.Ledger;
+import com.pluralsight.LedgerFollower;
+import com.pluralsight.Transaction;
+import com.pluralsight.TransactionLoader;
+import com.pluralsight.WriteAheadLog;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.util.Arrays;
+
+/**
+ * Appends rows to transactions files of growing size and times how long the LedgerFollower takes to pick them up,
+ * against reading the whole file again. Then checks the cases the follower has to get right: a half written
+ * last line, rows our own checkpoint copied from the write-ahead log, and the WatchService thread.
+ * Exits with status 1 when a check fails.
+ * java -cp target/benchmarks.jar com.pluralsight.bench.FollowCatchUp [rows,rows,...] [appended rows]
+ */
+public class FollowCatchUp {
+
+    private static final int ROUNDS = 9;
+
+    private static int failures;
+
+    public static void main(String[] args) throws Exception {
+        String[] sizes = (args.length > 0 ? args[0] : "100000,1000000,4000000").split(",");
+        int appended = args.length > 1 ? Integer.parseInt(args[1]) : 1_000;
+
+        System.out.printf("%12s %10s %12s %12s %12s%n", "file rows", "appended", "first ms", "median ms", "reload ms");
+        for (String size : sizes) {
+            long rows = Long.parseLong(size);
+            Path file = SyntheticLedger.generate(rows, 42);
+            try {
+                Ledger ledger = new Ledger();
+                TransactionLoader.Result loaded = TransactionLoader.load(file);
+                ledger.addAll(loaded.getStore());
+                LedgerFollower follower = new LedgerFollower(file, ledger, loaded.getLength());
+                SyntheticLedger generator = new SyntheticLedger(appended, 7);
+
+                //The first catch-up also pays for the indexes growing past the loaded rows, the median is the usual cost
+                long[] nanos = new long[ROUNDS];
+                for (int round = 0; round < ROUNDS; round++) {
+                    StringBuilder text = new StringBuilder();
+                    //Dated on the last day, like rows that are appended while the app runs
+                    for (int i = 0; i < appended; i++) {
+                        generator.nextRow(text.append('\n'), SyntheticLedger.DAYS - 1);
+                    }
+                    //End with a newline, so the last row is complete without waiting for the file to settle
+                    append(file, text.append('\n').toString());
+                    long start = System.nanoTime();
+                    int added = follower.catchUp();
+                    nanos[round] = System.nanoTime() - start;
+                    check(added == appended, "picked up " + added + " of " + appended + " appended rows");
+                }
+                long start = System.nanoTime();
+                int reloaded = TransactionLoader.load(file).getStore().size();
+                long reloadNanos = System.nanoTime() - start;
+                long first = nanos[0];
+                Arrays.sort(nanos);
+                System.out.printf("%,12d %,10d %12.2f %12.2f %12.2f%n", rows, appended, first / 1e6, nanos[ROUNDS / 2] / 1e6, reloadNanos / 1e6);
+                check(ledger.size() == reloaded, "ledger has " + ledger.size() + " rows, the file " + reloaded);
+            } finally {
+                Files.deleteIfExists(file);
+            }
+        }
+
+        Path dir = Files.createTempDirectory("follow");
+        try {
+            checkPartialLine(dir);
+            checkOwnCheckpoint(dir);
+            checkWatcher(dir);
+        } finally {
+            try (var files = Files.list(dir)) {
+                for (Path file : files.toList()) {
+                    Files.deleteIfExists(file);
+                }
+            }
+            Files.deleteIfExists(dir);
+        }
+        System.out.println(failures == 0 ? "all checks passed" : failures + " checks failed");
+        if (failures > 0) {
+            System.exit(1);
+        }
+    }
+
+    /**
+     * A row written in two parts must not be read before its second part is there.
+     */
+    private static void checkPartialLine(Path dir) throws Exception {
+        Path file = dir.resolve("partial.csv");
+        Files.writeString(file, "2024-01-02|10:00:00|Rent|ABC Apartments|-1200.00");
+        Ledger ledger = new Ledger();
+        ledger.addAll(TransactionLoader.load(file).getStore());
+        LedgerFollower follower = new LedgerFollower(file, ledger, Files.size(file));
+        String row = "\n2024-01-03|11:30:00|Coffee|Cafe|-123.45";
+        append(file, row.substring(0, row.length() - 3));
+        int early = follower.catchUp();
+        append(file, row.substring(row.length() - 3));
+        int growing = follower.catchUp();
+        Thread.sleep(LedgerFollower.SETTLE_MILLIS + 100);
+        int settled = follower.catchUp();
+        int again = follower.catchUp();
+        check(early == 0 && growing == 0, "read an unterminated row while the file was growing");
+        check(settled == 1, "expected the row once the file settled, got " + settled);
+        check(ledger.size() == 2 && ledger.getStore().getCents(1) == -12345,
+                "the row was read as " + (ledger.size() < 2 ? "nothing" : ledger.getStore().getCents(1) + " cents"));
+        check(again == 0, "a settled row was read twice");
+        System.out.println("partial line: held until complete, " + ledger.size() + " rows");
+    }
+
+    /**
+     * Rows that a checkpoint of our own write-ahead log copies to the file are already in the ledger.
+     */
+    private static void checkOwnCheckpoint(Path dir) throws IOException {
+        Path file = dir.resolve("own.csv");
+        Files.writeString(file, "2024-01-02|10:00:00|Rent|ABC Apartments|-1200.00");
+        Ledger ledger = new Ledger();
+        ledger.addAll(TransactionLoader.load(file).getStore());
+        LedgerFollower follower = new LedgerFollower(file, ledger, Files.size(file));
+        try (WriteAheadLog log = new WriteAheadLog(file, dir.resolve("own.wal"), dir.resolve("own.checkpoint"),
+                AppendWriter.Durability.BUFFERED, Long.MAX_VALUE, 0)) {
+            log.setCopyListener(follower);
+            Transaction own = new Transaction(LocalDate.of(2024, 1, 4), LocalTime.NOON, "Lunch", "Diner", -1500);
+            ledger.add(own);
+            log.append(own);
+            log.checkpoint();
+            append(file, "\n2024-01-05|09:00:00|Salary|Employer|2500.00\n");
+            int added = follower.catchUp();
+            check(added == 1, "expected only the external row after a checkpoint, got " + added);
+            check(ledger.size() == 3, "expected 3 rows after a checkpoint, got " + ledger.size());
+            System.out.println("own checkpoint: skipped, " + ledger.size() + " rows");
+        }
+    }
+
+    /**
+     * The WatchService thread picks up a row without anyone calling catchUp().
+     */
+    private static void checkWatcher(Path dir) throws Exception {
+        Path file = dir.resolve("watched.csv");
+        Files.writeString(file, "2024-01-02|10:00:00|Rent|ABC Apartments|-1200.00");
+        Ledger ledger = new Ledger();
+        ledger.addAll(TransactionLoader.load(file).getStore());
+        try (LedgerFollower follower = new LedgerFollower(file, ledger, Files.size(file))) {
+            follower.start();
+            long start = System.nanoTime();
+            append(file, "\n2024-01-06|08:00:00|Groceries|Market|-45.10");
+            while (ledger.size() < 2 && System.nanoTime() - start < 10_000_000_000L) {
+                Thread.sleep(10);
+            }
+            check(ledger.size() == 2, "the watcher did not pick up the appended row");
+            System.out.printf("watcher: picked up in %.0f ms%n", (System.nanoTime() - start) / 1e6);
+        }
+    }
+
+    private static void append(Path file, String text) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+            channel.write(ByteBuffer.wrap(text.getBytes(StandardCharsets.UTF_8)));
+        }
+    }
+
+    private static void check(boolean ok, String message) {
+        if (!ok) {
+            System.out.println("FAILED: " + message);
+            failures++;
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package com.pluralsight.bench;
+
+import com.pluralsight.Transaction;
+import com.pluralsight.TransactionLoader;
+import com.pluralsight.TransactionStore;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * Measures the retained heap of the same ledger held as ArrayList&lt;Transaction&gt; and as TransactionStore.
+ * JMH measures time, not retained size, so this one is a plain program:
+ * java -Xmx8g -XX:+UseSerialGC -cp target/benchmarks.jar com.pluralsight.bench.FootprintBenchmark 10000000
+ */
+public class FootprintBenchmark {
+
+    public static void main(String[] args) throws IOException {
+        long rows = args.length > 0 ? Long.parseLong(args[0]) : 1_000_000;
+        Path file = SyntheticLedger.generate(rows, 42);
+        try {
+            long baseline = usedHeap();
+            List<Transaction> list = LegacyLoader.load(file.toString());
+            long listBytes = usedHeap() - baseline;
+            System.out.printf("ArrayList<Transaction> : %,d rows, %,d bytes, %.1f bytes/row%n", list.size(), listBytes, (double) listBytes / list.size());
+            list = null;
+
+            baseline = usedHeap();
+            TransactionStore store = TransactionLoader.load(file).getStore();
+            long storeBytes = usedHeap() - baseline;
+            System.out.printf("TransactionStore       : %,d rows, %,d bytes, %.1f bytes/row%n", store.size(), storeBytes, (double) storeBytes / store.size());
+            System.out.printf("Reduction              : %.1fx%n", (double) listBytes / storeBytes);
+            System.out.printf("Dictionaries           : %,d vendors (%,d ignoring case), %,d descriptions (%,d ignoring case)%n",
+                    store.getVendorDictionary().size(), store.getVendorDictionary().foldedSize(),
+                    store.getDescriptionDictionary().size(), store.getDescriptionDictionary().foldedSize());
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    /**
+     * Runs the garbage collector a few times and returns the used heap.
+     */
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 5; i++) {
+            System.gc();
+            try {
+                Thread.sleep(100);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
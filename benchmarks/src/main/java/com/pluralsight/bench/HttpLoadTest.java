@@ -0,0 +1,181 @@
+package com.pluralsight.bench;
+
+import com.pluralsight.Ledger;
+import com.pluralsight.LedgerServer;
+import com.pluralsight.TransactionLoader;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Load test for the HTTP API. Starts a LedgerServer on a free localhost port over a synthetic ledger
+ * (or uses --url of an already running app), then runs closed-loop clients for a fixed time.
+ * The request mix is 80% reads (ledger page, vendor search, year-to-date report) and 20% payments.
+ * Prints requests per second and p50/p99/max latency per endpoint and in total.
+ * java -cp target/benchmarks.jar com.pluralsight.bench.HttpLoadTest [rows] [clients] [seconds] [--url http://localhost:8080]
+ * With --url the payments are written to that app's transactions file.
+ */
+public class HttpLoadTest {
+
+    private static final String[] ENDPOINTS = {"ledger", "search", "report", "payment"};
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        List<String> positional = new ArrayList<>();
+        String url = null;
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("--url") && i + 1 < args.length) {
+                url = args[++i];
+            } else {
+                positional.add(args[i]);
+            }
+        }
+        long rows = positional.size() > 0 ? Long.parseLong(positional.get(0)) : 1_000_000;
+        int clients = positional.size() > 1 ? Integer.parseInt(positional.get(1)) : 16;
+        int seconds = positional.size() > 2 ? Integer.parseInt(positional.get(2)) : 10;
+
+        LedgerServer server = null;
+        if (url == null) {
+            Path file = SyntheticLedger.generate(rows, 42);
+            Ledger ledger = new Ledger();
+            try {
+                ledger.addAll(TransactionLoader.load(file).getStore());
+            } finally {
+                Files.deleteIfExists(file);
+            }
+            server = new LedgerServer(ledger, ledger::add, 0);
+            server.start();
+            url = "http://localhost:" + server.getPort();
+        }
+        try {
+            run(url, clients, seconds);
+        } finally {
+            if (server != null) {
+                server.stop();
+            }
+        }
+    }
+
+    private static void run(String url, int clients, int seconds) throws InterruptedException {
+        HttpClient client = HttpClient.newBuilder().connectTimeout(Duration.ofSeconds(5)).build();
+        AtomicBoolean running = new AtomicBoolean(true);
+        LongAdder errors = new LongAdder();
+        //latencies[client][endpoint], in nanoseconds
+        long[][][] latencies = new long[clients][ENDPOINTS.length][];
+        int[][] counts = new int[clients][ENDPOINTS.length];
+        List<Thread> threads = new ArrayList<>();
+        for (int c = 0; c < clients; c++) {
+            int id = c;
+            for (int e = 0; e < ENDPOINTS.length; e++) {
+                latencies[id][e] = new long[1024];
+            }
+            threads.add(new Thread(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                while (running.get()) {
+                    int endpoint = pick(random);
+                    HttpRequest request = request(url, endpoint, random);
+                    long start = System.nanoTime();
+                    try {
+                        HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
+                        if (response.statusCode() >= 400) {
+                            errors.increment();
+                        }
+                    } catch (IOException e) {
+                        errors.increment();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        return;
+                    }
+                    long elapsed = System.nanoTime() - start;
+                    if (counts[id][endpoint] == latencies[id][endpoint].length) {
+                        latencies[id][endpoint] = Arrays.copyOf(latencies[id][endpoint], counts[id][endpoint] * 2);
+                    }
+                    latencies[id][endpoint][counts[id][endpoint]++] = elapsed;
+                }
+            }, "load-" + c));
+        }
+        long start = System.nanoTime();
+        threads.forEach(Thread::start);
+        Thread.sleep(seconds * 1000L);
+        running.set(false);
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        double elapsed = (System.nanoTime() - start) / 1e9;
+
+        System.out.printf("%d clients, %d s against %s, %d errors%n", clients, seconds, url, errors.sum());
+        System.out.printf("%-10s %10s %12s %10s %10s %10s%n", "endpoint", "requests", "req/s", "p50 ms", "p99 ms", "max ms");
+        long[] all = new long[0];
+        for (int e = 0; e < ENDPOINTS.length; e++) {
+            long[] merged = new long[0];
+            for (int c = 0; c < clients; c++) {
+                merged = concat(merged, latencies[c][e], counts[c][e]);
+            }
+            print(ENDPOINTS[e], merged, elapsed);
+            all = concat(all, merged, merged.length);
+        }
+        print("total", all, elapsed);
+    }
+
+    private static int pick(ThreadLocalRandom random) {
+        int roll = random.nextInt(10);
+        if (roll < 3) {
+            return 0;
+        }
+        if (roll < 6) {
+            return 1;
+        }
+        return roll < 8 ? 2 : 3;
+    }
+
+    private static HttpRequest request(String url, int endpoint, ThreadLocalRandom random) {
+        String vendor = URLEncoder.encode(SyntheticLedger.vendorName(random.nextInt(50)), StandardCharsets.UTF_8);
+        switch (ENDPOINTS[endpoint]) {
+            case "ledger":
+                return HttpRequest.newBuilder(URI.create(url + "/ledger?type=payments&size=20&page=" + (1 + random.nextInt(10)))).build();
+            case "search":
+                return HttpRequest.newBuilder(URI.create(url + "/search?size=20&start=2024-01-01&vendor=" + vendor)).build();
+            case "report":
+                return HttpRequest.newBuilder(URI.create(url + "/report?period=year-to-date&size=20")).build();
+            default:
+                String form = "description=Load+test&vendor=" + vendor + "&amount=" + (1 + random.nextInt(500)) + ".25";
+                return HttpRequest.newBuilder(URI.create(url + "/payment"))
+                        .header("Content-Type", "application/x-www-form-urlencoded")
+                        .POST(HttpRequest.BodyPublishers.ofString(form)).build();
+        }
+    }
+
+    private static long[] concat(long[] a, long[] b, int bCount) {
+        long[] result = Arrays.copyOf(a, a.length + bCount);
+        System.arraycopy(b, 0, result, a.length, bCount);
+        return result;
+    }
+
+    private static void print(String name, long[] latencies, double seconds) {
+        if (latencies.length == 0) {
+            System.out.printf("%-10s %10d%n", name, 0);
+            return;
+        }
+        Arrays.sort(latencies);
+        System.out.printf("%-10s %,10d %,12.0f %10.2f %10.2f %10.2f%n", name, latencies.length, latencies.length / seconds,
+                percentile(latencies, 0.50), percentile(latencies, 0.99), latencies[latencies.length - 1] / 1e6);
+    }
+
+    private static double percentile(long[] sorted, double p) {
+        int index = (int) Math.min(sorted.length - 1, Math.ceil(p * sorted.length) - 1);
+        return sorted[Math.max(0, index)] / 1e6;
+    }
+}
@@ -0,0 +1,34 @@
+package com.pluralsight.bench;
+
+import com.pluralsight.Transaction;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The line by line loader that FinancialTracker used before TransactionLoader, kept as a baseline.
+ */
+public class LegacyLoader {
+
+    private static final DateTimeFormatter DATE_FMT = DateTimeFormatter.ofPattern("yyyy-MM-dd");
+    private static final DateTimeFormatter TIME_FMT = DateTimeFormatter.ofPattern("HH:mm:ss");
+
+    public static List<Transaction> load(String fileName) throws IOException {
+        List<Transaction> transactions = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(new FileReader(fileName))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] transaction = line.split("\\|");
+                transactions.add(new Transaction(LocalDate.parse(transaction[0], DATE_FMT), LocalTime.parse(transaction[1], TIME_FMT),
+                        transaction[2], transaction[3], Math.round(Double.parseDouble(transaction[4]) * 100)));
+            }
+        }
+        return transactions;
+    }
+}
@@ -0,0 +1,19 @@
+package com.pluralsight.bench;
+
+import com.pluralsight.Transaction;
+
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.IOException;
+
+/**
+ * The open/write/close per row writeTransaction that FinancialTracker used before AppendWriter, kept as a baseline.
+ */
+public class LegacyWriter {
+
+    public static void write(String fileName, Transaction transaction) throws IOException {
+        BufferedWriter writer = new BufferedWriter(new FileWriter(fileName, true));
+        writer.write("\n" + transaction.getDate() + "|" + transaction.getTime() + "|" + transaction.getDescription() + "|" + transaction.getVendor() + "|" + transaction.getCents() / 100.0);
+        writer.close();
+    }
+}
@@ -0,0 +1,61 @@
+package com.pluralsight.bench;
+
+import com.pluralsight.BinaryLedger;
+import com.pluralsight.Transaction;
+import com.pluralsight.TransactionLoader;
+import com.pluralsight.TransactionStore;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the old BufferedReader + String.split loader with the memory-mapped parallel TransactionLoader
+ * and with reading the same rows from a binary ledger segment.
+ * Run with: java -jar target/benchmarks.jar LoaderBenchmark -p rows=1000000
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx24g"})
+public class LoaderBenchmark {
+
+    @Param({"1000000", "10000000", "50000000"})
+    public long rows;
+
+    private Path file;
+    private Path binary;
+
+    @Setup(Level.Trial)
+    public void generate() throws IOException {
+        file = SyntheticLedger.generate(rows, 42);
+        binary = Files.createTempFile("transactions-" + rows + "-", ".bin");
+        BinaryLedger.write(TransactionLoader.load(file).getStore(), binary);
+    }
+
+    @TearDown(Level.Trial)
+    public void delete() throws IOException {
+        Files.deleteIfExists(file);
+        Files.deleteIfExists(binary);
+    }
+
+    @Benchmark
+    public List<Transaction> legacyLoader() throws IOException {
+        return LegacyLoader.load(file.toString());
+    }
+
+    @Benchmark
+    public TransactionStore parallelMappedLoader() throws IOException {
+        return TransactionLoader.load(file).getStore();
+    }
+
+    @Benchmark
+    public TransactionStore binarySegmentLoader() throws IOException {
+        return BinaryLedger.read(binary);
+    }
+}
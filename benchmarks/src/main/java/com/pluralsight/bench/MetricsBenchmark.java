@@ -0,0 +1,94 @@
+package com.pluralsight.bench;
+
+import com.pluralsight.IntList;
+import com.pluralsight.Ledger;
+import com.pluralsight.Metrics;
+import com.pluralsight.ReportEngine;
+import com.pluralsight.TransactionLoader;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of the instrumentation: a Counter increment and a Timer start/stop against two bare System.nanoTime() calls,
+ * and two instrumented reports with and without their timer: a vendor lookup, which costs about as much as the timer
+ * itself, and a one-month report, which is what the menu usually runs.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MetricsBenchmark {
+
+    @Param({"100000"})
+    public long rows;
+
+    private final Metrics.Counter counter = Metrics.counter("bench_counter");
+    private final Metrics.Timer timer = Metrics.timer("bench_timer");
+    private Ledger ledger;
+    private String vendor;
+    private LocalDate monthStart;
+    private LocalDate monthEnd;
+
+    @Setup(Level.Trial)
+    public void load() throws IOException {
+        Path file = SyntheticLedger.generate(rows, 42);
+        try {
+            ledger = new Ledger();
+            ledger.addAll(TransactionLoader.load(file).getStore());
+        } finally {
+            Files.deleteIfExists(file);
+        }
+        vendor = SyntheticLedger.vendorName(3);
+        monthEnd = LocalDate.ofEpochDay(ledger.getDateIndex().day(ledger.size() - 1));
+        monthStart = monthEnd.withDayOfMonth(1);
+    }
+
+    @Benchmark
+    public long nanoTimePair() {
+        long start = System.nanoTime();
+        return System.nanoTime() - start;
+    }
+
+    @Benchmark
+    public void timerStartStop() {
+        timer.stop(timer.start());
+    }
+
+    @Benchmark
+    public void counterIncrement() {
+        counter.increment();
+    }
+
+    @Benchmark
+    public IntList vendorLookup() {
+        return ledger.snapshot().getVendorIndex().exact(vendor);
+    }
+
+    @Benchmark
+    public IntList vendorLookupTimed() {
+        long started = timer.start();
+        IntList rows = ledger.snapshot().getVendorIndex().exact(vendor);
+        timer.stop(started);
+        return rows;
+    }
+
+    @Benchmark
+    public ReportEngine.Report monthReport() {
+        return ReportEngine.aggregate(ledger.snapshot(), monthStart, monthEnd);
+    }
+
+    @Benchmark
+    public ReportEngine.Report monthReportTimed() {
+        long started = timer.start();
+        ReportEngine.Report report = ReportEngine.aggregate(ledger.snapshot(), monthStart, monthEnd);
+        timer.stop(started);
+        return report;
+    }
+}
@@ -0,0 +1,63 @@
+package com.pluralsight.bench;
+
+import com.pluralsight.Money;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Amount parsing and summing: the old boxed Double path (Double.parseDouble into a Double, summed as double)
+ * against Money.parse straight to cents, summed as long.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MoneyBenchmark {
+
+    private static final int AMOUNTS = 10_000;
+
+    private String[] amounts;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(42);
+        amounts = new String[AMOUNTS];
+        for (int i = 0; i < AMOUNTS; i++) {
+            long cents = Math.round(Math.exp(8 + 1.2 * random.nextGaussian())) * (random.nextInt(10) == 0 ? 1 : -1);
+            amounts[i] = Money.format(cents);
+        }
+    }
+
+    @Benchmark
+    public double parseDoubleBoxed() {
+        double sum = 0;
+        for (String amount : amounts) {
+            Double value = parseDouble(amount);
+            sum += value;
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public long parseCents() {
+        long sum = 0;
+        for (String amount : amounts) {
+            sum += Money.parse(amount);
+        }
+        return sum;
+    }
+
+    /**
+     * The parseDouble helper FinancialTracker used before amounts were kept in cents.
+     */
+    private static Double parseDouble(String s) {
+        if (!s.isEmpty()) {
+            return Double.parseDouble(s);
+        }
+        return -1.;
+    }
+}
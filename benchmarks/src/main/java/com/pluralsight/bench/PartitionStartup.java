@@ -0,0 +1,115 @@
+package com.pluralsight.bench;
+
+import com.pluralsight.Ledger;
+import com.pluralsight.LedgerPartitions;
+import com.pluralsight.LedgerTotals;
+import com.pluralsight.TransactionLoader;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.util.stream.Stream;
+
+/**
+ * Startup with the whole history in the transactions file against monthly partitions that keep only the
+ * last months in it. Prints load time and retained heap of both, then the time of a report over an old
+ * month (cold, then from memory) and checks that the partitioned totals match the full ledger.
+ * Exits with status 1 when a total differs.
+ * java -XX:+UseSerialGC -cp target/benchmarks.jar com.pluralsight.bench.PartitionStartup [rows] [months kept]
+ */
+public class PartitionStartup {
+
+    public static void main(String[] args) throws IOException {
+        long rows = args.length > 0 ? Long.parseLong(args[0]) : 2_000_000;
+        int months = args.length > 1 ? Integer.parseInt(args[1]) : 3;
+        Path generated = SyntheticLedger.generate(rows, 42);
+        Path dir = Files.createTempDirectory("partitions");
+        Path csv = dir.resolve("transactions.csv");
+        Files.move(generated, csv);
+        Path partitionDir = dir.resolve("partitions");
+        try {
+            long baseline = usedHeap();
+            long start = System.nanoTime();
+            Ledger full = new Ledger();
+            full.addAll(TransactionLoader.load(csv).getStore());
+            long fullNanos = System.nanoTime() - start;
+            long fullBytes = usedHeap() - baseline;
+            LocalDate last = full.getDateIndex().size() == 0 ? LocalDate.now()
+                    : LocalDate.ofEpochDay(full.getDateIndex().day(full.getDateIndex().size() - 1));
+
+            YearMonth keepFrom = YearMonth.from(last).minusMonths(months - 1);
+            start = System.nanoTime();
+            int moved = LedgerPartitions.partition(csv, dir.resolve("transactions.bin"), partitionDir, keepFrom);
+            System.out.printf("partitioned %,d of %,d rows dated before %s in %.0f ms%n", moved, full.size(), keepFrom, (System.nanoTime() - start) / 1e6);
+
+            baseline = usedHeap();
+            start = System.nanoTime();
+            LedgerPartitions partitions = LedgerPartitions.open(partitionDir, LedgerPartitions.DEFAULT_MAX_RESIDENT);
+            Ledger recent = new Ledger();
+            recent.addAll(TransactionLoader.load(csv).getStore());
+            long recentNanos = System.nanoTime() - start;
+            long recentBytes = usedHeap() - baseline;
+
+            System.out.printf("%-14s %12s %10s %14s%n", "startup", "rows", "ms", "heap MB");
+            System.out.printf("%-14s %,12d %10.0f %14.1f%n", "full history", full.size(), fullNanos / 1e6, fullBytes / 1e6);
+            System.out.printf("%-14s %,12d %10.0f %14.1f%n", "partitioned", recent.size(), recentNanos / 1e6, recentBytes / 1e6);
+
+            YearMonth old = YearMonth.from(last).minusMonths(24);
+            for (String pass : new String[]{"cold", "cached"}) {
+                start = System.nanoTime();
+                int found = partitions.rows(recent, old.atDay(1), old.atEndOfMonth()).getRows().size();
+                System.out.printf("report %s (%s): %,d rows in %.1f ms, %d partitions loaded so far%n", old, pass,
+                        found, (System.nanoTime() - start) / 1e6, partitions.getLoads());
+            }
+
+            int failures = 0;
+            LocalDate first = LocalDate.ofEpochDay(full.getDateIndex().day(0));
+            for (int year = first.getYear(); year <= last.getYear(); year++) {
+                LocalDate yearStart = LocalDate.of(year, 1, 1);
+                LocalDate yearEnd = LocalDate.of(year, 12, 31);
+                if (!same(full.getTotals().between(yearStart, yearEnd), partitions.between(yearStart, yearEnd, recent.getTotals()))) {
+                    System.out.println("Totals of " + year + " differ");
+                    failures++;
+                }
+            }
+            LocalDate middle = old.atDay(15);
+            if (!same(full.getTotals().between(middle, last), partitions.between(middle, last, recent.getTotals()))
+                    || full.getTotals().balanceAt(last) != partitions.balanceAt(last, recent.getTotals())) {
+                System.out.println("Totals from " + middle + " or the balance differ");
+                failures++;
+            }
+            System.out.println(failures == 0 ? "totals match the full ledger" : failures + " totals differ");
+            if (failures > 0) {
+                System.exit(1);
+            }
+        } finally {
+            try (Stream<Path> files = Files.walk(dir)) {
+                for (Path file : files.sorted((a, b) -> b.compareTo(a)).toList()) {
+                    Files.delete(file);
+                }
+            }
+        }
+    }
+
+    private static boolean same(LedgerTotals.Totals a, LedgerTotals.Totals b) {
+        return a.getDeposits() == b.getDeposits() && a.getPayments() == b.getPayments() && a.getCount() == b.getCount();
+    }
+
+    /**
+     * Runs the garbage collector a few times and returns the used heap.
+     */
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 5; i++) {
+            System.gc();
+            try {
+                Thread.sleep(100);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
@@ -0,0 +1,147 @@
+package com.pluralsight.bench;
+
+import com.pluralsight.Condition;
+import com.pluralsight.Ledger;
+import com.pluralsight.QueryEngine;
+import com.pluralsight.Transaction;
+import com.pluralsight.TransactionLoader;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Custom search: the full-scan branches of the old filterTransactionsByCustoms against the planned QueryEngine,
+ * and payments between 500 and 5000 or the 100 largest payments of a year, scanned against the amount index.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx16g"})
+public class QueryBenchmark {
+
+    @Param({"100000", "1000000", "10000000"})
+    public long rows;
+
+    private List<Transaction> list;
+    private Ledger ledger;
+    private LocalDate start;
+    private LocalDate end;
+    private String vendor;
+    private String description;
+    private long amount;
+    private Condition dateAndVendor;
+    private Condition vendorAndDescription;
+    private Condition descriptionAndAmount;
+    private LocalDate yearStart;
+    private LocalDate yearEnd;
+    private Condition paymentsInRange;
+    private Condition paymentsOfYear;
+
+    @Setup(Level.Trial)
+    public void load() throws IOException {
+        Path file = SyntheticLedger.generate(rows, 42);
+        try {
+            list = LegacyLoader.load(file.toString());
+            ledger = new Ledger();
+            ledger.addAll(TransactionLoader.load(file).getStore());
+        } finally {
+            Files.deleteIfExists(file);
+        }
+        Transaction sample = list.get(list.size() / 2);
+        start = sample.getDate().withDayOfMonth(1);
+        end = sample.getDate().withDayOfMonth(sample.getDate().lengthOfMonth());
+        vendor = sample.getVendor();
+        description = sample.getDescription();
+        amount = sample.getCents();
+        dateAndVendor = Condition.and(List.of(Condition.dateRange(start, end), Condition.vendor(vendor)));
+        vendorAndDescription = Condition.and(List.of(Condition.vendor(vendor), Condition.description(description)));
+        descriptionAndAmount = Condition.and(List.of(Condition.description(description), Condition.amount(amount)));
+        yearStart = sample.getDate().withDayOfYear(1);
+        yearEnd = yearStart.plusYears(1).minusDays(1);
+        paymentsInRange = Condition.amountRange(-500_000, -50_000);
+        paymentsOfYear = Condition.and(List.of(Condition.amountRange(Long.MIN_VALUE, -1), Condition.dateRange(yearStart, yearEnd)));
+    }
+
+    @Benchmark
+    public void dateAndVendorScan(Blackhole blackhole) {
+        for (Transaction transaction : list) {
+            if (transaction.getVendor().equalsIgnoreCase(vendor) && !transaction.getDate().isBefore(start) && !transaction.getDate().isAfter(end)) {
+                blackhole.consume(transaction);
+            }
+        }
+    }
+
+    @Benchmark
+    public QueryEngine.Result dateAndVendorQuery() {
+        return QueryEngine.execute(ledger, dateAndVendor);
+    }
+
+    @Benchmark
+    public void vendorAndDescriptionScan(Blackhole blackhole) {
+        for (Transaction transaction : list) {
+            if (transaction.getVendor().equalsIgnoreCase(vendor) && transaction.getDescription().equalsIgnoreCase(description)) {
+                blackhole.consume(transaction);
+            }
+        }
+    }
+
+    @Benchmark
+    public QueryEngine.Result vendorAndDescriptionQuery() {
+        return QueryEngine.execute(ledger, vendorAndDescription);
+    }
+
+    @Benchmark
+    public void descriptionAndAmountScan(Blackhole blackhole) {
+        for (Transaction transaction : list) {
+            if (transaction.getDescription().equalsIgnoreCase(description) && transaction.getCents() == amount) {
+                blackhole.consume(transaction);
+            }
+        }
+    }
+
+    @Benchmark
+    public QueryEngine.Result descriptionAndAmountQuery() {
+        return QueryEngine.execute(ledger, descriptionAndAmount);
+    }
+
+    @Benchmark
+    public void amountRangeScan(Blackhole blackhole) {
+        for (Transaction transaction : list) {
+            if (transaction.getCents() >= -500_000 && transaction.getCents() <= -50_000) {
+                blackhole.consume(transaction);
+            }
+        }
+    }
+
+    @Benchmark
+    public QueryEngine.Result amountRangeQuery() {
+        return QueryEngine.execute(ledger, paymentsInRange);
+    }
+
+    @Benchmark
+    public List<Transaction> largestPaymentsScan() {
+        List<Transaction> payments = new ArrayList<>();
+        for (Transaction transaction : list) {
+            if (transaction.getCents() < 0 && !transaction.getDate().isBefore(yearStart) && !transaction.getDate().isAfter(yearEnd)) {
+                payments.add(transaction);
+            }
+        }
+        payments.sort(Comparator.comparingLong(Transaction::getCents));
+        return payments.subList(0, Math.min(100, payments.size()));
+    }
+
+    @Benchmark
+    public QueryEngine.Result largestPaymentsQuery() {
+        return QueryEngine.top(ledger, paymentsOfYear, 100, false);
+    }
+}
@@ -0,0 +1,110 @@
+package com.pluralsight.bench;
+
+import com.pluralsight.DateIndex;
+import com.pluralsight.IntList;
+import com.pluralsight.Ledger;
+import com.pluralsight.QueryCache;
+import com.pluralsight.Transaction;
+import com.pluralsight.TransactionLoader;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.time.YearMonth;
+import java.util.Random;
+
+/**
+ * Replays an operator session: month reports and vendor searches picked at random from a small set,
+ * with a new transaction added every few queries. Every query runs once without the cache and once through it,
+ * the rows must be the same. Prints the time of both and the cache metrics.
+ * Exits with status 1 when a cached result differs.
+ * java -cp target/benchmarks.jar com.pluralsight.bench.QueryCacheReplay [rows] [queries] [queries per append]
+ */
+public class QueryCacheReplay {
+
+    private static final int MONTHS = 12;
+    private static final int VENDORS = 30;
+
+    public static void main(String[] args) throws IOException {
+        long rows = args.length > 0 ? Long.parseLong(args[0]) : 1_000_000;
+        int queries = args.length > 1 ? Integer.parseInt(args[1]) : 5_000;
+        int appendEvery = args.length > 2 ? Integer.parseInt(args[2]) : 20;
+        Path file = SyntheticLedger.generate(rows, 42);
+        Ledger ledger = new Ledger();
+        try {
+            ledger.addAll(TransactionLoader.load(file).getStore());
+        } finally {
+            Files.deleteIfExists(file);
+        }
+        LocalDate last = LocalDate.ofEpochDay(ledger.getDateIndex().day(ledger.size() - 1));
+        YearMonth lastMonth = YearMonth.from(last);
+        SyntheticLedger generator = new SyntheticLedger(rows, 7);
+        Random random = new Random(42);
+        QueryCache cache = ledger.getCache();
+
+        long uncachedNanos = 0;
+        long cachedNanos = 0;
+        int failures = 0;
+        for (int q = 0; q < queries; q++) {
+            if (q > 0 && q % appendEvery == 0) {
+                int vendor = generator.vendor();
+                ledger.add(new Transaction(last, LocalTime.NOON, "replay " + q, SyntheticLedger.vendorName(vendor), -1000));
+            }
+            boolean byMonth = random.nextBoolean();
+            YearMonth month = lastMonth.minusMonths(random.nextInt(MONTHS));
+            String vendor = SyntheticLedger.vendorName(random.nextInt(VENDORS));
+
+            long start = System.nanoTime();
+            IntList expected = byMonth ? dateRows(ledger.snapshot(), month) : ledger.snapshot().getVendorIndex().exact(vendor);
+            uncachedNanos += System.nanoTime() - start;
+
+            start = System.nanoTime();
+            long stamp = cache.stamp();
+            Ledger snapshot = ledger.snapshot();
+            String key = byMonth ? "date " + month : "vendor " + vendor.toLowerCase();
+            IntList actual = cache.get(key, IntList.class);
+            if (actual == null) {
+                actual = byMonth ? dateRows(snapshot, month) : snapshot.getVendorIndex().exact(vendor);
+                QueryCache.Scope scope = byMonth ? QueryCache.Scope.dates(month.atDay(1), month.atEndOfMonth()) : QueryCache.Scope.vendor(vendor, false);
+                cache.put(key, scope, actual, actual.size(), stamp);
+            }
+            cachedNanos += System.nanoTime() - start;
+
+            if (!same(expected, actual)) {
+                System.out.println("Query " + q + " (" + key + ") returned " + actual.size() + " cached rows instead of " + expected.size());
+                failures++;
+            }
+        }
+        System.out.printf("%,d queries over %,d rows, one append every %d queries%n", queries, ledger.size(), appendEvery);
+        System.out.printf("without cache: %,.1f ms%nwith cache:    %,.1f ms%n", uncachedNanos / 1e6, cachedNanos / 1e6);
+        System.out.println("cache: " + cache.describe());
+        System.out.println(failures == 0 ? "cached results match" : failures + " cached results differ");
+        if (failures > 0) {
+            System.exit(1);
+        }
+    }
+
+    private static IntList dateRows(Ledger ledger, YearMonth month) {
+        int[] range = ledger.dateRange(month.atDay(1), month.atEndOfMonth());
+        DateIndex dateIndex = ledger.getDateIndex();
+        IntList rows = new IntList(Math.max(1, range[1] - range[0]));
+        for (int i = range[0]; i < range[1]; i++) {
+            rows.add(dateIndex.row(i));
+        }
+        return rows;
+    }
+
+    private static boolean same(IntList a, IntList b) {
+        if (a.size() != b.size()) {
+            return false;
+        }
+        for (int i = 0; i < a.size(); i++) {
+            if (a.get(i) != b.get(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,178 @@
+package com.pluralsight.bench;
+
+import com.pluralsight.Ledger;
+import com.pluralsight.Reconciler;
+import com.pluralsight.TransactionLoader;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Reconciles synthetic statements against synthetic ledgers and checks the counts. Both are cut from one generated
+ * file: the ledger is its last L rows, the statement its last S rows. Of the rows on both, 1% are left out of the
+ * statement (extra), 1% out of the ledger (missing) and 0.5% are in the ledger twice (duplicates); 10% of the
+ * statement rows are booked up to the tolerance later or earlier and 10% have their vendor in upper case.
+ * Rows that are left out of both sides may match each other by chance, the checks allow a few rows for that.
+ * Prints the time and which side the hash table was built on, with its number of rows: the memory the
+ * reconciliation needs besides the ledger, the streamed statement is only held one block at a time.
+ * Exits with status 1 when a count is wrong.
+ * java -cp target/benchmarks.jar com.pluralsight.bench.ReconcileBenchmark [statement:ledger,...]
+ */
+public class ReconcileBenchmark {
+
+    private static final int TOLERANCE = Reconciler.DEFAULT_TOLERANCE_DAYS;
+    private static final int ROUNDS = 3;
+
+    private static int failures;
+
+    public static void main(String[] args) throws Exception {
+        String[] cases = (args.length > 0 ? args[0] : "100000:2000000,1000000:2000000,1000000:200000").split(",");
+        System.out.printf("%12s %12s %10s %10s %10s %10s %10s %12s %12s%n", "statement", "ledger", "table",
+                "matched", "missing", "extra", "duplicate", "best ms", "table rows");
+        for (String size : cases) {
+            String[] parts = size.split(":");
+            run(Integer.parseInt(parts[0]), Integer.parseInt(parts[1]));
+        }
+        System.out.println(failures == 0 ? "all checks passed" : failures + " checks failed");
+        if (failures > 0) {
+            System.exit(1);
+        }
+    }
+
+    private static void run(int statementRows, int ledgerRows) throws Exception {
+        int rows = Math.max(statementRows, ledgerRows);
+        Path source = SyntheticLedger.generate(rows, 42);
+        Path ledgerFile = Files.createTempFile("ledger-", ".csv");
+        Path statementFile = Files.createTempFile("statement-", ".csv");
+        try {
+            Expected expected = split(source, rows, statementRows, ledgerRows, ledgerFile, statementFile);
+            Ledger ledger = new Ledger();
+            ledger.addAll(TransactionLoader.load(ledgerFile).getStore());
+
+            long best = Long.MAX_VALUE;
+            Reconciler.Result result = null;
+            long[] reported = new long[Reconciler.Status.values().length];
+            for (int round = 0; round < ROUNDS; round++) {
+                Arrays.fill(reported, 0);
+                result = new Reconciler(ledger, TOLERANCE).reconcile(statementFile,
+                        (status, store, row) -> reported[status.ordinal()]++);
+                best = Math.min(best, result.getElapsedNanos());
+            }
+            System.out.printf("%,12d %,12d %10s %,10d %,10d %,10d %,10d %12.0f %,12d%n", statementRows, ledgerRows,
+                    result.isStatementTable() ? "statement" : "ledger", result.getMatched(), result.getMissing(),
+                    result.getExtra(), result.getDuplicates(), best / 1e6,
+                    result.isStatementTable() ? result.getStatementRows() : ledger.size());
+
+            check(result.getStatementRows() == expected.statementRows, "read " + result.getStatementRows()
+                    + " statement rows, wrote " + expected.statementRows);
+            check(result.getMatched() + result.getMissing() == result.getStatementRows(),
+                    "matched and missing rows don't add up to the statement rows");
+            //The generated pairs are not the only possible matching: rows left out of the ledger and of the statement
+            //match when they happen to have the same amount and vendor within the tolerance, and a statement row that
+            //is back-dated past its block is looked up after later rows. So the counts may differ by a few rows
+            long slack = expected.statementRows / 1000;
+            long difference = result.getMatched() - expected.matched;
+            check(Math.abs(difference) <= slack, "matched " + result.getMatched() + ", expected " + expected.matched);
+            check(Math.abs(result.getExtra() + result.getDuplicates() + difference - expected.extra - expected.duplicates) <= slack,
+                    "extra and duplicates " + (result.getExtra() + result.getDuplicates()) + ", expected "
+                            + (expected.extra + expected.duplicates));
+            //Rows that are only in the ledger count as duplicates when the generator happened to make a twin of them
+            check(result.getDuplicates() >= expected.duplicates - slack, "duplicates " + result.getDuplicates()
+                    + ", expected at least " + expected.duplicates);
+            System.out.printf("%12s %12s matched %+d against the generated pairs%n", "", "", difference);
+            check(reported[Reconciler.Status.MISSING.ordinal()] == result.getMissing()
+                    && reported[Reconciler.Status.EXTRA.ordinal()] == result.getExtra()
+                    && reported[Reconciler.Status.DUPLICATE.ordinal()] == result.getDuplicates(),
+                    "the listener got other counts than the result");
+        } finally {
+            Files.deleteIfExists(source);
+            Files.deleteIfExists(ledgerFile);
+            Files.deleteIfExists(statementFile);
+        }
+    }
+
+    private static class Expected {
+        long statementRows;
+        long matched;
+        long missing;
+        long extra;
+        long duplicates;
+    }
+
+    /**
+     * Writes the ledger and the statement from the generated rows and counts what the reconciliation should find.
+     */
+    private static Expected split(Path source, int rows, int statementRows, int ledgerRows, Path ledgerFile,
+                                  Path statementFile) throws Exception {
+        Expected expected = new Expected();
+        Random random = new Random(11);
+        int[] ledgerOnlyDays = new int[rows];
+        int ledgerOnly = 0;
+        int firstDay = Integer.MAX_VALUE;
+        int lastDay = Integer.MIN_VALUE;
+        try (BufferedReader reader = Files.newBufferedReader(source);
+             BufferedWriter ledger = Files.newBufferedWriter(ledgerFile);
+             BufferedWriter statement = Files.newBufferedWriter(statementFile)) {
+            String line;
+            for (int i = 0; (line = reader.readLine()) != null; i++) {
+                boolean inLedger = i >= rows - ledgerRows;
+                boolean inStatement = i >= rows - statementRows;
+                if (inLedger && inStatement) {
+                    int draw = random.nextInt(1000);
+                    if (draw < 10) {
+                        inStatement = false;
+                    } else if (draw < 20) {
+                        inLedger = false;
+                    } else if (draw < 25) {
+                        ledger.append(line).append('\n');
+                        expected.duplicates++;
+                    }
+                }
+                if (inLedger) {
+                    ledger.append(line).append('\n');
+                }
+                if (inStatement) {
+                    String[] fields = line.split("\\|");
+                    LocalDate date = LocalDate.parse(fields[0]);
+                    if (random.nextInt(10) == 0) {
+                        date = date.plusDays(random.nextInt(2 * TOLERANCE + 1) - TOLERANCE);
+                    }
+                    if (random.nextInt(10) == 0) {
+                        fields[3] = fields[3].toUpperCase(Locale.ROOT);
+                    }
+                    statement.append(date.toString()).append('|').append(fields[1]).append('|').append(fields[2])
+                            .append('|').append(fields[3]).append('|').append(fields[4]).append('\n');
+                    firstDay = Math.min(firstDay, (int) date.toEpochDay());
+                    lastDay = Math.max(lastDay, (int) date.toEpochDay());
+                    expected.statementRows++;
+                    if (inLedger) {
+                        expected.matched++;
+                    } else {
+                        expected.missing++;
+                    }
+                } else if (inLedger) {
+                    ledgerOnlyDays[ledgerOnly++] = (int) LocalDate.parse(line.substring(0, 10)).toEpochDay();
+                }
+            }
+        }
+        for (int i = 0; i < ledgerOnly; i++) {
+            if (ledgerOnlyDays[i] >= firstDay && ledgerOnlyDays[i] <= lastDay) {
+                expected.extra++;
+            }
+        }
+        return expected;
+    }
+
+    private static void check(boolean ok, String message) {
+        if (!ok) {
+            System.out.println("FAILED: " + message);
+            failures++;
+        }
+    }
+}
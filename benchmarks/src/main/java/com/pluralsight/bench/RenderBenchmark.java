@@ -0,0 +1,72 @@
+package com.pluralsight.bench;
+
+import com.pluralsight.LedgerRenderer;
+import com.pluralsight.TransactionLoader;
+import com.pluralsight.TransactionStore;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Printing the whole ledger: one printf per row against the buffered LedgerRenderer, and one page of it.
+ * Output goes to a PrintStream over a discarding stream, so only formatting and stream overhead are measured.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx8g"})
+public class RenderBenchmark {
+
+    @Param({"100000", "1000000"})
+    public long rows;
+
+    private TransactionStore store;
+    private PrintStream out;
+    private LedgerRenderer renderer;
+
+    @Setup(Level.Trial)
+    public void load() throws IOException {
+        Path file = SyntheticLedger.generate(rows, 42);
+        try {
+            store = TransactionLoader.load(file).getStore();
+        } finally {
+            Files.deleteIfExists(file);
+        }
+        out = new PrintStream(OutputStream.nullOutputStream(), true);
+        renderer = new LedgerRenderer(out);
+    }
+
+    @Benchmark
+    public void printfPerRow() {
+        String formatString = "%-12s| %-10s| %-28s| %-20s| %-10s|";
+        for (int i = store.size() - 1; i >= 0; i--) {
+            var transaction = store.get(i);
+            out.printf((formatString) + "%n", transaction.getDate(), transaction.getTime(), transaction.getDescription(), transaction.getVendor(), transaction.getCents() / 100.0);
+        }
+    }
+
+    @Benchmark
+    public void renderer() {
+        renderer.begin(LedgerRenderer.Page.ALL);
+        for (int i = store.size() - 1; i >= 0; i--) {
+            renderer.row(store, i);
+        }
+        renderer.end();
+    }
+
+    @Benchmark
+    public void rendererOnePage() {
+        renderer.begin(new LedgerRenderer.Page(3, 50));
+        for (int i = store.size() - 1; i >= 0; i--) {
+            renderer.row(store, i);
+        }
+        renderer.end();
+    }
+}
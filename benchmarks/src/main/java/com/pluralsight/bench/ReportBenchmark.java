@@ -0,0 +1,88 @@
+package com.pluralsight.bench;
+
+import com.pluralsight.Ledger;
+import com.pluralsight.ReportEngine;
+import com.pluralsight.TransactionLoader;
+import com.pluralsight.TransactionStore;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Report over the whole ledger with totals, per-month and per-vendor breakdowns: a single-threaded loop that
+ * sums into maps, against the ReportEngine on pools of 1 to 16 threads. Run with -p threads=... to get the
+ * speedup curve; the gain stops at the number of cores of the machine.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx16g"})
+public class ReportBenchmark {
+
+    @Param({"1000000", "10000000"})
+    public long rows;
+
+    @Param({"1", "2", "4", "8", "16"})
+    public int threads;
+
+    private Ledger ledger;
+    private LocalDate start;
+    private LocalDate end;
+    private ForkJoinPool pool;
+
+    @Setup(Level.Trial)
+    public void load() throws IOException {
+        Path file = SyntheticLedger.generate(rows, 42);
+        try {
+            ledger = new Ledger();
+            ledger.addAll(TransactionLoader.load(file).getStore());
+        } finally {
+            Files.deleteIfExists(file);
+        }
+        start = LocalDate.ofEpochDay(ledger.getDateIndex().day(0));
+        end = LocalDate.ofEpochDay(ledger.getDateIndex().day(ledger.size() - 1));
+        pool = new ForkJoinPool(threads);
+    }
+
+    @TearDown(Level.Trial)
+    public void close() {
+        pool.shutdown();
+    }
+
+    /**
+     * The way the menu reports summed before: one loop over the rows into maps keyed by month and vendor.
+     */
+    @Benchmark
+    public Map<String, long[]> sequentialLoop() {
+        TransactionStore store = ledger.getStore();
+        Map<String, long[]> sums = new HashMap<>();
+        int[] range = ledger.dateRange(start, end);
+        for (int i = range[0]; i < range[1]; i++) {
+            int row = ledger.getDateIndex().row(i);
+            long cents = store.getCents(row);
+            String month = LocalDate.ofEpochDay(store.getEpochDay(row)).withDayOfMonth(1).toString();
+            add(sums.computeIfAbsent(month, key -> new long[3]), cents);
+            add(sums.computeIfAbsent(store.getVendor(row), key -> new long[3]), cents);
+        }
+        return sums;
+    }
+
+    @Benchmark
+    public ReportEngine.Report reportEngine() {
+        return ReportEngine.aggregate(ledger, start, end, pool);
+    }
+
+    private static void add(long[] sum, long cents) {
+        sum[cents >= 0 ? 0 : 1] += cents;
+        sum[2]++;
+    }
+}
@@ -0,0 +1,94 @@
+package com.pluralsight.bench;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compares two JMH result files written with -rf csv (see run-benchmarks.sh) and flags regressions.
+ * Usage: java -cp target/benchmarks.jar com.pluralsight.bench.ResultsDiff results/old.csv results/new.csv [threshold%]
+ * The program exits with status 1 when any benchmark got worse by more than the threshold (default 10%).
+ */
+public class ResultsDiff {
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.out.println("Usage: ResultsDiff <old.csv> <new.csv> [threshold%]");
+            return;
+        }
+        double threshold = args.length > 2 ? Double.parseDouble(args[2]) : 10.0;
+        Map<String, String[]> before = read(Path.of(args[0]));
+        Map<String, String[]> after = read(Path.of(args[1]));
+
+        boolean regression = false;
+        System.out.printf("%-70s %14s %14s %9s%n", "Benchmark", "Old", "New", "Change");
+        for (Map.Entry<String, String[]> entry : after.entrySet()) {
+            String[] now = entry.getValue();
+            String[] then = before.get(entry.getKey());
+            double newScore = Double.parseDouble(now[4]);
+            if (then == null) {
+                System.out.printf("%-70s %14s %14.3f %9s%n", entry.getKey(), "-", newScore, "new");
+                continue;
+            }
+            double oldScore = Double.parseDouble(then[4]);
+            double change = (newScore - oldScore) / oldScore * 100;
+            // Throughput is better when higher, every time based mode is better when lower
+            double worse = now[1].equals("thrpt") ? -change : change;
+            String flag = worse > threshold ? "  REGRESSION" : "";
+            regression |= worse > threshold;
+            System.out.printf("%-70s %14.3f %14.3f %+8.1f%%%s%n", entry.getKey(), oldScore, newScore, change, flag);
+        }
+        for (String key : before.keySet()) {
+            if (!after.containsKey(key)) {
+                System.out.printf("%-70s %14s %14s %9s%n", key, "", "-", "removed");
+            }
+        }
+        if (regression) {
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Reads a JMH CSV file into a map keyed by benchmark name, mode, threads and parameters.
+     */
+    private static Map<String, String[]> read(Path file) throws IOException {
+        Map<String, String[]> results = new LinkedHashMap<>();
+        List<String> lines = Files.readAllLines(file);
+        String[] header = parse(lines.get(0));
+        for (String line : lines.subList(1, lines.size())) {
+            if (line.isBlank()) {
+                continue;
+            }
+            String[] fields = parse(line);
+            StringBuilder key = new StringBuilder(fields[0].replace("com.pluralsight.bench.", "")).append(' ').append(fields[1]).append(" t=").append(fields[2]);
+            for (int i = 7; i < fields.length && i < header.length; i++) {
+                key.append(' ').append(header[i].replace("Param: ", "")).append('=').append(fields[i]);
+            }
+            results.put(key.toString(), fields);
+        }
+        return results;
+    }
+
+    private static String[] parse(String line) {
+        List<String> fields = new ArrayList<>();
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (c == '"') {
+                quoted = !quoted;
+            } else if (c == ',' && !quoted) {
+                fields.add(field.toString());
+                field.setLength(0);
+            } else {
+                field.append(c);
+            }
+        }
+        fields.add(field.toString());
+        return fields.toArray(new String[0]);
+    }
+}
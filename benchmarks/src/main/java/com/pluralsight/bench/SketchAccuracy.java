@@ -0,0 +1,218 @@
+package com.pluralsight.bench;
+
+import com.pluralsight.AmountSketch;
+import com.pluralsight.HyperLogLog;
+import com.pluralsight.Ledger;
+import com.pluralsight.LedgerSketches;
+import com.pluralsight.TransactionLoader;
+import com.pluralsight.TransactionStore;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Checks the sketches of LedgerSketches against exact results: median, 95th and 99th percentile of payments and
+ * deposits and the distinct vendors of every month, of the busiest vendors and of every year (a merge of twelve
+ * months), then HyperLogLog alone on counts the synthetic ledger does not reach. Prints the largest errors, the
+ * memory of the sketches and the time of a query against sorting the rows. Exits with status 1 when a bound is broken.
+ * java -cp target/benchmarks.jar com.pluralsight.bench.SketchAccuracy [rows]
+ */
+public class SketchAccuracy {
+
+    private static final double[] QUANTILES = {0.5, 0.95, 0.99};
+    // AmountSketch answers with the middle of a bucket 1/64 wide
+    private static final double QUANTILE_BOUND = 1.0 / (2 * 64);
+    // four standard errors of HyperLogLog with 2^12 registers
+    private static final double DISTINCT_BOUND = 4 * 1.04 / Math.sqrt(1 << HyperLogLog.DEFAULT_PRECISION);
+
+    private static int failures;
+    private static double worstQuantile;
+    private static double worstDistinct;
+
+    public static void main(String[] args) throws Exception {
+        long rows = args.length > 0 ? Long.parseLong(args[0]) : 2_000_000;
+        Path file = SyntheticLedger.generate(rows, 42);
+        try {
+            Ledger ledger = new Ledger();
+            TransactionStore store = TransactionLoader.load(file).getStore();
+            long start = System.nanoTime();
+            ledger.addAll(store);
+            System.out.printf("%,d rows added in %.0f ms, sketches included%n", store.size(), (System.nanoTime() - start) / 1e6);
+            LedgerSketches sketches = ledger.getSketches();
+
+            //Exact values, grouped the slow way
+            Map<YearMonth, Exact> months = new HashMap<>();
+            Map<YearMonth, Exact> years = new HashMap<>();
+            Map<String, Exact> vendors = new HashMap<>();
+            for (int row = 0; row < store.size(); row++) {
+                YearMonth month = YearMonth.from(LocalDate.ofEpochDay(store.getEpochDay(row)));
+                String vendor = store.getVendor(row).toLowerCase(Locale.ROOT);
+                long cents = store.getCents(row);
+                months.computeIfAbsent(month, key -> new Exact()).add(cents, vendor);
+                years.computeIfAbsent(YearMonth.of(month.getYear(), 1), key -> new Exact()).add(cents, vendor);
+                vendors.computeIfAbsent(vendor, key -> new Exact()).add(cents, vendor);
+            }
+
+            long sketchBytes = 0;
+            for (YearMonth month : sketches.getMonths()) {
+                LedgerSketches.Summary summary = sketches.between(month, month);
+                compare(month.toString(), summary, months.get(month));
+                sketchBytes += summary.getPayments().getBucketBytes() + summary.getDeposits().getBucketBytes()
+                        + (1 << HyperLogLog.DEFAULT_PRECISION);
+            }
+            check(sketches.getMonths().size() == months.size(), "sketches have " + sketches.getMonths().size()
+                    + " months, the rows " + months.size());
+            for (Map.Entry<YearMonth, Exact> year : years.entrySet()) {
+                YearMonth first = year.getKey();
+                compare(String.valueOf(first.getYear()), sketches.between(first, first.plusMonths(11)), year.getValue());
+            }
+            List<Map.Entry<String, Exact>> busiest = new ArrayList<>(vendors.entrySet());
+            busiest.sort((a, b) -> Integer.compare(b.getValue().size(), a.getValue().size()));
+            for (Map.Entry<String, Exact> vendor : busiest.subList(0, Math.min(20, busiest.size()))) {
+                LedgerSketches.Summary summary = sketches.vendor(vendor.getKey().toUpperCase(Locale.ROOT));
+                check(summary != null, "no sketch for vendor " + vendor.getKey());
+                if (summary != null) {
+                    compareQuantiles(vendor.getKey(), summary, vendor.getValue());
+                }
+            }
+            System.out.printf("months %d, years %d, vendors checked %d%n", months.size(), years.size(), Math.min(20, busiest.size()));
+            System.out.printf("largest quantile error %.3f%% (bound %.3f%%), largest distinct vendors error %.3f%%%n",
+                    worstQuantile * 100, QUANTILE_BOUND * 100, worstDistinct * 100);
+            System.out.printf("sketch memory of all months %,d KiB for %,d rows%n", sketchBytes / 1024, store.size());
+
+            //Query time: every month from the sketches, against sorting the payments of every month
+            long sketchNanos = Long.MAX_VALUE;
+            long exactNanos = Long.MAX_VALUE;
+            long sink = 0;
+            for (int round = 0; round < 5; round++) {
+                start = System.nanoTime();
+                for (YearMonth month : sketches.getMonths()) {
+                    sink += sketches.between(month, month).getPayments().quantile(0.95);
+                }
+                sketchNanos = Math.min(sketchNanos, System.nanoTime() - start);
+                start = System.nanoTime();
+                for (Exact exact : months.values()) {
+                    long[] sorted = exact.payments.clone();
+                    Arrays.sort(sorted, 0, exact.paymentCount);
+                    sink += sorted[rank(0.95, exact.paymentCount)];
+                }
+                exactNanos = Math.min(exactNanos, System.nanoTime() - start);
+            }
+            System.out.printf("p95 of every month: sketches %.2f ms, sorting %.2f ms (%d)%n", sketchNanos / 1e6, exactNanos / 1e6, sink % 10);
+        } finally {
+            Files.deleteIfExists(file);
+        }
+
+        checkDistinctCounts();
+        System.out.println(failures == 0 ? "all checks passed" : failures + " checks failed");
+        if (failures > 0) {
+            System.exit(1);
+        }
+    }
+
+    /**
+     * The synthetic ledger has at most 500 vendors a month; these counts go up to where every register is in use,
+     * and two halves merged must count the same as the whole.
+     */
+    private static void checkDistinctCounts() {
+        Random random = new Random(3);
+        for (int distinct : new int[]{1_000, 10_000, 100_000, 1_000_000}) {
+            HyperLogLog whole = new HyperLogLog();
+            HyperLogLog firstHalf = new HyperLogLog();
+            HyperLogLog secondHalf = new HyperLogLog();
+            for (int i = 0; i < distinct; i++) {
+                long hash = HyperLogLog.hash("vendor-" + random.nextLong());
+                whole.add(hash);
+                (i % 2 == 0 ? firstHalf : secondHalf).add(hash);
+            }
+            firstHalf.merge(secondHalf);
+            double error = Math.abs(whole.estimate() - distinct) / (double) distinct;
+            worstDistinct = Math.max(worstDistinct, error);
+            System.out.printf("distinct %,10d: estimate %,10d, error %.2f%%%n", distinct, whole.estimate(), error * 100);
+            check(error <= DISTINCT_BOUND, "distinct " + distinct + " estimated as " + whole.estimate());
+            check(firstHalf.estimate() == whole.estimate(), "merged halves estimate " + firstHalf.estimate()
+                    + ", the whole " + whole.estimate());
+        }
+    }
+
+    private static void compare(String name, LedgerSketches.Summary summary, Exact exact) {
+        compareQuantiles(name, summary, exact);
+        long distinct = exact.vendors.size();
+        double error = Math.abs(summary.getVendors() - distinct) / (double) distinct;
+        worstDistinct = Math.max(worstDistinct, error);
+        check(error <= DISTINCT_BOUND, name + ": " + summary.getVendors() + " vendors estimated, " + distinct + " exact");
+    }
+
+    private static void compareQuantiles(String name, LedgerSketches.Summary summary, Exact exact) {
+        compareQuantiles(name + " payments", summary.getPayments(), exact.payments, exact.paymentCount);
+        compareQuantiles(name + " deposits", summary.getDeposits(), exact.deposits, exact.depositCount);
+    }
+
+    private static void compareQuantiles(String name, AmountSketch sketch, long[] values, int count) {
+        check(sketch.getCount() == count, name + ": sketch has " + sketch.getCount() + " values, exact " + count);
+        if (count == 0) {
+            return;
+        }
+        long[] sorted = Arrays.copyOf(values, count);
+        Arrays.sort(sorted);
+        for (double quantile : QUANTILES) {
+            long exact = sorted[rank(quantile, count)];
+            long estimate = sketch.quantile(quantile);
+            double error = Math.abs(estimate - exact) / (double) Math.max(1, exact);
+            worstQuantile = Math.max(worstQuantile, error);
+            check(error <= QUANTILE_BOUND, name + " " + quantile + ": " + estimate + " estimated, " + exact + " exact");
+        }
+    }
+
+    private static int rank(double quantile, int count) {
+        return (int) Math.max(1, Math.ceil(quantile * count)) - 1;
+    }
+
+    private static void check(boolean ok, String message) {
+        if (!ok) {
+            System.out.println("FAILED: " + message);
+            failures++;
+        }
+    }
+
+    /**
+     * Every amount and vendor of a group, to compute the exact answers.
+     */
+    private static class Exact {
+        long[] payments = new long[16];
+        int paymentCount;
+        long[] deposits = new long[16];
+        int depositCount;
+        final Set<String> vendors = new HashSet<>();
+
+        void add(long cents, String vendor) {
+            vendors.add(vendor);
+            if (cents < 0) {
+                if (paymentCount == payments.length) {
+                    payments = Arrays.copyOf(payments, paymentCount * 2);
+                }
+                payments[paymentCount++] = -cents;
+            } else {
+                if (depositCount == deposits.length) {
+                    deposits = Arrays.copyOf(deposits, depositCount * 2);
+                }
+                deposits[depositCount++] = cents;
+            }
+        }
+
+        int size() {
+            return paymentCount + depositCount;
+        }
+    }
+}
@@ -0,0 +1,160 @@
+package com.pluralsight.bench;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.Random;
+
+/**
+ * Writes synthetic transactions files for the benchmarks.
+ *
+ * The data is shaped like a real ledger rather than uniform noise:
+ * - vendors follow a Zipf distribution (s = 1.1) over 500 vendors, so a few vendors own most rows;
+ * - every vendor has its own small set of descriptions, about 4000 distinct descriptions in total;
+ * - dates cover five years with more rows on weekdays and in December, in file order,
+ *   except that 1 row in 1000 is back-dated by up to 60 days, as a late manual entry would be;
+ * - payments are about 90% of rows with log-normal amounts, deposits are larger and rarer.
+ */
+public class SyntheticLedger {
+
+    public static final int VENDORS = 500;
+    private static final int DESCRIPTIONS_PER_VENDOR = 8;
+    private static final double ZIPF_EXPONENT = 1.1;
+    private static final LocalDate FIRST_DAY = LocalDate.of(2020, 1, 1);
+    static final int DAYS = 5 * 365;
+
+    private static final String[] WORDS = {"Grocery", "Fuel", "Rent", "Subscription", "Dinner", "Lunch", "Invoice", "Salary",
+            "Refund", "Insurance", "Utilities", "Course", "Hardware", "Travel", "Parking", "Pharmacy", "Books", "Gift",
+            "Repair", "Coffee", "Phone", "Internet", "Hotel", "Taxi", "Supplies", "Consulting", "Membership", "Tickets"};
+
+    private final Random random;
+    private final double[] vendorCdf = new double[VENDORS];
+    private final int[] rowsPerDay;
+
+    /**
+     * @param rows - number of rows the generator will be asked for, used to spread them over the days
+     * @param seed - seed of the random generator, the same seed gives the same rows
+     */
+    public SyntheticLedger(long rows, long seed) {
+        random = new Random(seed);
+        double sum = 0;
+        for (int i = 0; i < VENDORS; i++) {
+            sum += 1 / Math.pow(i + 1, ZIPF_EXPONENT);
+            vendorCdf[i] = sum;
+        }
+        for (int i = 0; i < VENDORS; i++) {
+            vendorCdf[i] /= sum;
+        }
+        double[] weights = new double[DAYS];
+        double totalWeight = 0;
+        for (int day = 0; day < DAYS; day++) {
+            LocalDate date = FIRST_DAY.plusDays(day);
+            double weight = date.getDayOfWeek().getValue() >= 6 ? 0.6 : 1.0;
+            if (date.getMonthValue() == 12) {
+                weight *= 1.5;
+            }
+            weights[day] = weight;
+            totalWeight += weight;
+        }
+        rowsPerDay = new int[DAYS];
+        for (int day = 0; day < DAYS; day++) {
+            rowsPerDay[day] = (int) Math.max(1, Math.round(rows * weights[day] / totalWeight));
+        }
+    }
+
+    /**
+     * Writes a temporary file with the given amount of rows in date|time|description|vendor|amount format.
+     * @param rows - number of rows
+     * @param seed - seed of the random generator, the same seed gives the same file
+     * @return - path of the created file, deleted on exit
+     */
+    public static Path generate(long rows, long seed) throws IOException {
+        Path file = Files.createTempFile("transactions-" + rows + "-", ".csv");
+        file.toFile().deleteOnExit();
+        new SyntheticLedger(rows, seed).write(file, rows);
+        return file;
+    }
+
+    /**
+     * Writes the rows to the file.
+     */
+    public void write(Path file, long rows) throws IOException {
+        try (BufferedWriter writer = Files.newBufferedWriter(file)) {
+            StringBuilder line = new StringBuilder(128);
+            int day = 0;
+            int leftToday = rowsPerDay[0];
+            for (long i = 0; i < rows; i++) {
+                while (leftToday == 0 && day < DAYS - 1) {
+                    leftToday = rowsPerDay[++day];
+                }
+                leftToday = Math.max(0, leftToday - 1);
+                line.setLength(0);
+                nextRow(line, day);
+                writer.append(line).append('\n');
+            }
+        }
+    }
+
+    /**
+     * Appends one row for the given day offset, without a line break.
+     */
+    public void nextRow(StringBuilder line, int day) {
+        int rowDay = day;
+        if (random.nextInt(1000) == 0) {
+            rowDay = Math.max(0, day - 1 - random.nextInt(60));
+        }
+        int vendor = vendor();
+        long cents;
+        if (random.nextInt(10) == 0) {
+            cents = Math.round(Math.exp(10 + random.nextGaussian()));
+        } else {
+            cents = -Math.round(Math.exp(8 + 1.2 * random.nextGaussian()));
+        }
+        line.append(FIRST_DAY.plusDays(rowDay)).append('|');
+        twoDigits(line, random.nextInt(24)).append(':');
+        twoDigits(line, random.nextInt(60)).append(':');
+        twoDigits(line, random.nextInt(60)).append('|');
+        line.append(description(vendor, random.nextInt(DESCRIPTIONS_PER_VENDOR))).append('|');
+        line.append(vendorName(vendor)).append('|');
+        if (cents < 0) {
+            line.append('-');
+        }
+        line.append(Math.abs(cents) / 100).append('.');
+        twoDigits(line, (int) (Math.abs(cents) % 100));
+    }
+
+    /**
+     * @return - vendor number drawn from the Zipf distribution, 0 is the most frequent vendor
+     */
+    public int vendor() {
+        double u = random.nextDouble();
+        int low = 0;
+        int high = VENDORS - 1;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (vendorCdf[middle] < u) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    public static String vendorName(int vendor) {
+        return "Vendor " + vendor + (vendor % 3 == 0 ? " Inc" : vendor % 3 == 1 ? " Store" : " Services");
+    }
+
+    public static String description(int vendor, int item) {
+        return WORDS[(vendor + item * 7) % WORDS.length] + " " + (vendor * DESCRIPTIONS_PER_VENDOR + item);
+    }
+
+    private static StringBuilder twoDigits(StringBuilder line, int value) {
+        if (value < 10) {
+            line.append('0');
+        }
+        return line.append(value);
+    }
+}
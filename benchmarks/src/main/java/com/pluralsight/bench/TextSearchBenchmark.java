@@ -0,0 +1,102 @@
+package com.pluralsight.bench;
+
+import com.pluralsight.Condition;
+import com.pluralsight.IntList;
+import com.pluralsight.Ledger;
+import com.pluralsight.Transaction;
+import com.pluralsight.TransactionLoader;
+import com.pluralsight.TransactionStore;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Vendor and description lookups: equalsIgnoreCase/contains scans over the old list against the TextIndex,
+ * and a scan of the columnar store comparing vendor strings against one comparing folded dictionary ids.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx16g"})
+public class TextSearchBenchmark {
+
+    @Param({"100000", "1000000", "10000000"})
+    public long rows;
+
+    private List<Transaction> list;
+    private Ledger ledger;
+
+    @Setup(Level.Trial)
+    public void load() throws IOException {
+        Path file = SyntheticLedger.generate(rows, 42);
+        try {
+            list = LegacyLoader.load(file.toString());
+            ledger = new Ledger();
+            ledger.addAll(TransactionLoader.load(file).getStore());
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    @Benchmark
+    public void vendorScan(Blackhole blackhole) {
+        for (Transaction transaction : list) {
+            if (transaction.getVendor().equalsIgnoreCase("vendor 10 store")) {
+                blackhole.consume(transaction);
+            }
+        }
+    }
+
+    @Benchmark
+    public void vendorStoreScanIgnoreCase(Blackhole blackhole) {
+        TransactionStore store = ledger.getStore();
+        for (int row = 0; row < store.size(); row++) {
+            if (store.getVendor(row).equalsIgnoreCase("vendor 10 store")) {
+                blackhole.consume(row);
+            }
+        }
+    }
+
+    @Benchmark
+    public void vendorStoreScanFoldedId(Blackhole blackhole) {
+        TransactionStore store = ledger.getStore();
+        Condition vendor = Condition.vendor("vendor 10 store");
+        for (int row = 0; row < store.size(); row++) {
+            if (vendor.matches(store, row)) {
+                blackhole.consume(row);
+            }
+        }
+    }
+
+    @Benchmark
+    public IntList vendorIndex() {
+        return ledger.getVendorIndex().exact("vendor 10 store");
+    }
+
+    @Benchmark
+    public IntList vendorPrefixIndex() {
+        return ledger.getVendorIndex().prefix("vendor 4");
+    }
+
+    @Benchmark
+    public void descriptionContainsScan(Blackhole blackhole) {
+        for (Transaction transaction : list) {
+            if (transaction.getDescription().toLowerCase(Locale.ROOT).contains("rent")) {
+                blackhole.consume(transaction);
+            }
+        }
+    }
+
+    @Benchmark
+    public IntList descriptionContainsIndex() {
+        return ledger.getDescriptionIndex().contains("rent");
+    }
+}
@@ -0,0 +1,209 @@
+package com.pluralsight.bench;
+
+import com.pluralsight.AppendWriter;
+import com.pluralsight.Transaction;
+import com.pluralsight.TransactionLoader;
+import com.pluralsight.TransactionStore;
+import com.pluralsight.WriteAheadLog;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Crash test for the write-ahead log. Every iteration starts a child JVM that appends rows from several threads
+ * with GROUP_COMMIT and a small checkpoint size, and prints the description of every row whose append() returned.
+ * The child is killed at a random moment, sometimes a torn record is added to the end of the log, then the
+ * log is recovered and every acknowledged row must be in the transactions file or the recovered rows exactly once.
+ * Exits with status 1 when a row is lost or duplicated, or when no run acknowledged a row, so there was nothing to check.
+ * java -cp target/benchmarks.jar com.pluralsight.bench.WalFaultInjection [iterations] [max run millis]
+ */
+public class WalFaultInjection {
+
+    private static final int WRITERS = 4;
+    private static final long CHECKPOINT_BYTES = 16 * 1024;
+    private static final String ACK = "ack ";
+
+    public static void main(String[] args) throws Exception {
+        if (args.length > 1 && args[0].equals("child")) {
+            child(Path.of(args[1]));
+            return;
+        }
+        int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 20;
+        int maxMillis = args.length > 1 ? Integer.parseInt(args[1]) : 1500;
+        Random random = new Random(42);
+        int failures = 0;
+        long acknowledged = 0;
+        System.out.printf("%-6s %10s %10s %10s %8s %s%n", "run", "acked", "in file", "recovered", "torn", "result");
+        for (int i = 1; i <= iterations; i++) {
+            Path dir = Files.createTempDirectory("wal-fault");
+            try {
+                Set<String> acked = runChild(dir, 200 + random.nextInt(maxMillis));
+                boolean torn = random.nextBoolean();
+                if (torn) {
+                    tear(dir.resolve("transactions.wal"), random);
+                }
+                String result = verify(dir, acked);
+                acknowledged += acked.size();
+                if (!result.startsWith("ok")) {
+                    failures++;
+                }
+                System.out.printf("%-6d %,10d %s %8s %s%n", i, acked.size(), result.substring(result.indexOf(' ') + 1), torn, result.substring(0, result.indexOf(' ')));
+            } finally {
+                deleteAll(dir);
+            }
+        }
+        System.out.printf("%d runs, %,d acknowledged rows, %d failures%n", iterations, acknowledged, failures);
+        if (acknowledged == 0) {
+            System.out.println("No row was acknowledged, the child could not append");
+        }
+        if (failures > 0 || acknowledged == 0) {
+            System.exit(1);
+        }
+    }
+
+    /* ------------------------------------------------------------------
+       Child process
+       ------------------------------------------------------------------ */
+
+    private static void child(Path dir) throws Exception {
+        WriteAheadLog log = open(dir);
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < WRITERS; t++) {
+            int writer = t;
+            threads.add(new Thread(() -> {
+                try {
+                    for (int n = 0; ; n++) {
+                        String description = "w" + writer + "-" + n;
+                        log.append(new Transaction(LocalDate.of(2024, 1, 1).plusDays(n % 365), LocalTime.of(12, 0),
+                                description, SyntheticLedger.vendorName(n % 50), -(n % 1000) * 100L - 25));
+                        synchronized (System.out) {
+                            System.out.println(ACK + description);
+                        }
+                    }
+                } catch (IOException e) {
+                    System.err.println("Append failed: " + e.getMessage());
+                }
+            }, "writer-" + t));
+        }
+        System.out.println("started");
+        System.out.flush();
+        threads.forEach(Thread::start);
+        for (Thread thread : threads) {
+            thread.join();
+        }
+    }
+
+    private static WriteAheadLog open(Path dir) throws IOException {
+        return new WriteAheadLog(dir.resolve("transactions.csv"), dir.resolve("transactions.wal"), dir.resolve("transactions.checkpoint"),
+                AppendWriter.Durability.GROUP_COMMIT, CHECKPOINT_BYTES, 0);
+    }
+
+    /* ------------------------------------------------------------------
+       Parent process
+       ------------------------------------------------------------------ */
+
+    /**
+     * Runs the child for about the given time, kills it and returns the rows it acknowledged.
+     */
+    private static Set<String> runChild(Path dir, long millis) throws IOException, InterruptedException {
+        String java = Path.of(System.getProperty("java.home"), "bin", "java").toString();
+        Process process = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+                WalFaultInjection.class.getName(), "child", dir.toString())
+                .redirectError(ProcessBuilder.Redirect.INHERIT)
+                .start();
+        Set<String> acked = new HashSet<>();
+        Thread reader = new Thread(() -> {
+            try (BufferedReader in = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+                String line;
+                while ((line = in.readLine()) != null) {
+                    //A line cut by the kill has no complete description, the row only counts once it is printed whole
+                    if (line.startsWith(ACK) && line.matches("ack w\\d+-\\d+")) {
+                        synchronized (acked) {
+                            acked.add(line.substring(ACK.length()));
+                        }
+                    }
+                }
+            } catch (IOException ignored) {
+                //The pipe closes when the child is killed
+            }
+        });
+        reader.start();
+        Thread.sleep(millis);
+        process.destroyForcibly();
+        process.waitFor(10, TimeUnit.SECONDS);
+        reader.join();
+        return acked;
+    }
+
+    /**
+     * Appends a partial record to the log, as if the machine stopped in the middle of a write.
+     */
+    private static void tear(Path log, Random random) throws IOException {
+        byte[] garbage = new byte[1 + random.nextInt(40)];
+        random.nextBytes(garbage);
+        //A plausible length keeps the reader from rejecting it before it looks at the rest
+        garbage[0] = 0;
+        Files.write(log, garbage, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+    }
+
+    /**
+     * Recovers the log like the app does on start and checks the acknowledged rows.
+     * @return - "ok" or "FAILED" followed by the row counts
+     */
+    private static String verify(Path dir, Set<String> acked) throws IOException {
+        Map<String, Integer> seen = new HashMap<>();
+        int inFile;
+        int recoveredRows;
+        try (WriteAheadLog log = open(dir)) {
+            Path csv = dir.resolve("transactions.csv");
+            TransactionStore file = Files.exists(csv) ? TransactionLoader.load(csv).getStore() : new TransactionStore();
+            TransactionStore recovered = log.getRecovered();
+            inFile = file.size();
+            recoveredRows = recovered.size();
+            count(file, seen);
+            count(recovered, seen);
+        }
+        int lost = 0;
+        for (String description : acked) {
+            if (!seen.containsKey(description)) {
+                lost++;
+            }
+        }
+        long duplicated = seen.values().stream().filter(count -> count > 1).count();
+        String counts = String.format("%,10d %,10d", inFile, recoveredRows);
+        if (lost > 0 || duplicated > 0) {
+            return "FAILED " + counts + " lost=" + lost + " duplicated=" + duplicated;
+        }
+        return "ok " + counts;
+    }
+
+    private static void count(TransactionStore rows, Map<String, Integer> seen) {
+        for (int i = 0; i < rows.size(); i++) {
+            seen.merge(rows.getDescription(i), 1, Integer::sum);
+        }
+    }
+
+    private static void deleteAll(Path dir) throws IOException {
+        try (var files = Files.list(dir)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                Files.delete(file);
+            }
+        }
+        Files.delete(dir);
+    }
+}
@@ -0,0 +1,354 @@
+package com.pluralsight;
+
+import java.util.Arrays;
+
+/**
+ * Rows sorted by amount in cents, so an exact amount, an amount range or the largest and smallest amounts
+ * are found with binary search instead of a scan.
+ * Rows are kept in a sorted run plus a small delta of recently added rows. When the delta is full it is sorted
+ * and merged into a new run, O(n) once every DELTA_LIMIT rows; lookups search the run and check the delta.
+ * Rows with the same amount keep their row order.
+ * Once snapshot() has shared the arrays they are never written below the snapshot's size:
+ * the delta is only appended to and a merge builds new arrays.
+ */
+public class AmountIndex {
+
+    static final int DELTA_LIMIT = 8192;
+
+    private long[] cents = new long[0];
+    private int[] rows = new int[0];
+    private long[] deltaCents = new long[DELTA_LIMIT];
+    private int[] deltaRows = new int[DELTA_LIMIT];
+    private int deltaSize;
+    private final boolean readOnly;
+
+    public AmountIndex() {
+        this.readOnly = false;
+    }
+
+    /**
+     * Builds an index around a sorted run saved by LedgerSnapshot, the arrays are taken over without copying.
+     * @param cents - amounts in ascending order, rows with the same amount in row order
+     * @param rows - row number at each position
+     */
+    AmountIndex(long[] cents, int[] rows) {
+        this.cents = cents;
+        this.rows = rows;
+        this.readOnly = false;
+    }
+
+    private AmountIndex(AmountIndex source) {
+        this.cents = source.cents;
+        this.rows = source.rows;
+        this.deltaCents = source.deltaCents;
+        this.deltaRows = source.deltaRows;
+        this.deltaSize = source.deltaSize;
+        this.readOnly = true;
+    }
+
+    /**
+     * Takes a read-only view of the index as it is now. Must be called by the thread that adds rows.
+     * @return - index that keeps its current rows when this one changes
+     */
+    public AmountIndex snapshot() {
+        if (readOnly) {
+            return this;
+        }
+        return new AmountIndex(this);
+    }
+
+    /* ------------------------------------------------------------------
+       Adding rows
+       ------------------------------------------------------------------ */
+
+    /**
+     * @param row - row number in the TransactionStore, higher than every row added before
+     * @param amount - amount of the row in cents
+     */
+    public void add(int row, long amount) {
+        checkWritable();
+        if (deltaSize == deltaCents.length) {
+            merge(deltaCents, deltaRows, deltaSize);
+        }
+        deltaCents[deltaSize] = amount;
+        deltaRows[deltaSize++] = row;
+    }
+
+    /**
+     * Adds rows [fromRow, store.size()) of the store. A batch that doesn't fit in the delta is merged at once,
+     * O(n + k log k) for k new rows.
+     * @param store - store that holds the rows
+     * @param fromRow - first row that is not indexed yet
+     */
+    public void addAll(TransactionStore store, int fromRow) {
+        checkWritable();
+        int count = store.size() - fromRow;
+        if (deltaSize + count <= deltaCents.length) {
+            for (int row = fromRow; row < store.size(); row++) {
+                deltaCents[deltaSize] = store.getCents(row);
+                deltaRows[deltaSize++] = row;
+            }
+            return;
+        }
+        long[] addedCents = Arrays.copyOf(deltaCents, deltaSize + count);
+        int[] addedRows = Arrays.copyOf(deltaRows, deltaSize + count);
+        for (int i = 0; i < count; i++) {
+            addedCents[deltaSize + i] = store.getCents(fromRow + i);
+            addedRows[deltaSize + i] = fromRow + i;
+        }
+        merge(addedCents, addedRows, addedCents.length);
+    }
+
+    /**
+     * Sorts the added rows and merges them with the run into new arrays, then starts an empty delta.
+     * A snapshot may still be reading the old run and delta, so neither is changed.
+     */
+    private void merge(long[] addedCents, int[] addedRows, int count) {
+        long[] sortedCents = addedCents == deltaCents ? Arrays.copyOf(addedCents, count) : addedCents;
+        int[] sortedRows = addedRows == deltaRows ? Arrays.copyOf(addedRows, count) : addedRows;
+        sortByAmount(sortedCents, sortedRows, count);
+
+        long[] mergedCents = new long[cents.length + count];
+        int[] mergedRows = new int[rows.length + count];
+        int i = 0;
+        int j = 0;
+        int n = 0;
+        while (i < cents.length && j < count) {
+            //Rows of the run are older, so on equal amounts they come first
+            if (cents[i] <= sortedCents[j]) {
+                mergedCents[n] = cents[i];
+                mergedRows[n++] = rows[i++];
+            } else {
+                mergedCents[n] = sortedCents[j];
+                mergedRows[n++] = sortedRows[j++];
+            }
+        }
+        System.arraycopy(cents, i, mergedCents, n, cents.length - i);
+        System.arraycopy(rows, i, mergedRows, n, rows.length - i);
+        n += cents.length - i;
+        System.arraycopy(sortedCents, j, mergedCents, n, count - j);
+        System.arraycopy(sortedRows, j, mergedRows, n, count - j);
+        cents = mergedCents;
+        rows = mergedRows;
+        deltaCents = new long[DELTA_LIMIT];
+        deltaRows = new int[DELTA_LIMIT];
+        deltaSize = 0;
+    }
+
+    /* ------------------------------------------------------------------
+       Lookups
+       ------------------------------------------------------------------ */
+
+    /**
+     * @param amount - amount in cents
+     * @return - rows with exactly this amount, in row order
+     */
+    public IntList exact(long amount) {
+        return range(amount, amount);
+    }
+
+    /**
+     * @param min - smallest amount in cents, included
+     * @param max - largest amount in cents, included
+     * @return - rows with an amount in the range, ordered by amount and then by row
+     */
+    public IntList range(long min, long max) {
+        IntList result = new IntList(Math.max(1, count(min, max)));
+        Cursor cursor = cursor(min, false);
+        while (cursor.next() && cursor.cents() <= max) {
+            result.add(cursor.row());
+        }
+        return result;
+    }
+
+    /**
+     * @return - number of rows with an amount between min and max, both included
+     */
+    public int count(long min, long max) {
+        if (min > max) {
+            return 0;
+        }
+        int count = upperBound(cents, cents.length, max) - lowerBound(cents, cents.length, min);
+        for (int i = 0; i < deltaSize; i++) {
+            if (deltaCents[i] >= min && deltaCents[i] <= max) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @return - number of indexed rows
+     */
+    public int size() {
+        return cents.length + deltaSize;
+    }
+
+    /**
+     * Walks the rows in amount order, used for ranges and for the largest or smallest amounts.
+     * @param from - ascending: first amount to return; descending: largest amount to return
+     * @param descending - true to walk from the largest amount down
+     * @return - cursor positioned before the first row
+     */
+    public Cursor cursor(long from, boolean descending) {
+        long[] addedCents = Arrays.copyOf(deltaCents, deltaSize);
+        int[] addedRows = Arrays.copyOf(deltaRows, deltaSize);
+        sortByAmount(addedCents, addedRows, deltaSize);
+        return new Cursor(cents, rows, addedCents, addedRows, from, descending);
+    }
+
+    /**
+     * Position in the merged order of the run and the sorted delta.
+     */
+    public static class Cursor {
+        private final long[] runCents;
+        private final int[] runRows;
+        private final long[] addedCents;
+        private final int[] addedRows;
+        private final boolean descending;
+        private int run;
+        private int added;
+        private int row = -1;
+        private long amount;
+
+        private Cursor(long[] runCents, int[] runRows, long[] addedCents, int[] addedRows, long from, boolean descending) {
+            this.runCents = runCents;
+            this.runRows = runRows;
+            this.addedCents = addedCents;
+            this.addedRows = addedRows;
+            this.descending = descending;
+            if (descending) {
+                run = upperBound(runCents, runCents.length, from) - 1;
+                added = upperBound(addedCents, addedCents.length, from) - 1;
+            } else {
+                run = lowerBound(runCents, runCents.length, from);
+                added = lowerBound(addedCents, addedCents.length, from);
+            }
+        }
+
+        /**
+         * @return - false when there are no more rows
+         */
+        public boolean next() {
+            boolean hasRun = descending ? run >= 0 : run < runCents.length;
+            boolean hasAdded = descending ? added >= 0 : added < addedCents.length;
+            if (!hasRun && !hasAdded) {
+                return false;
+            }
+            boolean takeRun;
+            if (!hasAdded) {
+                takeRun = true;
+            } else if (!hasRun) {
+                takeRun = false;
+            } else {
+                //Delta rows are newer: on equal amounts they come after the run going up and before it going down
+                takeRun = descending ? runCents[run] > addedCents[added] : runCents[run] <= addedCents[added];
+            }
+            int step = descending ? -1 : 1;
+            if (takeRun) {
+                amount = runCents[run];
+                row = runRows[run];
+                run += step;
+            } else {
+                amount = addedCents[added];
+                row = addedRows[added];
+                added += step;
+            }
+            return true;
+        }
+
+        public int row() {
+            return row;
+        }
+
+        public long cents() {
+            return amount;
+        }
+    }
+
+    /* ------------------------------------------------------------------
+       Sorting helpers
+       ------------------------------------------------------------------ */
+
+    /**
+     * Sorts the first count entries of both arrays by amount. Entries with the same amount keep their order,
+     * so rows that were added in row order stay in row order.
+     */
+    static void sortByAmount(long[] amounts, int[] rowNumbers, int count) {
+        boolean fitsInt = true;
+        for (int i = 0; i < count && fitsInt; i++) {
+            fitsInt = amounts[i] == (int) amounts[i];
+        }
+        if (fitsInt) {
+            //Amount in the high half and position in the low half: one primitive sort, and ties stay in order
+            long[] keys = new long[count];
+            for (int i = 0; i < count; i++) {
+                keys[i] = ((long) (int) amounts[i] << 32) | i;
+            }
+            Arrays.parallelSort(keys);
+            int[] sortedRows = new int[count];
+            for (int i = 0; i < count; i++) {
+                sortedRows[i] = rowNumbers[(int) keys[i]];
+                amounts[i] = keys[i] >> 32;
+            }
+            System.arraycopy(sortedRows, 0, rowNumbers, 0, count);
+            return;
+        }
+        //Amounts over 21 million dollars: bottom-up merge sort, which is stable as well
+        long[] amountBuffer = new long[count];
+        int[] rowBuffer = new int[count];
+        for (int width = 1; width < count; width *= 2) {
+            for (int low = 0; low < count; low += 2 * width) {
+                int middle = Math.min(low + width, count);
+                int high = Math.min(low + 2 * width, count);
+                int i = low;
+                int j = middle;
+                for (int n = low; n < high; n++) {
+                    if (i < middle && (j >= high || amounts[i] <= amounts[j])) {
+                        amountBuffer[n] = amounts[i];
+                        rowBuffer[n] = rowNumbers[i++];
+                    } else {
+                        amountBuffer[n] = amounts[j];
+                        rowBuffer[n] = rowNumbers[j++];
+                    }
+                }
+            }
+            System.arraycopy(amountBuffer, 0, amounts, 0, count);
+            System.arraycopy(rowBuffer, 0, rowNumbers, 0, count);
+        }
+    }
+
+    private static int lowerBound(long[] amounts, int size, long amount) {
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (amounts[middle] < amount) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    private static int upperBound(long[] amounts, int size, long amount) {
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (amounts[middle] <= amount) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    private void checkWritable() {
+        if (readOnly) {
+            throw new UnsupportedOperationException("Snapshot of the amount index can't be modified");
+        }
+    }
+}
@@ -0,0 +1,137 @@
+package com.pluralsight;
+
+/**
+ * Approximate quantiles of amounts in cents in constant memory. Like the latency histograms of Metrics, values are
+ * counted in log-linear buckets: every power of two is split into SUB_BUCKETS equal steps. Adding a value is one
+ * increment, two sketches merge exactly by adding their buckets, and only the range of buckets that holds values
+ * is allocated (about 2 to 10 KiB for the amounts of a month or a vendor).
+ *
+ * Error: a quantile is answered with the middle of the bucket that holds it, so it is within 1 / (2 * SUB_BUCKETS),
+ * 0.8%, of the exact quantile; amounts below SUB_BUCKETS cents are exact
+ * (checked against exact quantiles by SketchAccuracy in the benchmarks module).
+ * Not thread-safe, LedgerSketches guards its sketches with its own lock.
+ */
+public class AmountSketch {
+
+    private static final int SUB_BITS = 6;
+    static final int SUB_BUCKETS = 1 << SUB_BITS;
+
+    // counts of buckets [first, first + counts.length)
+    private long[] counts = new long[0];
+    private int first;
+    private long count;
+    private long min = Long.MAX_VALUE;
+    private long max = Long.MIN_VALUE;
+
+    /**
+     * @param cents - amount in cents, 0 or more
+     */
+    public void add(long cents) {
+        add(bucket(cents), 1);
+        min = Math.min(min, cents);
+        max = Math.max(max, cents);
+    }
+
+    private void add(int bucket, long values) {
+        if (counts.length == 0) {
+            counts = new long[SUB_BUCKETS];
+            first = bucket;
+        } else if (bucket < first || bucket >= first + counts.length) {
+            int low = Math.min(first, bucket);
+            int high = Math.max(first + counts.length, bucket + 1);
+            //Grow by at least one power of two, so a sketch is resized a few times only
+            int length = Math.max(high - low, counts.length + SUB_BUCKETS);
+            if (bucket < first) {
+                low = Math.max(0, high - length);
+            }
+            long[] grown = new long[length];
+            System.arraycopy(counts, 0, grown, first - low, counts.length);
+            counts = grown;
+            first = low;
+        }
+        counts[bucket - first] += values;
+        count += values;
+    }
+
+    /**
+     * Adds all values of the other sketch, the other sketch is not changed.
+     */
+    public void merge(AmountSketch other) {
+        if (other.count == 0) {
+            return;
+        }
+        //Grow once to cover both ranges
+        add(other.first, 0);
+        add(other.first + other.counts.length - 1, 0);
+        for (int i = 0; i < other.counts.length; i++) {
+            counts[other.first + i - first] += other.counts[i];
+        }
+        count += other.count;
+        min = Math.min(min, other.min);
+        max = Math.max(max, other.max);
+    }
+
+    /**
+     * @return - a sketch with the same values that can be changed without changing this one
+     */
+    public AmountSketch copy() {
+        AmountSketch copy = new AmountSketch();
+        copy.merge(this);
+        return copy;
+    }
+
+    static int bucket(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int shift = exponent - SUB_BITS;
+        return (shift + 1) * SUB_BUCKETS + (int) ((value >>> shift) & (SUB_BUCKETS - 1));
+    }
+
+    /**
+     * @return - smallest value that falls into the bucket
+     */
+    static long lowerBound(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int shift = bucket / SUB_BUCKETS - 1;
+        return (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << shift;
+    }
+
+    /**
+     * @param quantile - between 0 and 1, for example 0.95
+     * @return - estimated amount in cents at the quantile, 0 when the sketch is empty
+     */
+    public long quantile(double quantile) {
+        if (count == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(quantile * count));
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                long low = lowerBound(first + i);
+                long middle = low + (lowerBound(first + i + 1) - 1 - low) / 2;
+                return Math.max(min, Math.min(max, middle));
+            }
+        }
+        return max;
+    }
+
+    /**
+     * @return - number of values added
+     */
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * @return - bytes held by the bucket counts
+     */
+    public long getBucketBytes() {
+        return counts.length * 8L;
+    }
+}
@@ -0,0 +1,401 @@
+package com.pluralsight;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Long-lived append channel for the transactions file.
+ * Rows are formatted into a reusable buffer and written in batches, when the buffer is full
+ * or when the flush interval has passed.
+ * In GROUP_COMMIT mode append() returns only after the row has been forced to disk; rows appended by
+ * several threads at the same time share one write and one fsync.
+ */
+public class AppendWriter implements LedgerWriter {
+
+    public enum Durability {
+        /** rows reach the file on a full buffer, on the flush interval, on flush() and on close() */
+        BUFFERED,
+        /** every append() waits until its row is written and forced to disk */
+        GROUP_COMMIT
+    }
+
+    public static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+    public static final long DEFAULT_FLUSH_INTERVAL_MILLIS = 200;
+    // A row is read back only with a four digit year
+    public static final LocalDate FIRST_DATE = LocalDate.of(1, 1, 1);
+    public static final LocalDate LAST_DATE = LocalDate.of(9999, 12, 31);
+
+    private final FileChannel channel;
+    private final Durability durability;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition committed = lock.newCondition();
+    private final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder();
+    private final StringBuilder line = new StringBuilder(128);
+    private final ScheduledExecutorService flusher;
+
+    private ByteBuffer active;
+    private ByteBuffer flushing;
+    private long appendedRows;
+    private long committedRows;
+    private boolean flushInProgress;
+    private boolean closed;
+
+    /**
+     * Opens the file in append mode with the default buffer size and flush interval.
+     * @param path - transactions file, it is created when it does not exist
+     * @param durability - BUFFERED or GROUP_COMMIT
+     */
+    public AppendWriter(Path path, Durability durability) throws IOException {
+        this(path, durability, DEFAULT_BUFFER_SIZE, DEFAULT_FLUSH_INTERVAL_MILLIS);
+    }
+
+    /**
+     * @param path - transactions file, it is created when it does not exist
+     * @param durability - BUFFERED or GROUP_COMMIT
+     * @param bufferSize - size of the batch buffer in bytes
+     * @param flushIntervalMillis - how long a row may wait in the buffer, 0 disables the timer
+     */
+    public AppendWriter(Path path, Durability durability, int bufferSize, long flushIntervalMillis) throws IOException {
+        if (bufferSize < 16) {
+            throw new IllegalArgumentException("Buffer size must be at least 16 bytes");
+        }
+        this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        this.durability = durability;
+        this.active = ByteBuffer.allocateDirect(bufferSize);
+        this.flushing = ByteBuffer.allocateDirect(bufferSize);
+        if (flushIntervalMillis > 0 && durability == Durability.BUFFERED) {
+            flusher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "append-writer-flush");
+                thread.setDaemon(true);
+                return thread;
+            });
+            flusher.scheduleWithFixedDelay(this::flushQuietly, flushIntervalMillis, flushIntervalMillis, TimeUnit.MILLISECONDS);
+        } else {
+            flusher = null;
+        }
+    }
+
+    /* ------------------------------------------------------------------
+       Appending
+       ------------------------------------------------------------------ */
+
+    /**
+     * Appends the transaction as a new "\n" + date|time|description|vendor|amount line.
+     * @param transaction - transaction that should be written
+     */
+    @Override
+    public void append(Transaction transaction) throws IOException {
+        append(transaction.getDate(), transaction.getTime(), transaction.getDescription(), transaction.getVendor(),
+                transaction.getCents());
+    }
+
+    /**
+     * Appends one row from its fields.
+     */
+    public void append(LocalDate date, LocalTime time, String description, String vendor, long cents) throws IOException {
+        long row;
+        lock.lock();
+        try {
+            if (closed) {
+                throw new IOException("Writer is closed");
+            }
+            checkRow(date, description, vendor);
+            line.setLength(0);
+            line.append('\n');
+            formatRow(line, date, time, description, vendor, cents);
+            encode(line);
+            row = ++appendedRows;
+        } finally {
+            lock.unlock();
+        }
+        if (durability == Durability.GROUP_COMMIT) {
+            commit(row);
+        }
+    }
+
+    /**
+     * Appends all rows of the store under one lock, in GROUP_COMMIT mode they share one fsync.
+     * @param rows - rows that should be written, in store order
+     */
+    @Override
+    public void appendAll(TransactionStore rows) throws IOException {
+        if (rows.size() == 0) {
+            return;
+        }
+        long row;
+        lock.lock();
+        try {
+            if (closed) {
+                throw new IOException("Writer is closed");
+            }
+            checkRows(rows);
+            for (int i = 0; i < rows.size(); i++) {
+                line.setLength(0);
+                line.append('\n');
+                formatRow(line, LocalDate.ofEpochDay(rows.getEpochDay(i)), LocalTime.ofSecondOfDay(rows.getSecondOfDay(i)),
+                        rows.getDescription(i), rows.getVendor(i), rows.getCents(i));
+                encode(line);
+            }
+            row = ++appendedRows;
+        } finally {
+            lock.unlock();
+        }
+        if (durability == Durability.GROUP_COMMIT) {
+            commit(row);
+        }
+    }
+
+    /**
+     * Buffers already encoded bytes, for callers that frame their own records (see WriteAheadLog).
+     * The bytes are written in call order; in GROUP_COMMIT mode the caller passes the ticket to awaitCommit().
+     * @param bytes - bytes that should be written
+     * @return - ticket of the write
+     */
+    long write(byte[] bytes) throws IOException {
+        lock.lock();
+        try {
+            if (closed) {
+                throw new IOException("Writer is closed");
+            }
+            int offset = 0;
+            while (offset < bytes.length) {
+                if (!active.hasRemaining()) {
+                    awaitFlush();
+                    writeActive();
+                }
+                int count = Math.min(active.remaining(), bytes.length - offset);
+                active.put(bytes, offset, count);
+                offset += count;
+            }
+            return ++appendedRows;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * In GROUP_COMMIT mode waits until the write with this ticket is forced to disk, otherwise returns at once.
+     */
+    void awaitCommit(long ticket) throws IOException {
+        if (durability == Durability.GROUP_COMMIT) {
+            commit(ticket);
+        }
+    }
+
+    /**
+     * Encodes the line into the active buffer, a line that does not fit is written out in pieces.
+     * Must be called with the lock held.
+     */
+    private void encode(CharSequence text) throws IOException {
+        CharBuffer chars = CharBuffer.wrap(text);
+        encoder.reset();
+        while (true) {
+            CoderResult result = encoder.encode(chars, active, true);
+            if (result.isUnderflow()) {
+                encoder.flush(active);
+                return;
+            }
+            if (result.isOverflow()) {
+                //Wait for a group commit that is using the other buffer, then write this one out
+                awaitFlush();
+                writeActive();
+            } else {
+                result.throwException();
+            }
+        }
+    }
+
+    private void writeActive() throws IOException {
+        active.flip();
+        while (active.hasRemaining()) {
+            channel.write(active);
+        }
+        active.clear();
+    }
+
+    /* ------------------------------------------------------------------
+       Flushing
+       ------------------------------------------------------------------ */
+
+    /**
+     * Waits until the given row is written and forced to disk. The first waiting thread writes
+     * everything appended so far, the others wait for it and are released together.
+     */
+    private void commit(long row) throws IOException {
+        lock.lock();
+        try {
+            while (committedRows < row) {
+                if (flushInProgress) {
+                    committed.awaitUninterruptibly();
+                    continue;
+                }
+                flushInProgress = true;
+                ByteBuffer batch = active;
+                active = flushing;
+                flushing = batch;
+                long batchRows = appendedRows;
+                lock.unlock();
+                try {
+                    batch.flip();
+                    while (batch.hasRemaining()) {
+                        channel.write(batch);
+                    }
+                    batch.clear();
+                    channel.force(false);
+                } finally {
+                    lock.lock();
+                    flushInProgress = false;
+                    committed.signalAll();
+                }
+                committedRows = batchRows;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Must be called with the lock held.
+     */
+    private void awaitFlush() {
+        while (flushInProgress) {
+            committed.awaitUninterruptibly();
+        }
+    }
+
+    /**
+     * Writes all buffered rows to the file, and forces them to disk in GROUP_COMMIT mode.
+     */
+    @Override
+    public void flush() throws IOException {
+        if (durability == Durability.GROUP_COMMIT) {
+            long row;
+            lock.lock();
+            try {
+                row = appendedRows;
+            } finally {
+                lock.unlock();
+            }
+            commit(row);
+            return;
+        }
+        lock.lock();
+        try {
+            awaitFlush();
+            writeActive();
+            committedRows = appendedRows;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void flushQuietly() {
+        try {
+            flush();
+        } catch (IOException e) {
+            System.err.println("Could not write transactions to the file: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Flushes the remaining rows and closes the file.
+     */
+    @Override
+    public void close() throws IOException {
+        if (flusher != null) {
+            flusher.shutdownNow();
+        }
+        flush();
+        lock.lock();
+        try {
+            closed = true;
+            channel.close();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /* ------------------------------------------------------------------
+       Row format
+       ------------------------------------------------------------------ */
+
+    /**
+     * Checks a new row entered in the menu or posted to the API: it must be readable and have a description and a vendor.
+     * @throws IllegalArgumentException - with the reason the row can't be written
+     */
+    public static void checkRow(LocalDate date, String description, String vendor) {
+        if (description.isBlank()) {
+            throw new IllegalArgumentException("description can't be empty");
+        }
+        if (vendor.isBlank()) {
+            throw new IllegalArgumentException("vendor can't be empty");
+        }
+        checkReadable(date, description, vendor);
+    }
+
+    /**
+     * Checks every row of the store before any of them is written. These rows are rewritten from a loaded ledger,
+     * so an empty description or vendor that TransactionLoader accepted is written back as it is.
+     */
+    static void checkRows(TransactionStore rows) {
+        for (int i = 0; i < rows.size(); i++) {
+            checkReadable(LocalDate.ofEpochDay(rows.getEpochDay(i)), rows.getDescription(i), rows.getVendor(i));
+        }
+    }
+
+    /**
+     * Checks that a row can be read back by TransactionLoader and by the recovery of the write-ahead log.
+     */
+    private static void checkReadable(LocalDate date, String description, String vendor) {
+        if (date.isBefore(FIRST_DATE) || date.isAfter(LAST_DATE)) {
+            throw new IllegalArgumentException("date must be between " + FIRST_DATE + " and " + LAST_DATE);
+        }
+        checkField("description", description);
+        checkField("vendor", vendor);
+    }
+
+    private static void checkField(String name, String value) {
+        if (value.indexOf('|') >= 0 || value.indexOf('\n') >= 0 || value.indexOf('\r') >= 0) {
+            throw new IllegalArgumentException(name + " can't contain | or line breaks");
+        }
+    }
+
+    /**
+     * Appends date|time|description|vendor|amount, with the amount written with two decimals.
+     */
+    static void formatRow(StringBuilder line, LocalDate date, LocalTime time, String description, String vendor, long cents) {
+        int year = date.getYear();
+        if (year < 1000) {
+            line.append(year < 10 ? "000" : year < 100 ? "00" : "0");
+        }
+        line.append(year).append('-');
+        twoDigits(line, date.getMonthValue()).append('-');
+        twoDigits(line, date.getDayOfMonth()).append('|');
+        twoDigits(line, time.getHour()).append(':');
+        twoDigits(line, time.getMinute()).append(':');
+        twoDigits(line, time.getSecond()).append('|');
+        line.append(description).append('|').append(vendor).append('|');
+        Money.format(line, cents);
+    }
+
+    private static StringBuilder twoDigits(StringBuilder line, int value) {
+        if (value < 10) {
+            line.append('0');
+        }
+        return line.append(value);
+    }
+}
@@ -0,0 +1,403 @@
+package com.pluralsight;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Answers a file of queries in one pass over the ledger, for reports that run without the menu (from cron).
+ *
+ * Query file: one query per line as name|key=value|key=value..., with the keys of GET /search
+ * (start, end, description, vendor, amount, minAmount, maxAmount). Empty lines and lines starting with # are skipped.
+ * Example: groceries-2024|start=2024-01-01|end=2024-12-31|description=groceries
+ *
+ * Instead of one search per query, the rows of the union of all date ranges are read once in date order, older
+ * months from their partitions one at a time. A query
+ * is only checked while the scan is inside its own date range, so a row costs a check per query that can match it.
+ * Rows are streamed as they are found, interleaved across queries in date order and tagged with the query name:
+ * CSV with a header line, or JSON with one object per line.
+ */
+public class BatchQueries {
+
+    private static final int FLUSH_SIZE = 1 << 16;
+    // the dates a search without start or end is open to, see Condition.parse()
+    private static final int FIRST_DAY = DateIndex.epochDay(AppendWriter.FIRST_DATE);
+    private static final int LAST_DAY = DateIndex.epochDay(AppendWriter.LAST_DATE);
+
+    private static final Metrics.Timer RUN = Metrics.timer("batch_run");
+    private static final Metrics.Counter MATCHED_ROWS = Metrics.counter("batch_rows");
+
+    public enum Format { CSV, JSON }
+
+    /**
+     * One named search of the file, with the totals of the rows it matched in the last run.
+     */
+    public static class Query {
+        private final String name;
+        private final Condition condition;
+        private final int firstDay;
+        private final int lastDay;
+        private long rows;
+        private long deposits;
+        private long payments;
+        // name as written in the output format of the current run
+        private String label;
+
+        /**
+         * @param name - name written in front of every row of the query
+         * @param condition - search, its date range limits the days the query is checked on
+         */
+        public Query(String name, Condition condition) {
+            this.name = name;
+            this.condition = condition;
+            Condition.DateRange range = dateRange(condition);
+            this.firstDay = range == null ? Integer.MIN_VALUE : DateIndex.epochDay(range.getStart());
+            this.lastDay = range == null ? Integer.MAX_VALUE : DateIndex.epochDay(range.getEnd());
+        }
+
+        private static Condition.DateRange dateRange(Condition condition) {
+            if (condition instanceof Condition.DateRange range) {
+                return range;
+            }
+            if (condition instanceof Condition.And and) {
+                for (Condition part : and.getConditions()) {
+                    if (part instanceof Condition.DateRange range) {
+                        return range;
+                    }
+                }
+            }
+            return null;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public Condition getCondition() {
+            return condition;
+        }
+
+        /**
+         * @return - rows the query matched in the last run
+         */
+        public long getRows() {
+            return rows;
+        }
+
+        /**
+         * @return - sum of the matched deposits in cents
+         */
+        public long getDeposits() {
+            return deposits;
+        }
+
+        /**
+         * @return - sum of the matched payments in cents, negative
+         */
+        public long getPayments() {
+            return payments;
+        }
+    }
+
+    /* ------------------------------------------------------------------
+       Query file
+       ------------------------------------------------------------------ */
+
+    /**
+     * @param path - query file, see the class comment
+     * @return - queries in file order
+     * @throws IllegalArgumentException - when a line is not a valid query, the message names the line
+     */
+    public static List<Query> parse(Path path) throws IOException {
+        return parse(Files.readAllLines(path));
+    }
+
+    /**
+     * @param lines - lines of a query file
+     * @return - queries in file order
+     * @throws IllegalArgumentException - when a line is not a valid query, the message names the line
+     */
+    public static List<Query> parse(List<String> lines) {
+        List<Query> queries = new ArrayList<>();
+        Map<String, Integer> names = new HashMap<>();
+        for (int i = 0; i < lines.size(); i++) {
+            String line = lines.get(i).trim();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            String[] parts = line.split("\\|");
+            String name = parts[0].trim();
+            if (name.isEmpty() || name.contains("=")) {
+                throw new IllegalArgumentException("line " + (i + 1) + ": a query starts with its name");
+            }
+            Integer earlier = names.putIfAbsent(name, i + 1);
+            if (earlier != null) {
+                throw new IllegalArgumentException("line " + (i + 1) + ": " + name + " is already used on line " + earlier);
+            }
+            Map<String, String> params = new HashMap<>();
+            for (int p = 1; p < parts.length; p++) {
+                int equals = parts[p].indexOf('=');
+                String key = equals < 0 ? parts[p].trim() : parts[p].substring(0, equals).trim();
+                if (equals < 0 || !Condition.PARAMETERS.contains(key)) {
+                    throw new IllegalArgumentException("line " + (i + 1) + ": " + parts[p].trim()
+                            + " is not one of " + String.join("=, ", Condition.PARAMETERS) + "=");
+                }
+                params.put(key, parts[p].substring(equals + 1).trim());
+            }
+            try {
+                queries.add(new Query(name, Condition.parse(params)));
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("line " + (i + 1) + ": " + e.getMessage());
+            }
+        }
+        return queries;
+    }
+
+    /* ------------------------------------------------------------------
+       Shared scan
+       ------------------------------------------------------------------ */
+
+    /**
+     * @return - {first date, last date} of the union of the date ranges, used to pick the partitions to load
+     */
+    public static LocalDate[] dateRange(List<Query> queries) {
+        int[] days = dayRange(queries);
+        return new LocalDate[]{LocalDate.ofEpochDay(Math.min(Math.max(days[0], FIRST_DAY), LAST_DAY)),
+                LocalDate.ofEpochDay(Math.max(Math.min(days[1], LAST_DAY), FIRST_DAY))};
+    }
+
+    /**
+     * @return - {first day, last day} as epoch days, unbounded when a query has no date range
+     */
+    private static int[] dayRange(List<Query> queries) {
+        int first = Integer.MAX_VALUE;
+        int last = Integer.MIN_VALUE;
+        for (Query query : queries) {
+            first = Math.min(first, query.firstDay);
+            last = Math.max(last, query.lastDay);
+        }
+        return new int[]{first, last};
+    }
+
+    /**
+     * Scans the ledger once and writes the matching rows of every query.
+     * @param ledger - ledger to search, a snapshot is taken
+     * @param queries - queries to answer, their row counts and sums are reset
+     * @param format - CSV or JSON lines
+     * @param out - where the rows are written, flushed at the end
+     */
+    public static void run(Ledger ledger, List<Query> queries, Format format, Writer out) throws IOException {
+        long started = RUN.start();
+        Ledger view = ledger.snapshot();
+        DateIndex index = view.getDateIndex();
+        Scan scan = new Scan(queries, format, out);
+        int[] days = dayRange(queries);
+        int from = index.lowerBound(days[0]);
+        int to = days[1] < days[0] ? from : Math.max(from, index.upperBound(days[1]));
+        for (int position = from; position < to; position++) {
+            scan.visit(view.getStore(), index.row(position));
+        }
+        scan.finish();
+        RUN.stop(started);
+    }
+
+    /**
+     * Same as run() for a ledger and its older months: the partitions of the date ranges are read one at a time
+     * and their rows merged in date order with the live rows, see LedgerPartitions.scan().
+     * @param partitions - older months
+     * @param live - ledger with the rows of the transactions file
+     */
+    public static void run(LedgerPartitions partitions, Ledger live, List<Query> queries, Format format, Writer out) throws IOException {
+        long started = RUN.start();
+        Scan scan = new Scan(queries, format, out);
+        LocalDate[] range = dateRange(queries);
+        partitions.scan(live, range[0], range[1], scan);
+        scan.finish();
+        RUN.stop(started);
+    }
+
+    /**
+     * Checks rows given in date order against the queries and writes the matches.
+     */
+    private static class Scan implements LedgerPartitions.RowVisitor {
+        private final List<Query> queries;
+        private final Format format;
+        private final Writer out;
+        private final StringBuilder text = new StringBuilder(FLUSH_SIZE + 1024);
+        //Queries in order of their first day join the active set as the scan reaches it and leave after their last day
+        private final List<Query> waiting;
+        private final List<Query> active = new ArrayList<>();
+        private int next;
+        private int currentDay = Integer.MIN_VALUE;
+        private String date;
+        //Rows of a partition and of the live ledger have their own dictionaries, so each store gets a formatter
+        private final Map<TransactionStore, RowFormatter> formatters = new IdentityHashMap<>();
+        private TransactionStore store;
+        private RowFormatter formatter;
+
+        Scan(List<Query> queries, Format format, Writer out) {
+            this.queries = queries;
+            this.format = format;
+            this.out = out;
+            RowFormatter labels = new RowFormatter(format, new TransactionStore());
+            for (Query query : queries) {
+                query.rows = 0;
+                query.deposits = 0;
+                query.payments = 0;
+                query.label = labels.escape(query.name);
+            }
+            if (format == Format.CSV) {
+                text.append("query,date,time,description,vendor,amount\n");
+            }
+            waiting = new ArrayList<>(queries);
+            waiting.sort(Comparator.comparingInt(query -> query.firstDay));
+        }
+
+        @Override
+        public void visit(TransactionStore rows, int row) throws IOException {
+            int day = rows.getEpochDay(row);
+            if (day != currentDay) {
+                currentDay = day;
+                date = LocalDate.ofEpochDay(day).toString();
+                while (next < waiting.size() && waiting.get(next).firstDay <= day) {
+                    active.add(waiting.get(next++));
+                }
+                active.removeIf(query -> query.lastDay < day);
+            }
+            for (int i = 0; i < active.size(); i++) {
+                Query query = active.get(i);
+                if (query.condition.matches(rows, row)) {
+                    long cents = rows.getCents(row);
+                    query.rows++;
+                    if (cents < 0) {
+                        query.payments += cents;
+                    } else {
+                        query.deposits += cents;
+                    }
+                    formatter(rows).append(text, query.label, date, row);
+                    if (text.length() >= FLUSH_SIZE) {
+                        out.append(text);
+                        text.setLength(0);
+                    }
+                }
+            }
+        }
+
+        private RowFormatter formatter(TransactionStore rows) {
+            if (rows != store) {
+                store = rows;
+                formatter = formatters.computeIfAbsent(rows, key -> new RowFormatter(format, key));
+            }
+            return formatter;
+        }
+
+        void finish() throws IOException {
+            out.append(text);
+            out.flush();
+            for (Query query : queries) {
+                MATCHED_ROWS.add(query.rows);
+            }
+        }
+    }
+
+    /* ------------------------------------------------------------------
+       Row formats
+       ------------------------------------------------------------------ */
+
+    /**
+     * Writes rows as CSV or JSON lines. A vendor or description repeats on many rows, so each value of the
+     * dictionaries is escaped once per run and found by its id.
+     */
+    private static class RowFormatter {
+        private final Format format;
+        private final TransactionStore store;
+        private final String[] descriptions;
+        private final String[] vendors;
+        private final StringBuilder scratch = new StringBuilder();
+
+        RowFormatter(Format format, TransactionStore store) {
+            this.format = format;
+            this.store = store;
+            this.descriptions = new String[store.getDescriptionDictionary().size()];
+            this.vendors = new String[store.getVendorDictionary().size()];
+        }
+
+        /**
+         * @param label - escaped query name
+         * @param date - date of the row as yyyy-MM-dd
+         */
+        void append(StringBuilder text, String label, String date, int row) {
+            String description = cached(descriptions, store.getDescriptionId(row), store.getDescription(row));
+            String vendor = cached(vendors, store.getVendorId(row), store.getVendor(row));
+            if (format == Format.CSV) {
+                text.append(label).append(',').append(date).append(',');
+                appendTime(text, store.getSecondOfDay(row)).append(',').append(description).append(',')
+                        .append(vendor).append(',');
+                Money.format(text, store.getCents(row)).append('\n');
+            } else {
+                text.append("{\"query\":").append(label).append(",\"date\":\"").append(date).append("\",\"time\":\"");
+                appendTime(text, store.getSecondOfDay(row)).append("\",\"description\":").append(description)
+                        .append(",\"vendor\":").append(vendor).append(",\"amount\":");
+                Money.format(text, store.getCents(row)).append("}\n");
+            }
+        }
+
+        private String cached(String[] cache, int id, String value) {
+            //Values added to the shared dictionary after the run started are not cached
+            if (id >= cache.length) {
+                return escape(value);
+            }
+            if (cache[id] == null) {
+                cache[id] = escape(value);
+            }
+            return cache[id];
+        }
+
+        /**
+         * @return - the value as a JSON string, or as a CSV field: quoted when it holds a comma, quote or line break
+         */
+        String escape(String value) {
+            scratch.setLength(0);
+            if (format == Format.JSON) {
+                return LedgerServer.appendString(scratch, value).toString();
+            }
+            boolean quote = false;
+            for (int i = 0; i < value.length() && !quote; i++) {
+                char c = value.charAt(i);
+                quote = c == ',' || c == '"' || c == '\n' || c == '\r';
+            }
+            if (!quote) {
+                return value;
+            }
+            scratch.append('"');
+            for (int i = 0; i < value.length(); i++) {
+                char c = value.charAt(i);
+                if (c == '"') {
+                    scratch.append('"');
+                }
+                scratch.append(c);
+            }
+            return scratch.append('"').toString();
+        }
+    }
+
+    private static StringBuilder appendTime(StringBuilder text, int secondOfDay) {
+        return twoDigits(twoDigits(twoDigits(text, secondOfDay / 3600).append(':'), secondOfDay / 60 % 60).append(':'),
+                secondOfDay % 60);
+    }
+
+    private static StringBuilder twoDigits(StringBuilder text, int value) {
+        if (value < 10) {
+            text.append('0');
+        }
+        return text.append(value);
+    }
+}
@@ -0,0 +1,239 @@
+package com.pluralsight;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Fixed-width binary segment of the ledger, read back by memory-mapping it without parsing any row.
+ *
+ * Layout (little-endian):
+ * header   - magic "FTLB", version, row count, description count, vendor count, reserved, dictionary offset (long)
+ * columns  - epoch days (int), seconds of day (int), cents (long), description ids (int), vendor ids (int),
+ *            every column is one block of row count values, so it is copied into the store in one bulk read
+ * dictionary - descriptions then vendors, each as byte length (int) + UTF-8 bytes, value i has id i
+ */
+public class BinaryLedger {
+
+    static final int MAGIC = 0x424C5446; // "FTLB" in little-endian
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 32;
+    private static final int ROW_SIZE = 4 + 4 + 8 + 4 + 4;
+    private static final int MAX_MAPPING = 1 << 30;
+
+    /**
+     * @param path - file to check
+     * @return - true when the file starts with the binary ledger magic
+     */
+    public static boolean isBinary(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            if (channel.size() < HEADER_SIZE) {
+                return false;
+            }
+            ByteBuffer magic = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN);
+            channel.read(magic, 0);
+            return magic.getInt(0) == MAGIC;
+        }
+    }
+
+    /* ------------------------------------------------------------------
+       Writing
+       ------------------------------------------------------------------ */
+
+    /**
+     * Writes the store as a binary segment. The file is written next to the target and moved in place,
+     * so a crash never leaves a half-written segment behind.
+     * @param store - rows that should be written
+     * @param path - target file
+     */
+    public static void write(TransactionStore store, Path path) throws IOException {
+        Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+        int rows = store.size();
+        StringDictionary descriptions = store.getDescriptionDictionary();
+        StringDictionary vendors = store.getVendorDictionary();
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer buffer = ByteBuffer.allocateDirect(1 << 20).order(ByteOrder.LITTLE_ENDIAN);
+            buffer.putInt(MAGIC).putInt(VERSION).putInt(rows).putInt(descriptions.size()).putInt(vendors.size()).putInt(0)
+                    .putLong(HEADER_SIZE + (long) rows * ROW_SIZE);
+
+            writeInts(channel, buffer, store.dateColumn(), rows);
+            writeInts(channel, buffer, store.timeColumn(), rows);
+            writeLongs(channel, buffer, store.amountColumn(), rows);
+            writeInts(channel, buffer, store.descriptionColumn(), rows);
+            writeInts(channel, buffer, store.vendorColumn(), rows);
+            writeDictionary(channel, buffer, descriptions);
+            writeDictionary(channel, buffer, vendors);
+            drain(channel, buffer);
+            channel.force(true);
+        }
+        Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    static void writeInts(FileChannel channel, ByteBuffer buffer, int[] column, int rows) throws IOException {
+        for (int i = 0; i < rows; i++) {
+            ensureRoom(channel, buffer, 4);
+            buffer.putInt(column[i]);
+        }
+    }
+
+    static void writeLongs(FileChannel channel, ByteBuffer buffer, long[] column, int rows) throws IOException {
+        for (int i = 0; i < rows; i++) {
+            ensureRoom(channel, buffer, 8);
+            buffer.putLong(column[i]);
+        }
+    }
+
+    private static void writeDictionary(FileChannel channel, ByteBuffer buffer, StringDictionary dictionary) throws IOException {
+        for (int id = 0; id < dictionary.size(); id++) {
+            byte[] bytes = dictionary.get(id).getBytes(StandardCharsets.UTF_8);
+            ensureRoom(channel, buffer, 4);
+            buffer.putInt(bytes.length);
+            int written = 0;
+            while (written < bytes.length) {
+                ensureRoom(channel, buffer, 1);
+                int count = Math.min(buffer.remaining(), bytes.length - written);
+                buffer.put(bytes, written, count);
+                written += count;
+            }
+        }
+    }
+
+    static void ensureRoom(FileChannel channel, ByteBuffer buffer, int bytes) throws IOException {
+        if (buffer.remaining() < bytes) {
+            drain(channel, buffer);
+        }
+    }
+
+    static void drain(FileChannel channel, ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    /* ------------------------------------------------------------------
+       Reading
+       ------------------------------------------------------------------ */
+
+    /**
+     * Memory-maps the segment and copies every column into a new store with bulk reads.
+     * @param path - binary segment written by write()
+     * @return - store with all rows of the segment
+     */
+    public static TransactionStore read(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            return read(channel, path, channel.size());
+        }
+    }
+
+    /**
+     * Reads a segment that other data follows, like the derived state of a LedgerSnapshot.
+     * @param end - offset where the segment ends
+     */
+    static TransactionStore read(FileChannel channel, Path path, long end) throws IOException {
+        ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        if (header.getInt(0) != MAGIC) {
+            throw new IOException(path + " is not a binary ledger");
+        }
+        if (header.getInt(4) != VERSION) {
+            throw new IOException("Unsupported binary ledger version " + header.getInt(4));
+        }
+        int rows = header.getInt(8);
+        int descriptionCount = header.getInt(12);
+        int vendorCount = header.getInt(16);
+        long dictionaryOffset = header.getLong(24);
+        if (rows < 0 || dictionaryOffset != HEADER_SIZE + (long) rows * ROW_SIZE || dictionaryOffset > end) {
+            throw new IOException(path + " is truncated or corrupt");
+        }
+
+        long position = HEADER_SIZE;
+        int[] dates = new int[rows];
+        position = readInts(channel, position, dates);
+        int[] times = new int[rows];
+        position = readInts(channel, position, times);
+        long[] amounts = new long[rows];
+        position = readLongs(channel, position, amounts);
+        int[] descriptions = new int[rows];
+        position = readInts(channel, position, descriptions);
+        int[] vendors = new int[rows];
+        readInts(channel, position, vendors);
+
+        MappedByteBuffer dictionary = channel.map(FileChannel.MapMode.READ_ONLY, dictionaryOffset, end - dictionaryOffset);
+        dictionary.order(ByteOrder.LITTLE_ENDIAN);
+        String[] descriptionValues = readStrings(dictionary, descriptionCount, path);
+        String[] vendorValues = readStrings(dictionary, vendorCount, path);
+        checkIds(descriptions, descriptionValues.length, path);
+        checkIds(vendors, vendorValues.length, path);
+        return TransactionStore.fromColumns(rows, dates, times, amounts, descriptions, vendors, descriptionValues, vendorValues);
+    }
+
+    static long readInts(FileChannel channel, long position, int[] column) throws IOException {
+        int done = 0;
+        while (done < column.length) {
+            int count = Math.min(column.length - done, MAX_MAPPING / 4);
+            channel.map(FileChannel.MapMode.READ_ONLY, position, (long) count * 4)
+                    .order(ByteOrder.LITTLE_ENDIAN).asIntBuffer().get(column, done, count);
+            position += (long) count * 4;
+            done += count;
+        }
+        return position;
+    }
+
+    static long readLongs(FileChannel channel, long position, long[] column) throws IOException {
+        int done = 0;
+        while (done < column.length) {
+            int count = Math.min(column.length - done, MAX_MAPPING / 8);
+            channel.map(FileChannel.MapMode.READ_ONLY, position, (long) count * 8)
+                    .order(ByteOrder.LITTLE_ENDIAN).asLongBuffer().get(column, done, count);
+            position += (long) count * 8;
+            done += count;
+        }
+        return position;
+    }
+
+    /**
+     * @throws IOException - when an id of the column is not a value of its dictionary
+     */
+    private static void checkIds(int[] ids, int count, Path path) throws IOException {
+        for (int id : ids) {
+            if (id < 0 || id >= count) {
+                throw new IOException(path + " is truncated or corrupt");
+            }
+        }
+    }
+
+    /**
+     * Reads the values of a dictionary, each as byte length + UTF-8 bytes.
+     * @throws IOException - when a count or length points past the end of the segment
+     */
+    private static String[] readStrings(ByteBuffer buffer, int count, Path path) throws IOException {
+        if (count < 0 || count > buffer.remaining() / 4) {
+            throw new IOException(path + " is truncated or corrupt");
+        }
+        String[] values = new String[count];
+        byte[] bytes = new byte[256];
+        for (int i = 0; i < count; i++) {
+            if (buffer.remaining() < 4) {
+                throw new IOException(path + " is truncated or corrupt");
+            }
+            int length = buffer.getInt();
+            if (length < 0 || length > buffer.remaining()) {
+                throw new IOException(path + " is truncated or corrupt");
+            }
+            if (bytes.length < length) {
+                bytes = new byte[length];
+            }
+            buffer.get(bytes, 0, length);
+            values[i] = new String(bytes, 0, length, StandardCharsets.UTF_8);
+        }
+        return values;
+    }
+}
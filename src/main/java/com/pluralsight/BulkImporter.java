@@ -0,0 +1,455 @@
+package com.pluralsight;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.DateTimeException;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Appends a large date|time|description|vendor|amount file to the ledger and to the transactions file.
+ * The import is a pipeline of stages connected by bounded queues:
+ * read (one thread, batches of lines) -> parse and validate (a pool of workers) -> order (one thread, puts the batches
+ * back in file order) -> write (one thread, appends them through the LedgerWriter) -> index (one thread, adds them
+ * to the ledger). A group is added to the ledger only after it was written, so the ledger never shows a row that
+ * is not saved, as with a single transaction.
+ * A full queue blocks the stage before it, and the reader can't get more than MAX_IN_FLIGHT batches ahead of the
+ * order stage, so memory stays bounded however large the file is.
+ * Malformed lines don't stop the import; they go to a dead-letter file as lineNumber|reason|line.
+ */
+public class BulkImporter {
+
+    private static final int BATCH_LINES = 4096;
+    private static final int INDEX_BATCH_ROWS = 65_536;
+
+    private static final Metrics.Timer IMPORT = Metrics.timer("import");
+    private static final Metrics.Counter IMPORTED_ROWS = Metrics.counter("import_rows");
+    private static final Metrics.Counter REJECTED_LINES = Metrics.counter("import_rejected_lines");
+    private static final int QUEUE_CAPACITY = 16;
+    private static final int MAX_IN_FLIGHT = 64;
+    private static final int FIELD_COUNT = 5;
+
+    /**
+     * Throughput counters of one stage.
+     */
+    public static class Stage {
+        private final String name;
+        private final LongAdder rows = new LongAdder();
+        private final LongAdder busyNanos = new LongAdder();
+        private final LongAdder blockedNanos = new LongAdder();
+
+        Stage(String name) {
+            this.name = name;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * @return - lines (read, parse) or rows (order, write, index) that went through the stage
+         */
+        public long getRows() {
+            return rows.sum();
+        }
+
+        /**
+         * @return - time spent working, summed over the threads of the stage
+         */
+        public long getBusyNanos() {
+            return busyNanos.sum();
+        }
+
+        /**
+         * @return - time spent waiting for room in the next queue, the stage was ahead of the next one
+         */
+        public long getBlockedNanos() {
+            return blockedNanos.sum();
+        }
+
+        /**
+         * @return - rows per second of busy time
+         */
+        public double getRowsPerSecond() {
+            long busy = getBusyNanos();
+            return busy == 0 ? 0 : getRows() * 1e9 / busy;
+        }
+    }
+
+    /**
+     * Outcome of an import.
+     */
+    public static class Result {
+        private final long imported;
+        private final long rejected;
+        private final long elapsedNanos;
+        private final List<Stage> stages;
+
+        Result(long imported, long rejected, long elapsedNanos, List<Stage> stages) {
+            this.imported = imported;
+            this.rejected = rejected;
+            this.elapsedNanos = elapsedNanos;
+            this.stages = stages;
+        }
+
+        public long getImported() {
+            return imported;
+        }
+
+        /**
+         * @return - number of lines written to the dead-letter file
+         */
+        public long getRejected() {
+            return rejected;
+        }
+
+        public long getElapsedNanos() {
+            return elapsedNanos;
+        }
+
+        public List<Stage> getStages() {
+            return stages;
+        }
+    }
+
+    /** lines read from the file, number is the position of the batch in the file */
+    private static class Lines {
+        final long number;
+        final long firstLine;
+        final List<String> lines;
+
+        Lines(long number, long firstLine, List<String> lines) {
+            this.number = number;
+            this.firstLine = firstLine;
+            this.lines = lines;
+        }
+    }
+
+    /** parsed rows of one or more batches, with the lines that were rejected */
+    private static class Parsed {
+        final long number;
+        final TransactionStore rows;
+        final List<String> rejects;
+
+        Parsed(long number, TransactionStore rows, List<String> rejects) {
+            this.number = number;
+            this.rows = rows;
+            this.rejects = rejects;
+        }
+    }
+
+    private static final Lines END_OF_LINES = new Lines(-1, -1, List.of());
+    private static final Parsed END_OF_ROWS = new Parsed(-1, null, List.of());
+
+    private final Ledger ledger;
+    private final LedgerWriter writer;
+    private final int workers;
+
+    private final Stage read = new Stage("read");
+    private final Stage parse = new Stage("parse");
+    private final Stage order = new Stage("order");
+    private final Stage write = new Stage("write");
+    private final Stage index = new Stage("index");
+
+    /**
+     * An importer runs one import, its stage counters belong to that import.
+     * @param ledger - ledger the rows are added to
+     * @param writer - writer of the transactions file or of its write-ahead log
+     * @param workers - number of parse and validate threads
+     */
+    public BulkImporter(Ledger ledger, LedgerWriter writer, int workers) {
+        this.ledger = ledger;
+        this.writer = writer;
+        this.workers = Math.max(1, workers);
+    }
+
+    /**
+     * Imports the file. Rows keep the order of the file.
+     * @param input - file in format date|time|description|vendor|amount
+     * @param deadLetter - file for the malformed lines, it is replaced
+     * @return - number of imported and rejected rows and the stage counters
+     * @throws IOException - when a file can't be read or written, rows written before the error stay imported,
+     *                       the group that failed and the ones after it are neither saved nor added to the ledger
+     */
+    public Result importFile(Path input, Path deadLetter) throws IOException {
+        long start = System.nanoTime();
+        BlockingQueue<Lines> lines = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+        BlockingQueue<Parsed> parsed = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+        BlockingQueue<Parsed> ordered = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+        BlockingQueue<Parsed> written = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+        Semaphore inFlight = new Semaphore(MAX_IN_FLIGHT);
+        LongAdder imported = new LongAdder();
+        LongAdder rejected = new LongAdder();
+
+        ExecutorService pool = Executors.newFixedThreadPool(workers + 4, runnable -> {
+            Thread thread = new Thread(runnable, "bulk-import");
+            thread.setDaemon(true);
+            return thread;
+        });
+        CompletionService<Void> completion = new ExecutorCompletionService<>(pool);
+        try (BufferedReader reader = Files.newBufferedReader(input, StandardCharsets.UTF_8);
+             BufferedWriter dead = Files.newBufferedWriter(deadLetter, StandardCharsets.UTF_8)) {
+            completion.submit(stage(() -> readLines(reader, lines, inFlight)));
+            for (int i = 0; i < workers; i++) {
+                completion.submit(stage(() -> parseLines(lines, parsed)));
+            }
+            completion.submit(stage(() -> orderRows(parsed, ordered, inFlight)));
+            completion.submit(stage(() -> writeRows(ordered, written, dead, rejected)));
+            completion.submit(stage(() -> indexRows(written, imported)));
+            awaitAll(completion, workers + 4);
+            writer.flush();
+        } finally {
+            pool.shutdownNow();
+            IMPORT.stop(start);
+            IMPORTED_ROWS.add(imported.sum());
+            REJECTED_LINES.add(rejected.sum());
+        }
+        return new Result(imported.sum(), rejected.sum(), System.nanoTime() - start, List.of(read, parse, order, write, index));
+    }
+
+    private interface StageBody {
+        void run() throws IOException, InterruptedException;
+    }
+
+    private static Callable<Void> stage(StageBody body) {
+        return () -> {
+            body.run();
+            return null;
+        };
+    }
+
+    /**
+     * Waits for every stage. The first stage that fails ends the import, the caller stops the others.
+     */
+    private static void awaitAll(CompletionService<Void> completion, int stages) throws IOException {
+        try {
+            for (int i = 0; i < stages; i++) {
+                completion.take().get();
+            }
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException io) {
+                throw io;
+            }
+            if (cause instanceof UncheckedIOException io) {
+                throw io.getCause();
+            }
+            throw new IOException("Import failed", cause);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Import was interrupted", e);
+        }
+    }
+
+    /* ------------------------------------------------------------------
+       Stages
+       ------------------------------------------------------------------ */
+
+    private void readLines(BufferedReader reader, BlockingQueue<Lines> out, Semaphore inFlight) throws IOException, InterruptedException {
+        long number = 0;
+        long lineNumber = 1;
+        while (true) {
+            long begin = System.nanoTime();
+            List<String> batch = new ArrayList<>(BATCH_LINES);
+            String line;
+            while (batch.size() < BATCH_LINES && (line = reader.readLine()) != null) {
+                batch.add(line);
+            }
+            read.busyNanos.add(System.nanoTime() - begin);
+            if (batch.isEmpty()) {
+                break;
+            }
+            read.rows.add(batch.size());
+            long blocked = System.nanoTime();
+            inFlight.acquire();
+            out.put(new Lines(number++, lineNumber, batch));
+            read.blockedNanos.add(System.nanoTime() - blocked);
+            lineNumber += batch.size();
+        }
+        for (int i = 0; i < workers; i++) {
+            out.put(END_OF_LINES);
+        }
+    }
+
+    private void parseLines(BlockingQueue<Lines> in, BlockingQueue<Parsed> out) throws InterruptedException {
+        while (true) {
+            Lines batch = in.take();
+            if (batch == END_OF_LINES) {
+                out.put(END_OF_ROWS);
+                return;
+            }
+            long begin = System.nanoTime();
+            TransactionStore rows = new TransactionStore();
+            List<String> rejects = new ArrayList<>();
+            for (int i = 0; i < batch.lines.size(); i++) {
+                String line = batch.lines.get(i);
+                String reason = parseLine(line, rows);
+                if (reason != null) {
+                    rejects.add((batch.firstLine + i) + "|" + reason + "|" + line);
+                }
+            }
+            parse.rows.add(batch.lines.size());
+            parse.busyNanos.add(System.nanoTime() - begin);
+            long blocked = System.nanoTime();
+            out.put(new Parsed(batch.number, rows, rejects));
+            parse.blockedNanos.add(System.nanoTime() - blocked);
+        }
+    }
+
+    /**
+     * Puts the batches back in file order and hands them to the writer in groups of about INDEX_BATCH_ROWS rows.
+     */
+    private void orderRows(BlockingQueue<Parsed> in, BlockingQueue<Parsed> out, Semaphore inFlight) throws InterruptedException {
+        Map<Long, Parsed> waiting = new HashMap<>();
+        long next = 0;
+        int ended = 0;
+        TransactionStore pending = new TransactionStore();
+        List<String> pendingRejects = new ArrayList<>();
+        while (ended < workers) {
+            Parsed batch = in.take();
+            if (batch == END_OF_ROWS) {
+                ended++;
+                continue;
+            }
+            waiting.put(batch.number, batch);
+            long begin = System.nanoTime();
+            Parsed ready;
+            while ((ready = waiting.remove(next)) != null) {
+                next++;
+                inFlight.release();
+                pending.addAll(ready.rows);
+                pendingRejects.addAll(ready.rejects);
+            }
+            order.busyNanos.add(System.nanoTime() - begin);
+            //Flush a full group, or whatever is there when the workers have nothing else ready
+            if (pending.size() >= INDEX_BATCH_ROWS || (in.isEmpty() && pending.size() + pendingRejects.size() > 0)) {
+                flushGroup(pending, pendingRejects, out);
+                pending = new TransactionStore();
+                pendingRejects = new ArrayList<>();
+            }
+        }
+        flushGroup(pending, pendingRejects, out);
+        out.put(END_OF_ROWS);
+    }
+
+    private void flushGroup(TransactionStore rows, List<String> rejects, BlockingQueue<Parsed> out) throws InterruptedException {
+        if (rows.size() == 0 && rejects.isEmpty()) {
+            return;
+        }
+        order.rows.add(rows.size());
+        long blocked = System.nanoTime();
+        out.put(new Parsed(0, rows, rejects));
+        order.blockedNanos.add(System.nanoTime() - blocked);
+    }
+
+    /**
+     * Writes every group and the rejected lines, then hands the group to the index stage.
+     * When a write fails the group is not handed on, so it and the groups after it never reach the ledger.
+     */
+    private void writeRows(BlockingQueue<Parsed> in, BlockingQueue<Parsed> out, BufferedWriter dead, LongAdder rejected)
+            throws IOException, InterruptedException {
+        while (true) {
+            Parsed batch = in.take();
+            if (batch == END_OF_ROWS) {
+                dead.flush();
+                out.put(END_OF_ROWS);
+                return;
+            }
+            long begin = System.nanoTime();
+            writer.appendAll(batch.rows);
+            for (String reject : batch.rejects) {
+                dead.write(reject);
+                dead.newLine();
+            }
+            rejected.add(batch.rejects.size());
+            write.rows.add(batch.rows.size());
+            write.busyNanos.add(System.nanoTime() - begin);
+            long blocked = System.nanoTime();
+            out.put(batch);
+            write.blockedNanos.add(System.nanoTime() - blocked);
+        }
+    }
+
+    /**
+     * Adds the written groups to the ledger.
+     */
+    private void indexRows(BlockingQueue<Parsed> in, LongAdder imported) throws InterruptedException {
+        while (true) {
+            Parsed batch = in.take();
+            if (batch == END_OF_ROWS) {
+                return;
+            }
+            long begin = System.nanoTime();
+            ledger.addAll(batch.rows);
+            imported.add(batch.rows.size());
+            index.rows.add(batch.rows.size());
+            index.busyNanos.add(System.nanoTime() - begin);
+        }
+    }
+
+    /* ------------------------------------------------------------------
+       Validation
+       ------------------------------------------------------------------ */
+
+    /**
+     * Parses and validates one line and adds it to the rows. Blank lines are skipped.
+     * @return - null when the line was added or skipped, otherwise the reason it was rejected
+     */
+    static String parseLine(String line, TransactionStore rows) {
+        if (line.isBlank()) {
+            return null;
+        }
+        String[] fields = line.split("\\|", -1);
+        if (fields.length != FIELD_COUNT) {
+            return "expected " + FIELD_COUNT + " fields, found " + fields.length;
+        }
+        LocalDate date;
+        LocalTime time;
+        try {
+            date = LocalDate.parse(fields[0].trim());
+        } catch (DateTimeException e) {
+            return "date is not in yyyy-MM-dd format";
+        }
+        if (date.isBefore(AppendWriter.FIRST_DATE) || date.isAfter(AppendWriter.LAST_DATE)) {
+            return "date is not between " + AppendWriter.FIRST_DATE + " and " + AppendWriter.LAST_DATE;
+        }
+        try {
+            time = LocalTime.parse(fields[1].trim());
+        } catch (DateTimeException e) {
+            return "time is not in HH:mm:ss format";
+        }
+        if (fields[2].isBlank()) {
+            return "description is empty";
+        }
+        if (fields[3].isBlank()) {
+            return "vendor is empty";
+        }
+        long cents;
+        try {
+            cents = Money.parse(fields[4]);
+        } catch (NumberFormatException e) {
+            return "amount is not a number";
+        }
+        rows.add(Math.toIntExact(date.toEpochDay()), time.toSecondOfDay(), cents, fields[2], fields[3]);
+        return null;
+    }
+}
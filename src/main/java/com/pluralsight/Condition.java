@@ -0,0 +1,409 @@
+package com.pluralsight;
+
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * One node of a search: a predicate over a row of the ledger.
+ * A condition that is backed by an index can also list its candidate rows and estimate how many there are,
+ * so the QueryEngine can drive the search from the most selective index.
+ */
+public interface Condition {
+
+    /**
+     * Names of the search parameters that parse() understands, as used by GET /search and batch query files.
+     */
+    List<String> PARAMETERS = List.of("start", "end", "description", "vendor", "amount", "minAmount", "maxAmount");
+
+    /**
+     * @return - true when the row satisfies the condition
+     */
+    boolean matches(TransactionStore store, int row);
+
+    /**
+     * @return - number of candidate rows the index would return, Integer.MAX_VALUE when there is no index
+     */
+    int estimate(Ledger ledger);
+
+    /**
+     * @return - candidate rows from the index, or null when there is no index for this condition
+     */
+    IntList candidates(Ledger ledger);
+
+    /**
+     * @return - short text shown in the query plan
+     */
+    String describe();
+
+    /* ------------------------------------------------------------------
+       Factories
+       ------------------------------------------------------------------ */
+
+    static Condition dateRange(LocalDate start, LocalDate end) {
+        return new DateRange(start, end);
+    }
+
+    static Condition vendor(String vendor) {
+        return new Vendor(vendor);
+    }
+
+    static Condition description(String description) {
+        return new Description(description);
+    }
+
+    static Condition amount(long cents) {
+        return new Amount(cents);
+    }
+
+    static Condition amountRange(long min, long max) {
+        return new AmountRange(min, max);
+    }
+
+    static Condition and(List<Condition> conditions) {
+        return new And(conditions);
+    }
+
+    /**
+     * Builds a search from named parameters: start and end dates (yyyy-MM-dd, either may be left out),
+     * description and vendor (case is ignored), an exact amount, minAmount and maxAmount. Other names are ignored.
+     * @param params - parameter values by name
+     * @return - the given conditions combined with and
+     * @throws IllegalArgumentException - when a value can't be parsed or no search parameter is given
+     */
+    static Condition parse(Map<String, String> params) {
+        List<Condition> conditions = new ArrayList<>();
+        if (params.containsKey("start") || params.containsKey("end")) {
+            conditions.add(dateRange(params.containsKey("start") ? parseDate(params.get("start")) : LocalDate.of(1, 1, 1),
+                    params.containsKey("end") ? parseDate(params.get("end")) : LocalDate.of(9999, 12, 31)));
+        }
+        if (params.containsKey("description")) {
+            conditions.add(description(params.get("description")));
+        }
+        if (params.containsKey("vendor")) {
+            conditions.add(vendor(params.get("vendor")));
+        }
+        if (params.containsKey("amount")) {
+            conditions.add(amount(parseAmount(params.get("amount"))));
+        }
+        if (params.containsKey("minAmount") || params.containsKey("maxAmount")) {
+            conditions.add(amountRange(
+                    params.containsKey("minAmount") ? parseAmount(params.get("minAmount")) : Long.MIN_VALUE,
+                    params.containsKey("maxAmount") ? parseAmount(params.get("maxAmount")) : Long.MAX_VALUE));
+        }
+        if (conditions.isEmpty()) {
+            throw new IllegalArgumentException("give at least one of " + String.join(", ", PARAMETERS));
+        }
+        return and(conditions);
+    }
+
+    private static LocalDate parseDate(String value) {
+        try {
+            return LocalDate.parse(value);
+        } catch (DateTimeParseException e) {
+            throw new IllegalArgumentException("dates must be in yyyy-MM-dd format");
+        }
+    }
+
+    private static long parseAmount(String value) {
+        try {
+            return Money.parse(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("amount must be a number");
+        }
+    }
+
+    /* ------------------------------------------------------------------
+       Conditions
+       ------------------------------------------------------------------ */
+
+    /**
+     * Date between start and end, both included. Backed by the DateIndex.
+     */
+    class DateRange implements Condition {
+        private final int start;
+        private final int end;
+
+        DateRange(LocalDate start, LocalDate end) {
+            this.start = DateIndex.epochDay(start);
+            this.end = DateIndex.epochDay(end);
+        }
+
+        public LocalDate getStart() {
+            return LocalDate.ofEpochDay(start);
+        }
+
+        public LocalDate getEnd() {
+            return LocalDate.ofEpochDay(end);
+        }
+
+        @Override
+        public boolean matches(TransactionStore store, int row) {
+            int day = store.getEpochDay(row);
+            return day >= start && day <= end;
+        }
+
+        @Override
+        public int estimate(Ledger ledger) {
+            DateIndex index = ledger.getDateIndex();
+            return Math.max(0, index.upperBound(end) - index.lowerBound(start));
+        }
+
+        @Override
+        public IntList candidates(Ledger ledger) {
+            DateIndex index = ledger.getDateIndex();
+            int from = index.lowerBound(start);
+            int to = index.upperBound(end);
+            IntList rows = new IntList(Math.max(1, to - from));
+            for (int i = from; i < to; i++) {
+                rows.add(index.row(i));
+            }
+            return rows;
+        }
+
+        @Override
+        public String describe() {
+            return "date " + LocalDate.ofEpochDay(start) + ".." + LocalDate.ofEpochDay(end);
+        }
+    }
+
+    /**
+     * Vendor equal to the given one, case is ignored. Backed by the vendor TextIndex.
+     */
+    class Vendor implements Condition {
+        private final String vendor;
+        private final FoldedValue folded;
+
+        Vendor(String vendor) {
+            this.vendor = vendor;
+            this.folded = new FoldedValue(vendor);
+        }
+
+        public String getVendor() {
+            return vendor;
+        }
+
+        @Override
+        public boolean matches(TransactionStore store, int row) {
+            return folded.matches(store.getVendorDictionary(), store.getVendorId(row));
+        }
+
+        @Override
+        public int estimate(Ledger ledger) {
+            return ledger.getVendorIndex().exact(vendor).size();
+        }
+
+        @Override
+        public IntList candidates(Ledger ledger) {
+            return ledger.getVendorIndex().exact(vendor);
+        }
+
+        @Override
+        public String describe() {
+            return "vendor = '" + vendor + "'";
+        }
+    }
+
+    /**
+     * Description equal to the given one, case is ignored. Backed by the description TextIndex.
+     */
+    class Description implements Condition {
+        private final String description;
+        private final FoldedValue folded;
+
+        Description(String description) {
+            this.description = description;
+            this.folded = new FoldedValue(description);
+        }
+
+        @Override
+        public boolean matches(TransactionStore store, int row) {
+            return folded.matches(store.getDescriptionDictionary(), store.getDescriptionId(row));
+        }
+
+        @Override
+        public int estimate(Ledger ledger) {
+            return ledger.getDescriptionIndex().exact(description).size();
+        }
+
+        @Override
+        public IntList candidates(Ledger ledger) {
+            return ledger.getDescriptionIndex().exact(description);
+        }
+
+        @Override
+        public String describe() {
+            return "description = '" + description + "'";
+        }
+    }
+
+    /**
+     * Amount equal to the given one, compared in cents. Backed by the AmountIndex.
+     */
+    class Amount implements Condition {
+        private final long cents;
+
+        Amount(long cents) {
+            this.cents = cents;
+        }
+
+        @Override
+        public boolean matches(TransactionStore store, int row) {
+            return store.getCents(row) == cents;
+        }
+
+        @Override
+        public int estimate(Ledger ledger) {
+            return ledger.getAmountIndex().count(cents, cents);
+        }
+
+        @Override
+        public IntList candidates(Ledger ledger) {
+            return ledger.getAmountIndex().exact(cents);
+        }
+
+        @Override
+        public String describe() {
+            return "amount = " + Money.format(cents);
+        }
+    }
+
+    /**
+     * Amount between min and max in cents, both included. Backed by the AmountIndex.
+     */
+    class AmountRange implements Condition {
+        private final long min;
+        private final long max;
+
+        AmountRange(long min, long max) {
+            this.min = min;
+            this.max = max;
+        }
+
+        public long getMin() {
+            return min;
+        }
+
+        public long getMax() {
+            return max;
+        }
+
+        @Override
+        public boolean matches(TransactionStore store, int row) {
+            long cents = store.getCents(row);
+            return cents >= min && cents <= max;
+        }
+
+        @Override
+        public int estimate(Ledger ledger) {
+            return ledger.getAmountIndex().count(min, max);
+        }
+
+        @Override
+        public IntList candidates(Ledger ledger) {
+            return ledger.getAmountIndex().range(min, max);
+        }
+
+        @Override
+        public String describe() {
+            if (min == Long.MIN_VALUE) {
+                return "amount <= " + Money.format(max);
+            }
+            if (max == Long.MAX_VALUE) {
+                return "amount >= " + Money.format(min);
+            }
+            return "amount " + Money.format(min) + ".." + Money.format(max);
+        }
+    }
+
+    /**
+     * Case-insensitive equality by folded id: the value is looked up in a dictionary once,
+     * after that every row is checked with one int comparison instead of equalsIgnoreCase.
+     */
+    class FoldedValue {
+
+        /**
+         * Folded id of the value in one dictionary, together with the folded size it was looked up at.
+         */
+        private static class Lookup {
+            final StringDictionary dictionary;
+            final int foldedSize;
+            final int foldedId;
+
+            Lookup(StringDictionary dictionary, int foldedSize, int foldedId) {
+                this.dictionary = dictionary;
+                this.foldedSize = foldedSize;
+                this.foldedId = foldedId;
+            }
+        }
+
+        private final String value;
+        private volatile Lookup last;
+
+        FoldedValue(String value) {
+            this.value = value;
+        }
+
+        /**
+         * @param dictionary - dictionary of the column
+         * @param id - id of the row's value in the dictionary
+         * @return - true when the row's value equals this one ignoring case
+         */
+        boolean matches(StringDictionary dictionary, int id) {
+            Lookup lookup = last;
+            //A value that was missing may have been added since, look again when the dictionary grew
+            if (lookup == null || lookup.dictionary != dictionary || (lookup.foldedId < 0 && lookup.foldedSize != dictionary.foldedSize())) {
+                int foldedSize = dictionary.foldedSize();
+                lookup = new Lookup(dictionary, foldedSize, dictionary.lookupFolded(value));
+                last = lookup;
+            }
+            return lookup.foldedId >= 0 && dictionary.foldedId(id) == lookup.foldedId;
+        }
+    }
+
+    /**
+     * All child conditions must match. The QueryEngine drives it from the child with the smallest estimate.
+     */
+    class And implements Condition {
+        private final List<Condition> conditions;
+
+        And(List<Condition> conditions) {
+            this.conditions = new ArrayList<>(conditions);
+        }
+
+        public List<Condition> getConditions() {
+            return conditions;
+        }
+
+        @Override
+        public boolean matches(TransactionStore store, int row) {
+            for (Condition condition : conditions) {
+                if (!condition.matches(store, row)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public int estimate(Ledger ledger) {
+            return Integer.MAX_VALUE;
+        }
+
+        @Override
+        public IntList candidates(Ledger ledger) {
+            return null;
+        }
+
+        @Override
+        public String describe() {
+            List<String> parts = new ArrayList<>();
+            for (Condition condition : conditions) {
+                parts.add(condition.describe());
+            }
+            return conditions.isEmpty() ? "everything" : String.join(" and ", parts);
+        }
+    }
+}
@@ -0,0 +1,250 @@
+package com.pluralsight;
+
+import java.time.LocalDate;
+import java.util.Arrays;
+
+/**
+ * Row numbers sorted by date, so a date range is found with two binary searches
+ * and only the matching rows are visited.
+ * Rows with the same date keep the order in which they were added.
+ * Once snapshot() has shared the arrays, positions below the snapshot's size are never written again:
+ * appends go past them and an out-of-order insert or a sort works on new arrays.
+ */
+public class DateIndex {
+
+    private int[] days = new int[1024];
+    private int[] rows = new int[1024];
+    private int size;
+    private final boolean readOnly;
+    // true while a snapshot uses the current arrays
+    private boolean shared;
+
+    public DateIndex() {
+        this.readOnly = false;
+    }
+
+    /**
+     * Builds an index around sorted positions saved by LedgerSnapshot, the arrays are taken over without copying.
+     * @param days - epoch days in ascending order, rows of the same day in the order they were added
+     * @param rows - row number at each position
+     */
+    DateIndex(int[] days, int[] rows) {
+        this.days = days;
+        this.rows = rows;
+        this.size = days.length;
+        this.readOnly = false;
+    }
+
+    private DateIndex(DateIndex source) {
+        this.days = source.days;
+        this.rows = source.rows;
+        this.size = source.size;
+        this.readOnly = true;
+    }
+
+    /**
+     * Epoch day of a date as the int that rows store. Rows are dated 0001-01-01 to 9999-12-31, so clamping a date
+     * like LocalDate.MIN or LocalDate.MAX to the int range does not change which rows a range matches.
+     * @param date - any date
+     * @return - epoch day, clamped to the int range
+     */
+    public static int epochDay(LocalDate date) {
+        return (int) Math.max(Integer.MIN_VALUE, Math.min(Integer.MAX_VALUE, date.toEpochDay()));
+    }
+
+    /**
+     * Takes a read-only view of the index as it is now. Must be called by the thread that adds rows.
+     * @return - index that keeps its current rows when this one changes
+     */
+    public DateIndex snapshot() {
+        if (readOnly) {
+            return this;
+        }
+        shared = true;
+        return new DateIndex(this);
+    }
+
+    /**
+     * Adds a row to the index. Appends in date order are O(1),
+     * an older date is inserted at its place so the index stays sorted.
+     * @param epochDay - date of the row as epoch day
+     * @param row - row number in the TransactionStore
+     */
+    public void add(int epochDay, int row) {
+        checkWritable();
+        ensureCapacity(size + 1);
+        int position = size;
+        if (size > 0 && days[size - 1] > epochDay) {
+            position = upperBound(epochDay);
+            if (shared) {
+                int[] newDays = new int[days.length];
+                int[] newRows = new int[rows.length];
+                System.arraycopy(days, 0, newDays, 0, position);
+                System.arraycopy(rows, 0, newRows, 0, position);
+                System.arraycopy(days, position, newDays, position + 1, size - position);
+                System.arraycopy(rows, position, newRows, position + 1, size - position);
+                days = newDays;
+                rows = newRows;
+                shared = false;
+            } else {
+                System.arraycopy(days, position, days, position + 1, size - position);
+                System.arraycopy(rows, position, rows, position + 1, size - position);
+            }
+        }
+        days[position] = epochDay;
+        rows[position] = row;
+        size++;
+    }
+
+    /**
+     * Adds rows [fromRow, store.size()) of the store. When the new rows are not in date order
+     * they are sorted on their own and merged with the index, O(n + k log k) for k new rows,
+     * instead of inserting row by row.
+     * @param store - store that holds the rows
+     * @param fromRow - first row that is not indexed yet
+     */
+    public void addAll(TransactionStore store, int fromRow) {
+        checkWritable();
+        int count = store.size() - fromRow;
+        ensureCapacity(size + count);
+        int oldSize = size;
+        boolean sorted = true;
+        for (int row = fromRow; row < store.size(); row++) {
+            int day = store.getEpochDay(row);
+            if (size > 0 && days[size - 1] > day) {
+                sorted = false;
+            }
+            days[size] = day;
+            rows[size] = row;
+            size++;
+        }
+        if (!sorted) {
+            sortAndMerge(oldSize);
+        }
+    }
+
+    /**
+     * Sorts positions [from, size) by (day, row) and merges them with the sorted positions [0, from).
+     * Rows are added in increasing order, so equal days keep their insertion order.
+     * Positions before the oldest new day don't move: they are kept as they are, or copied in one block
+     * when a snapshot may still be reading the old arrays, so rows that are a few days late only merge the last days.
+     */
+    private void sortAndMerge(int from) {
+        long[] added = new long[size - from];
+        for (int i = from; i < size; i++) {
+            added[i - from] = ((long) days[i] << 32) | (rows[i] & 0xFFFFFFFFL);
+        }
+        Arrays.parallelSort(added);
+        int start = upperBound((int) (added[0] >> 32), from);
+        int[] oldDays = Arrays.copyOfRange(days, start, from);
+        int[] oldRows = Arrays.copyOfRange(rows, start, from);
+        if (shared) {
+            int[] mergedDays = new int[days.length];
+            int[] mergedRows = new int[rows.length];
+            System.arraycopy(days, 0, mergedDays, 0, start);
+            System.arraycopy(rows, 0, mergedRows, 0, start);
+            days = mergedDays;
+            rows = mergedRows;
+            shared = false;
+        }
+        int i = 0;
+        int j = 0;
+        int n = start;
+        while (i < oldDays.length && j < added.length) {
+            int day = (int) (added[j] >> 32);
+            //Old rows have lower row numbers, so on equal days they come first
+            if (oldDays[i] <= day) {
+                days[n] = oldDays[i];
+                rows[n++] = oldRows[i++];
+            } else {
+                days[n] = day;
+                rows[n++] = (int) added[j++];
+            }
+        }
+        System.arraycopy(oldDays, i, days, n, oldDays.length - i);
+        System.arraycopy(oldRows, i, rows, n, oldDays.length - i);
+        n += oldDays.length - i;
+        for (; j < added.length; j++) {
+            days[n] = (int) (added[j] >> 32);
+            rows[n++] = (int) added[j];
+        }
+    }
+
+    /**
+     * @param epochDay - date as epoch day
+     * @return - first position whose date is on or after the given date
+     */
+    public int lowerBound(int epochDay) {
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (days[middle] < epochDay) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * @param epochDay - date as epoch day
+     * @return - first position whose date is after the given date
+     */
+    public int upperBound(int epochDay) {
+        return upperBound(epochDay, size);
+    }
+
+    /**
+     * @return - first position below end whose date is after the given date, positions [0, end) must be sorted
+     */
+    private int upperBound(int epochDay, int end) {
+        int low = 0;
+        int high = end;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (days[middle] <= epochDay) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * @param position - position in the index, between 0 and size()
+     * @return - row number stored at this position
+     */
+    public int row(int position) {
+        return rows[position];
+    }
+
+    /**
+     * @param position - position in the index, between 0 and size()
+     * @return - epoch day stored at this position
+     */
+    public int day(int position) {
+        return days[position];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity > days.length) {
+            int newCapacity = Math.max(capacity, days.length + (days.length >> 1));
+            days = Arrays.copyOf(days, newCapacity);
+            rows = Arrays.copyOf(rows, newCapacity);
+            shared = false;
+        }
+    }
+
+    private void checkWritable() {
+        if (readOnly) {
+            throw new UnsupportedOperationException("Snapshot of the date index can't be modified");
+        }
+    }
+}
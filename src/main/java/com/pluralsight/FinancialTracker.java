@@ -1,18 +1,51 @@
 package com.pluralsight;
 
 import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.time.*;
 import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
+import java.util.List;
 import java.util.Scanner;
+import java.util.function.Function;
 
 public class FinancialTracker {
 
     /* ------------------------------------------------------------------
        Shared data and formatters
        ------------------------------------------------------------------ */
-    private static final ArrayList<Transaction> transactions = new ArrayList<>();
-    private static final String FILE_NAME = "transactions.csv";
+    private static final Ledger ledger = new Ledger();
+    static final String FILE_NAME = "transactions.csv";
+    // Optional binary segment with older rows, written by LedgerConverter, new rows still go to FILE_NAME
+    static final String BINARY_FILE_NAME = "transactions.bin";
+
+    // Optional monthly partitions with older rows, written by LedgerConverter partition and loaded when a report needs them
+    static final String PARTITION_DIRECTORY = "partitions";
+    private static LedgerPartitions partitions;
+
+    // New rows go to a write-ahead log first and are copied to FILE_NAME at checkpoints
+    static final String LOG_FILE_NAME = "transactions.wal";
+    static final String CHECKPOINT_FILE_NAME = "transactions.checkpoint";
+
+    // Ledger and indexes saved by batch runs, so the next run does not parse the transaction files again
+    static final String SNAPSHOT_FILE_NAME = "transactions.snapshot";
+    // Rows appended after the snapshot are parsed on every run, past this many bytes the snapshot is written again
+    private static final long SNAPSHOT_REWRITE_BYTES = 1 << 20;
+
+    // One log for the whole session, rows are batched instead of opening the file for every row
+    private static WriteAheadLog writer;
+    // With --follow, rows that other processes append to FILE_NAME are added while the app runs
+    private static LedgerFollower follower;
+    private static AppendWriter.Durability durability = AppendWriter.Durability.BUFFERED;
+
+    // Tables are formatted in a reusable buffer and written to stdout in blocks
+    private static final LedgerRenderer renderer = new LedgerRenderer(System.out);
+    // --page N --size M given on the command line applies to every table, given after a menu option to that table only
+    private static LedgerRenderer.Page defaultPage = LedgerRenderer.Page.ALL;
+    private static LedgerRenderer.Page page = LedgerRenderer.Page.ALL;
+    // Vendors listed under the year reports
+    private static final int TOP_VENDORS = 10;
 
     private static final String DATE_PATTERN = "yyyy-MM-dd";
     private static final String TIME_PATTERN = "HH:mm:ss";
@@ -20,11 +53,157 @@ public class FinancialTracker {
     private static final DateTimeFormatter DATE_FMT = DateTimeFormatter.ofPattern(DATE_PATTERN);
     private static final DateTimeFormatter TIME_FMT = DateTimeFormatter.ofPattern(TIME_PATTERN);
 
+    // Latency of every report and of adding a transaction, shown by the M option and written by --metrics FILE
+    private static final Metrics.Timer APPEND_TIMER = Metrics.timer("append");
+    private static final Metrics.Timer LEDGER_TIMER = Metrics.timer("report_ledger");
+    private static final Metrics.Timer DATE_REPORT = Metrics.timer("report_date");
+    private static final Metrics.Timer BREAKDOWN_REPORT = Metrics.timer("report_breakdown");
+    private static final Metrics.Timer BALANCE_REPORT = Metrics.timer("report_balance");
+    private static final Metrics.Timer VENDOR_REPORT = Metrics.timer("report_vendor");
+    private static final Metrics.Timer DESCRIPTION_REPORT = Metrics.timer("report_description");
+    private static final Metrics.Timer QUERY_REPORT = Metrics.timer("report_query");
+    private static final Metrics.Timer LARGEST_REPORT = Metrics.timer("report_largest");
+    private static final Metrics.Timer STATISTICS_REPORT = Metrics.timer("report_statistics");
+    // Unexpected exceptions caught by the menu, they used to be visible only as "Something went wrong"
+    private static final Metrics.Counter ERRORS = Metrics.counter("errors");
+    private static final long DEFAULT_METRICS_INTERVAL = 60;
+
     /* ------------------------------------------------------------------
        Main menu
        ------------------------------------------------------------------ */
     public static void main(String[] args) {
-        loadTransactions(FILE_NAME);
+        int servePort = -1;
+        String importFile = null;
+        String reconcileFile = null;
+        int tolerance = Reconciler.DEFAULT_TOLERANCE_DAYS;
+        Path metricsFile = null;
+        long metricsInterval = DEFAULT_METRICS_INTERVAL;
+        String batchFile = null;
+        String format = "csv";
+        Path snapshotFile = Path.of(SNAPSHOT_FILE_NAME);
+        boolean follow = false;
+        for (int i = 0; i < args.length; i++) {
+            //--fsync: every new transaction is forced to disk before the app reports it as added
+            if (args[i].equals("--fsync")) {
+                durability = AppendWriter.Durability.GROUP_COMMIT;
+            }
+            //--follow: pick up rows that other processes append to the transactions file
+            if (args[i].equals("--follow")) {
+                follow = true;
+            }
+            //--serve PORT: also answer the HTTP API on localhost while the menu is running
+            if (args[i].equals("--serve") && i + 1 < args.length) {
+                try {
+                    servePort = Integer.parseInt(args[i + 1]);
+                } catch (NumberFormatException e) {
+                    servePort = -1;
+                }
+                if (servePort < 0 || servePort > 65535) {
+                    System.err.println("Usage: --serve PORT, PORT must be between 0 and 65535");
+                    return;
+                }
+            }
+            //--import FILE: append a bank export before the menu starts
+            if (args[i].equals("--import") && i + 1 < args.length) {
+                importFile = args[i + 1];
+            }
+            //--reconcile FILE: reconcile a bank statement before the menu starts, dates may differ by --tolerance days
+            if (args[i].equals("--reconcile") && i + 1 < args.length) {
+                reconcileFile = args[i + 1];
+            }
+            if (args[i].equals("--tolerance") && i + 1 < args.length) {
+                try {
+                    tolerance = Integer.parseInt(args[i + 1]);
+                } catch (NumberFormatException e) {
+                    tolerance = -1;
+                }
+                if (tolerance < 0) {
+                    System.err.println("Usage: --reconcile FILE --tolerance DAYS, DAYS must be 0 or more");
+                    return;
+                }
+            }
+            //--metrics FILE: write the metrics to FILE every --metrics-interval seconds and on exit, JSON when it ends with .json
+            if (args[i].equals("--metrics") && i + 1 < args.length) {
+                metricsFile = Path.of(args[i + 1]);
+            }
+            if (args[i].equals("--metrics-interval") && i + 1 < args.length) {
+                try {
+                    metricsInterval = Long.parseLong(args[i + 1]);
+                } catch (NumberFormatException e) {
+                    metricsInterval = 0;
+                }
+                if (metricsInterval < 1) {
+                    System.err.println("Usage: --metrics FILE --metrics-interval SECONDS, SECONDS must be 1 or more");
+                    return;
+                }
+            }
+            //--batch FILE: answer the queries of FILE as --format csv or json without the menu, see BatchQueries
+            if (args[i].equals("--batch") && i + 1 < args.length) {
+                batchFile = args[i + 1];
+            }
+            if (args[i].equals("--format") && i + 1 < args.length) {
+                format = args[i + 1];
+            }
+            //--snapshot FILE: where batch runs keep the saved ledger, transactions.snapshot by default
+            if (args[i].equals("--snapshot") && i + 1 < args.length) {
+                snapshotFile = Path.of(args[i + 1]);
+            }
+        }
+        defaultPage = LedgerRenderer.Page.parse(args, LedgerRenderer.Page.ALL);
+        if (defaultPage == null) {
+            return;
+        }
+        registerGauges();
+        if (metricsFile != null) {
+            Metrics.startDumps(metricsFile, metricsInterval);
+        }
+        //A compaction that was cut off is finished first, or its rows would be loaded from both files
+        try {
+            LedgerConverter.finishCompaction(Path.of(FILE_NAME), Path.of(BINARY_FILE_NAME));
+        } catch (IOException e) {
+            System.err.println("Could not finish the compaction of " + FILE_NAME + ": " + e.getMessage());
+            dumpMetrics(metricsFile);
+            return;
+        }
+        //Same for moving old rows into partitions, or they would be loaded from the partitions and the files
+        try {
+            LedgerPartitions.finishPartition(Path.of(FILE_NAME), Path.of(BINARY_FILE_NAME), Path.of(PARTITION_DIRECTORY));
+        } catch (IOException e) {
+            System.err.println("Could not finish moving old rows into " + PARTITION_DIRECTORY + ": " + e.getMessage());
+            dumpMetrics(metricsFile);
+            return;
+        }
+        if (batchFile != null) {
+            runBatch(batchFile, format, snapshotFile);
+            dumpMetrics(metricsFile);
+            return;
+        }
+        //Recovery may cut a half-copied checkpoint off the transactions file, so it runs before loading
+        //Without the log new rows could not be saved and the logged ones would not be replayed, so the app stops
+        if (!openLog()) {
+            dumpMetrics(metricsFile);
+            return;
+        }
+        openPartitions();
+        if (Files.exists(Path.of(BINARY_FILE_NAME))) {
+            loadTransactions(BINARY_FILE_NAME);
+        }
+        long loaded = loadTransactions(FILE_NAME);
+        if (writer != null && writer.getRecovered().size() > 0) {
+            ledger.addAll(writer.getRecovered());
+            System.out.println("Recovered " + writer.getRecovered().size() + " transactions from the log");
+        }
+        //Started before anything is written, so the follower is told about every checkpoint
+        if (follow) {
+            startFollower(loaded);
+        }
+        if (importFile != null) {
+            importTransactions(importFile);
+        }
+        if (reconcileFile != null) {
+            reconcileStatement(reconcileFile, tolerance);
+        }
+        LedgerServer server = servePort >= 0 ? startServer(servePort) : null;
 
         Scanner scanner = new Scanner(System.in);
         boolean running = true;
@@ -35,6 +214,9 @@ public class FinancialTracker {
             System.out.println("D) Add Deposit");
             System.out.println("P) Make Payment (Debit)");
             System.out.println("L) Ledger");
+            System.out.println("I) Import file");
+            System.out.println("C) Reconcile statement");
+            System.out.println("M) Metrics");
             System.out.println("X) Exit");
 
             String input = scanner.nextLine().trim();
@@ -43,37 +225,369 @@ public class FinancialTracker {
                 case "D" -> addDeposit(scanner);
                 case "P" -> addPayment(scanner);
                 case "L" -> ledgerMenu(scanner);
+                case "I" -> {
+                    System.out.println("Please enter the file to import (date|time|description|vendor|amount):");
+                    importTransactions(scanner.nextLine().trim());
+                }
+                case "C" -> reconcileStatement(scanner);
+                case "M" -> System.out.print(Metrics.describe());
                 case "X" -> running = false;
                 default -> System.out.println("Invalid option");
             }
         }
         scanner.close();
+        if (server != null) {
+            server.stop();
+        }
+        stopFollower();
+        closeWriter();
+        dumpMetrics(metricsFile);
+    }
+
+    /**
+     * Writes the metrics once more on exit.
+     * @param metricsFile - file given with --metrics, or null
+     */
+    private static void dumpMetrics(Path metricsFile) {
+        if (metricsFile != null) {
+            try {
+                Metrics.dump(metricsFile);
+            } catch (IOException e) {
+                System.err.println("Could not write the metrics: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Registers the sizes that are read when the metrics are shown: rows, cache and partitions.
+     */
+    private static void registerGauges() {
+        QueryCache cache = ledger.getCache();
+        Metrics.gauge("ledger_rows", ledger::size);
+        Metrics.gauge("cache_hits", cache::getHits);
+        Metrics.gauge("cache_misses", cache::getMisses);
+        Metrics.gauge("cache_invalidations", cache::getInvalidations);
+        Metrics.gauge("cache_evictions", cache::getEvictions);
+        Metrics.gauge("cache_entries", cache::size);
+        Metrics.gauge("partition_loads", () -> partitions == null ? 0 : partitions.getLoads());
+    }
+
+    /**
+     * Starts the HTTP API, it shares the ledger and the append writer with the menu.
+     * @param port - port on localhost
+     * @return - the running server, or null when it could not be started
+     */
+    private static LedgerServer startServer(int port) {
+        try {
+            LedgerServer server = new LedgerServer(ledger, partitions, FinancialTracker::recordTransaction, port);
+            server.start();
+            System.out.println("HTTP API listening on http://localhost:" + server.getPort());
+            return server;
+        } catch (IOException e) {
+            System.err.println("Could not start the HTTP API: " + e.getMessage());
+            return null;
+        }
     }
 
     /* ------------------------------------------------------------------
        File I/O
        ------------------------------------------------------------------ */
 
+    /**
+     * Reads the manifest of the monthly partitions, the partitions themselves are loaded when a report needs them.
+     */
+    private static void openPartitions() {
+        try {
+            partitions = LedgerPartitions.open(Path.of(PARTITION_DIRECTORY), LedgerPartitions.DEFAULT_MAX_RESIDENT);
+        } catch (IOException e) {
+            System.err.println("Could not read the partitions, older transactions are not shown: " + e.getMessage());
+        }
+    }
+
+    /**
+     * A query over the monthly partitions and the live ledger, see LedgerPartitions.
+     */
+    private interface PartitionQuery<T> {
+        T run(LedgerPartitions partitions) throws IOException;
+    }
+
+    /**
+     * Runs a query on the partitions and the live ledger, or on a snapshot of the live ledger alone when there
+     * are no partitions or they can't be read.
+     * @param partitioned - query over the partitions and the live rows
+     * @param live - same query on the live snapshot
+     * @return - result of the query
+     */
+    private static <T> T query(PartitionQuery<T> partitioned, Function<Ledger, T> live) {
+        if (partitions != null) {
+            try {
+                return partitioned.run(partitions);
+            } catch (IOException e) {
+                System.err.println("Could not read older transactions: " + e.getMessage());
+            }
+        }
+        return live.apply(ledger.snapshot());
+    }
+
     /**
      * This method loads the transactions form the file,
      * transactions should be in this  format: date|time|description|vendor|amount
+     * The file is memory-mapped and parsed in parallel chunks, rows keep the order of the file.
+     * A binary segment (see BinaryLedger) is recognised by its header and read without parsing.
      * @param fileName - name of the file that should be read.
+     * @return - bytes of the file that were read, 0 when it could not be read
      */
-    public static void loadTransactions(String fileName) {
+    public static long loadTransactions(String fileName) {
         try {
-            BufferedReader reader = new BufferedReader(new FileReader(fileName));
-            String line;
-            while ((line = reader.readLine()) != null) {
-                String[] transaction = line.split("\\|");
-                transactions.add(new Transaction(parseDate(transaction[0]), parseTime(transaction[1]), transaction[2], transaction[3], parseDouble(transaction[4])));
+            TransactionLoader.Result result = TransactionLoader.load(Path.of(fileName));
+            ledger.addAll(result.getStore());
+            if (!result.isComplete()) {
+                System.err.println("Data Error: A line in the file is corrupt or incomplete.");
             }
-        } catch (ArrayIndexOutOfBoundsException e){
-            System.err.println("Data Error: A line in the file is corrupt or incomplete.");
-        } catch (java.io.FileNotFoundException e) {
+            return result.getLength();
+        } catch (java.nio.file.NoSuchFileException e) {
             System.err.println("File is not found");
         } catch (java.io.IOException e){
             System.err.println("An unexpected error occurred while reading the file.");
         }
+        return 0;
+    }
+
+    /**
+     * Follows the transactions file from the given offset, our own checkpoints are skipped.
+     * @param offset - bytes of the file that are already in the ledger
+     */
+    private static void startFollower(long offset) {
+        follower = new LedgerFollower(Path.of(FILE_NAME), ledger, offset);
+        if (writer != null) {
+            writer.setCopyListener(follower);
+        }
+        try {
+            follower.start();
+            System.out.println("Following " + FILE_NAME + " for rows appended by other programs");
+        } catch (IOException e) {
+            System.err.println("Could not follow the transactions file: " + e.getMessage());
+        }
+    }
+
+    private static void stopFollower() {
+        if (follower == null) {
+            return;
+        }
+        try {
+            follower.close();
+        } catch (IOException e) {
+            System.err.println("Could not stop following the transactions file: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Appends all rows of a large file to the ledger and to the transactions file through the BulkImporter pipeline.
+     * Malformed lines are skipped and written to FILE.rejected, then the counters of every stage are printed.
+     * @param fileName - file in format date|time|description|vendor|amount
+     */
+    private static void importTransactions(String fileName) {
+        Path input = Path.of(fileName);
+        Path deadLetter = Path.of(fileName + ".rejected");
+        try {
+            BulkImporter importer = new BulkImporter(ledger, writer(), Runtime.getRuntime().availableProcessors());
+            BulkImporter.Result result = importer.importFile(input, deadLetter);
+            System.out.printf("Imported %d transactions in %.2f s, rejected %d%n",
+                    result.getImported(), result.getElapsedNanos() / 1e9, result.getRejected());
+            if (result.getRejected() > 0) {
+                System.out.println("Rejected lines were written to " + deadLetter);
+            }
+            System.out.printf("%-6s %12s %10s %10s %14s%n", "Stage", "Rows", "Busy ms", "Waited ms", "Rows/s busy");
+            for (BulkImporter.Stage stage : result.getStages()) {
+                System.out.printf("%-6s %12d %10d %10d %14.0f%n", stage.getName(), stage.getRows(),
+                        stage.getBusyNanos() / 1_000_000, stage.getBlockedNanos() / 1_000_000, stage.getRowsPerSecond());
+            }
+        } catch (java.nio.file.NoSuchFileException e) {
+            System.err.println("File is not found");
+        } catch (IOException e) {
+            System.err.println("The import stopped: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Prompts for a statement file and the date tolerance and reconciles the statement.
+     * @param scanner - scanner used to prompts user
+     */
+    private static void reconcileStatement(Scanner scanner) {
+        System.out.println("Please enter the statement file (date|time|description|vendor|amount):");
+        String fileName = scanner.nextLine().trim();
+        System.out.println("How many days may the dates differ? (press Enter for " + Reconciler.DEFAULT_TOLERANCE_DAYS + ")");
+        String days = scanner.nextLine().trim();
+        try {
+            reconcileStatement(fileName, days.isEmpty() ? Reconciler.DEFAULT_TOLERANCE_DAYS : Integer.parseInt(days));
+        } catch (IllegalArgumentException e) {
+            System.err.println("Invalid input. Please, try again");
+        }
+    }
+
+    /**
+     * Matches the rows of a bank statement with the ledger on amount, vendor and date, see Reconciler.
+     * The rows that did not match are written to FILE.reconciled as status|date|time|description|vendor|amount,
+     * status is MISSING (on the statement only), EXTRA (in the ledger only) or DUPLICATE (entered twice).
+     * @param fileName - statement file
+     * @param tolerance - how many days the dates of matching rows may differ
+     */
+    private static void reconcileStatement(String fileName, int tolerance) {
+        if (!Files.exists(Path.of(fileName))) {
+            System.err.println("File is not found");
+            return;
+        }
+        Path report = Path.of(fileName + ".reconciled");
+        StringBuilder line = new StringBuilder();
+        try (BufferedWriter out = Files.newBufferedWriter(report)) {
+            //Only the ledger rows of the statement's dates, give or take the tolerance, can match or be extra
+            LocalDate[] range = Reconciler.dateRange(Path.of(fileName));
+            Ledger view = ledger.snapshot();
+            if (range != null && partitions != null) {
+                view = partitions.combine(ledger, range[0].minusDays(tolerance), range[1].plusDays(tolerance));
+            }
+            Reconciler reconciler = new Reconciler(view, tolerance);
+            Reconciler.Result result = reconciler.reconcile(Path.of(fileName), (status, rows, row) -> {
+                line.setLength(0);
+                line.append(status).append('|');
+                AppendWriter.formatRow(line, LocalDate.ofEpochDay(rows.getEpochDay(row)),
+                        LocalTime.ofSecondOfDay(rows.getSecondOfDay(row)), rows.getDescription(row), rows.getVendor(row),
+                        rows.getCents(row));
+                out.append(line).append('\n');
+            });
+            System.out.printf("Reconciled %d statement rows in %.2f s: %d matched, %d missing from the ledger, %d extra in the ledger, %d duplicates%n",
+                    result.getStatementRows(), result.getElapsedNanos() / 1e9, result.getMatched(), result.getMissing(),
+                    result.getExtra(), result.getDuplicates());
+            if (result.getCorrupt() > 0) {
+                System.err.println(result.getCorrupt() + " lines of the statement are corrupt and were skipped");
+            }
+            if (result.getMissing() + result.getExtra() + result.getDuplicates() > 0) {
+                System.out.println("Rows that did not match were written to " + report);
+            }
+        } catch (IOException e) {
+            System.err.println("The reconciliation stopped: " + e.getMessage());
+        }
+    }
+
+    /* ------------------------------------------------------------------
+       Batch queries
+       ------------------------------------------------------------------ */
+
+    /**
+     * Answers a query file without the menu: the matching rows go to stdout, a summary per query and errors to stderr.
+     * The transaction files are only read and the write-ahead log is not opened, so rows that a running app has
+     * not copied to the transactions file yet are not seen.
+     * @param fileName - query file, one name|key=value|... per line, see BatchQueries
+     * @param format - csv or json (one object per line)
+     * @param snapshotFile - saved ledger to start from, written when it is missing or out of date
+     */
+    private static void runBatch(String fileName, String format, Path snapshotFile) {
+        BatchQueries.Format outputFormat;
+        List<BatchQueries.Query> queries;
+        try {
+            outputFormat = BatchQueries.Format.valueOf(format.toUpperCase());
+        } catch (IllegalArgumentException e) {
+            System.err.println("The format must be csv or json");
+            return;
+        }
+        try {
+            queries = BatchQueries.parse(Path.of(fileName));
+        } catch (java.nio.file.NoSuchFileException e) {
+            System.err.println("File is not found");
+            return;
+        } catch (IOException e) {
+            System.err.println("An unexpected error occurred while reading the file.");
+            return;
+        } catch (IllegalArgumentException e) {
+            System.err.println("Invalid query file, " + e.getMessage());
+            return;
+        }
+
+        Ledger restored = restoreLedger(snapshotFile);
+        if (restored == null) {
+            return;
+        }
+        openPartitions();
+        try {
+            if (partitions != null) {
+                BatchQueries.run(partitions, restored, queries, outputFormat, new OutputStreamWriter(System.out));
+            } else {
+                BatchQueries.run(restored, queries, outputFormat, new OutputStreamWriter(System.out));
+            }
+        } catch (IOException e) {
+            System.err.println("Could not answer the queries: " + e.getMessage());
+            return;
+        }
+        for (BatchQueries.Query query : queries) {
+            System.err.printf("%s: %d rows, deposits %s, payments %s%n", query.getName(), query.getRows(),
+                    Money.format(query.getDeposits()), Money.format(query.getPayments()));
+        }
+    }
+
+    /**
+     * Starts from the snapshot when it still belongs to the transaction files, parsing only the rows appended since.
+     * Otherwise the files are loaded as the menu does and the snapshot is written for the next run.
+     * @return - ledger with every row of the files, null when they could not be read
+     */
+    private static Ledger restoreLedger(Path snapshotFile) {
+        List<Path> sources = new ArrayList<>();
+        for (String fileName : new String[]{BINARY_FILE_NAME, FILE_NAME}) {
+            if (Files.exists(Path.of(fileName))) {
+                sources.add(Path.of(fileName));
+            }
+        }
+        if (sources.isEmpty()) {
+            System.err.println("File is not found");
+            return new Ledger();
+        }
+        long[] lengths = new long[sources.size()];
+        try {
+            LedgerSnapshot.Result result = LedgerSnapshot.load(snapshotFile, sources);
+            if (result.getLedger() != null) {
+                if (!result.isComplete()) {
+                    System.err.println("Data Error: A line in the file is corrupt or incomplete.");
+                } else if (result.getTailBytes() > SNAPSHOT_REWRITE_BYTES) {
+                    for (int i = 0; i < sources.size() - 1; i++) {
+                        lengths[i] = Files.size(sources.get(i));
+                    }
+                    lengths[sources.size() - 1] = result.getLength();
+                    writeSnapshot(result.getLedger(), sources, lengths, snapshotFile);
+                }
+                return result.getLedger();
+            }
+            System.err.println("Loading the transaction files, " + result.getReason());
+        } catch (IOException e) {
+            System.err.println("Could not read the snapshot, loading the transaction files: " + e.getMessage());
+        }
+
+        Ledger loaded = new Ledger();
+        boolean complete = true;
+        try {
+            for (int i = 0; i < sources.size(); i++) {
+                TransactionLoader.Result result = TransactionLoader.load(sources.get(i));
+                loaded.addAll(result.getStore());
+                lengths[i] = result.getLength();
+                complete &= result.isComplete();
+            }
+        } catch (IOException e) {
+            System.err.println("An unexpected error occurred while reading the file.");
+            return null;
+        }
+        //A snapshot of a file with a corrupt line would hide the line from the next runs
+        if (complete) {
+            writeSnapshot(loaded, sources, lengths, snapshotFile);
+        } else {
+            System.err.println("Data Error: A line in the file is corrupt or incomplete.");
+        }
+        return loaded;
+    }
+
+    private static void writeSnapshot(Ledger loaded, List<Path> sources, long[] lengths, Path snapshotFile) {
+        try {
+            LedgerSnapshot.write(loaded, sources, lengths, snapshotFile);
+        } catch (IOException e) {
+            System.err.println("Could not write the snapshot: " + e.getMessage());
+        }
     }
 
     /* ------------------------------------------------------------------
@@ -96,21 +610,28 @@ public class FinancialTracker {
             String description = scanner.nextLine();
             System.out.println("Please enter the vendor:");
             String vendor = scanner.nextLine();
-            double amount;
+            long amount;
             //Validation that's making sure that here deposit is positive
             do {
                 System.out.println("Please enter the positive amount:");
-                 amount = parseDouble(scanner.nextLine());
+                 amount = parseAmount(scanner.nextLine());
             } while (amount < 0);
 
             Transaction transaction = new Transaction(date, time, description, vendor, amount);
-            transactions.add(transaction);
-            writeTransaction(transaction);
+            recordTransaction(transaction);
 
             System.out.println("New deposit has been added to the transactions");
         }catch (java.time.format.DateTimeParseException e){
             System.err.println("Incorrect input: The data or time in the wrong format");
+        } catch (NumberFormatException e){
+            System.err.println("Incorrect input: The amount is not a number");
+        } catch (IllegalArgumentException e){
+            System.err.println("Incorrect input: The " + e.getMessage());
+        } catch (IOException e){
+            ERRORS.increment();
+            System.err.println("The transaction was not saved: " + e.getMessage());
         } catch (Exception e){
+            ERRORS.increment();
             System.err.println("Something went wrong! Please try again.");
         }
 
@@ -132,37 +653,92 @@ public class FinancialTracker {
             String description = scanner.nextLine();
             System.out.println("Please enter the vendor:");
             String vendor = scanner.nextLine();
-            double amount;
+            long amount;
             //Validation that's making sure that here deposit is positive
             do {
                 System.out.println("Please enter the positive amount:");
-                amount = parseDouble(scanner.nextLine());
+                amount = parseAmount(scanner.nextLine());
             } while (amount < 0);
             Transaction transaction = new Transaction(date, time, description, vendor, -amount);
-            transactions.add(transaction);
-            writeTransaction(transaction);
+            recordTransaction(transaction);
             System.out.println("New payment has been added to the transactions");
         } catch (java.time.format.DateTimeParseException e){
             System.err.println("Incorrect input: The data or time in the wrong format");
+        } catch (NumberFormatException e){
+            System.err.println("Incorrect input: The amount is not a number");
+        } catch (IllegalArgumentException e){
+            System.err.println("Incorrect input: The " + e.getMessage());
+        } catch (IOException e){
+            ERRORS.increment();
+            System.err.println("The transaction was not saved: " + e.getMessage());
         } catch (Exception e){
+            ERRORS.increment();
             System.err.println("Something went wrong! Please try again.");
         }
     }
 
     /**
-     * This method writes transaction to the file
+     * Writes a new transaction to the file and adds it to the ledger. Used by the menu and by the HTTP API.
+     * The row is added only after it was written, so the ledger never shows a row that is not saved.
+     * @param transaction - transaction that should be added
+     * @throws IllegalArgumentException - when the row could not be read back from the file, nothing is added then
+     * @throws IOException - when the row could not be written, nothing is added then
+     */
+    static void recordTransaction(Transaction transaction) throws IOException {
+        long started = APPEND_TIMER.start();
+        writeTransaction(transaction);
+        ledger.add(transaction);
+        APPEND_TIMER.stop(started);
+    }
+
+    /**
+     * This method writes transaction to the file through the write-ahead log.
+     * The row is batched with other rows, with --fsync it is on disk when the method returns.
      * @param transaction - transactions, that should be added
      */
-    public static void writeTransaction(Transaction transaction){
+    public static void writeTransaction(Transaction transaction) throws IOException {
+        writer().append(transaction);
+    }
+
+    /**
+     * Recovers and opens the write-ahead log, it is closed on exit.
+     * @return - false when the log could not be recovered, the files are left as they are
+     */
+    private static synchronized boolean openLog() {
+        try {
+            writer = new WriteAheadLog(Path.of(FILE_NAME), Path.of(LOG_FILE_NAME), Path.of(CHECKPOINT_FILE_NAME), durability);
+            Runtime.getRuntime().addShutdownHook(new Thread(FinancialTracker::closeWriter));
+            return true;
+        } catch (IOException e) {
+            System.err.println("Could not open the transaction log: " + e.getMessage());
+            System.err.println("Nothing was changed. Fix or move " + LOG_FILE_NAME + " and start the app again.");
+            return false;
+        }
+    }
+
+    /**
+     * @return - the write-ahead log of the transactions file
+     */
+    private static synchronized LedgerWriter writer() throws IOException {
+        if (writer == null) {
+            throw new IOException("The transaction log is not open");
+        }
+        return writer;
+    }
+
+    /**
+     * Copies the logged rows to the transactions file and closes the log.
+     */
+    private static synchronized void closeWriter() {
+        if (writer == null) {
+            return;
+        }
         try {
-            BufferedWriter writer = new BufferedWriter(new FileWriter(FILE_NAME, true));
-            writer.write("\n"+transaction.getDate()+"|"+transaction.getTime()+"|"+transaction.getDescription()+"|"+transaction.getVendor()+"|"+transaction.getAmount());
             writer.close();
-        } catch (java.io.FileNotFoundException e) {
-            System.err.println("File is not found");
-        } catch (Exception e){
-            System.out.println("Something went wrong");
+        } catch (IOException e) {
+            System.err.println("An unexpected error occurred while writing the file.");
         }
+        writer = null;
     }
     /* ------------------------------------------------------------------
        Ledger menu
@@ -180,15 +756,23 @@ public class FinancialTracker {
             System.out.println("A) All");
             System.out.println("D) Deposits");
             System.out.println("P) Payments");
+            System.out.println("B) Balance");
             System.out.println("R) Reports");
             System.out.println("H) Home");
+            System.out.println("(add --page N --size M after A, D or P to show one page)");
 
-            String input = scanner.nextLine().trim();
+            String[] input = scanner.nextLine().trim().split("\\s+");
+            LedgerRenderer.Page requested = LedgerRenderer.Page.parse(input, defaultPage);
+            if (requested == null) {
+                continue;
+            }
+            page = requested;
 
-            switch (input.toUpperCase()) {
+            switch (input[0].toUpperCase()) {
                 case "A" -> displayLedger();
                 case "D" -> displayDeposits();
                 case "P" -> displayPayments();
+                case "B" -> displayBalance();
                 case "R" -> reportsMenu(scanner);
                 case "H" -> running = false;
                 default -> System.out.println("Invalid option");
@@ -201,58 +785,64 @@ public class FinancialTracker {
        ------------------------------------------------------------------ */
 
     /**
-     * Displays all transactions from newest to oldest
+     * Displays all transactions from newest to oldest.
+     * Like all display and report methods it reads a snapshot of the ledger, so appends can continue meanwhile.
      */
     private static void displayLedger() {
-        try {
-            System.out.println("=========================================================================================");
-            System.out.println("Date        | Time      | Description                 | Vendor              | Amount    |");
-            for (int i = transactions.size()-1; i > 0 ; i--) {
-                Transaction tr = transactions.get(i);
-                PrintOut(tr);
-            }
-            System.out.println("=========================================================================================");
-        } catch (Exception e) {
-            System.out.println("Something went wrong");
-        }
+        displayNewestFirst(0);
     }
 
     /**
      * Displays only deposits
      */
     private static void displayDeposits() {
-        try {
-            System.out.println("=========================================================================================");
-            System.out.println("Date        | Time      | Description                 | Vendor              | Amount    |");
-            for (int i = transactions.size()-1; i > 0 ; i--) {
-                Transaction tr = transactions.get(i);
-                if(tr.getAmount()>0) {
-                    PrintOut(tr);
-                }
-            }
-            System.out.println("=========================================================================================");
-        } catch (Exception e) {
-            System.out.println("Something went wrong");
-        }
+        displayNewestFirst(1);
     }
 
     /**
      * Displays only payments
      */
     private static void displayPayments() {
+        displayNewestFirst(-1);
+    }
+
+    /**
+     * Displays the rows of the transactions file from newest to oldest, then the partitions from the newest month.
+     * Once the requested page is full the remaining partitions are only counted from the manifest, not loaded.
+     * @param sign - 0 for all rows, 1 for deposits, -1 for payments
+     */
+    private static void displayNewestFirst(int sign) {
+        long started = LEDGER_TIMER.start();
+        TransactionStore transactions = ledger.snapshot().getStore();
         try {
-        System.out.println("=========================================================================================");
-        System.out.println("Date        | Time      | Description                 | Vendor              | Amount    |");
-        for (int i = transactions.size()-1; i > 0 ; i--) {
-            Transaction tr = transactions.get(i);
-            if(tr.getAmount()<0) {
-                PrintOut(tr);
+            renderer.begin(page);
+            printNewestFirst(transactions, sign);
+            if (partitions != null) {
+                List<LedgerPartitions.Partition> months = partitions.getPartitions();
+                for (int i = months.size() - 1; i >= 0; i--) {
+                    LedgerPartitions.Partition partition = months.get(i);
+                    if (renderer.isPastPage()) {
+                        renderer.skip(sign == 0 ? partition.getRows() : sign > 0 ? partition.getDepositRows() : partition.getPaymentRows());
+                    } else {
+                        printNewestFirst(partitions.load(partition), sign);
+                    }
+                }
             }
-        }
-            System.out.println("=========================================================================================");
+            renderer.end();
         } catch (Exception e) {
+            ERRORS.increment();
             System.out.println("Something went wrong");
         }
+        LEDGER_TIMER.stop(started);
+    }
+
+    private static void printNewestFirst(TransactionStore transactions, int sign) {
+        for (int i = transactions.size()-1; i >= 0 ; i--) {
+            long cents = transactions.getCents(i);
+            if (sign == 0 || (sign > 0 && cents > 0) || (sign < 0 && cents < 0)) {
+                renderer.row(transactions, i);
+            }
+        }
     }
 
     /* ------------------------------------------------------------------
@@ -274,11 +864,20 @@ public class FinancialTracker {
             System.out.println("4) Previous Year");
             System.out.println("5) Search by Vendor");
             System.out.println("6) Custom Search");
+            System.out.println("7) Search by Description text");
+            System.out.println("8) Search by Amount range");
+            System.out.println("9) Largest Transactions");
+            System.out.println("S) Spending Statistics");
             System.out.println("0) Back");
 
-            String input = scanner.nextLine().trim();
+            String[] input = scanner.nextLine().trim().split("\\s+");
+            LedgerRenderer.Page requested = LedgerRenderer.Page.parse(input, defaultPage);
+            if (requested == null) {
+                continue;
+            }
+            page = requested;
 
-            switch (input) {
+            switch (input[0].toUpperCase()) {
                 case "1" -> {
                     LocalDate end = LocalDate.now();
                     LocalDate start = end.withDayOfMonth(1);
@@ -296,18 +895,27 @@ public class FinancialTracker {
                     LocalDate end = LocalDate.now();
                     LocalDate start = end.withDayOfYear(1);
                     filterTransactionsByDate(start, end);
+                    printBreakdown(start, end);
                 }
                 case "4" -> {
                     int year = Year.now().getValue()-1;
                     LocalDate start = LocalDate.of(year, 1, 1 );
                     LocalDate end = LocalDate.of(year, 12, 31);
                     filterTransactionsByDate(start, end);
+                    printBreakdown(start, end);
                 }
                 case "5" -> {
-                    System.out.println("Please enter name of the vendor:");
+                    System.out.println("Please enter name of the vendor(end with * to search by the beginning of the name):");
                     filterTransactionsByVendor(scanner.nextLine());
                 }
                 case "6" -> customSearch(scanner);
+                case "7" -> {
+                    System.out.println("Please enter the text that the description should contain:");
+                    filterTransactionsByDescription(scanner.nextLine());
+                }
+                case "8" -> amountRangeSearch(scanner);
+                case "9" -> largestTransactions(scanner);
+                case "S" -> spendingStatistics(scanner);
                 case "0" -> running = false;
                 default -> System.out.println("Invalid option");
             }
@@ -319,180 +927,368 @@ public class FinancialTracker {
        ------------------------------------------------------------------ */
 
     /**
-     * Prints out the transactions within date range
+     * Prints out the transactions within date range, both dates included.
+     * The range is found in the date index with binary search, so only matching rows are visited.
+     * The rows stay in the query cache until a transaction within the range is added.
      * @param start - LocalDate - from when method should start
      * @param end - LocalDate -  to when method should end.
      */
     private static void filterTransactionsByDate(LocalDate start, LocalDate end) {
-        System.out.println("=========================================================================================");
-        System.out.println("Date        | Time      | Description                 | Vendor              | Amount    |");
-        boolean printed = false;
-        for(Transaction transaction : transactions){
-            if (transaction.getDate().isAfter(start)&&transaction.getDate().isBefore(end)){
-                PrintOut(transaction);
-                printed = true;
-            }
+        long started = DATE_REPORT.start();
+        QueryCache cache = ledger.getCache();
+        long stamp = cache.stamp();
+        String key = "date " + start + ".." + end;
+        QueryEngine.Result result = cache.get(key, QueryEngine.Result.class);
+        if (result == null) {
+            result = query(p -> p.rows(ledger, start, end), live -> QueryEngine.dateRange(live, start, end));
+            cache.put(key, QueryCache.Scope.dates(start, end), result, result.getRows().size(), stamp);
         }
-        if (!printed){
-            System.out.println("Sorry! There is nothing within this date range.");
+        renderer.begin(page);
+        printRows(result.getStore(), result.getRows());
+        if (result.getRows().isEmpty()){
+            renderer.line("Sorry! There is nothing within this date range.");
         }
-        System.out.println("=========================================================================================");
+        renderer.end();
+        //Whole months of the partitions are added from the manifest
+        printTotals(query(p -> p.between(start, end, ledger.getTotals()), live -> live.getTotals().between(start, end)));
+        DATE_REPORT.stop(started);
     }
 
     /**
-     * Prints out the transactions from the selected vendor
-     * @param vendor - String vendor from which all transactions should be printed
+     * Prints deposits, payments and net of a report, taken from the maintained totals instead of summing the rows.
+     * @param totals - totals of the report range
      */
-    private static void filterTransactionsByVendor(String vendor) {
-        System.out.println("=========================================================================================");
-        System.out.println("Date        | Time      | Description                 | Vendor              | Amount    |");
-        boolean printed = false;
-        for(Transaction transaction : transactions){
-            if (transaction.getVendor().equalsIgnoreCase(vendor)){
-                PrintOut(transaction);
-                printed = true;
-            }
-        }
-        if (!printed){
-            System.out.println("Sorry! There is nothing from this vendor.");
-        }
-        System.out.println("=========================================================================================");
+    private static void printTotals(LedgerTotals.Totals totals) {
+        System.out.printf("Transactions: %d | Deposits: %s | Payments: %s | Net: %s%n",
+                totals.getCount(), Money.format(totals.getDeposits()), Money.format(totals.getPayments()), Money.format(totals.getNet()));
     }
 
     /**
-     * This method allows to make a custom search, user chooses what to enter, and then matches is printed.
-     * @param scanner - to input option
+     * Prints deposits, payments and count per month and for the vendors with the most transactions.
+     * The rows are summed in parallel by the ReportEngine.
+     * @param start - first day of the report
+     * @param end - last day of the report
      */
-    private static void customSearch(Scanner scanner) {
-
-        boolean hasDateRange = false;
-        boolean hasDescription = false;
-        boolean hasVendor = false;
-        boolean hasAmount = false;
+    private static void printBreakdown(LocalDate start, LocalDate end) {
+        long started = BREAKDOWN_REPORT.start();
+        QueryCache cache = ledger.getCache();
+        long stamp = cache.stamp();
+        String key = "breakdown " + start + ".." + end;
+        ReportEngine.Report report = cache.get(key, ReportEngine.Report.class);
+        if (report == null) {
+            report = query(p -> p.report(ledger, start, end), live -> ReportEngine.aggregate(live, start, end));
+            cache.put(key, QueryCache.Scope.dates(start, end), report, report.getMonths().size() + report.getVendors().size(), stamp);
+        }
+        System.out.printf("%-22s|%8s |%14s |%14s |%14s%n", "Month", "Count", "Deposits", "Payments", "Net");
+        for (ReportEngine.Breakdown month : report.getMonths()) {
+            printBreakdownRow(month);
+        }
+        System.out.println(LedgerRenderer.LINE);
+        System.out.printf("%-22s|%8s |%14s |%14s |%14s%n", "Top vendors", "Count", "Deposits", "Payments", "Net");
+        List<ReportEngine.Breakdown> vendors = report.getVendors();
+        for (int i = 0; i < Math.min(TOP_VENDORS, vendors.size()); i++) {
+            printBreakdownRow(vendors.get(i));
+        }
+        System.out.println(LedgerRenderer.LINE);
+        BREAKDOWN_REPORT.stop(started);
+    }
 
-        LocalDate start = null;
-        LocalDate end = null;
-        String vendor = "";
-        double amount = 0.0;
-        String description = "";
+    private static void printBreakdownRow(ReportEngine.Breakdown breakdown) {
+        String key = breakdown.getKey().length() > 22 ? breakdown.getKey().substring(0, 22) : breakdown.getKey();
+        System.out.printf("%-22s|%8d |%14s |%14s |%14s%n", key, breakdown.getCount(),
+                Money.format(breakdown.getDeposits()), Money.format(breakdown.getPayments()), Money.format(breakdown.getNet()));
+    }
 
-        System.out.println("Do you want to enter a date range?(yes/no)");
-        if(scanner.nextLine().equalsIgnoreCase("yes")){
-            System.out.println("Please enter the start date(yyyy-MM-dd):");
-            start = parseDate(scanner.nextLine());
-            System.out.println("Please enter the end date(yyyy-MM-dd):");
-            end = parseDate(scanner.nextLine());
-            hasDateRange = true;
+    /**
+     * Prints median and 95th percentile of payments and deposits and the number of distinct vendors,
+     * for every month, one month (yyyy-MM) or one vendor. The values come from the sketches the ledger keeps
+     * per month and vendor (LedgerSketches), the rows are not read; they are within 0.8% of the exact values.
+     * @param scanner - to read the month or vendor
+     */
+    private static void spendingStatistics(Scanner scanner) {
+        System.out.println("Please enter a month (yyyy-MM) or a vendor, or press Enter for every month:");
+        String input = scanner.nextLine().trim();
+        boolean byMonth = input.isEmpty() || input.matches("\\d{4}-\\d{2}");
+        YearMonth first = null;
+        if (!input.isEmpty() && byMonth) {
+            try {
+                first = YearMonth.parse(input);
+            } catch (java.time.format.DateTimeParseException e) {
+                System.err.println("Incorrect input: The month in the wrong format");
+                return;
+            }
         }
+        long started = STATISTICS_REPORT.start();
+        System.out.printf("%-22s|%8s |%12s |%12s |%8s |%12s |%8s%n",
+                byMonth ? "Month" : "Vendor", "Payments", "Median", "95%", "Deposits", "Median", "Vendors");
+        if (input.isEmpty()) {
+            LedgerSketches sketches = query(p -> p.sketches(ledger, LocalDate.MIN, LocalDate.MAX), Ledger::getSketches);
+            List<YearMonth> months = sketches.getMonths();
+            for (YearMonth month : months) {
+                printStatisticsRow(month.toString(), sketches.between(month, month));
+            }
+            if (!months.isEmpty()) {
+                System.out.println(LedgerRenderer.LINE);
+                printStatisticsRow("All months", sketches.between(months.get(0), months.get(months.size() - 1)));
+            }
+        } else if (byMonth) {
+            YearMonth month = first;
+            LedgerSketches sketches = query(p -> p.sketches(ledger, month.atDay(1), month.atEndOfMonth()), Ledger::getSketches);
+            printStatisticsRow(input, sketches.between(month, month));
+        } else {
+            LedgerSketches.Summary vendor = query(p -> p.sketches(ledger, LocalDate.MIN, LocalDate.MAX), Ledger::getSketches).vendor(input);
+            if (vendor == null) {
+                System.out.println("Sorry! There is nothing from this vendor.");
+            } else {
+                printStatisticsRow(input, vendor);
+            }
+        }
+        System.out.println(LedgerRenderer.LINE);
+        STATISTICS_REPORT.stop(started);
+    }
 
+    private static void printStatisticsRow(String name, LedgerSketches.Summary summary) {
+        String key = name.length() > 22 ? name.substring(0, 22) : name;
+        AmountSketch payments = summary.getPayments();
+        AmountSketch deposits = summary.getDeposits();
+        System.out.printf("%-22s|%8d |%12s |%12s |%8d |%12s |%8d%n", key,
+                payments.getCount(), Money.format(payments.quantile(0.5)), Money.format(payments.quantile(0.95)),
+                deposits.getCount(), Money.format(deposits.quantile(0.5)), summary.getVendors());
+    }
 
-        System.out.println("Do you want to enter the description?(yes/no)");
-        if (scanner.nextLine().equalsIgnoreCase("yes")){
-            System.out.println("Please enter the description:");
-            description = scanner.nextLine();
-            hasDescription = true;
+    /**
+     * Prints the running balance for today together with the month and year totals.
+     */
+    private static void displayBalance() {
+        long started = BALANCE_REPORT.start();
+        LocalDate today = LocalDate.now();
+        LedgerTotals totals = ledger.getTotals();
+        try {
+            //Whole months of the partitions are added from the manifest, so no partition is loaded for the balance
+            long balance = partitions == null ? totals.balanceAt(today) : partitions.balanceAt(today, totals);
+            YearMonth month = YearMonth.from(today);
+            LocalDate yearStart = today.withDayOfYear(1);
+            LocalDate yearEnd = yearStart.plusYears(1).minusDays(1);
+            System.out.println(LedgerRenderer.LINE);
+            System.out.printf("Balance on %s: %s%n", today, Money.format(balance));
+            System.out.print("This month  -> ");
+            printTotals(partitions == null ? totals.forMonth(month) : partitions.between(month.atDay(1), month.atEndOfMonth(), totals));
+            System.out.print("This year   -> ");
+            printTotals(partitions == null ? totals.forYear(Year.from(today)) : partitions.between(yearStart, yearEnd, totals));
+            System.out.println(LedgerRenderer.LINE);
+        } catch (IOException e) {
+            System.err.println("Could not read older transactions: " + e.getMessage());
         }
+        BALANCE_REPORT.stop(started);
+    }
 
-        System.out.println("Do you want to enter the vendor?(yes/no)");
-        if(scanner.nextLine().equalsIgnoreCase("yes")){
-            System.out.println("Please enter the vendor:");
-            vendor = scanner.nextLine();
-            hasVendor = true;
+    /**
+     * Prints out the transactions from the selected vendor, rows are taken from the vendor index.
+     * The rows stay in the query cache until a transaction from a matching vendor is added.
+     * @param vendor - String vendor from which all transactions should be printed, "Ama*" prints all vendors starting with "Ama"
+     */
+    private static void filterTransactionsByVendor(String vendor) {
+        long started = VENDOR_REPORT.start();
+        QueryCache cache = ledger.getCache();
+        long stamp = cache.stamp();
+        String key = "vendor " + TextIndex.fold(vendor);
+        QueryEngine.Result result = cache.get(key, QueryEngine.Result.class);
+        if (result == null) {
+            boolean prefix = vendor.endsWith("*");
+            String name = prefix ? vendor.substring(0, vendor.length() - 1) : vendor;
+            Function<Ledger, QueryEngine.Result> lookup = view -> QueryEngine.of(view,
+                    prefix ? view.getVendorIndex().prefix(name) : view.getVendorIndex().exact(name), "vendor index");
+            result = query(p -> p.search(ledger, LocalDate.MIN, LocalDate.MAX, lookup), lookup);
+            cache.put(key, QueryCache.Scope.vendor(name, prefix), result, result.getRows().size(), stamp);
         }
-
-        System.out.println("Do you want to enter the amount?(yes/no)");
-        if (scanner.nextLine().equalsIgnoreCase("yes")){
-            System.out.println("Please enter the amount:");
-            amount = Double.parseDouble(scanner.nextLine());
-            hasAmount = true;
+        renderer.begin(page);
+        printRows(result.getStore(), result.getRows());
+        if (result.getRows().isEmpty()){
+            renderer.line("Sorry! There is nothing from this vendor.");
         }
+        renderer.end();
+        VENDOR_REPORT.stop(started);
+    }
 
-
-        if (hasDateRange&!hasAmount&!hasDescription&!hasVendor){
-            filterTransactionsByDate(start, end);
-        }
-        else if (hasVendor&!hasAmount&!hasDescription&!hasDateRange){
-            filterTransactionsByVendor(vendor);
+    /**
+     * Prints out the transactions which description contains the text, rows are taken from the description index.
+     * @param text - String that should be part of the description
+     */
+    private static void filterTransactionsByDescription(String text) {
+        long started = DESCRIPTION_REPORT.start();
+        QueryCache cache = ledger.getCache();
+        long stamp = cache.stamp();
+        String key = "description contains " + TextIndex.fold(text);
+        QueryEngine.Result result = cache.get(key, QueryEngine.Result.class);
+        if (result == null) {
+            Function<Ledger, QueryEngine.Result> lookup = view -> QueryEngine.of(view,
+                    view.getDescriptionIndex().contains(text), "description index");
+            result = query(p -> p.search(ledger, LocalDate.MIN, LocalDate.MAX, lookup), lookup);
+            cache.put(key, QueryCache.Scope.ALL, result, result.getRows().size(), stamp);
         }
-        else{
-            filterTransactionsByCustoms(start, end, vendor, description, amount);
+        renderer.begin(page);
+        printRows(result.getStore(), result.getRows());
+        if (result.getRows().isEmpty()){
+            renderer.line("Sorry! There is nothing with this description.");
         }
+        renderer.end();
+        DESCRIPTION_REPORT.stop(started);
     }
 
     /**
-     * This method allows to filter all possible cases of custom search, except when there is only date range, or only vendor.
-     * @param start - LocalDate - from when method should start
-     * @param end - LocalDate -  to when method should end.
-     * @param vendor - String vendor from which all transactions should be printed
-     * @param description - String with description that should be in printed transaction
-     * @param amount - double with amount that should be in printed transaction
-     */
-    private static void filterTransactionsByCustoms(LocalDate start, LocalDate end, String vendor, String description, double amount) {
-        System.out.println("=========================================================================================");
-        System.out.println("Date        | Time      | Description                 | Vendor              | Amount    |");
-        boolean printed = false;
-        if (start == null&&vendor.equalsIgnoreCase("")&&amount==0.0&&!description.equalsIgnoreCase("")){
-            for(Transaction transaction : transactions){
-                if (transaction.getDescription().equalsIgnoreCase(description)){
-                    PrintOut(transaction);
-                    printed = true;
-                }
+     * This method allows to make a custom search, user chooses what to enter, and then matches is printed.
+     * Every answered question adds one condition, all conditions must match.
+     * @param scanner - to input option
+     */
+    private static void customSearch(Scanner scanner) {
+        try {
+            List<Condition> conditions = new ArrayList<>();
+
+            Condition dates = readDateRange(scanner);
+            if (dates != null) {
+                conditions.add(dates);
             }
-        } else if (start == null&&vendor.equalsIgnoreCase("")&&amount!=0.0&&description.equalsIgnoreCase("")) {
-            for(Transaction transaction : transactions){
-                if (transaction.getAmount()==amount){
-                    PrintOut(transaction);
-                    printed = true;
-                }
+
+            System.out.println("Do you want to enter the description?(yes/no)");
+            if (scanner.nextLine().equalsIgnoreCase("yes")){
+                System.out.println("Please enter the description:");
+                conditions.add(Condition.description(scanner.nextLine()));
             }
-        } else if (start!=null&&!vendor.equalsIgnoreCase("")&&description.equalsIgnoreCase("")&&amount==0.0) {
-            for(Transaction transaction : transactions){
-                if (transaction.getVendor().equalsIgnoreCase(vendor)&&transaction.getDate().isAfter(start)&&transaction.getDate().isBefore(end)){
-                    PrintOut(transaction);
-                    printed = true;
-                }
+
+            System.out.println("Do you want to enter the vendor?(yes/no)");
+            if(scanner.nextLine().equalsIgnoreCase("yes")){
+                System.out.println("Please enter the vendor:");
+                conditions.add(Condition.vendor(scanner.nextLine()));
             }
-        } else if (start!=null&&!vendor.equalsIgnoreCase("")&&!description.equalsIgnoreCase("")&&amount==0.0) {
-            for(Transaction transaction : transactions){
-                if (transaction.getVendor().equalsIgnoreCase(vendor)&&transaction.getDate().isAfter(start)&&transaction.getDate().isBefore(end)&&transaction.getDescription().equalsIgnoreCase(description)){
-                    PrintOut(transaction);
-                    printed = true;
-                }
+
+            System.out.println("Do you want to enter the amount?(yes/no)");
+            if (scanner.nextLine().equalsIgnoreCase("yes")){
+                System.out.println("Please enter the amount:");
+                conditions.add(Condition.amount(Money.parse(scanner.nextLine())));
             }
-        } else if (start!=null&&!vendor.equalsIgnoreCase("")&&!description.equalsIgnoreCase("")&&amount!=0.0) {
-            for(Transaction transaction : transactions){
-                if (transaction.getVendor().equalsIgnoreCase(vendor)&&transaction.getDate().isAfter(start)&&transaction.getDate().isBefore(end)&&transaction.getDescription().equalsIgnoreCase(description)&&transaction.getAmount()==amount){
-                    PrintOut(transaction);
-                    printed = true;
-                }
+
+            filterTransactionsByQuery(Condition.and(conditions));
+        } catch (NumberFormatException e) {
+            System.err.println("Incorrect input: The amount is not a number");
+        } catch (java.time.format.DateTimeParseException e) {
+            System.err.println("Incorrect input: The date in the wrong format");
+        }
+    }
+
+    /**
+     * Prints out the transactions with an amount in a range, for example all payments between 500 and 5000.
+     * The range is found in the amount index and can be narrowed to a date range.
+     * @param scanner - to input the range
+     */
+    private static void amountRangeSearch(Scanner scanner) {
+        try {
+            List<Condition> conditions = new ArrayList<>();
+            System.out.println("Please enter the smallest amount(empty for no limit, payments are negative):");
+            long min = parseAmount(scanner.nextLine(), Long.MIN_VALUE);
+            System.out.println("Please enter the largest amount(empty for no limit):");
+            long max = parseAmount(scanner.nextLine(), Long.MAX_VALUE);
+            conditions.add(Condition.amountRange(min, max));
+            Condition dates = readDateRange(scanner);
+            if (dates != null) {
+                conditions.add(dates);
             }
-        }else if (start==null&&!vendor.equalsIgnoreCase("")&&!description.equalsIgnoreCase("")&&amount==0.0) {
-            for(Transaction transaction : transactions){
-                if (transaction.getVendor().equalsIgnoreCase(vendor)&&transaction.getDescription().equalsIgnoreCase(description)){
-                    PrintOut(transaction);
-                    printed = true;
-                }
+            filterTransactionsByQuery(Condition.and(conditions));
+        } catch (NumberFormatException e) {
+            System.err.println("Incorrect input: The amount is not a number");
+        } catch (java.time.format.DateTimeParseException e) {
+            System.err.println("Incorrect input: The date in the wrong format");
+        }
+    }
+
+    /**
+     * Prints out the largest deposits or payments, for example the 100 largest expenses of this year.
+     * Rows are taken from the amount index from its largest end, or from the date range when that is smaller.
+     * @param scanner - to input the type, count and date range
+     */
+    private static void largestTransactions(Scanner scanner) {
+        try {
+            System.out.println("Deposits or payments?(d/p)");
+            boolean deposits = scanner.nextLine().trim().equalsIgnoreCase("d");
+            System.out.println("How many transactions?(empty for 100)");
+            String count = scanner.nextLine().trim();
+            int n = count.isEmpty() ? 100 : Integer.parseInt(count);
+            List<Condition> conditions = new ArrayList<>();
+            conditions.add(deposits ? Condition.amountRange(1, Long.MAX_VALUE) : Condition.amountRange(Long.MIN_VALUE, -1));
+            Condition dates = readDateRange(scanner);
+            if (dates != null) {
+                conditions.add(dates);
             }
-        } else if (start==null&&!vendor.equalsIgnoreCase("")&&!description.equalsIgnoreCase("")&&amount!=0.0) {
-            for(Transaction transaction : transactions){
-                if (transaction.getVendor().equalsIgnoreCase(vendor)&&transaction.getDescription().equalsIgnoreCase(description)&&transaction.getAmount()==amount){
-                    PrintOut(transaction);
-                    printed = true;
-                }
+            Condition query = Condition.and(conditions);
+            long started = LARGEST_REPORT.start();
+            QueryCache cache = ledger.getCache();
+            long stamp = cache.stamp();
+            String key = "top " + n + " " + QueryCache.key(query);
+            QueryEngine.Result result = cache.get(key, QueryEngine.Result.class);
+            boolean cached = result != null;
+            if (!cached) {
+                //Payments are negative, so the largest payments have the smallest amounts
+                result = query(p -> p.top(ledger, query, n, deposits), view -> QueryEngine.top(view, query, n, deposits));
+                cache.put(key, QueryCache.Scope.of(query), result, result.getRows().size(), stamp);
             }
-        }else if (start==null&&vendor.equalsIgnoreCase("")&&!description.equalsIgnoreCase("")&&amount!=0.0) {
-            for(Transaction transaction : transactions){
-                if (transaction.getDescription().equalsIgnoreCase(description)&&transaction.getAmount()==amount){
-                    PrintOut(transaction);
-                    printed = true;
-                }
+            renderer.begin(page);
+            printRows(result.getStore(), result.getRows());
+            if (result.getRows().isEmpty()){
+                renderer.line("Sorry! There is nothing for this parameters.");
             }
+            renderer.end();
+            System.out.println("Query: " + query.describe());
+            System.out.println("Plan: " + (cached ? "cached result of " : "") + result.getPlan());
+            System.out.println("Rows scanned: " + (cached ? 0 : result.getScanned()) + ", shown: " + result.getRows().size());
+            LARGEST_REPORT.stop(started);
+        } catch (NumberFormatException e) {
+            System.err.println("Incorrect input: The number is not valid");
+        } catch (java.time.format.DateTimeParseException e) {
+            System.err.println("Incorrect input: The date in the wrong format");
+        }
+    }
+
+    /**
+     * Asks for an optional date range, an empty date leaves that side of the range open.
+     * @param scanner - to input the dates
+     * @return - date range condition, or null when the user doesn't want one
+     */
+    private static Condition readDateRange(Scanner scanner) {
+        System.out.println("Do you want to enter a date range?(yes/no)");
+        if (!scanner.nextLine().equalsIgnoreCase("yes")) {
+            return null;
         }
+        System.out.println("Please enter the start date(yyyy-MM-dd):");
+        LocalDate start = parseDate(scanner.nextLine());
+        System.out.println("Please enter the end date(yyyy-MM-dd):");
+        LocalDate end = parseDate(scanner.nextLine());
+        return Condition.dateRange(start == null ? LocalDate.of(1, 1, 1) : start, end == null ? LocalDate.of(9999, 12, 31) : end);
+    }
 
-        if (!printed){
-            System.out.println("Sorry! There is nothing for this parameters.");
+    /**
+     * Prints out the transactions that match the query, followed by the plan that was used and the number of checked rows.
+     * @param query - conditions built by the custom search
+     */
+    private static void filterTransactionsByQuery(Condition query) {
+        long started = QUERY_REPORT.start();
+        QueryCache cache = ledger.getCache();
+        long stamp = cache.stamp();
+        String key = QueryCache.key(query);
+        QueryEngine.Result result = cache.get(key, QueryEngine.Result.class);
+        boolean cached = result != null;
+        if (!cached) {
+            result = query(p -> p.search(ledger, query), view -> QueryEngine.execute(view, query));
+            cache.put(key, QueryCache.Scope.of(query), result, result.getRows().size(), stamp);
         }
-        System.out.println("=========================================================================================");
+        renderer.begin(page);
+        printRows(result.getStore(), result.getRows());
+        if (result.getRows().isEmpty()){
+            renderer.line("Sorry! There is nothing for this parameters.");
+        }
+        renderer.end();
+        System.out.println("Query: " + query.describe());
+        System.out.println("Plan: " + (cached ? "cached result of " : "") + result.getPlan());
+        System.out.println("Rows scanned: " + (cached ? 0 : result.getScanned()) + ", matched: " + result.getRows().size());
+        QUERY_REPORT.stop(started);
     }
 
     /**
@@ -508,36 +1304,35 @@ public class FinancialTracker {
     }
 
     /**
-     * This method takes string and converts it to LocalTime
-     * @param s - String that should contain LocalTime
-     * @return - LocalTime that was it inputted string
+     * This method takes string and converts it to cents
+     * @param s - String that should contain amount
+     * @return - amount in cents, -1 when the string is empty
      */
-    private static LocalTime parseTime (String s) {
-        if(!s.isEmpty()) {
-            return LocalTime.parse(s, TIME_FMT);
-        }
-        return null;
+    private static long parseAmount(String s) {
+        return parseAmount(s, -1);
     }
 
     /**
-     * This method takes string and converts it to double
-     * @param s - String that should contain double
-     * @return - double that was it inputted string
+     * @param s - String that should contain amount
+     * @param empty - value returned when the string is empty
+     * @return - amount in cents
      */
-    private static Double parseDouble(String s) {
-        if(!s.isEmpty()) {
-            return Double.parseDouble(s);
+    private static long parseAmount(String s, long empty) {
+        if(!s.trim().isEmpty()) {
+            return Money.parse(s);
         }
-        return -1.;
+        return empty;
     }
 
     /**
-     * Prints the transaction
-     * @param transaction - transaction that should be printed
+     * Passes the rows to the renderer in the given order
+     * @param transactions - snapshot store that holds the rows
+     * @param rows - row numbers of the transactions that should be printed
      */
-    private static void PrintOut(Transaction transaction){
-        String formatString = "%-12s| %-10s| %-28s| %-20s| %-10s|";
-        System.out.printf((formatString) + "%n", transaction.getDate(), transaction.getTime(), transaction.getDescription(), transaction.getVendor(), transaction.getAmount());
+    private static void printRows(TransactionStore transactions, IntList rows) {
+        for (int i = 0; i < rows.size(); i++) {
+            renderer.row(transactions, rows.get(i));
+        }
     }
 
     /**
@@ -0,0 +1,138 @@
+package com.pluralsight;
+
+/**
+ * Approximate count of distinct values in constant memory (HyperLogLog, Flajolet et al.).
+ * Every value is hashed to 64 bits; the first precision bits pick a register, the register keeps the longest run
+ * of leading zeros seen in the rest. Two sketches of the same precision merge by taking the larger register.
+ *
+ * Error: the standard error is 1.04 / sqrt(2^precision), 1.6% with the default precision of 12 (4 KiB), over the
+ * whole range of counts, from a few hundred distinct values like the vendors of a month to millions
+ * (checked against exact counts by SketchAccuracy in the benchmarks module).
+ * Not thread-safe, LedgerSketches guards its sketches with its own lock.
+ */
+public class HyperLogLog {
+
+    public static final int DEFAULT_PRECISION = 12;
+
+    private final int precision;
+    private final byte[] registers;
+
+    public HyperLogLog() {
+        this(DEFAULT_PRECISION);
+    }
+
+    /**
+     * @param precision - between 4 and 18, the sketch keeps 2^precision one-byte registers
+     */
+    public HyperLogLog(int precision) {
+        if (precision < 4 || precision > 18) {
+            throw new IllegalArgumentException("Precision must be between 4 and 18");
+        }
+        this.precision = precision;
+        this.registers = new byte[1 << precision];
+    }
+
+    /**
+     * @param hash - 64 bit hash of the value, see hash(String)
+     */
+    public void add(long hash) {
+        int index = (int) (hash >>> (64 - precision));
+        //The marker bit caps the rank when every remaining bit is zero
+        int rank = Long.numberOfLeadingZeros((hash << precision) | (1L << (precision - 1))) + 1;
+        if (rank > registers[index]) {
+            registers[index] = (byte) rank;
+        }
+    }
+
+    /**
+     * Adds all values of the other sketch, the other sketch is not changed.
+     */
+    public void merge(HyperLogLog other) {
+        if (other.precision != precision) {
+            throw new IllegalArgumentException("Only sketches of the same precision can be merged");
+        }
+        for (int i = 0; i < registers.length; i++) {
+            if (other.registers[i] > registers[i]) {
+                registers[i] = other.registers[i];
+            }
+        }
+    }
+
+    /**
+     * @return - a sketch with the same values that can be changed without changing this one
+     */
+    public HyperLogLog copy() {
+        HyperLogLog copy = new HyperLogLog(precision);
+        copy.merge(this);
+        return copy;
+    }
+
+    /**
+     * @return - estimated number of distinct values added
+     */
+    public long estimate() {
+        //Ertl's improved estimator over the register histogram: no bias table and no switch to linear counting,
+        //the classic estimator is off by up to 3% around 2.5 * 2^precision values
+        int q = 64 - precision;
+        int[] histogram = new int[q + 2];
+        for (byte register : registers) {
+            histogram[register]++;
+        }
+        double m = registers.length;
+        double z = m * tau(1 - histogram[q + 1] / m);
+        for (int k = q; k >= 1; k--) {
+            z = 0.5 * (z + histogram[k]);
+        }
+        z += m * sigma(histogram[0] / m);
+        return Math.round(m / (2 * Math.log(2)) * m / z);
+    }
+
+    private static double sigma(double x) {
+        if (x == 1) {
+            return Double.POSITIVE_INFINITY;
+        }
+        double y = 1;
+        double z = x;
+        double previous;
+        do {
+            x *= x;
+            previous = z;
+            z += x * y;
+            y += y;
+        } while (z != previous);
+        return z;
+    }
+
+    private static double tau(double x) {
+        if (x == 0 || x == 1) {
+            return 0;
+        }
+        double y = 1;
+        double z = 1 - x;
+        double previous;
+        do {
+            x = Math.sqrt(x);
+            previous = z;
+            y *= 0.5;
+            z -= (1 - x) * (1 - x) * y;
+        } while (z != previous);
+        return z / 3;
+    }
+
+    /**
+     * 64 bit hash of a string: FNV-1a over its chars, then the MurmurHash3 finalizer so every bit is mixed.
+     */
+    public static long hash(String value) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < value.length(); i++) {
+            hash ^= value.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+}
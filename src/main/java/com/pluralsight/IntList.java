@@ -0,0 +1,161 @@
+package com.pluralsight;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Growable list of primitive ints, used for posting lists of row numbers.
+ * One thread may append while other threads read: values are written before the new size is released,
+ * and readers take a fixed-size view with headBelow() before looking at the values.
+ */
+public class IntList {
+
+    private static final IntList EMPTY = new IntList(new int[0], 0);
+    private static final VarHandle VALUES;
+    private static final VarHandle SIZE;
+
+    static {
+        try {
+            MethodHandles.Lookup lookup = MethodHandles.lookup();
+            VALUES = lookup.findVarHandle(IntList.class, "values", int[].class);
+            SIZE = lookup.findVarHandle(IntList.class, "size", int.class);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private int[] values;
+    private int size;
+    private final boolean readOnly;
+
+    public IntList() {
+        this(8);
+    }
+
+    public IntList(int capacity) {
+        values = new int[capacity];
+        readOnly = false;
+    }
+
+    private IntList(int[] values, int size) {
+        this.values = values;
+        this.size = size;
+        this.readOnly = true;
+    }
+
+    /**
+     * @return - shared empty list, it must not be modified
+     */
+    public static IntList empty() {
+        return EMPTY;
+    }
+
+    public void add(int value) {
+        if (readOnly) {
+            throw new UnsupportedOperationException("View of a list can't be modified");
+        }
+        int[] current = values;
+        if (size == current.length) {
+            current = Arrays.copyOf(current, Math.max(8, size + (size >> 1)));
+            VALUES.setRelease(this, current);
+        }
+        current[size] = value;
+        SIZE.setRelease(this, size + 1);
+    }
+
+    /**
+     * Takes a read-only view of the values below the limit, safe to call while another thread appends.
+     * The list must be in ascending order.
+     * @param limit - first value that is not included, for example the row count of a snapshot
+     * @return - view of the values smaller than the limit, it keeps its size when the list grows
+     */
+    public IntList headBelow(int limit) {
+        int count = (int) SIZE.getAcquire(this);
+        int[] current = (int[]) VALUES.getAcquire(this);
+        if (count > 0 && current[count - 1] >= limit) {
+            int low = 0;
+            int high = count;
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+                if (current[middle] < limit) {
+                    low = middle + 1;
+                } else {
+                    high = middle;
+                }
+            }
+            count = low;
+        }
+        return count == 0 ? EMPTY : new IntList(current, count);
+    }
+
+    public int get(int index) {
+        if (index >= size) {
+            throw new IndexOutOfBoundsException("Index " + index + " out of bounds for size " + size);
+        }
+        return values[index];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Sorts the values in ascending order.
+     */
+    public void sort() {
+        if (readOnly) {
+            throw new UnsupportedOperationException("View of a list can't be modified");
+        }
+        Arrays.sort(values, 0, size);
+    }
+
+    public int[] toArray() {
+        return Arrays.copyOf(values, size);
+    }
+
+    /**
+     * Merges several ascending lists into one ascending list, merging them pairwise.
+     * @param lists - lists with ascending values
+     * @return - all values of the lists in ascending order
+     */
+    public static IntList union(List<IntList> lists) {
+        if (lists.isEmpty()) {
+            return EMPTY;
+        }
+        List<IntList> round = lists;
+        while (round.size() > 1) {
+            List<IntList> next = new ArrayList<>((round.size() + 1) / 2);
+            for (int i = 0; i + 1 < round.size(); i += 2) {
+                next.add(merge(round.get(i), round.get(i + 1)));
+            }
+            if (round.size() % 2 == 1) {
+                next.add(round.get(round.size() - 1));
+            }
+            round = next;
+        }
+        return round.get(0);
+    }
+
+    private static IntList merge(IntList a, IntList b) {
+        IntList result = new IntList(a.size + b.size);
+        int i = 0;
+        int j = 0;
+        int[] out = result.values;
+        int n = 0;
+        while (i < a.size && j < b.size) {
+            out[n++] = a.values[i] <= b.values[j] ? a.values[i++] : b.values[j++];
+        }
+        System.arraycopy(a.values, i, out, n, a.size - i);
+        n += a.size - i;
+        System.arraycopy(b.values, j, out, n, b.size - j);
+        result.size = n + b.size - j;
+        return result;
+    }
+}
@@ -0,0 +1,196 @@
+package com.pluralsight;
+
+import java.time.LocalDate;
+
+/**
+ * All transactions together with the indexes built over them.
+ * Every new row goes through this class, so the indexes always match the store.
+ *
+ * Appends are serialized: add() and addAll() hold the ledger's monitor, so there is a single writer at a time.
+ * After every append the writer publishes a read-only snapshot through a volatile field.
+ * Readers on other threads call snapshot() and query it without locks. A snapshot shares the columns and indexes
+ * with the live ledger but only sees the rows that existed when it was published. Rows are never changed
+ * after they are added, and the structures only write past the rows that a snapshot can see.
+ * The totals are the exception: they are shared and always show the latest appended rows.
+ * The query cache is shared as well; every append evicts the cached results it could change.
+ */
+public class Ledger {
+
+    private final TransactionStore store;
+    private final DateIndex dateIndex;
+    private final TextIndex vendorIndex;
+    private final TextIndex descriptionIndex;
+    private final AmountIndex amountIndex;
+    private final LedgerTotals totals;
+    private final LedgerSketches sketches;
+    private final QueryCache cache;
+    private final boolean readOnly;
+
+    // latest published snapshot, only used by the live ledger
+    private volatile Ledger snapshot;
+
+    public Ledger() {
+        this.store = new TransactionStore();
+        this.dateIndex = new DateIndex();
+        this.vendorIndex = new TextIndex();
+        this.descriptionIndex = new TextIndex();
+        this.amountIndex = new AmountIndex();
+        this.totals = new LedgerTotals();
+        this.sketches = new LedgerSketches(store.getVendorDictionary());
+        this.cache = new QueryCache();
+        this.readOnly = false;
+        this.snapshot = new Ledger(this);
+    }
+
+    /**
+     * Builds a ledger around rows and sorted indexes restored by LedgerSnapshot. The sorts are what takes long
+     * when a ledger is loaded, the text indexes, totals and sketches are one pass over the rows and are built here.
+     * @param store - restored rows, taken over without copying
+     * @param dateIndex - date index of every row of the store
+     * @param amountIndex - amount index of every row of the store
+     */
+    Ledger(TransactionStore store, DateIndex dateIndex, AmountIndex amountIndex) {
+        this.store = store;
+        this.dateIndex = dateIndex;
+        this.vendorIndex = new TextIndex();
+        this.descriptionIndex = new TextIndex();
+        this.amountIndex = amountIndex;
+        this.totals = new LedgerTotals();
+        this.sketches = new LedgerSketches(store.getVendorDictionary());
+        this.cache = new QueryCache();
+        this.readOnly = false;
+        totals.addAll(store, 0);
+        sketches.addAll(store, 0);
+        for (int row = 0; row < store.size(); row++) {
+            indexRow(row);
+        }
+        this.snapshot = new Ledger(this);
+    }
+
+    private Ledger(Ledger live) {
+        this.store = live.store.snapshot();
+        this.dateIndex = live.dateIndex.snapshot();
+        this.vendorIndex = live.vendorIndex.view(store.size());
+        this.descriptionIndex = live.descriptionIndex.view(store.size());
+        this.amountIndex = live.amountIndex.snapshot();
+        this.totals = live.totals;
+        this.sketches = live.sketches;
+        this.cache = live.cache;
+        this.readOnly = true;
+    }
+
+    /**
+     * Adds one transaction and updates the indexes.
+     * @param transaction - transaction that should be added
+     * @return - row number of the transaction
+     * @throws IllegalArgumentException - when the date is not between 0001-01-01 and 9999-12-31
+     */
+    public synchronized int add(Transaction transaction) {
+        checkWritable();
+        //Before anything changes, so a rejected row leaves the store, the indexes and the totals as they were
+        if (transaction.getDate().isBefore(AppendWriter.FIRST_DATE) || transaction.getDate().isAfter(AppendWriter.LAST_DATE)) {
+            throw new IllegalArgumentException("date must be between " + AppendWriter.FIRST_DATE + " and " + AppendWriter.LAST_DATE);
+        }
+        int row = store.add(transaction);
+        dateIndex.add(store.getEpochDay(row), row);
+        totals.add(store.getEpochDay(row), store.getCents(row));
+        amountIndex.add(row, store.getCents(row));
+        sketches.add(store, row);
+        indexRow(row);
+        snapshot = new Ledger(this);
+        //After publishing, so a result computed on an older snapshot is either evicted here or refused by put()
+        cache.invalidate(store.getEpochDay(row), store.getVendor(row));
+        return row;
+    }
+
+    /**
+     * Adds all rows of a loaded store and updates the indexes.
+     * @param loaded - store with new rows
+     */
+    public synchronized void addAll(TransactionStore loaded) {
+        checkWritable();
+        int fromRow = store.size();
+        store.addAll(loaded);
+        dateIndex.addAll(store, fromRow);
+        totals.addAll(store, fromRow);
+        amountIndex.addAll(store, fromRow);
+        sketches.addAll(store, fromRow);
+        for (int row = fromRow; row < store.size(); row++) {
+            indexRow(row);
+        }
+        snapshot = new Ledger(this);
+        cache.invalidate(store, fromRow);
+    }
+
+    /**
+     * Returns the latest published state of the ledger. It never changes, so it can be read from any thread
+     * without locking while appends continue. A snapshot returns itself.
+     * @return - read-only ledger with all rows appended so far
+     */
+    public Ledger snapshot() {
+        return readOnly ? this : snapshot;
+    }
+
+    private void checkWritable() {
+        if (readOnly) {
+            throw new UnsupportedOperationException("Snapshot of the ledger can't be modified");
+        }
+    }
+
+    private void indexRow(int row) {
+        vendorIndex.add(row, store.getVendorId(row), store.getVendor(row));
+        descriptionIndex.add(row, store.getDescriptionId(row), store.getDescription(row));
+    }
+
+    /**
+     * Finds positions in the date index for all rows between start and end, both dates included.
+     * Rows are dateIndex.row(range[0]) ... dateIndex.row(range[1] - 1), ordered by date.
+     * @param start - first date of the range
+     * @param end - last date of the range
+     * @return - int[]{from, to} positions in the date index
+     */
+    public int[] dateRange(LocalDate start, LocalDate end) {
+        int from = dateIndex.lowerBound(DateIndex.epochDay(start));
+        int to = Math.max(from, dateIndex.upperBound(DateIndex.epochDay(end)));
+        return new int[]{from, to};
+    }
+
+    public TransactionStore getStore() {
+        return store;
+    }
+
+    public DateIndex getDateIndex() {
+        return dateIndex;
+    }
+
+    public TextIndex getVendorIndex() {
+        return vendorIndex;
+    }
+
+    public TextIndex getDescriptionIndex() {
+        return descriptionIndex;
+    }
+
+    public AmountIndex getAmountIndex() {
+        return amountIndex;
+    }
+
+    public LedgerTotals getTotals() {
+        return totals;
+    }
+
+    /**
+     * @return - quantile and distinct vendor sketches per month and vendor, shared with the snapshots
+     */
+    public LedgerSketches getSketches() {
+        return sketches;
+    }
+
+    public QueryCache getCache() {
+        return cache;
+    }
+
+    public int size() {
+        return store.size();
+    }
+}
@@ -0,0 +1,198 @@
+package com.pluralsight;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.YearMonth;
+import java.util.zip.CRC32;
+
+/**
+ * Command line tool that converts between the pipe-delimited transactions file and the binary ledger segment.
+ *
+ * to-binary [csv] [bin] - writes the rows of the CSV file as a binary segment
+ * to-csv [bin] [csv]    - writes the rows of a binary segment as a CSV file
+ * compact               - folds transactions.csv into transactions.bin and empties transactions.csv,
+ *                         FinancialTracker then loads the segment and reads only the new rows as text
+ * partition [months]    - moves rows older than the last [months] months (default 3) into monthly files in
+ *                         partitions/, FinancialTracker then loads only the recent rows at startup
+ */
+public class LedgerConverter {
+
+    public static void main(String[] args) {
+        if (args.length == 0) {
+            printUsage();
+            return;
+        }
+        try {
+            switch (args[0]) {
+                case "to-binary" -> toBinary(Path.of(arg(args, 1, FinancialTracker.FILE_NAME)), Path.of(arg(args, 2, FinancialTracker.BINARY_FILE_NAME)));
+                case "to-csv" -> toCsv(Path.of(arg(args, 1, FinancialTracker.BINARY_FILE_NAME)), Path.of(arg(args, 2, FinancialTracker.FILE_NAME)));
+                case "compact" -> compact(Path.of(FinancialTracker.FILE_NAME), Path.of(FinancialTracker.BINARY_FILE_NAME));
+                case "partition" -> partition(months(arg(args, 1, "3")));
+                default -> printUsage();
+            }
+        } catch (IOException | IllegalArgumentException e) {
+            //IllegalArgumentException: a bad months value or a row that can't be written back, see AppendWriter.checkRows()
+            System.err.println("Conversion failed: " + e.getMessage());
+            printUsage();
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Converts a CSV file to a binary segment.
+     */
+    public static void toBinary(Path csv, Path binary) throws IOException {
+        TransactionLoader.Result result = TransactionLoader.load(csv);
+        if (!result.isComplete()) {
+            throw new IOException(csv + " has a corrupt line, nothing was converted");
+        }
+        BinaryLedger.write(result.getStore(), binary);
+        System.out.println("Wrote " + result.getStore().size() + " rows to " + binary);
+    }
+
+    /**
+     * Converts a binary segment to a CSV file.
+     */
+    public static void toCsv(Path binary, Path csv) throws IOException {
+        TransactionStore store = BinaryLedger.read(binary);
+        Path temp = csv.resolveSibling(csv.getFileName() + ".tmp");
+        Files.deleteIfExists(temp);
+        try (AppendWriter writer = new AppendWriter(temp, AppendWriter.Durability.BUFFERED, AppendWriter.DEFAULT_BUFFER_SIZE, 0)) {
+            writer.appendAll(store);
+        }
+        Files.move(temp, csv, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        System.out.println("Wrote " + store.size() + " rows to " + csv);
+    }
+
+    /**
+     * Appends the rows of the CSV file to the binary segment and empties the CSV file.
+     * The new segment is written next to the old one, then a marker records the CSV bytes it holds. Replacing
+     * the segment and dropping those bytes from the CSV file are redone by finishCompaction() when they were cut
+     * off, so a crash never leaves the rows both in the segment and in the CSV file.
+     */
+    public static void compact(Path csv, Path binary) throws IOException {
+        finishCompaction(csv, binary);
+        TransactionStore store = Files.exists(binary) ? BinaryLedger.read(binary) : new TransactionStore();
+        long length = 0;
+        if (Files.exists(csv)) {
+            TransactionLoader.Result result = TransactionLoader.load(csv);
+            if (!result.isComplete()) {
+                throw new IOException(csv + " has a corrupt line, nothing was compacted");
+            }
+            store.addAll(result.getStore());
+            length = result.getLength();
+        }
+        BinaryLedger.write(store, sibling(binary, ".new"));
+        Path marker = sibling(binary, ".compact");
+        Path temp = sibling(marker, ".tmp");
+        Files.writeString(temp, length + " " + crc(csv, length), StandardCharsets.UTF_8);
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+            channel.force(true);
+        }
+        Files.move(temp, marker, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        finishCompaction(csv, binary);
+        System.out.println("Compacted " + store.size() + " rows into " + binary);
+    }
+
+    /**
+     * Finishes a compaction that was cut off, FinancialTracker calls it before reading the files.
+     * Without a marker a new segment was never used and is deleted. With one the new segment replaces the old
+     * one and the compacted bytes are dropped from the start of the CSV file, unless that already happened.
+     * @param csv - transactions file
+     * @param binary - binary segment
+     */
+    public static void finishCompaction(Path csv, Path binary) throws IOException {
+        Path segment = sibling(binary, ".new");
+        Path marker = sibling(binary, ".compact");
+        if (!Files.exists(marker)) {
+            Files.deleteIfExists(segment);
+            return;
+        }
+        String[] compacted = Files.readString(marker, StandardCharsets.UTF_8).trim().split(" ");
+        long length = Long.parseLong(compacted[0]);
+        long crc = Long.parseLong(compacted[1]);
+        if (Files.exists(segment)) {
+            Files.move(segment, binary, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+        //The first bytes still match when the CSV file was not cut yet, rows appended since then are kept
+        if (length > 0 && crc(csv, length) == crc) {
+            Path temp = sibling(csv, ".tmp");
+            try (FileChannel in = FileChannel.open(csv, StandardOpenOption.READ);
+                 FileChannel out = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                         StandardOpenOption.TRUNCATE_EXISTING)) {
+                long position = length;
+                while (position < in.size()) {
+                    position += in.transferTo(position, in.size() - position, out);
+                }
+                out.force(true);
+            }
+            Files.move(temp, csv, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+        Files.delete(marker);
+    }
+
+    /**
+     * @return - CRC32 of the first bytes of the file, -1 when the file is shorter
+     */
+    private static long crc(Path file, long length) throws IOException {
+        if (!Files.exists(file)) {
+            return -1;
+        }
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (channel.size() < length) {
+                return -1;
+            }
+            CRC32 crc = new CRC32();
+            ByteBuffer buffer = ByteBuffer.allocate(1 << 16);
+            long position = 0;
+            while (position < length) {
+                buffer.clear().limit((int) Math.min(buffer.capacity(), length - position));
+                int read = channel.read(buffer, position);
+                if (read < 0) {
+                    return -1;
+                }
+                crc.update(buffer.flip());
+                position += read;
+            }
+            return crc.getValue();
+        }
+    }
+
+    private static Path sibling(Path path, String suffix) {
+        return path.resolveSibling(path.getFileName() + suffix);
+    }
+
+    /**
+     * Moves rows dated before the last months into monthly partitions.
+     * @param months - number of months, the current one included, that stay in the transactions file
+     */
+    public static void partition(int months) throws IOException {
+        finishCompaction(Path.of(FinancialTracker.FILE_NAME), Path.of(FinancialTracker.BINARY_FILE_NAME));
+        YearMonth keepFrom = YearMonth.now().minusMonths(Math.max(1, months) - 1);
+        int moved = LedgerPartitions.partition(Path.of(FinancialTracker.FILE_NAME), Path.of(FinancialTracker.BINARY_FILE_NAME),
+                Path.of(FinancialTracker.PARTITION_DIRECTORY), keepFrom);
+        System.out.println("Moved " + moved + " rows dated before " + keepFrom + " into " + FinancialTracker.PARTITION_DIRECTORY);
+    }
+
+    private static int months(String value) {
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("months must be a number, not " + value);
+        }
+    }
+
+    private static String arg(String[] args, int index, String defaultValue) {
+        return args.length > index ? args[index] : defaultValue;
+    }
+
+    private static void printUsage() {
+        System.out.println("Usage: LedgerConverter to-binary [csv] [bin] | to-csv [bin] [csv] | compact | partition [months]");
+    }
+}
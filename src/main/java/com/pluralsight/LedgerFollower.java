@@ -0,0 +1,252 @@
+package com.pluralsight;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Follows the transactions file while the app runs: rows that other processes append are parsed and added to
+ * the ledger without reading the file again. It remembers the offset it has read up to, a WatchService tells it
+ * when the file changed, and only the bytes after the offset are read, so catching up costs as much as the new rows.
+ *
+ * Rows are written as "\n" + row, so the last row of the file has no newline after it yet. A last line is only read
+ * once a newline follows it or the file stopped growing for SETTLE_MILLIS; until then it may be half written.
+ * Rows that our own checkpoints copy from the write-ahead log are already in the ledger: the log reports them
+ * through WriteAheadLog.CopyListener and they are skipped.
+ * Another process that writes while a checkpoint is copying may have its rows skipped.
+ */
+public class LedgerFollower implements WriteAheadLog.CopyListener, Closeable {
+
+    // time without growth after which an unterminated last line counts as complete
+    public static final long SETTLE_MILLIS = 500;
+    private static final int BLOCK_SIZE = 1 << 20;
+    private static final long COPYING = -1;
+
+    private static final Metrics.Counter FOLLOWED_ROWS = Metrics.counter("follow_rows");
+    private static final Metrics.Counter SKIPPED_LINES = Metrics.counter("follow_corrupt_lines");
+    private static final Metrics.Timer CATCH_UP = Metrics.timer("follow_catch_up");
+
+    private final Path file;
+    private final Ledger ledger;
+    // start -> end of the bytes our checkpoints appended that were not passed yet, end is COPYING until it is known
+    private final TreeMap<Long, Long> copies = new TreeMap<>();
+    private ByteBuffer buffer = ByteBuffer.allocate(BLOCK_SIZE);
+    private long offset;
+    private long lastSize;
+    private long lastGrowth = System.nanoTime();
+    private int skipped;
+
+    private WatchService watcher;
+    private Thread thread;
+
+    /**
+     * @param file - transactions file that other processes append to
+     * @param ledger - ledger the new rows are added to
+     * @param offset - bytes of the file that are already in the ledger, TransactionLoader.Result.getLength()
+     */
+    public LedgerFollower(Path file, Ledger ledger, long offset) {
+        this.file = file;
+        this.ledger = ledger;
+        this.offset = offset;
+        this.lastSize = offset;
+    }
+
+    /* ------------------------------------------------------------------
+       Catching up
+       ------------------------------------------------------------------ */
+
+    /**
+     * Reads the bytes appended since the last call and adds their rows to the ledger.
+     * A half written last line is kept for the next call.
+     * @return - number of rows added to the ledger
+     */
+    public synchronized int catchUp() throws IOException {
+        if (!Files.exists(file)) {
+            return 0;
+        }
+        long started = CATCH_UP.start();
+        TransactionStore rows = new TransactionStore();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < offset) {
+                System.err.println(file + " got shorter while it was followed, restart the app to read it again");
+                offset = size;
+                lastSize = size;
+                copies.clear();
+                return 0;
+            }
+            long now = System.nanoTime();
+            if (size != lastSize) {
+                lastSize = size;
+                lastGrowth = now;
+            }
+            boolean settled = now - lastGrowth >= TimeUnit.MILLISECONDS.toNanos(SETTLE_MILLIS);
+            while (offset < size) {
+                Map.Entry<Long, Long> copy = copies.ceilingEntry(offset);
+                long end = copy == null ? size : Math.min(size, copy.getKey());
+                //Bytes in front of a checkpoint are complete, the checkpoint was appended after them
+                boolean complete = settled || (copy != null && end == copy.getKey());
+                offset = read(channel, offset, end, complete, rows);
+                if (offset < end || copy == null || copy.getValue() == COPYING || copy.getValue() > size) {
+                    break;
+                }
+                offset = copy.getValue();
+                copies.remove(copy.getKey());
+            }
+        } finally {
+            CATCH_UP.stop(started);
+        }
+        if (rows.size() > 0) {
+            ledger.addAll(rows);
+            FOLLOWED_ROWS.add(rows.size());
+        }
+        return rows.size();
+    }
+
+    /**
+     * Parses the lines of [from, end) of the file in blocks.
+     * @param complete - true when the last line ends at end, otherwise it is only read once a newline follows it
+     * @return - offset after the last line that was read
+     */
+    private long read(FileChannel channel, long from, long end, boolean complete, TransactionStore rows) throws IOException {
+        long position = from;
+        while (position < end) {
+            buffer.clear();
+            buffer.limit((int) Math.min(buffer.capacity(), end - position));
+            int read;
+            do {
+                read = channel.read(buffer, position + buffer.position());
+            } while (read > 0 && buffer.hasRemaining());
+            int filled = buffer.position();
+            if (filled == 0) {
+                break;
+            }
+            boolean last = position + filled == end;
+            int lineEnd = last && complete ? filled : TransactionLoader.lastNewline(buffer, filled);
+            if (lineEnd < 0) {
+                if (filled < buffer.capacity()) {
+                    break;
+                }
+                //One line is longer than the buffer
+                buffer = ByteBuffer.allocate(buffer.capacity() * 2);
+                continue;
+            }
+            int corrupt = TransactionLoader.parseLines(buffer, 0, lineEnd, rows);
+            if (corrupt > 0) {
+                skipped += corrupt;
+                SKIPPED_LINES.add(corrupt);
+            }
+            position += last && complete ? filled : lineEnd + 1;
+        }
+        return position;
+    }
+
+    /**
+     * @return - bytes of the file that are already in the ledger
+     */
+    public synchronized long getOffset() {
+        return offset;
+    }
+
+    /**
+     * @return - corrupt lines that were skipped since the last call
+     */
+    public synchronized int takeSkipped() {
+        int count = skipped;
+        skipped = 0;
+        return count;
+    }
+
+    private synchronized boolean hasPendingBytes() {
+        return offset < lastSize || !copies.isEmpty();
+    }
+
+    /* ------------------------------------------------------------------
+       Own checkpoints
+       ------------------------------------------------------------------ */
+
+    @Override
+    public synchronized void copyStarted(long from) {
+        copies.put(from, COPYING);
+    }
+
+    @Override
+    public synchronized void copyFinished(long from, long to) {
+        copies.put(from, to);
+    }
+
+    /* ------------------------------------------------------------------
+       Watching
+       ------------------------------------------------------------------ */
+
+    /**
+     * Starts a daemon thread that catches up whenever the file changes.
+     */
+    public void start() throws IOException {
+        Path directory = file.toAbsolutePath().getParent();
+        watcher = directory.getFileSystem().newWatchService();
+        directory.register(watcher, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+        thread = new Thread(this::watch, "ledger-follow");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private void watch() {
+        Path name = file.getFileName();
+        try {
+            while (true) {
+                //The timeout reads a held last line once the file stopped growing
+                WatchKey key = watcher.poll(SETTLE_MILLIS, TimeUnit.MILLISECONDS);
+                boolean changed = false;
+                if (key != null) {
+                    for (WatchEvent<?> event : key.pollEvents()) {
+                        changed |= event.kind() == StandardWatchEventKinds.OVERFLOW || name.equals(event.context());
+                    }
+                    key.reset();
+                }
+                if (changed || hasPendingBytes()) {
+                    report(catchUp());
+                }
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            //closed
+        } catch (IOException e) {
+            System.err.println("Stopped following " + file + ": " + e.getMessage());
+        }
+    }
+
+    private void report(int rows) {
+        if (rows > 0) {
+            System.out.println("Added " + rows + " transactions that were appended to " + file);
+        }
+        int corrupt = takeSkipped();
+        if (corrupt > 0) {
+            System.err.println("Data Error: skipped " + corrupt + " corrupt lines that were appended to " + file);
+        }
+    }
+
+    /**
+     * Stops watching the file.
+     */
+    @Override
+    public void close() throws IOException {
+        if (watcher != null) {
+            watcher.close();
+        }
+        if (thread != null) {
+            thread.interrupt();
+        }
+    }
+}
@@ -0,0 +1,695 @@
+package com.pluralsight;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.Function;
+
+/**
+ * Older transactions stored as one binary segment per month, so startup only reads the recent rows.
+ *
+ * The directory holds yyyy-MM.bin files (see BinaryLedger) and a manifest with one line per month:
+ * month|first date|last date|rows|deposit rows|payment rows|deposits in cents|payments in cents.
+ * Only the manifest is read when the app starts. A partition is read and indexed the first time a report needs one
+ * of its days and stays in memory until more than maxResident partitions are loaded (least recently used first).
+ * A query runs on every partition it needs on its own, one at a time, and on the live rows, then the results are
+ * merged; a query over the whole history never holds more than maxResident partitions.
+ * Totals of whole months come from the manifest without loading the partition.
+ * Rows in the partitions are never in the live ledger: LedgerConverter partition moves them out of the
+ * transactions file, new rows always go to the transactions file even when their date is in an old month.
+ */
+public class LedgerPartitions {
+
+    public static final String MANIFEST = "manifest";
+    // present while the files written by partition() replace the ones in use, see finishPartition()
+    private static final String COMMIT = "partition.commit";
+    // suffix of the files partition() writes before they replace the ones in use
+    private static final String PENDING = ".partition";
+    public static final int DEFAULT_MAX_RESIDENT = 12;
+
+    /**
+     * One line of the manifest.
+     */
+    public static class Partition {
+        private final YearMonth month;
+        private final LocalDate first;
+        private final LocalDate last;
+        private final int rows;
+        private final int depositRows;
+        private final int paymentRows;
+        private final long deposits;
+        private final long payments;
+
+        Partition(YearMonth month, LocalDate first, LocalDate last, int rows, int depositRows, int paymentRows,
+                  long deposits, long payments) {
+            this.month = month;
+            this.first = first;
+            this.last = last;
+            this.rows = rows;
+            this.depositRows = depositRows;
+            this.paymentRows = paymentRows;
+            this.deposits = deposits;
+            this.payments = payments;
+        }
+
+        public YearMonth getMonth() {
+            return month;
+        }
+
+        public LocalDate getFirst() {
+            return first;
+        }
+
+        public LocalDate getLast() {
+            return last;
+        }
+
+        public int getRows() {
+            return rows;
+        }
+
+        /**
+         * @return - number of rows with a positive amount
+         */
+        public int getDepositRows() {
+            return depositRows;
+        }
+
+        /**
+         * @return - number of rows with a negative amount, rows with a zero amount are neither deposits nor payments
+         */
+        public int getPaymentRows() {
+            return paymentRows;
+        }
+
+        public LedgerTotals.Totals getTotals() {
+            return new LedgerTotals.Totals(deposits, payments, rows);
+        }
+
+        boolean overlaps(LocalDate start, LocalDate end) {
+            return !first.isAfter(end) && !last.isBefore(start);
+        }
+
+        boolean within(LocalDate start, LocalDate end) {
+            return !first.isBefore(start) && !last.isAfter(end);
+        }
+    }
+
+    private final Path directory;
+    private final int maxResident;
+    private final List<Partition> partitions;
+    private final Map<YearMonth, Ledger> resident;
+    private long loads;
+
+    // sketches of every partition merged, see sketches()
+    private LedgerSketches archivedSketches;
+
+    private LedgerPartitions(Path directory, int maxResident, List<Partition> partitions) {
+        this.directory = directory;
+        this.maxResident = maxResident;
+        this.partitions = partitions;
+        this.resident = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<YearMonth, Ledger> eldest) {
+                return size() > LedgerPartitions.this.maxResident;
+            }
+        };
+    }
+
+    /**
+     * Reads the manifest of the directory, no partition is loaded yet.
+     * @param directory - directory written by partition()
+     * @param maxResident - number of partitions that may stay in memory
+     * @return - partitions, or null when the directory has no manifest
+     */
+    public static LedgerPartitions open(Path directory, int maxResident) throws IOException {
+        Path manifest = directory.resolve(MANIFEST);
+        if (!Files.exists(manifest)) {
+            return null;
+        }
+        return new LedgerPartitions(directory, maxResident, readManifest(manifest));
+    }
+
+    /**
+     * @return - partitions ordered by month, oldest first
+     */
+    public List<Partition> getPartitions() {
+        return Collections.unmodifiableList(partitions);
+    }
+
+    /**
+     * @return - number of partitions read from disk since the directory was opened
+     */
+    public synchronized long getLoads() {
+        return loads;
+    }
+
+    /**
+     * @return - number of partitions in memory right now
+     */
+    public synchronized int getResident() {
+        return resident.size();
+    }
+
+    /* ------------------------------------------------------------------
+       Loading
+       ------------------------------------------------------------------ */
+
+    /**
+     * Returns the rows of one month, reading the partition when it is not in memory.
+     * @param partition - partition from getPartitions()
+     * @return - rows of the partition
+     */
+    public TransactionStore load(Partition partition) throws IOException {
+        return ledger(partition).getStore();
+    }
+
+    /**
+     * Returns one month with its indexes. They are built when the partition is read and kept as long as it stays
+     * in memory, so queries on a resident month don't index it again.
+     */
+    synchronized Ledger ledger(Partition partition) throws IOException {
+        Ledger ledger = resident.get(partition.month);
+        if (ledger == null) {
+            ledger = new Ledger();
+            ledger.addAll(BinaryLedger.read(file(partition.month)));
+            loads++;
+            resident.put(partition.month, ledger);
+        }
+        return ledger;
+    }
+
+    private List<Partition> overlapping(LocalDate start, LocalDate end) {
+        List<Partition> needed = new ArrayList<>();
+        for (Partition partition : partitions) {
+            if (partition.overlaps(start, end)) {
+                needed.add(partition);
+            }
+        }
+        return needed;
+    }
+
+    /* ------------------------------------------------------------------
+       Queries: every partition that can match is queried on its own, one at a time, then the live rows,
+       and the results are merged. Only the matching rows are copied.
+       ------------------------------------------------------------------ */
+
+    /**
+     * Receives rows in date order from scan().
+     */
+    public interface RowVisitor {
+        void visit(TransactionStore store, int row) throws IOException;
+    }
+
+    /**
+     * Visits the rows between start and end in date order, both dates included. The rows of every partition are
+     * merged with the live rows of the same days, so only one partition has to be in memory at a time.
+     * On the same day the rows of the partition come first, they were in the transactions file before the live rows.
+     * @param live - ledger with the rows of the transactions file
+     * @param start - first day
+     * @param end - last day
+     * @param visitor - gets the store and the row of every row of the range
+     */
+    public void scan(Ledger live, LocalDate start, LocalDate end, RowVisitor visitor) throws IOException {
+        Ledger snapshot = live.snapshot();
+        TransactionStore liveStore = snapshot.getStore();
+        DateIndex liveIndex = snapshot.getDateIndex();
+        int[] liveRange = snapshot.dateRange(start, end);
+        int next = liveRange[0];
+        for (Partition partition : overlapping(start, end)) {
+            Ledger ledger = ledger(partition);
+            TransactionStore store = ledger.getStore();
+            DateIndex index = ledger.getDateIndex();
+            int[] range = ledger.dateRange(start, end);
+            for (int position = range[0]; position < range[1]; position++) {
+                int day = index.day(position);
+                for (; next < liveRange[1] && liveIndex.day(next) < day; next++) {
+                    visitor.visit(liveStore, liveIndex.row(next));
+                }
+                visitor.visit(store, index.row(position));
+            }
+        }
+        for (; next < liveRange[1]; next++) {
+            visitor.visit(liveStore, liveIndex.row(next));
+        }
+    }
+
+    /**
+     * @return - rows between start and end in date order, copied into one store when a partition has some of them
+     * @see QueryEngine#dateRange(Ledger, LocalDate, LocalDate)
+     */
+    public QueryEngine.Result rows(Ledger live, LocalDate start, LocalDate end) throws IOException {
+        if (overlapping(start, end).isEmpty()) {
+            return QueryEngine.dateRange(live.snapshot(), start, end);
+        }
+        TransactionStore merged = new TransactionStore();
+        scan(live, start, end, (store, row) -> copy(store, row, merged));
+        return new QueryEngine.Result(merged, all(merged), "date index of the live rows and the partitions", merged.size());
+    }
+
+    /**
+     * Runs a lookup on every partition that overlaps the date range, oldest first, and then on the live rows.
+     * The rows are merged in that order, which is row (file) order: the partitions hold the rows that were
+     * in the file first.
+     * @param live - ledger with the rows of the transactions file
+     * @param start - first day the lookup can match
+     * @param end - last day the lookup can match
+     * @param lookup - QueryEngine.execute() or an index lookup, run on one ledger
+     * @return - result of the live rows as it is when no partition overlaps the range, otherwise the merged rows
+     */
+    public QueryEngine.Result search(Ledger live, LocalDate start, LocalDate end,
+                                     Function<Ledger, QueryEngine.Result> lookup) throws IOException {
+        Ledger snapshot = live.snapshot();
+        List<Partition> needed = overlapping(start, end);
+        if (needed.isEmpty()) {
+            return lookup.apply(snapshot);
+        }
+        TransactionStore merged = new TransactionStore();
+        int scanned = 0;
+        for (Partition partition : needed) {
+            scanned += copy(lookup.apply(ledger(partition)), merged);
+        }
+        QueryEngine.Result recent = lookup.apply(snapshot);
+        scanned += copy(recent, merged);
+        return new QueryEngine.Result(merged, all(merged), recent.getPlan() + " (live rows and " + needed.size() + " partitions)", scanned);
+    }
+
+    /**
+     * Same as search() for a condition tree, on the partitions of its date range or on all of them.
+     */
+    public QueryEngine.Result search(Ledger live, Condition query) throws IOException {
+        LocalDate[] range = dateRange(query);
+        return search(live, range[0], range[1], ledger -> QueryEngine.execute(ledger, query));
+    }
+
+    /**
+     * The n matching rows with the largest or smallest amounts: the n of every partition and of the live rows,
+     * and the n most extreme of those.
+     * @see QueryEngine#top(Ledger, Condition, int, boolean)
+     */
+    public QueryEngine.Result top(Ledger live, Condition query, int n, boolean largest) throws IOException {
+        LocalDate[] range = dateRange(query);
+        QueryEngine.Result merged = search(live, range[0], range[1], ledger -> QueryEngine.top(ledger, query, n, largest));
+        if (merged.getStore() == live.snapshot().getStore()) {
+            return merged;
+        }
+        TransactionStore store = merged.getStore();
+        int[] rows = merged.getRows().toArray();
+        long[] amounts = new long[rows.length];
+        for (int i = 0; i < rows.length; i++) {
+            amounts[i] = store.getCents(rows[i]);
+        }
+        AmountIndex.sortByAmount(amounts, rows, rows.length);
+        IntList top = new IntList(Math.max(1, Math.min(n, rows.length)));
+        for (int i = 0; i < Math.min(n, rows.length); i++) {
+            top.add(rows[largest ? rows.length - 1 - i : i]);
+        }
+        return new QueryEngine.Result(store, top, merged.getPlan(), merged.getScanned());
+    }
+
+    /**
+     * Aggregates the range on every partition that overlaps it and on the live rows, and adds the reports up.
+     * @see ReportEngine#aggregate(Ledger, LocalDate, LocalDate)
+     */
+    public ReportEngine.Report report(Ledger live, LocalDate start, LocalDate end) throws IOException {
+        List<ReportEngine.Report> reports = new ArrayList<>();
+        for (Partition partition : overlapping(start, end)) {
+            reports.add(ReportEngine.aggregate(ledger(partition), start, end));
+        }
+        reports.add(ReportEngine.aggregate(live.snapshot(), start, end));
+        return ReportEngine.merge(reports);
+    }
+
+    /**
+     * Sketches of the partitions that overlap the range merged with the live ones. The sketches of all partitions
+     * are merged once, the first time a range needs every partition, and kept: the partitions don't change while
+     * the app runs, and the merged sketches are small (a few per month and two per vendor).
+     * @return - sketches to query for months and vendors of the range
+     */
+    public LedgerSketches sketches(Ledger live, LocalDate start, LocalDate end) throws IOException {
+        List<Partition> needed = overlapping(start, end);
+        if (needed.isEmpty()) {
+            return live.getSketches();
+        }
+        LedgerSketches merged = new LedgerSketches(new StringDictionary());
+        LedgerSketches all = archivedSketches();
+        if (all == null && needed.size() == partitions.size()) {
+            all = new LedgerSketches(new StringDictionary());
+            for (Partition partition : partitions) {
+                all.merge(sketches(partition));
+            }
+            setArchivedSketches(all);
+        }
+        if (all != null) {
+            merged.merge(all);
+        } else {
+            for (Partition partition : needed) {
+                merged.merge(sketches(partition));
+            }
+        }
+        merged.merge(live.getSketches());
+        return merged;
+    }
+
+    private synchronized LedgerSketches archivedSketches() {
+        return archivedSketches;
+    }
+
+    private synchronized void setArchivedSketches(LedgerSketches sketches) {
+        archivedSketches = sketches;
+    }
+
+    /**
+     * Sketches of the partition from its indexes when it is in memory, otherwise from its rows without indexing them.
+     */
+    private LedgerSketches sketches(Partition partition) throws IOException {
+        Ledger ledger;
+        synchronized (this) {
+            ledger = resident.get(partition.month);
+        }
+        if (ledger != null) {
+            return ledger.getSketches();
+        }
+        TransactionStore store = BinaryLedger.read(file(partition.month));
+        LedgerSketches sketches = new LedgerSketches(store.getVendorDictionary());
+        sketches.addAll(store, 0);
+        return sketches;
+    }
+
+    /**
+     * Builds one ledger with the rows of the partitions that overlap the range and every live row, for work that
+     * needs a single date index over the rows, like reconciling a statement. It is built for every call and not kept,
+     * so the range should be as small as the work allows.
+     * @return - the live snapshot when no partition overlaps the range, otherwise a new ledger
+     */
+    public Ledger combine(Ledger live, LocalDate start, LocalDate end) throws IOException {
+        Ledger snapshot = live.snapshot();
+        List<Partition> needed = overlapping(start, end);
+        if (needed.isEmpty()) {
+            return snapshot;
+        }
+        Ledger combined = new Ledger();
+        for (Partition partition : needed) {
+            combined.addAll(load(partition));
+        }
+        combined.addAll(snapshot.getStore());
+        return combined.snapshot();
+    }
+
+    /**
+     * @return - {start, end} of the intersection of the date ranges of the top level AND, unbounded without one
+     */
+    private static LocalDate[] dateRange(Condition query) {
+        List<Condition> conditions = query instanceof Condition.And and ? and.getConditions() : List.of(query);
+        LocalDate start = LocalDate.MIN;
+        LocalDate end = LocalDate.MAX;
+        for (Condition condition : conditions) {
+            if (condition instanceof Condition.DateRange range) {
+                start = range.getStart().isAfter(start) ? range.getStart() : start;
+                end = range.getEnd().isBefore(end) ? range.getEnd() : end;
+            }
+        }
+        return new LocalDate[]{start, end};
+    }
+
+    /**
+     * Copies the rows of the result to the end of the store.
+     * @return - rows the result scanned
+     */
+    private static int copy(QueryEngine.Result result, TransactionStore to) {
+        IntList rows = result.getRows();
+        for (int i = 0; i < rows.size(); i++) {
+            copy(result.getStore(), rows.get(i), to);
+        }
+        return result.getScanned();
+    }
+
+    private static void copy(TransactionStore from, int row, TransactionStore to) {
+        to.add(from.getEpochDay(row), from.getSecondOfDay(row), from.getCents(row), from.getDescription(row), from.getVendor(row));
+    }
+
+    private static IntList all(TransactionStore store) {
+        IntList rows = new IntList(Math.max(1, store.size()));
+        for (int row = 0; row < store.size(); row++) {
+            rows.add(row);
+        }
+        return rows;
+    }
+
+    /**
+     * Totals of a date range over the partitions and the live ledger. Months that lie completely in the range
+     * are taken from the manifest, only a partly covered month is loaded.
+     * @param live - totals of the live ledger
+     */
+    public LedgerTotals.Totals between(LocalDate start, LocalDate end, LedgerTotals live) throws IOException {
+        LedgerTotals.Totals archived = archived(start, end);
+        LedgerTotals.Totals recent = live.between(start, end);
+        return new LedgerTotals.Totals(archived.getDeposits() + recent.getDeposits(), archived.getPayments() + recent.getPayments(),
+                archived.getCount() + recent.getCount());
+    }
+
+    /**
+     * @return - sum of all amounts up to and including the day, in the partitions and the live ledger
+     */
+    public long balanceAt(LocalDate day, LedgerTotals live) throws IOException {
+        return archived(LocalDate.of(1, 1, 1), day).getNet() + live.balanceAt(day);
+    }
+
+    private LedgerTotals.Totals archived(LocalDate start, LocalDate end) throws IOException {
+        long deposits = 0;
+        long payments = 0;
+        long count = 0;
+        for (Partition partition : partitions) {
+            if (!partition.overlaps(start, end)) {
+                continue;
+            }
+            if (partition.within(start, end)) {
+                deposits += partition.deposits;
+                payments += partition.payments;
+                count += partition.rows;
+                continue;
+            }
+            LedgerTotals.Totals part = ledger(partition).getTotals().between(start, end);
+            deposits += part.getDeposits();
+            payments += part.getPayments();
+            count += part.getCount();
+        }
+        return new LedgerTotals.Totals(deposits, payments, count);
+    }
+
+    private Path file(YearMonth month) {
+        return directory.resolve(month + ".bin");
+    }
+
+    /* ------------------------------------------------------------------
+       Writing
+       ------------------------------------------------------------------ */
+
+    /**
+     * Moves every row dated before keepFrom out of the transactions file and the binary segment into monthly
+     * partitions, merging with partitions that already exist. The newer rows are written back to the
+     * transactions file and the binary segment is removed. Run it while the app is not running.
+     *
+     * Every new file is first written and forced to disk under a temporary name, the partitions and the files
+     * in use are not touched. A marker then commits the step, and finishPartition() puts the new files in place.
+     * A crash before the marker leaves the old files, a crash after it is finished by the next finishPartition(),
+     * so the moved rows are never both in a partition and in the transactions files.
+     * @param csv - transactions file
+     * @param binary - binary segment, may not exist
+     * @param directory - partition directory, created when it does not exist
+     * @param keepFrom - first month that stays in the transactions file
+     * @return - number of rows that were moved into partitions
+     */
+    public static int partition(Path csv, Path binary, Path directory, YearMonth keepFrom) throws IOException {
+        finishPartition(csv, binary, directory);
+        TransactionStore all = Files.exists(binary) ? BinaryLedger.read(binary) : new TransactionStore();
+        if (Files.exists(csv)) {
+            TransactionLoader.Result result = TransactionLoader.load(csv);
+            if (!result.isComplete()) {
+                throw new IOException(csv + " has a corrupt line, nothing was partitioned");
+            }
+            all.addAll(result.getStore());
+        }
+        int keepDay = (int) keepFrom.atDay(1).toEpochDay();
+        Map<YearMonth, TransactionStore> byMonth = new TreeMap<>();
+        TransactionStore recent = new TransactionStore();
+        int moved = 0;
+        for (int row = 0; row < all.size(); row++) {
+            int day = all.getEpochDay(row);
+            TransactionStore target = recent;
+            if (day < keepDay) {
+                target = byMonth.computeIfAbsent(YearMonth.from(LocalDate.ofEpochDay(day)), m -> new TransactionStore());
+                moved++;
+            }
+            target.add(day, all.getSecondOfDay(row), all.getCents(row), all.getDescription(row), all.getVendor(row));
+        }
+
+        Files.createDirectories(directory);
+        Path csvTemp = pending(csv);
+        Files.deleteIfExists(csvTemp);
+        try (AppendWriter writer = new AppendWriter(csvTemp, AppendWriter.Durability.BUFFERED, AppendWriter.DEFAULT_BUFFER_SIZE, 0)) {
+            writer.appendAll(recent);
+        }
+        force(csvTemp);
+
+        //No marker was there, so the partitions in use don't hold any of the moved rows yet
+        Map<YearMonth, Partition> manifest = new TreeMap<>();
+        Path manifestFile = directory.resolve(MANIFEST);
+        if (Files.exists(manifestFile)) {
+            for (Partition partition : readManifest(manifestFile)) {
+                manifest.put(partition.month, partition);
+            }
+        }
+        for (Map.Entry<YearMonth, TransactionStore> entry : byMonth.entrySet()) {
+            Path file = directory.resolve(entry.getKey() + ".bin");
+            TransactionStore rows = entry.getValue();
+            if (manifest.containsKey(entry.getKey())) {
+                TransactionStore existing = BinaryLedger.read(file);
+                existing.addAll(rows);
+                rows = existing;
+            }
+            BinaryLedger.write(rows, pending(file));
+            manifest.put(entry.getKey(), describe(entry.getKey(), rows));
+        }
+        writeManifest(pending(manifestFile), manifest.values());
+
+        Path marker = directory.resolve(COMMIT);
+        Path temp = marker.resolveSibling(COMMIT + ".tmp");
+        Files.writeString(temp, keepFrom.toString(), StandardCharsets.UTF_8);
+        force(temp);
+        Files.move(temp, marker, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        finishPartition(csv, binary, directory);
+        return moved;
+    }
+
+    /**
+     * Finishes a partition() that was cut off, FinancialTracker calls it before reading the files.
+     * Without the marker the new files were never used and are deleted. With it every new file that is still
+     * there replaces the one in use and the binary segment is deleted, each step can be redone any number of times.
+     * @param csv - transactions file
+     * @param binary - binary segment
+     * @param directory - partition directory
+     */
+    public static void finishPartition(Path csv, Path binary, Path directory) throws IOException {
+        Path marker = directory.resolve(COMMIT);
+        boolean committed = Files.exists(marker);
+        List<Path> files = new ArrayList<>();
+        if (Files.isDirectory(directory)) {
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*" + PENDING)) {
+                stream.forEach(files::add);
+            }
+        }
+        Path manifest = pending(directory.resolve(MANIFEST));
+        files.remove(manifest);
+        //The manifest goes last among the partition files, it makes the new months visible
+        files.add(manifest);
+        files.add(pending(csv));
+        for (Path file : files) {
+            if (!committed) {
+                Files.deleteIfExists(file);
+            } else if (Files.exists(file)) {
+                String name = file.getFileName().toString();
+                Files.move(file, file.resolveSibling(name.substring(0, name.length() - PENDING.length())),
+                        StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            }
+        }
+        if (committed) {
+            Files.deleteIfExists(binary);
+            Files.delete(marker);
+        }
+    }
+
+    private static Path pending(Path file) {
+        return file.resolveSibling(file.getFileName() + PENDING);
+    }
+
+    private static void force(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            channel.force(true);
+        }
+    }
+
+    private static Partition describe(YearMonth month, TransactionStore rows) {
+        int first = Integer.MAX_VALUE;
+        int last = Integer.MIN_VALUE;
+        int depositRows = 0;
+        int paymentRows = 0;
+        long deposits = 0;
+        long payments = 0;
+        for (int row = 0; row < rows.size(); row++) {
+            first = Math.min(first, rows.getEpochDay(row));
+            last = Math.max(last, rows.getEpochDay(row));
+            long cents = rows.getCents(row);
+            if (cents >= 0) {
+                deposits += cents;
+            } else {
+                payments += cents;
+            }
+            if (cents > 0) {
+                depositRows++;
+            } else if (cents < 0) {
+                paymentRows++;
+            }
+        }
+        return new Partition(month, LocalDate.ofEpochDay(first), LocalDate.ofEpochDay(last), rows.size(), depositRows, paymentRows, deposits, payments);
+    }
+
+    /* ------------------------------------------------------------------
+       Manifest
+       ------------------------------------------------------------------ */
+
+    private static List<Partition> readManifest(Path manifest) throws IOException {
+        List<Partition> partitions = new ArrayList<>();
+        for (String line : Files.readAllLines(manifest, StandardCharsets.UTF_8)) {
+            if (line.isBlank()) {
+                continue;
+            }
+            String[] fields = line.split("\\|");
+            if (fields.length != 8 && fields.length != 7) {
+                throw new IOException("Corrupt line in " + manifest + ": " + line);
+            }
+            try {
+                if (fields.length == 7) {
+                    //Written before payment rows were counted, the month is described again from its file
+                    YearMonth month = YearMonth.parse(fields[0]);
+                    partitions.add(describe(month, BinaryLedger.read(manifest.resolveSibling(month + ".bin"))));
+                    continue;
+                }
+                partitions.add(new Partition(YearMonth.parse(fields[0]), LocalDate.parse(fields[1]), LocalDate.parse(fields[2]),
+                        Integer.parseInt(fields[3]), Integer.parseInt(fields[4]), Integer.parseInt(fields[5]),
+                        Long.parseLong(fields[6]), Long.parseLong(fields[7])));
+            } catch (DateTimeParseException | NumberFormatException e) {
+                throw new IOException("Corrupt line in " + manifest + ": " + line, e);
+            }
+        }
+        partitions.sort((a, b) -> a.month.compareTo(b.month));
+        return partitions;
+    }
+
+    private static void writeManifest(Path manifest, Iterable<Partition> partitions) throws IOException {
+        StringBuilder text = new StringBuilder();
+        for (Partition partition : partitions) {
+            text.append(partition.month).append('|').append(partition.first).append('|').append(partition.last).append('|')
+                    .append(partition.rows).append('|').append(partition.depositRows).append('|').append(partition.paymentRows).append('|')
+                    .append(partition.deposits).append('|').append(partition.payments).append('\n');
+        }
+        Path temp = manifest.resolveSibling(manifest.getFileName() + ".tmp");
+        Files.writeString(temp, text, StandardCharsets.UTF_8);
+        force(temp);
+        Files.move(temp, manifest, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+}
@@ -0,0 +1,308 @@
+package com.pluralsight;
+
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+
+/**
+ * Formats ledger rows into a reusable char buffer with fixed column widths and writes them to the output
+ * in large blocks, instead of one printf call per row.
+ * With a Page only the rows of that page are formatted, the other rows are only counted.
+ * Text written with line() goes through the same buffer, so it stays in order with the rows.
+ */
+public class LedgerRenderer {
+
+    public static final String LINE = "=========================================================================================";
+    public static final String HEADER = "Date        | Time      | Description                 | Vendor              | Amount    |";
+
+    // Column widths of HEADER, without the "| " separators
+    private static final int DATE_WIDTH = 12;
+    private static final int TIME_WIDTH = 10;
+    private static final int DESCRIPTION_WIDTH = 28;
+    private static final int VENDOR_WIDTH = 20;
+    private static final int AMOUNT_WIDTH = 10;
+
+    private static final int BLOCK_SIZE = 64 * 1024;
+
+    // from begin() to end(), so it includes finding the rows as well as formatting and writing them
+    private static final Metrics.Timer TABLE = Metrics.timer("render_table");
+    private static final Metrics.Counter FORMATTED_ROWS = Metrics.counter("render_rows");
+
+    private final PrintStream out;
+    private final char[] chars = new char[BLOCK_SIZE];
+    private final ByteBuffer bytes = ByteBuffer.allocate(BLOCK_SIZE * 3);
+    private final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder();
+    private int position;
+
+    private Page page = Page.ALL;
+    private long matched;
+    private long formatted;
+    private long started;
+
+    /**
+     * A page of the output, page numbers start at 1.
+     */
+    public static class Page {
+        public static final Page ALL = new Page(1, Long.MAX_VALUE);
+
+        private final long number;
+        private final long size;
+
+        public Page(long number, long size) {
+            if (number < 1 || size < 1) {
+                throw new IllegalArgumentException("Page and size must be positive");
+            }
+            this.number = number;
+            this.size = size;
+        }
+
+        /**
+         * Reads --page N and --size M from the tokens. A missing --page means page 1, a missing --size means 50 rows.
+         * A value that is not a positive number is reported and null is returned, so nothing is rendered.
+         * @param tokens - command line or menu input split on spaces
+         * @param fallback - page that is used when neither option is given
+         * @return - requested page, null when --page or --size is not valid
+         */
+        public static Page parse(String[] tokens, Page fallback) {
+            long number = 1;
+            long size = 50;
+            boolean given = false;
+            try {
+                for (int i = 0; i + 1 < tokens.length; i++) {
+                    if (tokens[i].equals("--page")) {
+                        number = Long.parseLong(tokens[++i]);
+                        given = true;
+                    } else if (tokens[i].equals("--size")) {
+                        size = Long.parseLong(tokens[++i]);
+                        given = true;
+                    }
+                }
+                return given ? new Page(number, size) : fallback;
+            } catch (IllegalArgumentException e) {
+                System.err.println("Incorrect input: --page and --size must be positive numbers");
+                return null;
+            }
+        }
+
+        public long getNumber() {
+            return number;
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        boolean isAll() {
+            return size == Long.MAX_VALUE;
+        }
+    }
+
+    public LedgerRenderer(PrintStream out) {
+        this.out = out;
+    }
+
+    /* ------------------------------------------------------------------
+       Rendering
+       ------------------------------------------------------------------ */
+
+    /**
+     * Starts a table: writes the top line and the header.
+     * @param page - rows that should be formatted, Page.ALL for every row
+     */
+    public void begin(Page page) {
+        this.page = page;
+        this.matched = 0;
+        this.formatted = 0;
+        this.started = TABLE.start();
+        line(LINE);
+        line(HEADER);
+    }
+
+    /**
+     * Counts the row and formats it when it is on the requested page.
+     * @param store - store that holds the row
+     * @param row - row number
+     */
+    public void row(TransactionStore store, int row) {
+        long index = matched++;
+        if (page.isAll() || (index >= (page.number - 1) * page.size && index < page.number * page.size)) {
+            formatted++;
+            ensureRoom(DATE_WIDTH + TIME_WIDTH + AMOUNT_WIDTH + 16);
+            appendDate(store.getEpochDay(row));
+            appendTime(store.getSecondOfDay(row));
+            appendColumn(store.getDescription(row), DESCRIPTION_WIDTH);
+            appendColumn(store.getVendor(row), VENDOR_WIDTH);
+            ensureRoom(AMOUNT_WIDTH + 24);
+            appendAmount(store.getCents(row));
+            //The last column ends with "|" only
+            position--;
+            append('\n');
+        }
+    }
+
+    /**
+     * Counts rows that are known to be after the requested page without formatting or even reading them.
+     * @param count - number of rows
+     */
+    public void skip(long count) {
+        matched += count;
+    }
+
+    /**
+     * @return - true when every row of the requested page has been passed to row(), the rest is only counted
+     */
+    public boolean isPastPage() {
+        return !page.isAll() && matched >= page.number * page.size;
+    }
+
+    /**
+     * @return - number of rows passed to row() since begin()
+     */
+    public long getMatched() {
+        return matched;
+    }
+
+    /**
+     * Writes a whole line of text.
+     */
+    public void line(String text) {
+        ensureRoom(text.length() + 1);
+        if (text.length() + 1 > chars.length) {
+            flush();
+            out.println(text);
+            return;
+        }
+        text.getChars(0, text.length(), chars, position);
+        position += text.length();
+        append('\n');
+    }
+
+    /**
+     * Ends the table: writes the bottom line, the page information when paging, and flushes the output.
+     */
+    public void end() {
+        line(LINE);
+        if (!page.isAll()) {
+            long pages = Math.max(1, (matched + page.size - 1) / page.size);
+            line("Page " + page.number + " of " + pages + " (" + matched + " rows)");
+        }
+        flush();
+        TABLE.stop(started);
+        FORMATTED_ROWS.add(formatted);
+    }
+
+    /**
+     * Encodes the buffered characters and writes them to the output in one call.
+     */
+    public void flush() {
+        if (position > 0) {
+            CharBuffer pending = CharBuffer.wrap(chars, 0, position);
+            encoder.reset();
+            while (true) {
+                CoderResult result = encoder.encode(pending, bytes, true);
+                out.write(bytes.array(), 0, bytes.position());
+                bytes.clear();
+                if (!result.isOverflow()) {
+                    break;
+                }
+            }
+            position = 0;
+        }
+        out.flush();
+    }
+
+    /* ------------------------------------------------------------------
+       Column formatting
+       ------------------------------------------------------------------ */
+
+    private void appendDate(int epochDay) {
+        LocalDate date = LocalDate.ofEpochDay(epochDay);
+        int start = position;
+        appendDigits(date.getYear(), 4);
+        append('-');
+        appendDigits(date.getMonthValue(), 2);
+        append('-');
+        appendDigits(date.getDayOfMonth(), 2);
+        pad(start, DATE_WIDTH);
+    }
+
+    private void appendTime(int secondOfDay) {
+        int start = position;
+        appendDigits(secondOfDay / 3600, 2);
+        append(':');
+        appendDigits(secondOfDay / 60 % 60, 2);
+        append(':');
+        appendDigits(secondOfDay % 60, 2);
+        pad(start, TIME_WIDTH);
+    }
+
+    private void appendColumn(String text, int width) {
+        ensureRoom(Math.max(text.length(), width) + 2);
+        if (text.length() + 2 > chars.length) {
+            flush();
+            out.print(text);
+            text = "";
+        }
+        int start = position;
+        text.getChars(0, text.length(), chars, position);
+        position += text.length();
+        pad(start, width);
+    }
+
+    private void appendAmount(long cents) {
+        int start = position;
+        if (cents < 0) {
+            append('-');
+        }
+        long abs = Math.abs(cents);
+        appendNumber(abs / 100);
+        append('.');
+        appendDigits((int) (abs % 100), 2);
+        pad(start, AMOUNT_WIDTH);
+    }
+
+    /**
+     * Pads the column that started at start with spaces and adds the "| " separator.
+     */
+    private void pad(int start, int width) {
+        while (position - start < width) {
+            chars[position++] = ' ';
+        }
+        chars[position++] = '|';
+        chars[position++] = ' ';
+    }
+
+    private void appendDigits(int value, int digits) {
+        for (int i = digits - 1; i >= 0; i--) {
+            chars[position + i] = (char) ('0' + value % 10);
+            value /= 10;
+        }
+        position += digits;
+    }
+
+    private void appendNumber(long value) {
+        int digits = 1;
+        for (long rest = value / 10; rest > 0; rest /= 10) {
+            digits++;
+        }
+        for (int i = digits - 1; i >= 0; i--) {
+            chars[position + i] = (char) ('0' + value % 10);
+            value /= 10;
+        }
+        position += digits;
+    }
+
+    private void append(char c) {
+        chars[position++] = c;
+    }
+
+    private void ensureRoom(int count) {
+        if (position + count > chars.length) {
+            flush();
+        }
+    }
+}
@@ -0,0 +1,565 @@
+package com.pluralsight;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.time.YearMonth;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.time.temporal.ChronoUnit;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Local HTTP API over the ledger, bound to the loopback address.
+ * Every request runs on its own virtual thread when the JDK has them, otherwise on a cached thread pool.
+ * Reads use a snapshot of the ledger, new transactions go through the same path as the menu.
+ * With monthly partitions a request reads the older months it needs one at a time, /ledger only those on its page.
+ *
+ * POST /deposit, /payment   description, vendor, amount (positive), optional date (yyyy-MM-dd) and time (HH:mm:ss)
+ * GET  /ledger              type=all|deposits|payments, newest first
+ * GET  /report              period=month-to-date|previous-month|year-to-date|previous-year, or start and end;
+ *                           breakdown=N adds totals per month and for the N vendors with the most transactions
+ * GET  /search              any of start, end, description, vendor, amount, minAmount, maxAmount
+ * GET  /metrics             counters, gauges and latency histograms as Prometheus text
+ * Parameters come from the query string or a form body. Lists take page and size, responses are JSON.
+ */
+public class LedgerServer {
+
+    private static final int DEFAULT_PAGE_SIZE = 100;
+    // A form with the fields of one transaction is far smaller, larger bodies are refused unread
+    private static final int MAX_BODY_BYTES = 64 * 1024;
+    private static final DateTimeFormatter TIME_FMT = DateTimeFormatter.ofPattern("HH:mm:ss");
+
+    static {
+        //The JDK server writes headers and body separately; with Nagle on, small responses wait for a delayed ACK (~40 ms)
+        if (System.getProperty("sun.net.httpserver.nodelay") == null) {
+            System.setProperty("sun.net.httpserver.nodelay", "true");
+        }
+    }
+
+    // Requests answered with 500, the cause is not sent to the client
+    private static final Metrics.Counter ERRORS = Metrics.counter("http_errors");
+
+    private final Ledger ledger;
+    private final LedgerPartitions partitions;
+    private final Recorder recorder;
+    private final HttpServer server;
+    private final ExecutorService executor;
+
+    /**
+     * Saves a transaction received by POST /deposit or POST /payment.
+     */
+    public interface Recorder {
+        /**
+         * @param transaction - new transaction, it must be in the ledger when the method returns
+         * @throws IOException - when it could not be saved, the request is answered with 500
+         */
+        void record(Transaction transaction) throws IOException;
+    }
+
+    /**
+     * @param ledger - ledger that is queried
+     * @param recorder - adds a new transaction to the ledger and writes it to the file
+     * @param port - port on localhost, 0 picks a free one
+     */
+    public LedgerServer(Ledger ledger, Recorder recorder, int port) throws IOException {
+        this(ledger, null, recorder, port);
+    }
+
+    /**
+     * @param ledger - ledger that is queried
+     * @param partitions - older months that are loaded when a request needs them, null when there are none
+     * @param recorder - adds a new transaction to the ledger and writes it to the file
+     * @param port - port on localhost, 0 picks a free one
+     */
+    public LedgerServer(Ledger ledger, LedgerPartitions partitions, Recorder recorder, int port) throws IOException {
+        this.ledger = ledger;
+        this.partitions = partitions;
+        this.recorder = recorder;
+        this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        this.executor = requestExecutor();
+        server.setExecutor(executor);
+        server.createContext("/deposit", exchange -> handle(exchange, "POST", Metrics.timer("http_deposit"), this::deposit));
+        server.createContext("/payment", exchange -> handle(exchange, "POST", Metrics.timer("http_payment"), this::payment));
+        server.createContext("/ledger", exchange -> handle(exchange, "GET", Metrics.timer("http_ledger"), this::ledger));
+        server.createContext("/report", exchange -> handle(exchange, "GET", Metrics.timer("http_report"), this::report));
+        server.createContext("/search", exchange -> handle(exchange, "GET", Metrics.timer("http_search"), this::search));
+        server.createContext("/metrics", this::metrics);
+    }
+
+    public void start() {
+        server.start();
+    }
+
+    /**
+     * Stops accepting requests, waits up to a second for running ones and stops the request threads.
+     */
+    public void stop() {
+        server.stop(1);
+        executor.shutdown();
+    }
+
+    /**
+     * @return - port the server listens on
+     */
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    /**
+     * Executors.newVirtualThreadPerTaskExecutor() is looked up by reflection, so the app still builds and runs on JDK 17.
+     */
+    private static ExecutorService requestExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            return Executors.newCachedThreadPool(runnable -> {
+                Thread thread = new Thread(runnable, "ledger-http");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+
+    /* ------------------------------------------------------------------
+       Request handling
+       ------------------------------------------------------------------ */
+
+    private interface Endpoint {
+        /**
+         * @return - JSON body of a successful response
+         */
+        String respond(Map<String, String> params) throws IOException;
+    }
+
+    /**
+     * Thrown for bad input, answered with 400 and the message.
+     */
+    private static class BadRequest extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        BadRequest(String message) {
+            super(message);
+        }
+    }
+
+    /**
+     * Thrown when a new transaction could not be written, answered with 500.
+     */
+    private static class NotSaved extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        NotSaved(IOException cause) {
+            super(cause);
+        }
+    }
+
+    private void handle(HttpExchange exchange, String method, Metrics.Timer timer, Endpoint endpoint) throws IOException {
+        long started = timer.start();
+        try (exchange) {
+            if (!exchange.getRequestMethod().equals(method)) {
+                exchange.getResponseHeaders().set("Allow", method);
+                send(exchange, 405, error("Use " + method));
+                return;
+            }
+            Map<String, String> params;
+            try {
+                params = params(exchange);
+            } catch (BadRequest e) {
+                send(exchange, 400, error(e.getMessage()));
+                return;
+            } catch (IOException e) {
+                send(exchange, 400, error("Could not read the request body"));
+                return;
+            }
+            int status = method.equals("POST") ? 201 : 200;
+            String body;
+            try {
+                body = endpoint.respond(params);
+            } catch (BadRequest e) {
+                status = 400;
+                body = error(e.getMessage());
+            } catch (NotSaved e) {
+                ERRORS.increment();
+                status = 500;
+                body = error("Could not save the transaction");
+            } catch (RuntimeException e) {
+                ERRORS.increment();
+                status = 500;
+                body = error("Something went wrong");
+            } catch (IOException e) {
+                ERRORS.increment();
+                status = 500;
+                body = error("Could not read older transactions");
+            }
+            send(exchange, status, body);
+        } finally {
+            timer.stop(started);
+        }
+    }
+
+    /**
+     * GET /metrics: every counter, gauge and latency histogram in the Prometheus text format.
+     */
+    private void metrics(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            byte[] bytes = Metrics.prometheus().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+            exchange.sendResponseHeaders(200, bytes.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(bytes);
+            }
+        }
+    }
+
+    private static void send(HttpExchange exchange, int status, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    /**
+     * Reads the parameters of the query string and of a form body.
+     * @throws BadRequest - when the body is larger than MAX_BODY_BYTES or a parameter is not URL encoded
+     * @throws IOException - when the body could not be read, the client went away for example
+     */
+    private static Map<String, String> params(HttpExchange exchange) throws IOException {
+        Map<String, String> params = new HashMap<>();
+        parseForm(exchange.getRequestURI().getRawQuery(), params);
+        try (InputStream in = exchange.getRequestBody()) {
+            byte[] body = in.readNBytes(MAX_BODY_BYTES + 1);
+            if (body.length > MAX_BODY_BYTES) {
+                throw new BadRequest("the request body must not be larger than " + MAX_BODY_BYTES / 1024 + " KiB");
+            }
+            parseForm(new String(body, StandardCharsets.UTF_8), params);
+        }
+        return params;
+    }
+
+    private static void parseForm(String form, Map<String, String> params) {
+        if (form == null || form.isEmpty()) {
+            return;
+        }
+        for (String pair : form.split("&")) {
+            int equals = pair.indexOf('=');
+            String name = equals < 0 ? pair : pair.substring(0, equals);
+            String value = equals < 0 ? "" : pair.substring(equals + 1);
+            try {
+                params.put(URLDecoder.decode(name, StandardCharsets.UTF_8), URLDecoder.decode(value, StandardCharsets.UTF_8).trim());
+            } catch (IllegalArgumentException e) {
+                throw new BadRequest("parameters must be URL encoded");
+            }
+        }
+    }
+
+    /* ------------------------------------------------------------------
+       Endpoints
+       ------------------------------------------------------------------ */
+
+    private String deposit(Map<String, String> params) {
+        return add(params, 1);
+    }
+
+    private String payment(Map<String, String> params) {
+        return add(params, -1);
+    }
+
+    private String add(Map<String, String> params, int sign) {
+        String description = required(params, "description");
+        String vendor = required(params, "vendor");
+        long amount = parseAmount(required(params, "amount"));
+        if (amount <= 0) {
+            throw new BadRequest("amount must be positive");
+        }
+        LocalDate date = params.containsKey("date") ? parseDate(params.get("date")) : LocalDate.now();
+        LocalTime time;
+        try {
+            time = params.containsKey("time") ? LocalTime.parse(params.get("time")) : LocalTime.now().truncatedTo(ChronoUnit.SECONDS);
+        } catch (DateTimeParseException e) {
+            throw new BadRequest("time must be in HH:mm:ss format");
+        }
+        try {
+            AppendWriter.checkRow(date, description, vendor);
+        } catch (IllegalArgumentException e) {
+            throw new BadRequest(e.getMessage());
+        }
+        Transaction transaction = new Transaction(date, time, description, vendor, sign * amount);
+        try {
+            recorder.record(transaction);
+        } catch (IOException e) {
+            throw new NotSaved(e);
+        }
+        StringBuilder json = new StringBuilder(160).append("{\"transaction\":");
+        appendTransaction(json, date, time, description, vendor, transaction.getCents());
+        return json.append('}').toString();
+    }
+
+    private String ledger(Map<String, String> params) throws IOException {
+        String type = params.getOrDefault("type", "all");
+        if (!type.equals("all") && !type.equals("deposits") && !type.equals("payments")) {
+            throw new BadRequest("type must be all, deposits or payments");
+        }
+        Rows rows = new Rows(params);
+        addNewestFirst(rows, ledger.snapshot().getStore(), type);
+        if (partitions != null) {
+            //Newest month first, a month that is not on the page is counted from the manifest and not read
+            List<LedgerPartitions.Partition> months = partitions.getPartitions();
+            for (int i = months.size() - 1; i >= 0; i--) {
+                LedgerPartitions.Partition partition = months.get(i);
+                int count = switch (type) {
+                    case "deposits" -> partition.getDepositRows();
+                    case "payments" -> partition.getPaymentRows();
+                    default -> partition.getRows();
+                };
+                if (!rows.skip(count)) {
+                    addNewestFirst(rows, partitions.ledger(partition).getStore(), type);
+                }
+            }
+        }
+        return rows.finish(new StringBuilder("{")).append('}').toString();
+    }
+
+    private static void addNewestFirst(Rows rows, TransactionStore store, String type) {
+        for (int row = store.size() - 1; row >= 0; row--) {
+            long cents = store.getCents(row);
+            if (type.equals("all") || (type.equals("deposits") && cents > 0) || (type.equals("payments") && cents < 0)) {
+                rows.add(store, row);
+            }
+        }
+    }
+
+    private String report(Map<String, String> params) throws IOException {
+        LocalDate start;
+        LocalDate end;
+        LocalDate today = LocalDate.now();
+        String period = params.get("period");
+        if (period == null) {
+            start = parseDate(required(params, "start"));
+            end = parseDate(required(params, "end"));
+        } else {
+            switch (period) {
+                case "month-to-date" -> {
+                    start = today.withDayOfMonth(1);
+                    end = today;
+                }
+                case "previous-month" -> {
+                    YearMonth month = YearMonth.from(today).minusMonths(1);
+                    start = month.atDay(1);
+                    end = month.atEndOfMonth();
+                }
+                case "year-to-date" -> {
+                    start = today.withDayOfYear(1);
+                    end = today;
+                }
+                case "previous-year" -> {
+                    start = LocalDate.of(today.getYear() - 1, 1, 1);
+                    end = LocalDate.of(today.getYear() - 1, 12, 31);
+                }
+                default -> throw new BadRequest("period must be month-to-date, previous-month, year-to-date or previous-year");
+            }
+        }
+        Ledger view = ledger.snapshot();
+        Rows rows = new Rows(params);
+        LedgerTotals.Totals totals;
+        if (partitions == null) {
+            int[] range = view.dateRange(start, end);
+            for (int i = range[0]; i < range[1]; i++) {
+                rows.add(view.getStore(), view.getDateIndex().row(i));
+            }
+            totals = view.getTotals().between(start, end);
+        } else {
+            partitions.scan(view, start, end, rows::add);
+            totals = partitions.between(start, end, view.getTotals());
+        }
+        StringBuilder json = new StringBuilder();
+        json.append("{\"start\":\"").append(start).append("\",\"end\":\"").append(end).append("\",");
+        json.append("\"deposits\":");
+        Money.format(json, totals.getDeposits()).append(",\"payments\":");
+        Money.format(json, totals.getPayments()).append(",\"net\":");
+        Money.format(json, totals.getNet()).append(',');
+        if (params.containsKey("breakdown")) {
+            ReportEngine.Report report = partitions == null ? ReportEngine.aggregate(view, start, end) : partitions.report(view, start, end);
+            appendBreakdowns(json.append("\"months\":["), report.getMonths(), report.getMonths().size()).append("],");
+            appendBreakdowns(json.append("\"vendors\":["), report.getVendors(), parseInt(params, "breakdown", 10)).append("],");
+        }
+        return rows.finish(json).append('}').toString();
+    }
+
+    private static StringBuilder appendBreakdowns(StringBuilder json, List<ReportEngine.Breakdown> breakdowns, int limit) {
+        for (int i = 0; i < Math.min(limit, breakdowns.size()); i++) {
+            ReportEngine.Breakdown breakdown = breakdowns.get(i);
+            if (i > 0) {
+                json.append(',');
+            }
+            appendString(json.append("{\"key\":"), breakdown.getKey()).append(",\"count\":").append(breakdown.getCount()).append(",\"deposits\":");
+            Money.format(json, breakdown.getDeposits()).append(",\"payments\":");
+            Money.format(json, breakdown.getPayments()).append('}');
+        }
+        return json;
+    }
+
+    private String search(Map<String, String> params) throws IOException {
+        Condition query;
+        try {
+            query = Condition.parse(params);
+        } catch (IllegalArgumentException e) {
+            throw new BadRequest(e.getMessage());
+        }
+        QueryEngine.Result result = partitions == null ? QueryEngine.execute(ledger.snapshot(), query) : partitions.search(ledger, query);
+        Rows rows = new Rows(params);
+        for (int i = 0; i < result.getRows().size(); i++) {
+            rows.add(result.getStore(), result.getRows().get(i));
+        }
+        StringBuilder json = new StringBuilder();
+        json.append("{\"query\":");
+        appendString(json, query.describe()).append(",\"plan\":");
+        appendString(json, result.getPlan()).append(",\"scanned\":").append(result.getScanned()).append(',');
+        return rows.finish(json).append('}').toString();
+    }
+
+    /* ------------------------------------------------------------------
+       Parameters
+       ------------------------------------------------------------------ */
+
+    private static String required(Map<String, String> params, String name) {
+        String value = params.get(name);
+        if (value == null || value.isEmpty()) {
+            throw new BadRequest(name + " is required");
+        }
+        return value;
+    }
+
+    private static LocalDate parseDate(String value) {
+        try {
+            return LocalDate.parse(value);
+        } catch (DateTimeParseException e) {
+            throw new BadRequest("dates must be in yyyy-MM-dd format");
+        }
+    }
+
+    private static long parseAmount(String value) {
+        try {
+            return Money.parse(value);
+        } catch (NumberFormatException e) {
+            throw new BadRequest("amount must be a number");
+        }
+    }
+
+    private static int parseInt(Map<String, String> params, String name, int fallback) {
+        String value = params.get(name);
+        if (value == null || value.isEmpty()) {
+            return fallback;
+        }
+        try {
+            int number = Integer.parseInt(value);
+            if (number < 1) {
+                throw new BadRequest(name + " must be 1 or more");
+            }
+            return number;
+        } catch (NumberFormatException e) {
+            throw new BadRequest(name + " must be a number");
+        }
+    }
+
+    /* ------------------------------------------------------------------
+       JSON
+       ------------------------------------------------------------------ */
+
+    /**
+     * Collects one page of rows as JSON, like the LedgerRenderer it counts every row but only formats the page.
+     */
+    private static class Rows {
+        private final int page;
+        private final int size;
+        private final StringBuilder json = new StringBuilder();
+        private int total;
+
+        Rows(Map<String, String> params) {
+            page = parseInt(params, "page", 1);
+            size = parseInt(params, "size", DEFAULT_PAGE_SIZE);
+        }
+
+        void add(TransactionStore store, int row) {
+            long index = total++;
+            if (index < (long) (page - 1) * size || index >= (long) page * size) {
+                return;
+            }
+            if (json.length() > 0) {
+                json.append(',');
+            }
+            appendTransaction(json, LocalDate.ofEpochDay(store.getEpochDay(row)), LocalTime.ofSecondOfDay(store.getSecondOfDay(row)),
+                    store.getDescription(row), store.getVendor(row), store.getCents(row));
+        }
+
+        /**
+         * Counts rows without reading them when none of them is on the page.
+         * @param count - number of rows that would be added next
+         * @return - true when they were counted, false when some of them are on the page and have to be added
+         */
+        boolean skip(int count) {
+            long first = total;
+            if (first + count <= (long) (page - 1) * size || first >= (long) page * size) {
+                total += count;
+                return true;
+            }
+            return false;
+        }
+
+        /**
+         * Appends "total", "page", "size" and "rows" to the response, without the closing brace.
+         */
+        StringBuilder finish(StringBuilder response) {
+            return response.append("\"total\":").append(total).append(",\"page\":").append(page)
+                    .append(",\"size\":").append(size).append(",\"rows\":[").append(json).append(']');
+        }
+    }
+
+    private static void appendTransaction(StringBuilder json, LocalDate date, LocalTime time, String description, String vendor, long cents) {
+        json.append("{\"date\":\"").append(date).append("\",\"time\":\"").append(TIME_FMT.format(time)).append("\",\"description\":");
+        appendString(json, description).append(",\"vendor\":");
+        appendString(json, vendor).append(",\"amount\":");
+        Money.format(json, cents).append('}');
+    }
+
+    static StringBuilder appendString(StringBuilder json, String value) {
+        json.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"' -> json.append("\\\"");
+                case '\\' -> json.append("\\\\");
+                case '\n' -> json.append("\\n");
+                case '\r' -> json.append("\\r");
+                case '\t' -> json.append("\\t");
+                default -> {
+                    if (c < 0x20) {
+                        json.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        json.append(c);
+                    }
+                }
+            }
+        }
+        return json.append('"');
+    }
+
+    private static String error(String message) {
+        return appendString(new StringBuilder("{\"error\":"), message).append('}').toString();
+    }
+}
@@ -0,0 +1,205 @@
+package com.pluralsight;
+
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Approximate statistics kept next to the ledger and updated on every append, like LedgerTotals:
+ * per month a quantile sketch of payment sizes, one of deposit amounts and a HyperLogLog of the vendors (ignoring
+ * case), and per vendor the two quantile sketches. Every sketch has a bounded size, so a report over any range of
+ * months merges a few KiB per month instead of sorting the rows or collecting their vendors.
+ * See AmountSketch and HyperLogLog for the error bounds. Amounts are in cents, payment sizes are positive.
+ * The live ledger and its snapshots share the sketches; all methods lock, queries return copies.
+ */
+public class LedgerSketches {
+
+    /**
+     * Sketches of one month.
+     */
+    private static class Month {
+        final AmountSketch payments = new AmountSketch();
+        final AmountSketch deposits = new AmountSketch();
+        final HyperLogLog vendors = new HyperLogLog();
+    }
+
+    /**
+     * Sketches merged over a range of months, or of one vendor. They are copies, they can be queried as often as needed.
+     */
+    public static class Summary {
+        private final AmountSketch payments;
+        private final AmountSketch deposits;
+        private final long vendors;
+
+        Summary(AmountSketch payments, AmountSketch deposits, long vendors) {
+            this.payments = payments;
+            this.deposits = deposits;
+            this.vendors = vendors;
+        }
+
+        /**
+         * @return - payment sizes in cents, as positive values
+         */
+        public AmountSketch getPayments() {
+            return payments;
+        }
+
+        /**
+         * @return - deposit amounts in cents
+         */
+        public AmountSketch getDeposits() {
+            return deposits;
+        }
+
+        /**
+         * @return - estimated number of distinct vendors, 1 for the summary of a vendor
+         */
+        public long getVendors() {
+            return vendors;
+        }
+    }
+
+    private final StringDictionary vendorDictionary;
+    private final TreeMap<YearMonth, Month> months = new TreeMap<>();
+    // by folded vendor id
+    private AmountSketch[] vendorPayments = new AmountSketch[64];
+    private AmountSketch[] vendorDeposits = new AmountSketch[64];
+    private long[] vendorHashes = new long[64];
+
+    // rows usually come in date order, so the month of the previous row is kept
+    private int lastDay = Integer.MIN_VALUE;
+    private Month lastMonth;
+
+    /**
+     * @param vendorDictionary - vendor dictionary of the store whose rows are added
+     */
+    public LedgerSketches(StringDictionary vendorDictionary) {
+        this.vendorDictionary = vendorDictionary;
+    }
+
+    /**
+     * Adds one row of the store.
+     */
+    public synchronized void add(TransactionStore store, int row) {
+        addRow(store, row);
+    }
+
+    /**
+     * Adds rows [fromRow, store.size()) of the store.
+     */
+    public synchronized void addAll(TransactionStore store, int fromRow) {
+        for (int row = fromRow; row < store.size(); row++) {
+            addRow(store, row);
+        }
+    }
+
+    private void addRow(TransactionStore store, int row) {
+        int day = store.getEpochDay(row);
+        if (day != lastDay) {
+            lastMonth = months.computeIfAbsent(YearMonth.from(LocalDate.ofEpochDay(day)), key -> new Month());
+            lastDay = day;
+        }
+        long cents = store.getCents(row);
+        int vendor = vendorDictionary.foldedId(store.getVendorId(row));
+        ensureVendor(vendor);
+        if (vendorHashes[vendor] == 0) {
+            vendorHashes[vendor] = HyperLogLog.hash(TextIndex.fold(store.getVendor(row)));
+            vendorPayments[vendor] = new AmountSketch();
+            vendorDeposits[vendor] = new AmountSketch();
+        }
+        lastMonth.vendors.add(vendorHashes[vendor]);
+        if (cents < 0) {
+            lastMonth.payments.add(-cents);
+            vendorPayments[vendor].add(-cents);
+        } else {
+            lastMonth.deposits.add(cents);
+            vendorDeposits[vendor].add(cents);
+        }
+    }
+
+    private void ensureVendor(int vendor) {
+        if (vendor >= vendorHashes.length) {
+            int capacity = Math.max(vendor + 1, vendorHashes.length * 2);
+            vendorPayments = Arrays.copyOf(vendorPayments, capacity);
+            vendorDeposits = Arrays.copyOf(vendorDeposits, capacity);
+            vendorHashes = Arrays.copyOf(vendorHashes, capacity);
+        }
+    }
+
+    /**
+     * Adds the sketches of another ledger, used to combine the partitions with the live rows.
+     * Vendors are matched by name ignoring case; the names are interned into this sketch's vendor dictionary.
+     * @param other - sketches of another ledger, it is only read
+     */
+    public synchronized void merge(LedgerSketches other) {
+        synchronized (other) {
+            for (Map.Entry<YearMonth, Month> entry : other.months.entrySet()) {
+                Month month = months.computeIfAbsent(entry.getKey(), key -> new Month());
+                month.payments.merge(entry.getValue().payments);
+                month.deposits.merge(entry.getValue().deposits);
+                month.vendors.merge(entry.getValue().vendors);
+            }
+            StringDictionary names = other.vendorDictionary;
+            boolean[] merged = new boolean[other.vendorHashes.length];
+            for (int id = 0; id < names.size(); id++) {
+                int from = names.foldedId(id);
+                if (from >= merged.length || merged[from] || other.vendorHashes[from] == 0) {
+                    continue;
+                }
+                merged[from] = true;
+                int vendor = vendorDictionary.foldedId(vendorDictionary.intern(names.get(id)));
+                ensureVendor(vendor);
+                if (vendorHashes[vendor] == 0) {
+                    vendorHashes[vendor] = other.vendorHashes[from];
+                    vendorPayments[vendor] = new AmountSketch();
+                    vendorDeposits[vendor] = new AmountSketch();
+                }
+                vendorPayments[vendor].merge(other.vendorPayments[from]);
+                vendorDeposits[vendor].merge(other.vendorDeposits[from]);
+            }
+        }
+    }
+
+    /* ------------------------------------------------------------------
+       Queries
+       ------------------------------------------------------------------ */
+
+    /**
+     * @return - months that have at least one row, oldest first
+     */
+    public synchronized List<YearMonth> getMonths() {
+        return new ArrayList<>(months.keySet());
+    }
+
+    /**
+     * Merges the sketches of the months between first and last, both included.
+     * @return - payment and deposit sketches and the distinct vendors of the range
+     */
+    public synchronized Summary between(YearMonth first, YearMonth last) {
+        AmountSketch payments = new AmountSketch();
+        AmountSketch deposits = new AmountSketch();
+        HyperLogLog vendors = new HyperLogLog();
+        for (Month month : months.subMap(first, true, last, true).values()) {
+            payments.merge(month.payments);
+            deposits.merge(month.deposits);
+            vendors.merge(month.vendors);
+        }
+        return new Summary(payments, deposits, vendors.estimate());
+    }
+
+    /**
+     * @param vendor - vendor name, case is ignored
+     * @return - payment and deposit sketches of every row of the vendor, null when the vendor has no rows
+     */
+    public synchronized Summary vendor(String vendor) {
+        int folded = vendorDictionary.lookupFolded(vendor);
+        if (folded < 0 || folded >= vendorHashes.length || vendorHashes[folded] == 0) {
+            return null;
+        }
+        return new Summary(vendorPayments[folded].copy(), vendorDeposits[folded].copy(), 1);
+    }
+}
@@ -0,0 +1,328 @@
+package com.pluralsight;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * The ledger saved together with the state that is slow to rebuild, so a short run (a batch of queries started by
+ * cron) does not parse the transactions file and sort the indexes again. Restoring reads the columns and the sorted
+ * date and amount indexes with bulk reads; the text indexes, totals and sketches are one pass over the rows.
+ *
+ * Layout (little-endian):
+ * segment - the rows as a BinaryLedger segment
+ * derived - source count (int), per source: length (long), CRC32 of its first and last SAMPLE_SIZE bytes (longs),
+ *           name as byte length (int) + UTF-8 bytes; then the date index as size (int), epoch days (int), rows (int)
+ *           and the amount index as size (int), cents (long), rows (int)
+ * trailer - offset of the derived section (long), magic "FTLS", version
+ *
+ * A snapshot can be used while its sources are the same files with the same lengths and samples. The last source
+ * may have grown, as the transactions file does when rows are appended: only the bytes after its saved length are
+ * parsed. Any other change is reported, the caller loads the files again and writes a new snapshot.
+ * The samples do not see a row that was edited in the middle of a file without changing its length.
+ */
+public class LedgerSnapshot {
+
+    static final int MAGIC = 0x534C5446; // "FTLS" in little-endian
+    private static final int VERSION = 1;
+    private static final int TRAILER_SIZE = 16;
+    private static final int MAX_SOURCES_SIZE = 1 << 16;
+    static final int SAMPLE_SIZE = 1 << 16;
+
+    private static final Metrics.Timer READ = Metrics.timer("snapshot_read");
+    private static final Metrics.Timer WRITE = Metrics.timer("snapshot_write");
+
+    /**
+     * Restored ledger, or why the snapshot could not be used.
+     */
+    public static class Result {
+        private final Ledger ledger;
+        private final String reason;
+        private final int tailRows;
+        private final long tailBytes;
+        private final long length;
+        private final boolean complete;
+
+        Result(Ledger ledger, String reason, int tailRows, long tailBytes, long length, boolean complete) {
+            this.ledger = ledger;
+            this.reason = reason;
+            this.tailRows = tailRows;
+            this.tailBytes = tailBytes;
+            this.length = length;
+            this.complete = complete;
+        }
+
+        private static Result unusable(String reason) {
+            return new Result(null, reason, 0, 0, 0, true);
+        }
+
+        /**
+         * @return - ledger with the saved rows and the rows appended since, null when the snapshot can't be used
+         */
+        public Ledger getLedger() {
+            return ledger;
+        }
+
+        /**
+         * @return - why the snapshot can't be used, null when it was used
+         */
+        public String getReason() {
+            return reason;
+        }
+
+        /**
+         * @return - rows parsed from the bytes appended to the last source after the snapshot was written
+         */
+        public int getTailRows() {
+            return tailRows;
+        }
+
+        /**
+         * @return - bytes appended to the last source after the snapshot was written
+         */
+        public long getTailBytes() {
+            return tailBytes;
+        }
+
+        /**
+         * @return - bytes of the last source that are in the ledger, like TransactionLoader.Result.getLength()
+         */
+        public long getLength() {
+            return length;
+        }
+
+        /**
+         * @return - false when a corrupt line was found in the appended bytes
+         */
+        public boolean isComplete() {
+            return complete;
+        }
+    }
+
+    /* ------------------------------------------------------------------
+       Writing
+       ------------------------------------------------------------------ */
+
+    /**
+     * Writes the current rows of the ledger and its date and amount indexes. The file is written next to the target
+     * and moved in place, so a reader sees the old snapshot or the new one.
+     * @param ledger - ledger loaded from the sources
+     * @param sources - files the ledger was loaded from, in the order they were loaded
+     * @param lengths - bytes of each source that are in the ledger
+     * @param path - target file
+     */
+    public static void write(Ledger ledger, List<Path> sources, long[] lengths, Path path) throws IOException {
+        long started = WRITE.start();
+        Ledger snapshot = ledger.snapshot();
+        Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+        BinaryLedger.write(snapshot.getStore(), temp);
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+            long derived = channel.size();
+            ByteBuffer buffer = ByteBuffer.allocateDirect(1 << 20).order(ByteOrder.LITTLE_ENDIAN);
+            buffer.putInt(sources.size());
+            for (int i = 0; i < sources.size(); i++) {
+                Path source = sources.get(i);
+                byte[] name = source.toString().getBytes(StandardCharsets.UTF_8);
+                BinaryLedger.ensureRoom(channel, buffer, 28 + name.length);
+                buffer.putLong(lengths[i]).putLong(headSample(source, lengths[i])).putLong(tailSample(source, lengths[i]))
+                        .putInt(name.length).put(name);
+            }
+
+            DateIndex dateIndex = snapshot.getDateIndex();
+            int size = dateIndex.size();
+            int[] days = new int[size];
+            int[] rows = new int[size];
+            for (int position = 0; position < size; position++) {
+                days[position] = dateIndex.day(position);
+                rows[position] = dateIndex.row(position);
+            }
+            BinaryLedger.ensureRoom(channel, buffer, 4);
+            buffer.putInt(size);
+            BinaryLedger.writeInts(channel, buffer, days, size);
+            BinaryLedger.writeInts(channel, buffer, rows, size);
+
+            AmountIndex amountIndex = snapshot.getAmountIndex();
+            size = amountIndex.size();
+            long[] cents = new long[size];
+            rows = new int[size];
+            AmountIndex.Cursor cursor = amountIndex.cursor(Long.MIN_VALUE, false);
+            for (int position = 0; cursor.next(); position++) {
+                cents[position] = cursor.cents();
+                rows[position] = cursor.row();
+            }
+            BinaryLedger.ensureRoom(channel, buffer, 4);
+            buffer.putInt(size);
+            BinaryLedger.writeLongs(channel, buffer, cents, size);
+            BinaryLedger.writeInts(channel, buffer, rows, size);
+
+            BinaryLedger.ensureRoom(channel, buffer, TRAILER_SIZE);
+            buffer.putLong(derived).putInt(MAGIC).putInt(VERSION);
+            BinaryLedger.drain(channel, buffer);
+            channel.force(true);
+        }
+        Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        WRITE.stop(started);
+    }
+
+    /* ------------------------------------------------------------------
+       Reading
+       ------------------------------------------------------------------ */
+
+    /**
+     * Restores the ledger if the snapshot still belongs to the sources, and adds the rows appended to the last source.
+     * @param path - snapshot written by write()
+     * @param sources - files the ledger would be loaded from now, in load order
+     * @return - the ledger, or the reason the sources have to be loaded instead
+     * @throws IOException - when a file can't be read
+     */
+    public static Result load(Path path, List<Path> sources) throws IOException {
+        if (!Files.exists(path)) {
+            return Result.unusable("there is no snapshot yet");
+        }
+        long started = READ.start();
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < TRAILER_SIZE) {
+                return Result.unusable(path + " is truncated");
+            }
+            ByteBuffer trailer = channel.map(FileChannel.MapMode.READ_ONLY, size - TRAILER_SIZE, TRAILER_SIZE)
+                    .order(ByteOrder.LITTLE_ENDIAN);
+            long derived = trailer.getLong(0);
+            if (trailer.getInt(8) != MAGIC || trailer.getInt(12) != VERSION || derived <= 0 || derived > size - TRAILER_SIZE) {
+                return Result.unusable(path + " is not a snapshot of this version");
+            }
+
+            ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, derived,
+                    Math.min(size - TRAILER_SIZE - derived, MAX_SOURCES_SIZE)).order(ByteOrder.LITTLE_ENDIAN);
+            if (header.getInt() != sources.size()) {
+                return Result.unusable("the transaction files are not the ones of the snapshot");
+            }
+            long tailFrom = -1;
+            for (int i = 0; i < sources.size(); i++) {
+                Path source = sources.get(i);
+                long length = header.getLong();
+                long headSample = header.getLong();
+                long tailSample = header.getLong();
+                byte[] name = new byte[header.getInt()];
+                header.get(name);
+                if (!new String(name, StandardCharsets.UTF_8).equals(source.toString())) {
+                    return Result.unusable("the transaction files are not the ones of the snapshot");
+                }
+                long current = Files.size(source);
+                boolean grown = current > length && i == sources.size() - 1 && !BinaryLedger.isBinary(source);
+                if ((current != length && !grown) || headSample != headSample(source, length)
+                        || tailSample != tailSample(source, length)) {
+                    return Result.unusable(source + " changed since the snapshot was written");
+                }
+                if (grown) {
+                    tailFrom = length;
+                }
+            }
+
+            TransactionStore store = BinaryLedger.read(channel, path, derived);
+            long position = derived + header.position();
+            int[] days = new int[readSize(channel, position, store.size())];
+            position = BinaryLedger.readInts(channel, position + 4, days);
+            int[] dateRows = new int[days.length];
+            position = BinaryLedger.readInts(channel, position, dateRows);
+            long[] cents = new long[readSize(channel, position, store.size())];
+            position = BinaryLedger.readLongs(channel, position + 4, cents);
+            int[] amountRows = new int[cents.length];
+            position = BinaryLedger.readInts(channel, position, amountRows);
+            if (position != size - TRAILER_SIZE) {
+                return Result.unusable(path + " is corrupt");
+            }
+            //The indexes have no checksum, so each must hold every row once, with its day or amount from the store
+            checkRows(dateRows, store.size());
+            checkRows(amountRows, store.size());
+            for (int i = 0; i < dateRows.length; i++) {
+                if (days[i] != store.getEpochDay(dateRows[i]) || (i > 0 && days[i] < days[i - 1])) {
+                    return Result.unusable(path + " is corrupt");
+                }
+            }
+            for (int i = 0; i < amountRows.length; i++) {
+                if (cents[i] != store.getCents(amountRows[i]) || (i > 0 && cents[i] < cents[i - 1])) {
+                    return Result.unusable(path + " is corrupt");
+                }
+            }
+            Ledger ledger = new Ledger(store, new DateIndex(days, dateRows), new AmountIndex(cents, amountRows));
+            READ.stop(started);
+
+            if (tailFrom < 0) {
+                long length = sources.isEmpty() ? 0 : Files.size(sources.get(sources.size() - 1));
+                return new Result(ledger, null, 0, 0, length, true);
+            }
+            TransactionLoader.Result tail = TransactionLoader.loadFrom(sources.get(sources.size() - 1), tailFrom);
+            ledger.addAll(tail.getStore());
+            return new Result(ledger, null, tail.getStore().size(), tail.getLength() - tailFrom, tail.getLength(),
+                    tail.isComplete());
+        } catch (BufferUnderflowException | IllegalArgumentException e) {
+            return Result.unusable(path + " is corrupt");
+        }
+    }
+
+    /**
+     * Checks that the row ids of a saved index are every row of the store, each once.
+     */
+    private static void checkRows(int[] rows, int size) {
+        boolean[] seen = new boolean[size];
+        for (int row : rows) {
+            if (row < 0 || row >= size || seen[row]) {
+                throw new IllegalArgumentException("index has row " + row + " of " + size + " twice or out of range");
+            }
+            seen[row] = true;
+        }
+    }
+
+    /**
+     * Reads the size of a saved index, it must cover every row of the store.
+     */
+    private static int readSize(FileChannel channel, long position, int rows) throws IOException {
+        int size = channel.map(FileChannel.MapMode.READ_ONLY, position, 4).order(ByteOrder.LITTLE_ENDIAN).getInt(0);
+        if (size != rows) {
+            throw new IllegalArgumentException("index has " + size + " rows, the store " + rows);
+        }
+        return size;
+    }
+
+    /* ------------------------------------------------------------------
+       Samples
+       ------------------------------------------------------------------ */
+
+    private static long headSample(Path source, long length) throws IOException {
+        return crc(source, 0, Math.min(length, SAMPLE_SIZE));
+    }
+
+    private static long tailSample(Path source, long length) throws IOException {
+        return crc(source, Math.max(0, length - SAMPLE_SIZE), length);
+    }
+
+    /**
+     * @return - CRC32 of the bytes [from, to) of the file, -1 when the file is shorter
+     */
+    private static long crc(Path source, long from, long to) throws IOException {
+        try (FileChannel channel = FileChannel.open(source, StandardOpenOption.READ)) {
+            if (channel.size() < to) {
+                return -1;
+            }
+            ByteBuffer bytes = ByteBuffer.allocate((int) (to - from));
+            while (bytes.hasRemaining()) {
+                if (channel.read(bytes, from + bytes.position()) < 0) {
+                    return -1;
+                }
+            }
+            CRC32 crc = new CRC32();
+            crc.update(bytes.flip());
+            return crc.getValue();
+        }
+    }
+}
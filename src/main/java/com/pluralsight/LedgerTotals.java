@@ -0,0 +1,341 @@
+package com.pluralsight;
+
+import java.time.LocalDate;
+import java.time.Year;
+import java.time.YearMonth;
+import java.util.Arrays;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * Running deposit, payment and count totals per day, kept as Fenwick trees (binary indexed prefix sums).
+ * Adding a row and asking for the totals of any day range, month, year or the balance on a day are O(log d),
+ * where d is the number of days that have transactions. The trees hold only those days, so a ledger that spans
+ * centuries with a few rows stays small; the first row of a day before the last one rebuilds the trees in O(d).
+ * One thread adds rows under the write lock; queries read optimistically without taking a lock
+ * and only fall back to the read lock when a write happened while they were reading.
+ */
+public class LedgerTotals {
+
+    /**
+     * Totals of a range of days, all amounts in cents.
+     */
+    public static class Totals {
+        private final long deposits;
+        private final long payments;
+        private final long count;
+
+        Totals(long deposits, long payments, long count) {
+            this.deposits = deposits;
+            this.payments = payments;
+            this.count = count;
+        }
+
+        /**
+         * @return - sum of positive amounts in cents
+         */
+        public long getDeposits() {
+            return deposits;
+        }
+
+        /**
+         * @return - sum of negative amounts in cents, it is zero or negative
+         */
+        public long getPayments() {
+            return payments;
+        }
+
+        /**
+         * @return - deposits + payments in cents
+         */
+        public long getNet() {
+            return deposits + payments;
+        }
+
+        /**
+         * @return - number of transactions
+         */
+        public long getCount() {
+            return count;
+        }
+    }
+
+    private final StampedLock lock = new StampedLock();
+    // Days that have transactions, sorted; days[i] is index i + 1 of the trees
+    private int[] days = new int[0];
+    private int size;
+    private long[] deposits = new long[1];
+    private long[] payments = new long[1];
+    private long[] counts = new long[1];
+
+    /**
+     * Adds one transaction to the totals.
+     * @param epochDay - date of the transaction as epoch day
+     * @param cents - amount in cents, negative for payments
+     */
+    public void add(int epochDay, long cents) {
+        long stamp = lock.writeLock();
+        try {
+            int index = indexOf(epochDay) + 1;
+            if (cents >= 0) {
+                update(deposits, index, cents);
+            } else {
+                update(payments, index, cents);
+            }
+            update(counts, index, 1);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Adds rows [fromRow, store.size()) of the store, rebuilding the trees once instead of updating row by row.
+     * @param store - store that holds the rows
+     * @param fromRow - first row that is not counted yet
+     */
+    public void addAll(TransactionStore store, int fromRow) {
+        if (fromRow >= store.size()) {
+            return;
+        }
+        int[] added = new int[store.size() - fromRow];
+        for (int row = fromRow; row < store.size(); row++) {
+            added[row - fromRow] = store.getEpochDay(row);
+        }
+        Arrays.sort(added);
+        int unique = 0;
+        for (int i = 0; i < added.length; i++) {
+            if (i == 0 || added[i] != added[i - 1]) {
+                added[unique++] = added[i];
+            }
+        }
+        long stamp = lock.writeLock();
+        try {
+            insertDays(added, unique);
+            long[][] daily = dailyValues();
+            for (int row = fromRow; row < store.size(); row++) {
+                int day = Arrays.binarySearch(days, 0, size, store.getEpochDay(row));
+                long cents = store.getCents(row);
+                if (cents >= 0) {
+                    daily[0][day] += cents;
+                } else {
+                    daily[1][day] += cents;
+                }
+                daily[2][day]++;
+            }
+            build(daily);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /* ------------------------------------------------------------------
+       Queries
+       ------------------------------------------------------------------ */
+
+    /**
+     * @param start - first day, included
+     * @param end - last day, included
+     * @return - totals of all transactions between the two dates
+     */
+    public Totals between(LocalDate start, LocalDate end) {
+        long from = start.toEpochDay() - 1;
+        long to = end.toEpochDay();
+        long stamp = lock.tryOptimisticRead();
+        Totals totals = new Totals(prefix(deposits, to) - prefix(deposits, from),
+                prefix(payments, to) - prefix(payments, from),
+                prefix(counts, to) - prefix(counts, from));
+        if (lock.validate(stamp)) {
+            return totals;
+        }
+        stamp = lock.readLock();
+        try {
+            return new Totals(prefix(deposits, to) - prefix(deposits, from),
+                    prefix(payments, to) - prefix(payments, from),
+                    prefix(counts, to) - prefix(counts, from));
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    public Totals forMonth(YearMonth month) {
+        return between(month.atDay(1), month.atEndOfMonth());
+    }
+
+    public Totals forYear(Year year) {
+        return between(year.atDay(1), year.atMonth(12).atEndOfMonth());
+    }
+
+    /**
+     * @param day - date of the balance
+     * @return - sum of all amounts up to and including the day, in cents
+     */
+    public long balanceAt(LocalDate day) {
+        long stamp = lock.tryOptimisticRead();
+        long balance = prefix(deposits, day.toEpochDay()) + prefix(payments, day.toEpochDay());
+        if (lock.validate(stamp)) {
+            return balance;
+        }
+        stamp = lock.readLock();
+        try {
+            return prefix(deposits, day.toEpochDay()) + prefix(payments, day.toEpochDay());
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /* ------------------------------------------------------------------
+       Fenwick trees, index i + 1 is days[i]
+       ------------------------------------------------------------------ */
+
+    private static void update(long[] tree, int index, long value) {
+        for (int i = index; i < tree.length; i += i & -i) {
+            tree[i] += value;
+        }
+    }
+
+    /**
+     * Safe to run during a write: it only reads within the arrays it was given, the caller validates the result.
+     * @return - sum of all days up to and including the epoch day
+     */
+    private long prefix(long[] tree, long epochDay) {
+        int[] sorted = days;
+        int low = 0;
+        int high = Math.min(size, sorted.length);
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (sorted[middle] <= epochDay) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return sum(tree, low);
+    }
+
+    /**
+     * @return - sum of the tree indexes 1..index
+     */
+    private static long sum(long[] tree, int index) {
+        long sum = 0;
+        for (int i = Math.min(index, tree.length - 1); i > 0; i -= i & -i) {
+            sum += tree[i];
+        }
+        return sum;
+    }
+
+    /**
+     * @return - position of the day in days, a day without transactions yet is added first
+     */
+    private int indexOf(int epochDay) {
+        int position = Arrays.binarySearch(days, 0, size, epochDay);
+        if (position >= 0) {
+            return position;
+        }
+        position = -position - 1;
+        if (position == size) {
+            appendDay(epochDay);
+        } else {
+            insertDays(new int[]{epochDay}, 1);
+        }
+        return position;
+    }
+
+    /**
+     * Adds a day after the last one in O(log d): its node also covers the days before it that belong to it.
+     */
+    private void appendDay(int epochDay) {
+        if (size == days.length) {
+            int capacity = Math.max(64, size * 2);
+            days = Arrays.copyOf(days, capacity);
+            deposits = Arrays.copyOf(deposits, capacity + 1);
+            payments = Arrays.copyOf(payments, capacity + 1);
+            counts = Arrays.copyOf(counts, capacity + 1);
+        }
+        days[size] = epochDay;
+        int index = size + 1;
+        for (long[] tree : new long[][]{deposits, payments, counts}) {
+            tree[index] = sum(tree, index - 1) - sum(tree, index - (index & -index));
+        }
+        size++;
+    }
+
+    /**
+     * Adds the days that are not in the trees yet and rebuilds the trees, the totals of the known days are kept.
+     * @param added - sorted days without duplicates
+     * @param count - number of days in added
+     */
+    private void insertDays(int[] added, int count) {
+        int missing = 0;
+        for (int i = 0; i < count; i++) {
+            if (Arrays.binarySearch(days, 0, size, added[i]) < 0) {
+                missing++;
+            }
+        }
+        if (missing == 0) {
+            return;
+        }
+        long[][] daily = dailyValues();
+        int total = size + missing;
+        int capacity = Math.max(64, total + (total >> 1));
+        int[] merged = new int[capacity];
+        long[][] moved = new long[3][total];
+        int known = 0;
+        int next = 0;
+        for (int position = 0; position < total; position++) {
+            if (next < count && (known == size || added[next] < days[known])) {
+                merged[position] = added[next++];
+            } else {
+                if (next < count && added[next] == days[known]) {
+                    next++;
+                }
+                merged[position] = days[known];
+                for (int k = 0; k < 3; k++) {
+                    moved[k][position] = daily[k][known];
+                }
+                known++;
+            }
+        }
+        days = merged;
+        size = total;
+        deposits = new long[capacity + 1];
+        payments = new long[capacity + 1];
+        counts = new long[capacity + 1];
+        build(moved);
+    }
+
+    /**
+     * @return - deposits, payments and counts per position of days, taken back out of the trees
+     */
+    private long[][] dailyValues() {
+        long[][] daily = new long[3][size];
+        long[][] trees = {deposits, payments, counts};
+        for (int k = 0; k < 3; k++) {
+            long previous = 0;
+            for (int day = 0; day < size; day++) {
+                long current = sum(trees[k], day + 1);
+                daily[k][day] = current - previous;
+                previous = current;
+            }
+        }
+        return daily;
+    }
+
+    /**
+     * Builds the trees from per-day values in O(d).
+     */
+    private void build(long[][] daily) {
+        long[][] trees = {deposits, payments, counts};
+        for (int k = 0; k < 3; k++) {
+            long[] tree = trees[k];
+            Arrays.fill(tree, 0);
+            for (int day = 0; day < daily[k].length && day + 1 < tree.length; day++) {
+                tree[day + 1] += daily[k][day];
+            }
+            for (int i = 1; i < tree.length; i++) {
+                int parent = i + (i & -i);
+                if (parent < tree.length) {
+                    tree[parent] += tree[i];
+                }
+            }
+        }
+    }
+}
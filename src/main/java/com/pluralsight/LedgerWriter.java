@@ -0,0 +1,27 @@
+package com.pluralsight;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Destination of new transactions: the transactions file itself (AppendWriter) or the write-ahead log in front of it.
+ */
+public interface LedgerWriter extends Closeable {
+
+    /**
+     * @param transaction - transaction that should be written
+     * @throws IllegalArgumentException - when the row could not be read back, see AppendWriter.checkRow()
+     */
+    void append(Transaction transaction) throws IOException;
+
+    /**
+     * @param rows - rows that should be written, in store order
+     * @throws IllegalArgumentException - when a row could not be read back, nothing is written then
+     */
+    void appendAll(TransactionStore rows) throws IOException;
+
+    /**
+     * Writes everything that is still buffered.
+     */
+    void flush() throws IOException;
+}
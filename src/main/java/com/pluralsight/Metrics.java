@@ -0,0 +1,293 @@
+package com.pluralsight;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Counters, latency histograms and gauges of the running app, shared by every thread.
+ * Counters are LongAdders and histograms count into fixed log-linear buckets with atomic increments,
+ * so recording takes no lock and costs a few nanoseconds. Hot paths keep their Counter or Timer in a static field
+ * instead of looking it up by name every time.
+ * The values are printed by the M menu option and written to a file as Prometheus text or JSON.
+ */
+public final class Metrics {
+
+    private static final Map<String, Counter> counters = new ConcurrentHashMap<>();
+    private static final Map<String, Timer> timers = new ConcurrentHashMap<>();
+    private static final Map<String, LongSupplier> gauges = new ConcurrentHashMap<>();
+    private static final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999};
+    private static final String[] QUANTILE_NAMES = {"p50", "p90", "p99", "p999"};
+
+    private Metrics() {
+    }
+
+    /**
+     * @param name - lower case name with underscores, for example load_parse_errors
+     * @return - the counter with this name, created on first use
+     */
+    public static Counter counter(String name) {
+        return counters.computeIfAbsent(name, key -> new Counter());
+    }
+
+    /**
+     * @param name - lower case name with underscores, for example report_vendor
+     * @return - the latency histogram with this name, created on first use
+     */
+    public static Timer timer(String name) {
+        return timers.computeIfAbsent(name, key -> new Timer());
+    }
+
+    /**
+     * Registers a value that is read when the metrics are printed, for example the size of the ledger.
+     * A later registration with the same name replaces the earlier one.
+     */
+    public static void gauge(String name, LongSupplier value) {
+        gauges.put(name, value);
+    }
+
+    /**
+     * Number of times something happened.
+     */
+    public static class Counter {
+        private final LongAdder value = new LongAdder();
+
+        public void increment() {
+            value.increment();
+        }
+
+        public void add(long count) {
+            value.add(count);
+        }
+
+        public long get() {
+            return value.sum();
+        }
+    }
+
+    /**
+     * Histogram of durations in nanoseconds. Buckets are powers of two split into SUB_BUCKETS linear steps,
+     * so every recorded value is kept within 1/SUB_BUCKETS (about 6%) of its true value, from 1 ns to 292 years.
+     */
+    public static class Timer {
+        private static final int SUB_BITS = 4;
+        private static final int SUB_BUCKETS = 1 << SUB_BITS;
+        private static final int BUCKETS = (64 - SUB_BITS + 1) * SUB_BUCKETS;
+
+        private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+        private final LongAdder count = new LongAdder();
+        private final LongAdder sum = new LongAdder();
+        private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+        /**
+         * @return - start time to pass to stop()
+         */
+        public long start() {
+            return System.nanoTime();
+        }
+
+        /**
+         * Records the time since start.
+         * @param start - value returned by start()
+         */
+        public void stop(long start) {
+            record(System.nanoTime() - start);
+        }
+
+        /**
+         * @param nanos - duration in nanoseconds, negative values count as 0
+         */
+        public void record(long nanos) {
+            long value = Math.max(0, nanos);
+            buckets.incrementAndGet(bucket(value));
+            count.increment();
+            sum.add(value);
+            max.accumulate(value);
+        }
+
+        static int bucket(long value) {
+            if (value < SUB_BUCKETS) {
+                return (int) value;
+            }
+            int exponent = 63 - Long.numberOfLeadingZeros(value);
+            int shift = exponent - SUB_BITS;
+            return (shift + 1) * SUB_BUCKETS + (int) ((value >>> shift) & (SUB_BUCKETS - 1));
+        }
+
+        /**
+         * @return - largest value that falls into the bucket
+         */
+        static long upperBound(int bucket) {
+            if (bucket < SUB_BUCKETS) {
+                return bucket;
+            }
+            int shift = bucket / SUB_BUCKETS - 1;
+            long base = (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << shift;
+            return base + (1L << shift) - 1;
+        }
+
+        public long getCount() {
+            return count.sum();
+        }
+
+        public long getSumNanos() {
+            return sum.sum();
+        }
+
+        public long getMaxNanos() {
+            return max.get();
+        }
+
+        /**
+         * @param quantile - between 0 and 1, for example 0.99
+         * @return - upper bound of the bucket that holds the quantile, 0 when nothing was recorded
+         */
+        public long quantileNanos(double quantile) {
+            long total = 0;
+            long[] snapshot = new long[BUCKETS];
+            for (int i = 0; i < BUCKETS; i++) {
+                snapshot[i] = buckets.get(i);
+                total += snapshot[i];
+            }
+            if (total == 0) {
+                return 0;
+            }
+            long rank = Math.max(1, (long) Math.ceil(quantile * total));
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += snapshot[i];
+                if (seen >= rank) {
+                    return Math.min(upperBound(i), getMaxNanos());
+                }
+            }
+            return getMaxNanos();
+        }
+    }
+
+    /* ------------------------------------------------------------------
+       Output
+       ------------------------------------------------------------------ */
+
+    /**
+     * @return - table for the menu: counters and gauges, then count and latency percentiles of every timer
+     */
+    public static String describe() {
+        StringBuilder text = new StringBuilder();
+        text.append(String.format("%-28s %14s%n", "Counter", "Value"));
+        for (Map.Entry<String, Long> value : values().entrySet()) {
+            text.append(String.format("%-28s %,14d%n", value.getKey(), value.getValue()));
+        }
+        text.append(String.format("%-28s %10s %10s %10s %10s %10s%n", "Timer", "Count", "p50 ms", "p99 ms", "Max ms", "Total ms"));
+        for (Map.Entry<String, Timer> entry : new TreeMap<>(timers).entrySet()) {
+            Timer timer = entry.getValue();
+            text.append(String.format("%-28s %,10d %10.3f %10.3f %10.3f %,10.1f%n", entry.getKey(), timer.getCount(),
+                    timer.quantileNanos(0.5) / 1e6, timer.quantileNanos(0.99) / 1e6, timer.getMaxNanos() / 1e6, timer.getSumNanos() / 1e6));
+        }
+        return text.toString();
+    }
+
+    /**
+     * @return - Prometheus text format; timers are summaries in seconds
+     */
+    public static String prometheus() {
+        StringBuilder text = new StringBuilder();
+        for (Map.Entry<String, Counter> entry : new TreeMap<>(counters).entrySet()) {
+            String name = "ledger_" + entry.getKey() + "_total";
+            text.append("# TYPE ").append(name).append(" counter\n");
+            text.append(name).append(' ').append(entry.getValue().get()).append('\n');
+        }
+        for (Map.Entry<String, LongSupplier> entry : new TreeMap<>(gauges).entrySet()) {
+            String name = "ledger_" + entry.getKey();
+            text.append("# TYPE ").append(name).append(" gauge\n");
+            text.append(name).append(' ').append(entry.getValue().getAsLong()).append('\n');
+        }
+        for (Map.Entry<String, Timer> entry : new TreeMap<>(timers).entrySet()) {
+            String name = "ledger_" + entry.getKey() + "_seconds";
+            Timer timer = entry.getValue();
+            text.append("# TYPE ").append(name).append(" summary\n");
+            for (double quantile : QUANTILES) {
+                text.append(name).append("{quantile=\"").append(quantile).append("\"} ").append(timer.quantileNanos(quantile) / 1e9).append('\n');
+            }
+            text.append(name).append("_sum ").append(timer.getSumNanos() / 1e9).append('\n');
+            text.append(name).append("_count ").append(timer.getCount()).append('\n');
+        }
+        return text.toString();
+    }
+
+    /**
+     * @return - one JSON object with "counters" (counters and gauges) and "timers" in nanoseconds
+     */
+    public static String json() {
+        StringBuilder json = new StringBuilder("{\"counters\":{");
+        boolean first = true;
+        for (Map.Entry<String, Long> value : values().entrySet()) {
+            json.append(first ? "" : ",").append('"').append(value.getKey()).append("\":").append(value.getValue());
+            first = false;
+        }
+        json.append("},\"timers\":{");
+        first = true;
+        for (Map.Entry<String, Timer> entry : new TreeMap<>(timers).entrySet()) {
+            Timer timer = entry.getValue();
+            json.append(first ? "" : ",").append('"').append(entry.getKey()).append("\":{\"count\":").append(timer.getCount())
+                    .append(",\"sumNanos\":").append(timer.getSumNanos()).append(",\"maxNanos\":").append(timer.getMaxNanos());
+            for (int q = 0; q < QUANTILES.length; q++) {
+                json.append(",\"").append(QUANTILE_NAMES[q]).append("Nanos\":").append(timer.quantileNanos(QUANTILES[q]));
+            }
+            json.append('}');
+            first = false;
+        }
+        return json.append("}}").toString();
+    }
+
+    private static Map<String, Long> values() {
+        Map<String, Long> values = new TreeMap<>();
+        counters.forEach((name, counter) -> values.put(name, counter.get()));
+        gauges.forEach((name, gauge) -> values.put(name, gauge.getAsLong()));
+        return values;
+    }
+
+    /**
+     * Writes all metrics to the file, JSON when its name ends with .json and Prometheus text otherwise.
+     * The file is replaced in one move, so a reader never sees half of it.
+     */
+    public static void dump(Path file) throws IOException {
+        String text = file.toString().endsWith(".json") ? json() : prometheus();
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        Files.writeString(temp, text, StandardCharsets.UTF_8);
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Writes the metrics to the file every period on a daemon thread.
+     * @param file - file to replace
+     * @param periodSeconds - seconds between two writes
+     * @return - the scheduler, shut it down to stop writing
+     */
+    public static ScheduledExecutorService startDumps(Path file, long periodSeconds) {
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(task -> {
+            Thread thread = new Thread(task, "metrics-dump");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleAtFixedRate(() -> {
+            try {
+                dump(file);
+            } catch (IOException e) {
+                System.err.println("Could not write the metrics: " + e.getMessage());
+            }
+        }, periodSeconds, periodSeconds, TimeUnit.SECONDS);
+        return scheduler;
+    }
+}
@@ -0,0 +1,176 @@
+package com.pluralsight;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Amounts are kept as a long number of cents everywhere in the ledger, so sums, equality and range checks are exact.
+ * This class converts between text and cents without going through double. The parsers accept an optional sign,
+ * digits and up to two decimals without allocating; more decimals are rounded half away from zero, and anything
+ * else (for example 1.0E7, written by older versions of the app) goes through BigDecimal.
+ */
+public final class Money {
+
+    // 92 233 720 368 547 758.07 fits in a long, 16 whole digits always leave room for the cents
+    private static final int MAX_WHOLE_DIGITS = 16;
+
+    private Money() {
+    }
+
+    /* ------------------------------------------------------------------
+       Parsing
+       ------------------------------------------------------------------ */
+
+    /**
+     * @param text - amount like 12, -70.05 or 3.5
+     * @return - amount in cents
+     * @throws NumberFormatException - when the text is not an amount
+     */
+    public static long parse(CharSequence text) {
+        return parse(text, 0, text.length());
+    }
+
+    /**
+     * Parses text.subSequence(start, end) without creating it.
+     */
+    public static long parse(CharSequence text, int start, int end) {
+        while (start < end && text.charAt(start) == ' ') {
+            start++;
+        }
+        while (end > start && text.charAt(end - 1) == ' ') {
+            end--;
+        }
+        boolean negative = false;
+        int i = start;
+        if (i < end && (text.charAt(i) == '-' || text.charAt(i) == '+')) {
+            negative = text.charAt(i) == '-';
+            i++;
+        }
+        long whole = 0;
+        int wholeDigits = 0;
+        while (i < end && isDigit(text.charAt(i))) {
+            whole = whole * 10 + (text.charAt(i++) - '0');
+            wholeDigits++;
+        }
+        long fraction = 0;
+        int fractionDigits = 0;
+        boolean roundUp = false;
+        if (i < end && text.charAt(i) == '.') {
+            i++;
+            while (i < end && isDigit(text.charAt(i))) {
+                int digit = text.charAt(i++) - '0';
+                if (fractionDigits < 2) {
+                    fraction = fraction * 10 + digit;
+                } else if (fractionDigits == 2) {
+                    roundUp = digit >= 5;
+                }
+                fractionDigits++;
+            }
+        }
+        if (i != end || wholeDigits > MAX_WHOLE_DIGITS || wholeDigits + fractionDigits == 0) {
+            return parseSlow(text.subSequence(start, end).toString());
+        }
+        return cents(negative, whole, fraction, fractionDigits, roundUp);
+    }
+
+    /**
+     * Parses the bytes between start and end of the buffer, used by the loader to go straight from the file to cents.
+     */
+    public static long parse(ByteBuffer buffer, int start, int end) {
+        while (start < end && buffer.get(start) == ' ') {
+            start++;
+        }
+        while (end > start && buffer.get(end - 1) == ' ') {
+            end--;
+        }
+        boolean negative = false;
+        int i = start;
+        if (i < end && (buffer.get(i) == '-' || buffer.get(i) == '+')) {
+            negative = buffer.get(i) == '-';
+            i++;
+        }
+        long whole = 0;
+        int wholeDigits = 0;
+        while (i < end && isDigit(buffer.get(i))) {
+            whole = whole * 10 + (buffer.get(i++) - '0');
+            wholeDigits++;
+        }
+        long fraction = 0;
+        int fractionDigits = 0;
+        boolean roundUp = false;
+        if (i < end && buffer.get(i) == '.') {
+            i++;
+            while (i < end && isDigit(buffer.get(i))) {
+                int digit = buffer.get(i++) - '0';
+                if (fractionDigits < 2) {
+                    fraction = fraction * 10 + digit;
+                } else if (fractionDigits == 2) {
+                    roundUp = digit >= 5;
+                }
+                fractionDigits++;
+            }
+        }
+        if (i != end || wholeDigits > MAX_WHOLE_DIGITS || wholeDigits + fractionDigits == 0) {
+            byte[] bytes = new byte[end - start];
+            buffer.get(start, bytes);
+            return parseSlow(new String(bytes, StandardCharsets.US_ASCII));
+        }
+        return cents(negative, whole, fraction, fractionDigits, roundUp);
+    }
+
+    private static boolean isDigit(int c) {
+        return c >= '0' && c <= '9';
+    }
+
+    private static long cents(boolean negative, long whole, long fraction, int fractionDigits, boolean roundUp) {
+        //"3.5" means 50 cents
+        if (fractionDigits == 1) {
+            fraction *= 10;
+        }
+        long cents = whole * 100 + fraction + (roundUp ? 1 : 0);
+        return negative ? -cents : cents;
+    }
+
+    /**
+     * Exponents, very large amounts and malformed text.
+     */
+    private static long parseSlow(String text) {
+        try {
+            return new BigDecimal(text).movePointRight(2).setScale(0, RoundingMode.HALF_UP).longValueExact();
+        } catch (ArithmeticException e) {
+            throw new NumberFormatException("Amount is out of range: " + text);
+        } catch (NumberFormatException e) {
+            throw new NumberFormatException("Not an amount: " + text);
+        }
+    }
+
+    /* ------------------------------------------------------------------
+       Formatting
+       ------------------------------------------------------------------ */
+
+    /**
+     * @return - the amount with two decimals, for example -70.05
+     */
+    public static String format(long cents) {
+        return format(new StringBuilder(24), cents).toString();
+    }
+
+    /**
+     * Appends the amount with two decimals, for example -70.05.
+     */
+    public static StringBuilder format(StringBuilder out, long cents) {
+        if (cents < 0) {
+            out.append('-');
+        }
+        //Long.MIN_VALUE has no positive counterpart, the unsigned division handles it
+        long whole = Long.divideUnsigned(Math.abs(cents), 100);
+        int fraction = (int) Long.remainderUnsigned(Math.abs(cents), 100);
+        out.append(whole).append('.');
+        if (fraction < 10) {
+            out.append('0');
+        }
+        return out.append(fraction);
+    }
+}
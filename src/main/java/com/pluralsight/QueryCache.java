@@ -0,0 +1,282 @@
+package com.pluralsight;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Predicate;
+
+/**
+ * Results of reports and searches, kept so that running the same report again doesn't visit the rows again.
+ * Entries are keyed by the normalized query and remember their scope: the days and the vendor the query can match.
+ * An append only evicts the entries whose scope covers the new row; the others stay valid because rows are never
+ * changed and new rows get higher row numbers.
+ * The cache holds at most MAX_ENTRIES results and MAX_ROWS cached rows, the least recently used go first.
+ *
+ * A result is only stored when no row was appended while it was computed: take stamp() before the snapshot,
+ * pass it to put(), and put() drops the result when an append came in between.
+ */
+public class QueryCache {
+
+    static final int MAX_ENTRIES = 128;
+    static final long MAX_ROWS = 1 << 20;
+    // Larger batches evict by date only, instead of collecting their vendors
+    private static final int BATCH_VENDORS = 1024;
+
+    /**
+     * Days and vendor a cached query can match. A new row outside of it can't change the result.
+     */
+    public static class Scope {
+        public static final Scope ALL = new Scope(Long.MIN_VALUE, Long.MAX_VALUE, null, false);
+
+        private final long firstDay;
+        private final long lastDay;
+        private final String vendor;
+        private final boolean prefix;
+
+        private Scope(long firstDay, long lastDay, String vendor, boolean prefix) {
+            this.firstDay = firstDay;
+            this.lastDay = lastDay;
+            this.vendor = vendor;
+            this.prefix = prefix;
+        }
+
+        /**
+         * @return - scope of every row between start and end, both included
+         */
+        public static Scope dates(LocalDate start, LocalDate end) {
+            return new Scope(start.toEpochDay(), end.toEpochDay(), null, false);
+        }
+
+        /**
+         * @param vendor - vendor name, case is ignored
+         * @param prefix - true when every vendor starting with the name matches
+         * @return - scope of every row of the vendor
+         */
+        public static Scope vendor(String vendor, boolean prefix) {
+            return new Scope(Long.MIN_VALUE, Long.MAX_VALUE, TextIndex.fold(vendor), prefix);
+        }
+
+        /**
+         * Scope of a query: the intersection of its date ranges and its vendor, when the top level AND has them.
+         */
+        public static Scope of(Condition query) {
+            List<Condition> conditions = query instanceof Condition.And and ? and.getConditions() : List.of(query);
+            long firstDay = Long.MIN_VALUE;
+            long lastDay = Long.MAX_VALUE;
+            String vendor = null;
+            for (Condition condition : conditions) {
+                if (condition instanceof Condition.DateRange range) {
+                    firstDay = Math.max(firstDay, range.getStart().toEpochDay());
+                    lastDay = Math.min(lastDay, range.getEnd().toEpochDay());
+                } else if (condition instanceof Condition.Vendor name) {
+                    vendor = TextIndex.fold(name.getVendor());
+                }
+            }
+            return new Scope(firstDay, lastDay, vendor, false);
+        }
+
+        boolean covers(long day, String foldedVendor) {
+            if (day < firstDay || day > lastDay) {
+                return false;
+            }
+            if (vendor == null || foldedVendor == null) {
+                return true;
+            }
+            return prefix ? foldedVendor.startsWith(vendor) : foldedVendor.equals(vendor);
+        }
+
+        boolean overlaps(long first, long last) {
+            return first <= lastDay && last >= firstDay;
+        }
+    }
+
+    private static class Entry {
+        final Object value;
+        final Scope scope;
+        final int rows;
+
+        Entry(Object value, Scope scope, int rows) {
+            this.value = value;
+            this.scope = scope;
+            this.rows = rows;
+        }
+    }
+
+    // access order, so the first entry is the least recently used
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long cachedRows;
+    private long stamp;
+
+    private long hits;
+    private long misses;
+    private long invalidations;
+    private long evictions;
+
+    /**
+     * Normalized key of a query: case is folded and the conditions of the top level AND are sorted,
+     * so "vendor AND date" and "DATE and VENDOR" share one entry.
+     */
+    public static String key(Condition query) {
+        List<String> parts = new ArrayList<>();
+        if (query instanceof Condition.And and) {
+            for (Condition condition : and.getConditions()) {
+                parts.add(TextIndex.fold(condition.describe()));
+            }
+            parts.sort(null);
+        } else {
+            parts.add(TextIndex.fold(query.describe()));
+        }
+        return String.join(" AND ", parts);
+    }
+
+    /**
+     * @return - number of appends seen so far, taken before the snapshot a result is computed on
+     */
+    public synchronized long stamp() {
+        return stamp;
+    }
+
+    /**
+     * @param key - normalized query
+     * @param type - class of the cached value
+     * @return - cached value, or null on a miss
+     */
+    public synchronized <T> T get(String key, Class<T> type) {
+        Entry entry = entries.get(key);
+        if (entry == null || !type.isInstance(entry.value)) {
+            misses++;
+            return null;
+        }
+        hits++;
+        return type.cast(entry.value);
+    }
+
+    /**
+     * Stores a result unless a row was appended since the stamp was taken.
+     * @param key - normalized query
+     * @param scope - rows the query can match
+     * @param value - result, it must not be changed afterwards
+     * @param rows - number of rows the result holds, counted against MAX_ROWS
+     * @param stamp - stamp() taken before the snapshot the result was computed on
+     */
+    public synchronized void put(String key, Scope scope, Object value, int rows, long stamp) {
+        if (stamp != this.stamp || rows > MAX_ROWS) {
+            return;
+        }
+        Entry old = entries.put(key, new Entry(value, scope, rows));
+        if (old != null) {
+            cachedRows -= old.rows;
+        }
+        cachedRows += rows;
+        Iterator<Entry> eldest = entries.values().iterator();
+        while (entries.size() > MAX_ENTRIES || cachedRows > MAX_ROWS) {
+            cachedRows -= eldest.next().rows;
+            eldest.remove();
+            evictions++;
+        }
+    }
+
+    /* ------------------------------------------------------------------
+       Invalidation, called by the Ledger after every append
+       ------------------------------------------------------------------ */
+
+    /**
+     * Evicts the entries that could match a new row.
+     */
+    synchronized void invalidate(int epochDay, String vendor) {
+        stamp++;
+        String folded = TextIndex.fold(vendor);
+        removeIf(entry -> entry.scope.covers(epochDay, folded));
+    }
+
+    /**
+     * Evicts the entries that could match rows [fromRow, store.size()) of the store.
+     */
+    synchronized void invalidate(TransactionStore store, int fromRow) {
+        stamp++;
+        if (entries.isEmpty() || fromRow >= store.size()) {
+            return;
+        }
+        long first = Long.MAX_VALUE;
+        long last = Long.MIN_VALUE;
+        for (int row = fromRow; row < store.size(); row++) {
+            first = Math.min(first, store.getEpochDay(row));
+            last = Math.max(last, store.getEpochDay(row));
+        }
+        if (store.size() - fromRow > BATCH_VENDORS) {
+            long batchFirst = first;
+            long batchLast = last;
+            removeIf(entry -> entry.scope.overlaps(batchFirst, batchLast));
+            return;
+        }
+        int count = store.size() - fromRow;
+        int[] days = new int[count];
+        String[] vendors = new String[count];
+        for (int i = 0; i < count; i++) {
+            days[i] = store.getEpochDay(fromRow + i);
+            vendors[i] = TextIndex.fold(store.getVendor(fromRow + i));
+        }
+        removeIf(entry -> {
+            for (int i = 0; i < count; i++) {
+                if (entry.scope.covers(days[i], vendors[i])) {
+                    return true;
+                }
+            }
+            return false;
+        });
+    }
+
+    private void removeIf(Predicate<Entry> covered) {
+        Iterator<Map.Entry<String, Entry>> iterator = entries.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Entry entry = iterator.next().getValue();
+            if (covered.test(entry)) {
+                cachedRows -= entry.rows;
+                iterator.remove();
+                invalidations++;
+            }
+        }
+    }
+
+    /* ------------------------------------------------------------------
+       Metrics
+       ------------------------------------------------------------------ */
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    /**
+     * @return - entries evicted because an appended row was in their scope
+     */
+    public synchronized long getInvalidations() {
+        return invalidations;
+    }
+
+    /**
+     * @return - entries evicted to stay within MAX_ENTRIES and MAX_ROWS
+     */
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * @return - one line with the hit rate and the entry counts
+     */
+    public synchronized String describe() {
+        long lookups = hits + misses;
+        return String.format("%d hits, %d misses (%.0f%% hit rate), %d entries, %d invalidated, %d evicted",
+                hits, misses, lookups == 0 ? 0.0 : 100.0 * hits / lookups, entries.size(), invalidations, evictions);
+    }
+}
@@ -0,0 +1,209 @@
+package com.pluralsight;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Runs a Condition tree against the ledger.
+ * The planner looks at every indexed condition of the top level AND, takes the one with the
+ * smallest estimated number of rows as the driver and checks the other conditions on those rows only.
+ * Without an indexed condition all rows are scanned.
+ */
+public class QueryEngine {
+
+    /**
+     * Rows found by a query together with the plan that was used.
+     */
+    public static class Result {
+        private final TransactionStore store;
+        private final IntList rows;
+        private final String plan;
+        private final int scanned;
+
+        Result(TransactionStore store, IntList rows, String plan, int scanned) {
+            this.store = store;
+            this.rows = rows;
+            this.plan = plan;
+            this.scanned = scanned;
+        }
+
+        /**
+         * @return - store the rows belong to, rows found in the partitions are copied into a store of their own
+         */
+        public TransactionStore getStore() {
+            return store;
+        }
+
+        /**
+         * @return - matching rows in row (file) order
+         */
+        public IntList getRows() {
+            return rows;
+        }
+
+        public String getPlan() {
+            return plan;
+        }
+
+        /**
+         * @return - number of rows the conditions were checked on
+         */
+        public int getScanned() {
+            return scanned;
+        }
+    }
+
+    /**
+     * Wraps the rows of an index lookup, so they can be cached and merged across partitions like a query result.
+     * @param ledger - ledger the rows were found in
+     * @param rows - rows found
+     * @param plan - index that was used
+     */
+    public static Result of(Ledger ledger, IntList rows, String plan) {
+        return new Result(ledger.getStore(), rows, plan, rows.size());
+    }
+
+    /**
+     * @return - rows between start and end, both included, in date order from the date index
+     */
+    public static Result dateRange(Ledger ledger, LocalDate start, LocalDate end) {
+        int[] range = ledger.dateRange(start, end);
+        DateIndex dateIndex = ledger.getDateIndex();
+        IntList rows = new IntList(Math.max(1, range[1] - range[0]));
+        for (int i = range[0]; i < range[1]; i++) {
+            rows.add(dateIndex.row(i));
+        }
+        return of(ledger, rows, "date index");
+    }
+
+    /**
+     * Plans and runs the query.
+     * @param ledger - ledger to search in
+     * @param query - condition tree
+     * @return - matching rows and the plan
+     */
+    public static Result execute(Ledger ledger, Condition query) {
+        List<Condition> conditions = query instanceof Condition.And and ? and.getConditions() : List.of(query);
+
+        Condition driver = null;
+        int bestEstimate = Integer.MAX_VALUE;
+        for (Condition condition : conditions) {
+            int estimate = condition.estimate(ledger);
+            if (estimate < bestEstimate) {
+                bestEstimate = estimate;
+                driver = condition;
+            }
+        }
+
+        List<Condition> filters = new ArrayList<>(conditions);
+        filters.remove(driver);
+        TransactionStore store = ledger.getStore();
+        IntList matched = new IntList();
+        int scanned;
+        String plan;
+        if (driver == null) {
+            scanned = store.size();
+            for (int row = 0; row < scanned; row++) {
+                if (matchesAll(filters, store, row)) {
+                    matched.add(row);
+                }
+            }
+            plan = "full scan";
+        } else {
+            IntList candidates = driver.candidates(ledger);
+            scanned = candidates.size();
+            boolean ordered = true;
+            for (int i = 0; i < scanned; i++) {
+                int row = candidates.get(i);
+                if (matchesAll(filters, store, row)) {
+                    if (!matched.isEmpty() && matched.get(matched.size() - 1) > row) {
+                        ordered = false;
+                    }
+                    matched.add(row);
+                }
+            }
+            if (!ordered) {
+                matched.sort();
+            }
+            plan = "index on " + driver.describe() + " (estimated " + bestEstimate + " rows)";
+        }
+        if (!filters.isEmpty()) {
+            List<String> described = new ArrayList<>();
+            for (Condition filter : filters) {
+                described.add(filter.describe());
+            }
+            plan += ", then filter " + String.join(" and ", described);
+        }
+        return new Result(store, matched, plan, scanned);
+    }
+
+    /**
+     * Finds the n matching rows with the largest or the smallest amounts. There are two plans:
+     * walk the amount index from that end and check the query on every row, which visits about
+     * n * rows / matches rows, or run the query and keep the n extreme amounts of its result.
+     * The one with the smaller estimate is used.
+     * @param ledger - ledger to search in
+     * @param query - condition tree, Condition.and(List.of()) for all rows
+     * @param n - number of rows to return
+     * @param largest - true for the largest amounts, false for the smallest (the largest payments)
+     * @return - at most n rows ordered by amount, starting with the most extreme one, and the plan
+     */
+    public static Result top(Ledger ledger, Condition query, int n, boolean largest) {
+        List<Condition> conditions = query instanceof Condition.And and ? and.getConditions() : List.of(query);
+        int size = ledger.size();
+        int matches = size;
+        for (Condition condition : conditions) {
+            matches = Math.min(matches, condition.estimate(ledger));
+        }
+        String end = largest ? "largest" : "smallest";
+        long walkCost = matches == 0 ? Long.MAX_VALUE : (long) n * size / matches;
+        if (walkCost >= matches) {
+            Result result = execute(ledger, query);
+            IntList rows = result.getRows();
+            long[] amounts = new long[rows.size()];
+            int[] sorted = rows.toArray();
+            for (int i = 0; i < sorted.length; i++) {
+                amounts[i] = ledger.getStore().getCents(sorted[i]);
+            }
+            AmountIndex.sortByAmount(amounts, sorted, sorted.length);
+            IntList top = new IntList(Math.max(1, Math.min(n, sorted.length)));
+            for (int i = 0; i < Math.min(n, sorted.length); i++) {
+                top.add(sorted[largest ? sorted.length - 1 - i : i]);
+            }
+            return new Result(ledger.getStore(), top, result.getPlan() + ", then " + n + " " + end + " amounts", result.getScanned());
+        }
+
+        //An amount range in the query moves the start of the walk to its bound
+        long from = largest ? Long.MAX_VALUE : Long.MIN_VALUE;
+        for (Condition condition : conditions) {
+            if (condition instanceof Condition.AmountRange range) {
+                from = largest ? Math.min(from, range.getMax()) : Math.max(from, range.getMin());
+            }
+        }
+        TransactionStore store = ledger.getStore();
+        AmountIndex.Cursor cursor = ledger.getAmountIndex().cursor(from, largest);
+        IntList top = new IntList(Math.max(1, n));
+        int scanned = 0;
+        while (top.size() < n && cursor.next()) {
+            scanned++;
+            if (matchesAll(conditions, store, cursor.row())) {
+                top.add(cursor.row());
+            }
+        }
+        String plan = "amount index from the " + end + " (estimated " + walkCost + " rows)";
+        if (!conditions.isEmpty()) {
+            plan += ", then filter " + query.describe();
+        }
+        return new Result(store, top, plan, scanned);
+    }
+
+    private static boolean matchesAll(List<Condition> filters, TransactionStore store, int row) {
+        for (Condition filter : filters) {
+            if (!filter.matches(store, row)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,455 @@
+package com.pluralsight;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.Arrays;
+
+/**
+ * Reconciles the ledger against a bank statement in the date|time|description|vendor|amount layout.
+ * A statement row matches a ledger row with the same amount in cents and the same vendor (ignoring case) whose date
+ * is at most toleranceDays away, banks often book a payment a day or two after it was made. Every row matches at most
+ * once. Rows are looked up in date order and take the earliest unmatched row of the other side, which matches as
+ * many rows as possible; taking the closest one could use up the only partner of a later row.
+ *
+ * The rows are joined with a hash table on amount and vendor, built on the smaller side:
+ * - a statement with fewer rows than the ledger is read and put in the table, then the ledger rows of its dates
+ *   (plus the tolerance) are looked up in date order;
+ * - a larger statement is streamed in blocks and looked up in a table of the ledger, so it is never held in memory.
+ * The number of statement rows is estimated from its first block.
+ *
+ * Results, reported to a Listener as soon as they are known:
+ * - MISSING: a statement row that has no ledger row, it was never entered;
+ * - EXTRA: a ledger row within the dates of the statement that is not on the statement;
+ * - DUPLICATE: an extra ledger row with the same date, amount and vendor as another ledger row, entered twice.
+ * Corrupt statement lines are skipped and counted.
+ */
+public class Reconciler {
+
+    public static final int DEFAULT_TOLERANCE_DAYS = 3;
+    private static final int BLOCK_SIZE = 1 << 20;
+
+    private static final Metrics.Timer RECONCILE = Metrics.timer("reconcile");
+
+    public enum Status {
+        MISSING, EXTRA, DUPLICATE
+    }
+
+    /**
+     * Receives the rows that did not match.
+     */
+    public interface Listener {
+        /**
+         * @param status - why the row did not match
+         * @param rows - the statement rows for MISSING, the ledger store for EXTRA and DUPLICATE
+         * @param row - row of the store
+         */
+        void report(Status status, TransactionStore rows, int row) throws IOException;
+    }
+
+    /**
+     * Counts of a reconciliation.
+     */
+    public static class Result {
+        private final long statementRows;
+        private final long matched;
+        private final long missing;
+        private final long extra;
+        private final long duplicates;
+        private final long corrupt;
+        private final boolean statementTable;
+        private final long elapsedNanos;
+
+        Result(long statementRows, long matched, long missing, long extra, long duplicates, long corrupt,
+               boolean statementTable, long elapsedNanos) {
+            this.statementRows = statementRows;
+            this.matched = matched;
+            this.missing = missing;
+            this.extra = extra;
+            this.duplicates = duplicates;
+            this.corrupt = corrupt;
+            this.statementTable = statementTable;
+            this.elapsedNanos = elapsedNanos;
+        }
+
+        public long getStatementRows() {
+            return statementRows;
+        }
+
+        public long getMatched() {
+            return matched;
+        }
+
+        /**
+         * @return - statement rows without a ledger row
+         */
+        public long getMissing() {
+            return missing;
+        }
+
+        /**
+         * @return - ledger rows without a statement row, not counting the duplicates
+         */
+        public long getExtra() {
+            return extra;
+        }
+
+        /**
+         * @return - ledger rows without a statement row that have a twin in the ledger
+         */
+        public long getDuplicates() {
+            return duplicates;
+        }
+
+        /**
+         * @return - statement lines that could not be parsed
+         */
+        public long getCorrupt() {
+            return corrupt;
+        }
+
+        /**
+         * @return - true when the hash table was built on the statement, false when on the ledger
+         */
+        public boolean isStatementTable() {
+            return statementTable;
+        }
+
+        public long getElapsedNanos() {
+            return elapsedNanos;
+        }
+    }
+
+    private final Ledger ledger;
+    private final StringDictionary vendors;
+    private final int tolerance;
+
+    private long matched;
+    private long missing;
+    private long extra;
+    private long duplicates;
+
+    /**
+     * A reconciler runs one reconciliation.
+     * @param ledger - ledger, or a snapshot of it, that is not changed while reconciling
+     * @param toleranceDays - how many days the dates of matching rows may differ
+     */
+    public Reconciler(Ledger ledger, int toleranceDays) {
+        if (toleranceDays < 0) {
+            throw new IllegalArgumentException("Tolerance can't be negative");
+        }
+        this.ledger = ledger;
+        this.vendors = ledger.getStore().getVendorDictionary();
+        this.tolerance = toleranceDays;
+    }
+
+    /**
+     * Reconciles the statement file against the ledger.
+     * @param statement - file in format date|time|description|vendor|amount
+     * @param listener - gets every row that did not match
+     * @return - counts of matched and unmatched rows
+     * @throws IOException - when the file can't be read, or the listener fails
+     */
+    public Result reconcile(Path statement, Listener listener) throws IOException {
+        long start = RECONCILE.start();
+        try (FileChannel channel = FileChannel.open(statement, StandardOpenOption.READ)) {
+            BlockReader reader = new BlockReader(channel);
+            TransactionStore first = new TransactionStore();
+            reader.next(first);
+            double estimate = reader.position == 0 ? 0 : (double) first.size() * reader.size / reader.position;
+            boolean statementTable = estimate < ledger.size();
+            long rows = statementTable ? joinStatementTable(reader, first, listener) : joinLedgerTable(reader, first, listener);
+            return new Result(rows, matched, missing, extra, duplicates, reader.corrupt, statementTable,
+                    System.nanoTime() - start);
+        } finally {
+            RECONCILE.stop(start);
+        }
+    }
+
+    /**
+     * Reads the dates of a statement, one block at a time, to find the ledger rows a reconciliation can touch:
+     * the rows between the first date minus the tolerance and the last date plus the tolerance.
+     * @param statement - file in format date|time|description|vendor|amount
+     * @return - {first date, last date} of the statement, null when it has no rows
+     */
+    public static LocalDate[] dateRange(Path statement) throws IOException {
+        try (FileChannel channel = FileChannel.open(statement, StandardOpenOption.READ)) {
+            BlockReader reader = new BlockReader(channel);
+            int firstDay = Integer.MAX_VALUE;
+            int lastDay = Integer.MIN_VALUE;
+            TransactionStore block = new TransactionStore();
+            while (reader.next(block)) {
+                for (int row = 0; row < block.size(); row++) {
+                    firstDay = Math.min(firstDay, block.getEpochDay(row));
+                    lastDay = Math.max(lastDay, block.getEpochDay(row));
+                }
+                block = new TransactionStore();
+            }
+            return firstDay > lastDay ? null : new LocalDate[]{LocalDate.ofEpochDay(firstDay), LocalDate.ofEpochDay(lastDay)};
+        }
+    }
+
+    /* ------------------------------------------------------------------
+       Joins
+       ------------------------------------------------------------------ */
+
+    /**
+     * Reads the whole statement into the table and looks up the ledger rows of its dates.
+     * @return - number of statement rows
+     */
+    private long joinStatementTable(BlockReader reader, TransactionStore statement, Listener listener) throws IOException {
+        while (reader.next(statement)) {
+            //Every block is parsed into the same store
+        }
+        if (statement.size() == 0) {
+            return 0;
+        }
+        int[] statementVendors = ledgerVendors(statement);
+        JoinTable table = new JoinTable(statement.size());
+        int firstDay = Integer.MAX_VALUE;
+        int lastDay = Integer.MIN_VALUE;
+        for (int row = 0; row < statement.size(); row++) {
+            int day = statement.getEpochDay(row);
+            table.add(day, statement.getCents(row), statementVendors[statement.getVendorId(row)]);
+            firstDay = Math.min(firstDay, day);
+            lastDay = Math.max(lastDay, day);
+        }
+
+        DateIndex index = ledger.getDateIndex();
+        TransactionStore store = ledger.getStore();
+        int to = index.upperBound(lastDay + tolerance);
+        for (int position = index.lowerBound(firstDay - tolerance); position < to; position++) {
+            int day = index.day(position);
+            int row = index.row(position);
+            if (table.match(day, store.getCents(row), vendors.foldedId(store.getVendorId(row)), tolerance) >= 0) {
+                matched++;
+            } else if (day >= firstDay && day <= lastDay) {
+                reportExtra(position, listener);
+            }
+        }
+        for (int row = 0; row < statement.size(); row++) {
+            if (!table.matched[row]) {
+                missing++;
+                listener.report(Status.MISSING, statement, row);
+            }
+        }
+        return statement.size();
+    }
+
+    /**
+     * Puts the ledger into the table and streams the statement through it, one block at a time.
+     * @return - number of statement rows
+     */
+    private long joinLedgerTable(BlockReader reader, TransactionStore block, Listener listener) throws IOException {
+        DateIndex index = ledger.getDateIndex();
+        TransactionStore store = ledger.getStore();
+        //Entries of the table are positions of the date index
+        JoinTable table = new JoinTable(index.size());
+        for (int position = 0; position < index.size(); position++) {
+            int row = index.row(position);
+            table.add(index.day(position), store.getCents(row), vendors.foldedId(store.getVendorId(row)));
+        }
+
+        long rows = 0;
+        int firstDay = Integer.MAX_VALUE;
+        int lastDay = Integer.MIN_VALUE;
+        do {
+            int[] blockVendors = ledgerVendors(block);
+            //Statements are mostly in date order already, sorting the block puts back-dated rows in place
+            long[] order = new long[block.size()];
+            for (int row = 0; row < order.length; row++) {
+                order[row] = (long) block.getEpochDay(row) << 32 | row;
+            }
+            Arrays.sort(order);
+            for (long entry : order) {
+                int row = (int) entry;
+                int day = block.getEpochDay(row);
+                if (table.match(day, block.getCents(row), blockVendors[block.getVendorId(row)], tolerance) >= 0) {
+                    matched++;
+                } else {
+                    missing++;
+                    listener.report(Status.MISSING, block, row);
+                }
+                firstDay = Math.min(firstDay, day);
+                lastDay = Math.max(lastDay, day);
+            }
+            rows += block.size();
+            block = new TransactionStore();
+        } while (reader.next(block));
+
+        if (rows > 0) {
+            int to = index.upperBound(lastDay);
+            for (int position = index.lowerBound(firstDay); position < to; position++) {
+                if (!table.matched[position]) {
+                    reportExtra(position, listener);
+                }
+            }
+        }
+        return rows;
+    }
+
+    /**
+     * Reports the ledger row at the position of the date index as DUPLICATE when another row of the same day has the
+     * same amount and vendor, otherwise as EXTRA.
+     */
+    private void reportExtra(int position, Listener listener) throws IOException {
+        DateIndex index = ledger.getDateIndex();
+        TransactionStore store = ledger.getStore();
+        int row = index.row(position);
+        int day = index.day(position);
+        long cents = store.getCents(row);
+        int vendor = vendors.foldedId(store.getVendorId(row));
+        boolean duplicate = false;
+        int to = index.upperBound(day);
+        for (int other = index.lowerBound(day); other < to && !duplicate; other++) {
+            int otherRow = index.row(other);
+            duplicate = other != position && store.getCents(otherRow) == cents
+                    && vendors.foldedId(store.getVendorId(otherRow)) == vendor;
+        }
+        if (duplicate) {
+            duplicates++;
+        } else {
+            extra++;
+        }
+        listener.report(duplicate ? Status.DUPLICATE : Status.EXTRA, store, row);
+    }
+
+    /**
+     * @return - folded ledger vendor id of every vendor id of the rows, -1 for vendors the ledger doesn't have
+     */
+    private int[] ledgerVendors(TransactionStore rows) {
+        StringDictionary dictionary = rows.getVendorDictionary();
+        int[] ids = new int[dictionary.size()];
+        for (int id = 0; id < ids.length; id++) {
+            ids[id] = vendors.lookupFolded(dictionary.get(id));
+        }
+        return ids;
+    }
+
+    /* ------------------------------------------------------------------
+       Hash table
+       ------------------------------------------------------------------ */
+
+    /**
+     * Rows of the build side chained by a hash of amount and vendor. Entries are numbered in the order they are added.
+     */
+    private static class JoinTable {
+        private final int[] days;
+        private final long[] cents;
+        private final int[] vendors;
+        private final int[] next;
+        private final int[] heads;
+        final boolean[] matched;
+        private int size;
+
+        JoinTable(int capacity) {
+            days = new int[capacity];
+            cents = new long[capacity];
+            vendors = new int[capacity];
+            next = new int[capacity];
+            matched = new boolean[capacity];
+            //At least twice as many chains as entries
+            heads = new int[Integer.highestOneBit(Math.max(1, capacity) * 2 - 1) << 1];
+            Arrays.fill(heads, -1);
+        }
+
+        void add(int day, long amount, int vendor) {
+            int chain = chain(amount, vendor);
+            days[size] = day;
+            cents[size] = amount;
+            vendors[size] = vendor;
+            next[size] = heads[chain];
+            heads[chain] = size++;
+        }
+
+        /**
+         * Finds the unmatched entry with the amount and vendor with the earliest day at most tolerance days away from
+         * the day, the first added one on a tie, and marks it matched.
+         * @return - the entry, -1 when there is none
+         */
+        int match(int day, long amount, int vendor, int tolerance) {
+            if (vendor < 0) {
+                return -1;
+            }
+            int best = -1;
+            int bestDay = Integer.MAX_VALUE;
+            for (int entry = heads[chain(amount, vendor)]; entry >= 0; entry = next[entry]) {
+                if (cents[entry] != amount || vendors[entry] != vendor || matched[entry]) {
+                    continue;
+                }
+                //Chains run from the last added entry to the first
+                if (Math.abs(days[entry] - day) <= tolerance && days[entry] <= bestDay) {
+                    best = entry;
+                    bestDay = days[entry];
+                }
+            }
+            if (best >= 0) {
+                matched[best] = true;
+            }
+            return best;
+        }
+
+        private int chain(long amount, int vendor) {
+            long hash = amount * 0x9e3779b97f4a7c15L + vendor;
+            hash ^= hash >>> 32;
+            hash *= 0xff51afd7ed558ccdL;
+            hash ^= hash >>> 29;
+            return (int) hash & (heads.length - 1);
+        }
+    }
+
+    /* ------------------------------------------------------------------
+       Reading the statement
+       ------------------------------------------------------------------ */
+
+    /**
+     * Reads the statement in blocks of whole lines.
+     */
+    private static class BlockReader {
+        private final FileChannel channel;
+        private final long size;
+        private ByteBuffer buffer = ByteBuffer.allocate(BLOCK_SIZE);
+        private long position;
+        private int corrupt;
+
+        BlockReader(FileChannel channel) throws IOException {
+            this.channel = channel;
+            this.size = channel.size();
+        }
+
+        /**
+         * Parses the next block into the store.
+         * @return - false when the whole file was read
+         */
+        boolean next(TransactionStore rows) throws IOException {
+            while (position < size) {
+                buffer.clear();
+                buffer.limit((int) Math.min(buffer.capacity(), size - position));
+                int read;
+                do {
+                    read = channel.read(buffer, position + buffer.position());
+                } while (read > 0 && buffer.hasRemaining());
+                int filled = buffer.position();
+                if (filled == 0) {
+                    //The file got shorter while it was read
+                    position = size;
+                    break;
+                }
+                boolean last = position + filled == size;
+                int lineEnd = last ? filled : TransactionLoader.lastNewline(buffer, filled);
+                if (lineEnd < 0) {
+                    //One line is longer than the buffer
+                    buffer = ByteBuffer.allocate(buffer.capacity() * 2);
+                    continue;
+                }
+                corrupt += TransactionLoader.parseLines(buffer, 0, lineEnd, rows);
+                position += last ? filled : lineEnd + 1;
+                return true;
+            }
+            return false;
+        }
+    }
+}
@@ -0,0 +1,285 @@
+package com.pluralsight;
+
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Aggregates a date range of the ledger on all cores: totals and counts, and deposits, payments and counts
+ * per vendor and per month.
+ * The rows of the range are split in halves with fork-join until a piece is small enough, every piece is summed
+ * into its own arrays and the arrays are added up while the tasks join, so the threads never share a counter.
+ * Run it on a snapshot or a partition; the rows it reads don't change underneath it. Reports of the partitions
+ * and the live rows are added up with merge().
+ */
+public class ReportEngine {
+
+    /**
+     * Rows one task sums without splitting further, large enough that forking costs little next to the work.
+     */
+    static final int LEAF_ROWS = 1 << 16;
+
+    /**
+     * Deposits, payments and count of one vendor or one month, amounts in cents.
+     */
+    public static class Breakdown {
+        private final String key;
+        private final long deposits;
+        private final long payments;
+        private final long count;
+
+        Breakdown(String key, long deposits, long payments, long count) {
+            this.key = key;
+            this.deposits = deposits;
+            this.payments = payments;
+            this.count = count;
+        }
+
+        /**
+         * @return - vendor name, or the month as yyyy-MM
+         */
+        public String getKey() {
+            return key;
+        }
+
+        public long getDeposits() {
+            return deposits;
+        }
+
+        public long getPayments() {
+            return payments;
+        }
+
+        public long getNet() {
+            return deposits + payments;
+        }
+
+        public long getCount() {
+            return count;
+        }
+    }
+
+    /**
+     * Result of one report.
+     */
+    public static class Report {
+        private final LedgerTotals.Totals totals;
+        private final List<Breakdown> months;
+        private final List<Breakdown> vendors;
+
+        Report(LedgerTotals.Totals totals, List<Breakdown> months, List<Breakdown> vendors) {
+            this.totals = totals;
+            this.months = months;
+            this.vendors = vendors;
+        }
+
+        public LedgerTotals.Totals getTotals() {
+            return totals;
+        }
+
+        /**
+         * @return - every month of the range in date order, months without transactions included
+         */
+        public List<Breakdown> getMonths() {
+            return months;
+        }
+
+        /**
+         * @return - vendors with transactions in the range, the most transactions first
+         */
+        public List<Breakdown> getVendors() {
+            return vendors;
+        }
+    }
+
+    /**
+     * Aggregates the range on the common fork-join pool.
+     * @param ledger - snapshot or view to read
+     * @param start - first day, included
+     * @param end - last day, included
+     * @return - totals and breakdowns of the range
+     */
+    public static Report aggregate(Ledger ledger, LocalDate start, LocalDate end) {
+        return aggregate(ledger, start, end, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * @param pool - pool that runs the tasks, its parallelism decides how many cores are used
+     */
+    public static Report aggregate(Ledger ledger, LocalDate start, LocalDate end, ForkJoinPool pool) {
+        YearMonth firstMonth = YearMonth.from(start);
+        int months = end.isBefore(start) ? 0 : (int) firstMonth.until(YearMonth.from(end), ChronoUnit.MONTHS) + 1;
+        int[] range = ledger.dateRange(start, end);
+        StringDictionary vendorNames = ledger.getStore().getVendorDictionary();
+        Sum task = new Sum(ledger, range[0], range[1], firstMonth, months, vendorNames.size());
+        Partial sum = range[1] - range[0] <= LEAF_ROWS ? task.compute() : pool.invoke(task);
+
+        List<Breakdown> monthList = new ArrayList<>(months);
+        for (int m = 0; m < months; m++) {
+            monthList.add(new Breakdown(firstMonth.plusMonths(m).toString(), sum.monthDeposits[m], sum.monthPayments[m], sum.monthCounts[m]));
+        }
+        List<Breakdown> vendorList = new ArrayList<>();
+        for (int id = 0; id < sum.vendorCounts.length; id++) {
+            if (sum.vendorCounts[id] > 0) {
+                vendorList.add(new Breakdown(vendorNames.get(id), sum.vendorDeposits[id], sum.vendorPayments[id], sum.vendorCounts[id]));
+            }
+        }
+        vendorList.sort(Comparator.comparingLong(Breakdown::getCount).reversed().thenComparing(Breakdown::getKey));
+        return new Report(new LedgerTotals.Totals(sum.deposits, sum.payments, sum.count), monthList, vendorList);
+    }
+
+    /**
+     * Adds up reports of one range that were aggregated on different ledgers, the partitions and the live rows.
+     * Vendors with the same name are added together.
+     * @param reports - reports of the same start and end, at least one
+     * @return - totals and breakdowns of all of them
+     */
+    public static Report merge(List<Report> reports) {
+        if (reports.size() == 1) {
+            return reports.get(0);
+        }
+        long deposits = 0;
+        long payments = 0;
+        long count = 0;
+        List<Breakdown> months = new ArrayList<>(reports.get(0).getMonths());
+        Map<String, Breakdown> vendors = new HashMap<>();
+        for (Report report : reports) {
+            deposits += report.getTotals().getDeposits();
+            payments += report.getTotals().getPayments();
+            count += report.getTotals().getCount();
+            if (report != reports.get(0)) {
+                for (int m = 0; m < months.size(); m++) {
+                    months.set(m, add(months.get(m), report.getMonths().get(m)));
+                }
+            }
+            for (Breakdown vendor : report.getVendors()) {
+                vendors.merge(vendor.getKey(), vendor, ReportEngine::add);
+            }
+        }
+        List<Breakdown> vendorList = new ArrayList<>(vendors.values());
+        vendorList.sort(Comparator.comparingLong(Breakdown::getCount).reversed().thenComparing(Breakdown::getKey));
+        return new Report(new LedgerTotals.Totals(deposits, payments, count), months, vendorList);
+    }
+
+    private static Breakdown add(Breakdown a, Breakdown b) {
+        return new Breakdown(a.getKey(), a.getDeposits() + b.getDeposits(), a.getPayments() + b.getPayments(), a.getCount() + b.getCount());
+    }
+
+    /* ------------------------------------------------------------------
+       Fork-join tasks
+       ------------------------------------------------------------------ */
+
+    /**
+     * Sums of one piece of the range. Each task owns its arrays until it is added into its parent's.
+     */
+    private static class Partial {
+        long deposits;
+        long payments;
+        long count;
+        final long[] monthDeposits;
+        final long[] monthPayments;
+        final long[] monthCounts;
+        final long[] vendorDeposits;
+        final long[] vendorPayments;
+        final long[] vendorCounts;
+
+        Partial(int months, int vendors) {
+            monthDeposits = new long[months];
+            monthPayments = new long[months];
+            monthCounts = new long[months];
+            vendorDeposits = new long[vendors];
+            vendorPayments = new long[vendors];
+            vendorCounts = new long[vendors];
+        }
+
+        void add(Partial other) {
+            deposits += other.deposits;
+            payments += other.payments;
+            count += other.count;
+            addTo(monthDeposits, other.monthDeposits);
+            addTo(monthPayments, other.monthPayments);
+            addTo(monthCounts, other.monthCounts);
+            addTo(vendorDeposits, other.vendorDeposits);
+            addTo(vendorPayments, other.vendorPayments);
+            addTo(vendorCounts, other.vendorCounts);
+        }
+
+        private static void addTo(long[] target, long[] values) {
+            for (int i = 0; i < target.length; i++) {
+                target[i] += values[i];
+            }
+        }
+    }
+
+    /**
+     * Sums positions [from, to) of the date index, splitting in halves above LEAF_ROWS.
+     */
+    private static class Sum extends RecursiveTask<Partial> {
+        private static final long serialVersionUID = 1L;
+
+        private final Ledger ledger;
+        private final int from;
+        private final int to;
+        private final YearMonth firstMonth;
+        private final int months;
+        private final int vendors;
+
+        Sum(Ledger ledger, int from, int to, YearMonth firstMonth, int months, int vendors) {
+            this.ledger = ledger;
+            this.from = from;
+            this.to = to;
+            this.firstMonth = firstMonth;
+            this.months = months;
+            this.vendors = vendors;
+        }
+
+        @Override
+        protected Partial compute() {
+            if (to - from > LEAF_ROWS) {
+                int middle = (from + to) >>> 1;
+                Sum left = new Sum(ledger, from, middle, firstMonth, months, vendors);
+                left.fork();
+                Partial result = new Sum(ledger, middle, to, firstMonth, months, vendors).compute();
+                result.add(left.join());
+                return result;
+            }
+            Partial sum = new Partial(months, vendors);
+            TransactionStore store = ledger.getStore();
+            DateIndex dateIndex = ledger.getDateIndex();
+            //Rows are in date order here, so the month only changes when the day passes the end of the current one
+            int month = -1;
+            int monthEnd = Integer.MIN_VALUE;
+            for (int i = from; i < to; i++) {
+                int row = dateIndex.row(i);
+                int day = store.getEpochDay(row);
+                if (day > monthEnd) {
+                    LocalDate date = LocalDate.ofEpochDay(day);
+                    month = (int) firstMonth.until(YearMonth.from(date), ChronoUnit.MONTHS);
+                    monthEnd = (int) date.withDayOfMonth(date.lengthOfMonth()).toEpochDay();
+                }
+                long cents = store.getCents(row);
+                int vendor = store.getVendorId(row);
+                if (cents >= 0) {
+                    sum.deposits += cents;
+                    sum.monthDeposits[month] += cents;
+                    sum.vendorDeposits[vendor] += cents;
+                } else {
+                    sum.payments += cents;
+                    sum.monthPayments[month] += cents;
+                    sum.vendorPayments[vendor] += cents;
+                }
+                sum.monthCounts[month]++;
+                sum.vendorCounts[vendor]++;
+            }
+            sum.count = to - from;
+            return sum;
+        }
+    }
+}
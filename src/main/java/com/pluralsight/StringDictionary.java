@@ -0,0 +1,167 @@
+package com.pluralsight;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Maps strings to dense int ids, so a column can store an id instead of its own String copy.
+ * Every value also gets the id of its case-folded form, so case-insensitive comparisons compare two ints:
+ * "Amazon" and "AMAZON" have different ids but the same folded id.
+ * The loader interns straight from the bytes of the file; a String is only created for a value seen for the first time.
+ * Only one thread may call intern(), any number of threads may read at the same time.
+ */
+public class StringDictionary {
+
+    private final Map<String, Integer> ids = new ConcurrentHashMap<>();
+    private final Map<String, Integer> foldedIds = new ConcurrentHashMap<>();
+    // replaced, never shrunk, when it is full, so a reader always finds every id it was given
+    private volatile String[] values = new String[16];
+    private volatile int[] folded = new int[16];
+    private volatile int size;
+
+    // open addressing table of id + 1 by String.hashCode, used by the writer to intern bytes without a String
+    private int[] slots = new int[32];
+
+    /**
+     * Returns the id of the string, adding it to the dictionary when it is new.
+     * @param value - string that should be encoded
+     * @return - id of the string
+     */
+    public int intern(String value) {
+        Integer existing = ids.get(value);
+        if (existing != null) {
+            return existing;
+        }
+        return add(value, value.hashCode());
+    }
+
+    /**
+     * Same as intern(String) for UTF-8 bytes [start, end) of the buffer. Values that were seen before are found
+     * by comparing the bytes with the stored string, without decoding them.
+     * @param buffer - buffer holding the value
+     * @param start - first byte of the value
+     * @param end - end of the value, excluded
+     * @return - id of the value
+     */
+    public int intern(ByteBuffer buffer, int start, int end) {
+        int hash = 0;
+        for (int i = start; i < end; i++) {
+            byte b = buffer.get(i);
+            if (b < 0) {
+                //Not ASCII: one char is no longer one byte, decode it
+                return intern(decode(buffer, start, end));
+            }
+            hash = 31 * hash + b;
+        }
+        int mask = slots.length - 1;
+        for (int slot = hash & mask; slots[slot] != 0; slot = (slot + 1) & mask) {
+            String candidate = values[slots[slot] - 1];
+            if (sameAscii(candidate, buffer, start, end)) {
+                return slots[slot] - 1;
+            }
+        }
+        return add(decode(buffer, start, end), hash);
+    }
+
+    private int add(String value, int hash) {
+        int id = size;
+        String[] currentValues = values;
+        int[] currentFolded = folded;
+        if (id == currentValues.length) {
+            currentValues = Arrays.copyOf(currentValues, id * 2);
+            currentFolded = Arrays.copyOf(currentFolded, id * 2);
+        }
+        currentValues[id] = value;
+        currentFolded[id] = foldedIds.computeIfAbsent(value.toLowerCase(Locale.ROOT), key -> foldedIds.size());
+        values = currentValues;
+        folded = currentFolded;
+        ids.put(value, id);
+        size = id + 1;
+
+        if (2 * size > slots.length) {
+            slots = new int[slots.length * 2];
+            for (int i = 0; i < size; i++) {
+                insertSlot(currentValues[i].hashCode(), i);
+            }
+        } else {
+            insertSlot(hash, id);
+        }
+        return id;
+    }
+
+    private void insertSlot(int hash, int id) {
+        int mask = slots.length - 1;
+        int slot = hash & mask;
+        while (slots[slot] != 0) {
+            slot = (slot + 1) & mask;
+        }
+        slots[slot] = id + 1;
+    }
+
+    private static boolean sameAscii(String value, ByteBuffer buffer, int start, int end) {
+        if (value.length() != end - start) {
+            return false;
+        }
+        for (int i = 0; i < value.length(); i++) {
+            if (value.charAt(i) != buffer.get(start + i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static String decode(ByteBuffer buffer, int start, int end) {
+        byte[] bytes = new byte[end - start];
+        buffer.get(start, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @param value - string to look up
+     * @return - id of the string, or -1 when it is not in the dictionary
+     */
+    public int lookup(String value) {
+        Integer id = ids.get(value);
+        return id == null ? -1 : id;
+    }
+
+    /**
+     * @param id - id returned by intern
+     * @return - string with this id
+     */
+    public String get(int id) {
+        return values[id];
+    }
+
+    /**
+     * @param id - id returned by intern
+     * @return - id of the case-folded value, equal for values that only differ in case
+     */
+    public int foldedId(int id) {
+        return folded[id];
+    }
+
+    /**
+     * @param value - string to look up, case is ignored
+     * @return - folded id of the string, or -1 when no value of the dictionary is equal to it ignoring case
+     */
+    public int lookupFolded(String value) {
+        Integer id = foldedIds.get(value.toLowerCase(Locale.ROOT));
+        return id == null ? -1 : id;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return - number of distinct case-folded values
+     */
+    public int foldedSize() {
+        return foldedIds.size();
+    }
+}
@@ -0,0 +1,241 @@
+package com.pluralsight;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+
+/**
+ * Case-insensitive index over one text column (vendor or description).
+ * Every distinct case-folded value gets a posting list of its rows, looked up by hash for exact matches.
+ * The sorted set of values answers prefix lookups, and a trigram index over the values answers
+ * substring lookups without looking at every distinct value.
+ * The index is updated row by row, posting lists stay in row order.
+ * One thread adds rows while any number of threads look up; a view(limit) only returns rows below the limit,
+ * so it answers for a snapshot of the ledger while newer rows are being added.
+ * Returned lists are read-only views.
+ */
+public class TextIndex {
+
+    /**
+     * Distinct keys and their posting lists. A new key is written past count and a new Keys is published,
+     * so a reader never sees a key without its posting list.
+     */
+    private static class Keys {
+        final String[] values;
+        final IntList[] postings;
+        final int count;
+
+        Keys(String[] values, IntList[] postings, int count) {
+            this.values = values;
+            this.postings = postings;
+            this.count = count;
+        }
+    }
+
+    private final Map<String, Integer> keyIds;
+    private final NavigableSet<String> sortedKeys;
+    private final Map<Long, IntList> trigrams;
+    private final TextIndex source;
+    private final int limit;
+    private volatile Keys keys;
+
+    // key id for every StringDictionary id, so a row only needs an array lookup; used by the writer only
+    private int[] keyIdByDictionaryId = new int[0];
+
+    public TextIndex() {
+        this.keyIds = new ConcurrentHashMap<>();
+        this.sortedKeys = new ConcurrentSkipListSet<>();
+        this.trigrams = new ConcurrentHashMap<>();
+        this.source = this;
+        this.limit = Integer.MAX_VALUE;
+        this.keys = new Keys(new String[16], new IntList[16], 0);
+    }
+
+    private TextIndex(TextIndex source, int limit) {
+        this.keyIds = source.keyIds;
+        this.sortedKeys = source.sortedKeys;
+        this.trigrams = source.trigrams;
+        this.source = source;
+        this.limit = limit;
+    }
+
+    /**
+     * @param limit - row count of the snapshot, rows from limit on are left out of every lookup
+     * @return - read-only index over the same values that only returns rows below the limit
+     */
+    public TextIndex view(int limit) {
+        return new TextIndex(source, limit);
+    }
+
+    /**
+     * Adds a row to the index.
+     * @param row - row number in the TransactionStore
+     * @param dictionaryId - id of the value in the column's StringDictionary
+     * @param value - value of the column
+     */
+    public void add(int row, int dictionaryId, String value) {
+        if (source != this) {
+            throw new UnsupportedOperationException("View of the index can't be modified");
+        }
+        if (dictionaryId >= keyIdByDictionaryId.length) {
+            int oldLength = keyIdByDictionaryId.length;
+            keyIdByDictionaryId = Arrays.copyOf(keyIdByDictionaryId, Math.max(dictionaryId + 1, oldLength * 2));
+            Arrays.fill(keyIdByDictionaryId, oldLength, keyIdByDictionaryId.length, -1);
+        }
+        int keyId = keyIdByDictionaryId[dictionaryId];
+        if (keyId < 0) {
+            keyId = keyId(fold(value));
+            keyIdByDictionaryId[dictionaryId] = keyId;
+        }
+        keys.postings[keyId].add(row);
+    }
+
+    private int keyId(String key) {
+        Integer existing = keyIds.get(key);
+        if (existing != null) {
+            return existing;
+        }
+        Keys current = keys;
+        int keyId = current.count;
+        String[] values = current.values;
+        IntList[] postings = current.postings;
+        if (keyId == values.length) {
+            values = Arrays.copyOf(values, keyId * 2);
+            postings = Arrays.copyOf(postings, keyId * 2);
+        }
+        values[keyId] = key;
+        postings[keyId] = new IntList();
+        keys = new Keys(values, postings, keyId + 1);
+        //The key id is visible in the maps only after its posting list is published
+        keyIds.put(key, keyId);
+        sortedKeys.add(key);
+        for (int i = 0; i + 3 <= key.length(); i++) {
+            IntList list = trigrams.computeIfAbsent(trigram(key, i), t -> new IntList());
+            //A key like "aaaa" has the same trigram twice, its id goes into the list once
+            if (list.isEmpty() || list.get(list.size() - 1) != keyId) {
+                list.add(keyId);
+            }
+        }
+        return keyId;
+    }
+
+    private IntList posting(int keyId) {
+        return source.keys.postings[keyId].headBelow(limit);
+    }
+
+    /* ------------------------------------------------------------------
+       Lookups, every method returns row numbers in ascending order
+       ------------------------------------------------------------------ */
+
+    /**
+     * @param value - value to look for, case is ignored
+     * @return - rows whose value is equal to the given one
+     */
+    public IntList exact(String value) {
+        Integer keyId = keyIds.get(fold(value));
+        return keyId == null ? IntList.empty() : posting(keyId);
+    }
+
+    /**
+     * @param prefix - beginning of the value, case is ignored
+     * @return - rows whose value starts with the prefix
+     */
+    public IntList prefix(String prefix) {
+        String key = fold(prefix);
+        List<IntList> matches = new ArrayList<>();
+        for (String match : sortedKeys.subSet(key, true, key + Character.MAX_VALUE, false)) {
+            Integer keyId = keyIds.get(match);
+            if (keyId != null) {
+                matches.add(posting(keyId));
+            }
+        }
+        return IntList.union(matches);
+    }
+
+    /**
+     * @param text - text that should be part of the value, case is ignored
+     * @return - rows whose value contains the text
+     */
+    public IntList contains(String text) {
+        String key = fold(text);
+        List<IntList> matches = new ArrayList<>();
+        Keys current = source.keys;
+        if (key.length() < 3) {
+            for (int keyId = 0; keyId < current.count; keyId++) {
+                if (current.values[keyId].contains(key)) {
+                    matches.add(current.postings[keyId].headBelow(limit));
+                }
+            }
+            return IntList.union(matches);
+        }
+        IntList candidates = candidates(key, current.count);
+        for (int i = 0; i < candidates.size(); i++) {
+            int keyId = candidates.get(i);
+            if (current.values[keyId].contains(key)) {
+                matches.add(current.postings[keyId].headBelow(limit));
+            }
+        }
+        return IntList.union(matches);
+    }
+
+    /**
+     * Intersects the key lists of all trigrams of the text, starting with the shortest list.
+     * Only key ids below keyCount are returned.
+     */
+    private IntList candidates(String key, int keyCount) {
+        List<IntList> lists = new ArrayList<>();
+        for (int i = 0; i + 3 <= key.length(); i++) {
+            IntList list = trigrams.get(trigram(key, i));
+            if (list == null) {
+                return IntList.empty();
+            }
+            lists.add(list.headBelow(keyCount));
+        }
+        lists.sort((a, b) -> Integer.compare(a.size(), b.size()));
+        IntList result = lists.get(0);
+        for (int i = 1; i < lists.size() && !result.isEmpty(); i++) {
+            result = intersect(result, lists.get(i));
+        }
+        return result;
+    }
+
+    private static IntList intersect(IntList a, IntList b) {
+        IntList result = new IntList(Math.min(a.size(), b.size()));
+        int i = 0;
+        int j = 0;
+        while (i < a.size() && j < b.size()) {
+            int x = a.get(i);
+            int y = b.get(j);
+            if (x == y) {
+                result.add(x);
+                i++;
+                j++;
+            } else if (x < y) {
+                i++;
+            } else {
+                j++;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return - number of distinct case-folded values
+     */
+    public int distinctValues() {
+        return source.keys.count;
+    }
+
+    private static long trigram(String key, int from) {
+        return ((long) key.charAt(from) << 32) | ((long) key.charAt(from + 1) << 16) | key.charAt(from + 2);
+    }
+
+    static String fold(String value) {
+        return value.toLowerCase(Locale.ROOT);
+    }
+}
@@ -9,14 +9,15 @@ public class Transaction {
     private LocalTime time;
     private String description;
     private String vendor;
-    private double amount;
+    // Amount in cents, see Money
+    private long cents;
 
-    public Transaction(LocalDate date, LocalTime time, String description, String vendor, double amount) {
+    public Transaction(LocalDate date, LocalTime time, String description, String vendor, long cents) {
         this.date = date;
         this.time = time;
         this.description = description;
         this.vendor = vendor;
-        this.amount = amount;
+        this.cents = cents;
     }
 
     public Transaction() {
@@ -54,11 +55,11 @@ public class Transaction {
         this.date = date;
     }
 
-    public double getAmount() {
-        return amount;
+    public long getCents() {
+        return cents;
     }
 
-    public void setAmount(double amount) {
-        this.amount = amount;
+    public void setCents(long cents) {
+        this.cents = cents;
     }
 }
@@ -0,0 +1,420 @@
+package com.pluralsight;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.DateTimeException;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Loads the transactions file by memory-mapping it, cutting it into newline-aligned chunks
+ * and parsing the chunks in parallel on a fork-join pool.
+ * Rows are written straight into a columnar TransactionStore, in the same order as they appear in the file.
+ */
+public class TransactionLoader {
+
+    /* ------------------------------------------------------------------
+       Chunking limits
+       ------------------------------------------------------------------ */
+    private static final long MIN_CHUNK_SIZE = 1L << 20;          // 1 MiB, smaller files are parsed in one go
+    private static final long MAX_CHUNK_SIZE = 256L << 20;        // a single mapping must stay well below 2 GiB
+    private static final int FIELD_COUNT = 5;
+
+    private static final Metrics.Timer LOAD = Metrics.timer("load");
+    private static final Metrics.Counter LOADED_ROWS = Metrics.counter("load_rows");
+    private static final Metrics.Counter PARSE_ERRORS = Metrics.counter("load_parse_errors");
+    // lines after a corrupt line, they are not loaded
+    private static final Metrics.Counter DROPPED_LINES = Metrics.counter("load_dropped_lines");
+    private static final Metrics.Counter BLANK_LINES = Metrics.counter("load_blank_lines");
+
+    /**
+     * Result of a load: all rows that were read, and whether the whole file could be read.
+     */
+    public static class Result {
+        private final TransactionStore store;
+        private final boolean complete;
+        private final long length;
+
+        Result(TransactionStore store, boolean complete) {
+            this(store, complete, 0);
+        }
+
+        Result(TransactionStore store, boolean complete, long length) {
+            this.store = store;
+            this.complete = complete;
+            this.length = length;
+        }
+
+        public TransactionStore getStore() {
+            return store;
+        }
+
+        /**
+         * @return - false when a corrupt line was found, in that case only rows before that line are returned
+         */
+        public boolean isComplete() {
+            return complete;
+        }
+
+        /**
+         * @return - size of the file when it was read, rows appended after that are not in the result
+         */
+        public long getLength() {
+            return length;
+        }
+    }
+
+    /**
+     * Loads the file on the common fork-join pool.
+     * @param path - file in format date|time|description|vendor|amount
+     * @return - loaded rows in file order
+     * @throws IOException - when the file can't be opened or mapped
+     */
+    public static Result load(Path path) throws IOException {
+        return load(path, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Loads the file on the given fork-join pool. A binary ledger segment is mapped and read without parsing.
+     * @param path - file in format date|time|description|vendor|amount
+     * @param pool - pool that parses the chunks
+     * @return - loaded rows in file order
+     * @throws IOException - when the file can't be opened or mapped
+     */
+    public static Result load(Path path, ForkJoinPool pool) throws IOException {
+        long start = LOAD.start();
+        Result result;
+        if (BinaryLedger.isBinary(path)) {
+            result = new Result(BinaryLedger.read(path), true, Files.size(path));
+        } else {
+            result = parse(path, 0, pool);
+        }
+        LOAD.stop(start);
+        LOADED_ROWS.add(result.getStore().size());
+        return result;
+    }
+
+    /**
+     * Parses only the bytes of a text file from the given offset on, used when the rows before it are already
+     * loaded, for example from a LedgerSnapshot.
+     * @param path - file in format date|time|description|vendor|amount
+     * @param from - offset right after a line of the file, or its length when that line has no newline yet
+     * @return - rows after the offset in file order, the length is that of the whole file
+     * @throws IOException - when the file can't be opened or mapped
+     */
+    public static Result loadFrom(Path path, long from) throws IOException {
+        long start = LOAD.start();
+        Result result = parse(path, from, ForkJoinPool.commonPool());
+        LOAD.stop(start);
+        LOADED_ROWS.add(result.getStore().size());
+        return result;
+    }
+
+    private static Result parse(Path path, long from, ForkJoinPool pool) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long[] bounds = chunkBounds(channel, from, pool.getParallelism());
+            Result parsed = pool.invoke(new ParseTask(channel, bounds, 0, bounds.length - 1));
+            return new Result(parsed.getStore(), parsed.isComplete(), bounds[bounds.length - 1]);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    /* ------------------------------------------------------------------
+       Chunking
+       ------------------------------------------------------------------ */
+
+    /**
+     * Splits the file into chunks, every chunk (except the first) starts right after a '\n'.
+     * @param channel - opened file
+     * @param from - offset the first chunk starts at
+     * @param parallelism - number of workers, used to pick the amount of chunks
+     * @return - chunk boundaries, chunk i is [bounds[i], bounds[i+1])
+     */
+    private static long[] chunkBounds(FileChannel channel, long from, int parallelism) throws IOException {
+        long size = Math.max(from, channel.size()) - from;
+        long chunks = Math.max(1, Math.min(size / MIN_CHUNK_SIZE, parallelism * 4L));
+        chunks = Math.max(chunks, (size + MAX_CHUNK_SIZE - 1) / MAX_CHUNK_SIZE);
+        long step = Math.max(1, size / chunks);
+
+        List<Long> bounds = new ArrayList<>();
+        bounds.add(from);
+        ByteBuffer probe = ByteBuffer.allocate(8192);
+        long position = from + step;
+        while (position < from + size) {
+            long lineStart = nextLineStart(channel, position, probe);
+            if (lineStart >= from + size) {
+                break;
+            }
+            if (lineStart > bounds.get(bounds.size() - 1)) {
+                bounds.add(lineStart);
+            }
+            position = lineStart + step;
+        }
+        bounds.add(from + size);
+
+        long[] result = new long[bounds.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = bounds.get(i);
+        }
+        return result;
+    }
+
+    /**
+     * @return - position right after the first '\n' at or after the given position, or the file size if there is none
+     */
+    private static long nextLineStart(FileChannel channel, long position, ByteBuffer probe) throws IOException {
+        long size = channel.size();
+        while (position < size) {
+            probe.clear();
+            int read = channel.read(probe, position);
+            if (read <= 0) {
+                break;
+            }
+            for (int i = 0; i < read; i++) {
+                if (probe.get(i) == '\n') {
+                    return position + i + 1;
+                }
+            }
+            position += read;
+        }
+        return size;
+    }
+
+    /* ------------------------------------------------------------------
+       Parallel parsing
+       ------------------------------------------------------------------ */
+
+    /**
+     * Parses chunks [from, to) of the file, splitting the range in halves until one chunk is left.
+     */
+    private static class ParseTask extends RecursiveTask<Result> {
+        private static final long serialVersionUID = 1L;
+
+        private final FileChannel channel;
+        private final long[] bounds;
+        private final int from;
+        private final int to;
+
+        ParseTask(FileChannel channel, long[] bounds, int from, int to) {
+            this.channel = channel;
+            this.bounds = bounds;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected Result compute() {
+            if (to - from <= 1) {
+                return parseChunk(channel, bounds[from], bounds[to]);
+            }
+            int middle = (from + to) >>> 1;
+            ParseTask right = new ParseTask(channel, bounds, middle, to);
+            right.fork();
+            Result left = new ParseTask(channel, bounds, from, middle).compute();
+            Result rightResult = right.join();
+            //Rows after a corrupt line are dropped, same as when the file was read line by line
+            if (!left.isComplete()) {
+                DROPPED_LINES.add(rightResult.getStore().size());
+                return left;
+            }
+            left.getStore().addAll(rightResult.getStore());
+            return new Result(left.getStore(), rightResult.isComplete());
+        }
+    }
+
+    /**
+     * Maps one chunk and parses all lines in it.
+     */
+    private static Result parseChunk(FileChannel channel, long start, long end) {
+        TransactionStore rows = new TransactionStore();
+        if (end <= start) {
+            return new Result(rows, true);
+        }
+        MappedByteBuffer buffer;
+        try {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, start, end - start);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        LineTokenizer tokenizer = new LineTokenizer();
+        int limit = buffer.limit();
+        int lineStart = 0;
+        while (lineStart < limit) {
+            int lineEnd = lineStart;
+            while (lineEnd < limit && buffer.get(lineEnd) != '\n') {
+                lineEnd++;
+            }
+            try {
+                tokenizer.parse(buffer, lineStart, lineEnd, rows);
+            } catch (DateTimeException | NumberFormatException e) {
+                tokenizer.corrupt = true;
+            }
+            if (tokenizer.corrupt) {
+                PARSE_ERRORS.increment();
+                DROPPED_LINES.add(countLines(buffer, lineEnd + 1, limit));
+                BLANK_LINES.add(tokenizer.blank);
+                return new Result(rows, false);
+            }
+            lineStart = lineEnd + 1;
+        }
+        BLANK_LINES.add(tokenizer.blank);
+        return new Result(rows, true);
+    }
+
+    /**
+     * @return - position of the last newline in [0, length) of the buffer, -1 when there is none
+     */
+    static int lastNewline(ByteBuffer buffer, int length) {
+        for (int i = length - 1; i >= 0; i--) {
+            if (buffer.get(i) == '\n') {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Parses the lines of [start, end) of the buffer into the store. Unlike a load it doesn't stop at a corrupt line,
+     * the line is skipped and counted: used for rows that another process appends while the file is open
+     * and for statements that are reconciled.
+     * @param buffer - buffer holding the lines
+     * @param start - first byte of the first line
+     * @param end - end of the last line, excluded
+     * @param rows - store the rows are added to
+     * @return - number of corrupt lines that were skipped
+     */
+    static int parseLines(ByteBuffer buffer, int start, int end, TransactionStore rows) {
+        LineTokenizer tokenizer = new LineTokenizer();
+        int corrupt = 0;
+        int lineStart = start;
+        while (lineStart < end) {
+            int lineEnd = lineStart;
+            while (lineEnd < end && buffer.get(lineEnd) != '\n') {
+                lineEnd++;
+            }
+            try {
+                tokenizer.parse(buffer, lineStart, lineEnd, rows);
+            } catch (DateTimeException | NumberFormatException e) {
+                tokenizer.corrupt = true;
+            }
+            if (tokenizer.corrupt) {
+                //The row is only added once every field parsed, so nothing of the line is in the store
+                tokenizer.corrupt = false;
+                corrupt++;
+            }
+            lineStart = lineEnd + 1;
+        }
+        PARSE_ERRORS.add(corrupt);
+        BLANK_LINES.add(tokenizer.blank);
+        return corrupt;
+    }
+
+    /**
+     * @return - number of non-blank lines in [start, end) of the buffer
+     */
+    private static int countLines(ByteBuffer buffer, int start, int end) {
+        int lines = 0;
+        boolean text = false;
+        for (int i = start; i < end; i++) {
+            byte b = buffer.get(i);
+            if (b == '\n') {
+                lines += text ? 1 : 0;
+                text = false;
+            } else if (b != '\r') {
+                text = true;
+            }
+        }
+        return lines + (text ? 1 : 0);
+    }
+
+    /**
+     * Hand-written tokenizer for one date|time|description|vendor|amount line.
+     */
+    private static class LineTokenizer {
+        private final int[] fieldStart = new int[FIELD_COUNT];
+        private final int[] fieldEnd = new int[FIELD_COUNT];
+        private boolean corrupt;
+        private int blank;
+
+        /**
+         * Parses the line and appends it to the store. Blank lines are skipped, sets corrupt when a field is missing.
+         */
+        void parse(ByteBuffer buffer, int start, int end, TransactionStore store) {
+            if (end > start && buffer.get(end - 1) == '\r') {
+                end--;
+            }
+            if (end == start) {
+                blank++;
+                return;
+            }
+            int field = 0;
+            fieldStart[0] = start;
+            for (int i = start; i < end && field < FIELD_COUNT; i++) {
+                if (buffer.get(i) == '|') {
+                    fieldEnd[field] = i;
+                    field++;
+                    if (field < FIELD_COUNT) {
+                        fieldStart[field] = i + 1;
+                    }
+                }
+            }
+            if (field < FIELD_COUNT - 1) {
+                corrupt = true;
+                return;
+            }
+            if (field == FIELD_COUNT - 1) {
+                fieldEnd[FIELD_COUNT - 1] = end;
+            }
+
+            int epochDay = (int) parseDate(buffer, fieldStart[0], fieldEnd[0]).toEpochDay();
+            int secondOfDay = parseTime(buffer, fieldStart[1], fieldEnd[1]).toSecondOfDay();
+            long cents = Money.parse(buffer, fieldStart[4], fieldEnd[4]);
+            //Description and vendor are interned from the mapped bytes, repeated values don't create a String
+            store.add(epochDay, secondOfDay, cents, buffer, fieldStart[2], fieldEnd[2], fieldStart[3], fieldEnd[3]);
+        }
+
+        /**
+         * Reads yyyy-MM-dd without going through DateTimeFormatter.
+         */
+        private LocalDate parseDate(ByteBuffer buffer, int start, int end) {
+            if (end - start != 10 || buffer.get(start + 4) != '-' || buffer.get(start + 7) != '-') {
+                throw new NumberFormatException("Date is not in yyyy-MM-dd format");
+            }
+            return LocalDate.of(digits(buffer, start, 4), digits(buffer, start + 5, 2), digits(buffer, start + 8, 2));
+        }
+
+        /**
+         * Reads HH:mm:ss without going through DateTimeFormatter.
+         */
+        private LocalTime parseTime(ByteBuffer buffer, int start, int end) {
+            if (end - start != 8 || buffer.get(start + 2) != ':' || buffer.get(start + 5) != ':') {
+                throw new NumberFormatException("Time is not in HH:mm:ss format");
+            }
+            return LocalTime.of(digits(buffer, start, 2), digits(buffer, start + 3, 2), digits(buffer, start + 6, 2));
+        }
+
+        private int digits(ByteBuffer buffer, int start, int count) {
+            int value = 0;
+            for (int i = start; i < start + count; i++) {
+                int digit = buffer.get(i) - '0';
+                if (digit < 0 || digit > 9) {
+                    throw new NumberFormatException("Not a digit");
+                }
+                value = value * 10 + digit;
+            }
+            return value;
+        }
+    }
+}
@@ -0,0 +1,284 @@
+package com.pluralsight;
+
+import java.nio.ByteBuffer;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Columnar storage for transactions.
+ * Every field is kept in its own primitive array: dates as epoch days, times as seconds of the day,
+ * amounts as cents, vendor and description as ids into a StringDictionary.
+ * Rows are read back as Transaction objects through get(row) or by iterating.
+ * Rows are never changed once added, so snapshot() can share the columns with the store it was taken from.
+ */
+public class TransactionStore implements Iterable<Transaction> {
+
+    private static final int INITIAL_CAPACITY = 1024;
+
+    private final StringDictionary descriptionDictionary;
+    private final StringDictionary vendorDictionary;
+    private final boolean readOnly;
+
+    private int[] dates = new int[INITIAL_CAPACITY];
+    private int[] times = new int[INITIAL_CAPACITY];
+    private long[] amounts = new long[INITIAL_CAPACITY];
+    private int[] descriptions = new int[INITIAL_CAPACITY];
+    private int[] vendors = new int[INITIAL_CAPACITY];
+    private int size;
+
+    public TransactionStore() {
+        this.descriptionDictionary = new StringDictionary();
+        this.vendorDictionary = new StringDictionary();
+        this.readOnly = false;
+    }
+
+    private TransactionStore(TransactionStore source) {
+        this.descriptionDictionary = source.descriptionDictionary;
+        this.vendorDictionary = source.vendorDictionary;
+        this.readOnly = true;
+        this.dates = source.dates;
+        this.times = source.times;
+        this.amounts = source.amounts;
+        this.descriptions = source.descriptions;
+        this.vendors = source.vendors;
+        this.size = source.size;
+    }
+
+    /**
+     * Takes a read-only view of the rows added so far. The view shares the columns and dictionaries,
+     * rows added to this store later are not part of it.
+     * Must be called by the thread that adds rows, the view has to be published to other threads
+     * through a volatile field or a lock.
+     * @return - read-only store with the current rows
+     */
+    public TransactionStore snapshot() {
+        return readOnly ? this : new TransactionStore(this);
+    }
+
+    /* ------------------------------------------------------------------
+       Appending rows
+       ------------------------------------------------------------------ */
+
+    /**
+     * Appends the transaction as a new row.
+     * @param transaction - transaction that should be stored
+     * @return - row number of the transaction
+     */
+    public int add(Transaction transaction) {
+        return add(Math.toIntExact(transaction.getDate().toEpochDay()), transaction.getTime().toSecondOfDay(),
+                transaction.getCents(), transaction.getDescription(), transaction.getVendor());
+    }
+
+    /**
+     * Appends a row from already encoded values.
+     * @param epochDay - date as LocalDate.toEpochDay()
+     * @param secondOfDay - time as LocalTime.toSecondOfDay()
+     * @param cents - amount in cents, negative for payments
+     * @param description - description of the transaction
+     * @param vendor - vendor of the transaction
+     * @return - row number of the transaction
+     */
+    public int add(int epochDay, int secondOfDay, long cents, String description, String vendor) {
+        checkWritable();
+        return addEncoded(epochDay, secondOfDay, cents, descriptionDictionary.intern(description), vendorDictionary.intern(vendor));
+    }
+
+    /**
+     * Appends a row whose description and vendor are UTF-8 bytes of a buffer, used by the loader.
+     * Values that are already in the dictionaries are found without creating a String.
+     * @param line - buffer holding the text fields
+     * @param descriptionStart - first byte of the description, descriptionEnd is excluded
+     * @param vendorStart - first byte of the vendor, vendorEnd is excluded
+     * @return - row number of the transaction
+     */
+    int add(int epochDay, int secondOfDay, long cents, ByteBuffer line, int descriptionStart, int descriptionEnd, int vendorStart, int vendorEnd) {
+        checkWritable();
+        return addEncoded(epochDay, secondOfDay, cents, descriptionDictionary.intern(line, descriptionStart, descriptionEnd),
+                vendorDictionary.intern(line, vendorStart, vendorEnd));
+    }
+
+    /**
+     * Appends all rows of another store, re-encoding its dictionary ids.
+     * @param other - store that should be appended to this one
+     */
+    public void addAll(TransactionStore other) {
+        checkWritable();
+        int[] descriptionIds = remap(other.descriptionDictionary, descriptionDictionary);
+        int[] vendorIds = remap(other.vendorDictionary, vendorDictionary);
+        ensureCapacity(size + other.size);
+        for (int i = 0; i < other.size; i++) {
+            addEncoded(other.dates[i], other.times[i], other.amounts[i], descriptionIds[other.descriptions[i]], vendorIds[other.vendors[i]]);
+        }
+    }
+
+    /**
+     * Builds a store around already encoded columns, the arrays are taken over without copying.
+     * Dictionary values must be distinct, value i gets id i.
+     */
+    static TransactionStore fromColumns(int size, int[] dates, int[] times, long[] amounts, int[] descriptions, int[] vendors,
+                                        String[] descriptionValues, String[] vendorValues) {
+        TransactionStore store = new TransactionStore();
+        for (String value : descriptionValues) {
+            store.descriptionDictionary.intern(value);
+        }
+        for (String value : vendorValues) {
+            store.vendorDictionary.intern(value);
+        }
+        store.dates = dates;
+        store.times = times;
+        store.amounts = amounts;
+        store.descriptions = descriptions;
+        store.vendors = vendors;
+        store.size = size;
+        return store;
+    }
+
+    private int addEncoded(int epochDay, int secondOfDay, long cents, int descriptionId, int vendorId) {
+        checkWritable();
+        ensureCapacity(size + 1);
+        dates[size] = epochDay;
+        times[size] = secondOfDay;
+        amounts[size] = cents;
+        descriptions[size] = descriptionId;
+        vendors[size] = vendorId;
+        return size++;
+    }
+
+    private static int[] remap(StringDictionary from, StringDictionary to) {
+        int[] ids = new int[from.size()];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = to.intern(from.get(i));
+        }
+        return ids;
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity <= dates.length) {
+            return;
+        }
+        int newCapacity = Math.max(capacity, dates.length + (dates.length >> 1));
+        dates = Arrays.copyOf(dates, newCapacity);
+        times = Arrays.copyOf(times, newCapacity);
+        amounts = Arrays.copyOf(amounts, newCapacity);
+        descriptions = Arrays.copyOf(descriptions, newCapacity);
+        vendors = Arrays.copyOf(vendors, newCapacity);
+    }
+
+    /* ------------------------------------------------------------------
+       Reading rows
+       ------------------------------------------------------------------ */
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @param row - row number
+     * @return - the row as a Transaction object
+     */
+    public Transaction get(int row) {
+        checkRow(row);
+        return new Transaction(LocalDate.ofEpochDay(dates[row]), LocalTime.ofSecondOfDay(times[row]),
+                descriptionDictionary.get(descriptions[row]), vendorDictionary.get(vendors[row]), amounts[row]);
+    }
+
+    public int getEpochDay(int row) {
+        checkRow(row);
+        return dates[row];
+    }
+
+    public int getSecondOfDay(int row) {
+        checkRow(row);
+        return times[row];
+    }
+
+    public long getCents(int row) {
+        checkRow(row);
+        return amounts[row];
+    }
+
+    public int getDescriptionId(int row) {
+        checkRow(row);
+        return descriptions[row];
+    }
+
+    public int getVendorId(int row) {
+        checkRow(row);
+        return vendors[row];
+    }
+
+    public String getDescription(int row) {
+        return descriptionDictionary.get(getDescriptionId(row));
+    }
+
+    public String getVendor(int row) {
+        return vendorDictionary.get(getVendorId(row));
+    }
+
+    public StringDictionary getDescriptionDictionary() {
+        return descriptionDictionary;
+    }
+
+    public StringDictionary getVendorDictionary() {
+        return vendorDictionary;
+    }
+
+    /* ------------------------------------------------------------------
+       Raw columns, valid for rows [0, size())
+       ------------------------------------------------------------------ */
+
+    int[] dateColumn() {
+        return dates;
+    }
+
+    int[] timeColumn() {
+        return times;
+    }
+
+    long[] amountColumn() {
+        return amounts;
+    }
+
+    int[] descriptionColumn() {
+        return descriptions;
+    }
+
+    int[] vendorColumn() {
+        return vendors;
+    }
+
+    @Override
+    public Iterator<Transaction> iterator() {
+        return new Iterator<>() {
+            private int row;
+
+            @Override
+            public boolean hasNext() {
+                return row < size;
+            }
+
+            @Override
+            public Transaction next() {
+                if (row >= size) {
+                    throw new NoSuchElementException();
+                }
+                return get(row++);
+            }
+        };
+    }
+
+    private void checkWritable() {
+        if (readOnly) {
+            throw new UnsupportedOperationException("Snapshot of a store can't be modified");
+        }
+    }
+
+    private void checkRow(int row) {
+        if (row < 0 || row >= size) {
+            throw new IndexOutOfBoundsException("Row " + row + " out of bounds for size " + size);
+        }
+    }
+}
@@ -0,0 +1,448 @@
+package com.pluralsight;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.CRC32;
+
+/**
+ * Write-ahead log in front of the transactions file.
+ * New rows are appended to the log as checksummed records with sequence numbers, batched through an AppendWriter
+ * (in GROUP_COMMIT mode rows appended together share one fsync). A checkpoint copies the logged rows to the
+ * transactions file, forces it to disk and empties the log; it runs when the log gets large, on a timer and on close.
+ *
+ * Record: int payload length | long sequence | int CRC32 of sequence and payload | payload (the row as date|time|description|vendor|amount).
+ *
+ * The checkpoint file remembers the last sequence that is in the transactions file. Before the transactions file
+ * is touched it is marked PENDING together with the file's length, so recovery after a crash in the middle of a
+ * checkpoint cuts the file back to that length and copies the rows again.
+ * Recovery at startup also cuts the log at the first torn or corrupt record and returns the rows of the log that are
+ * not in the transactions file yet (getRecovered()).
+ */
+public class WriteAheadLog implements LedgerWriter {
+
+    public static final long DEFAULT_CHECKPOINT_BYTES = 16L << 20;
+    public static final long DEFAULT_CHECKPOINT_INTERVAL_MILLIS = 60_000;
+
+    private static final int HEADER_SIZE = 16;
+    private static final int MAX_PAYLOAD = 1 << 20;
+    private static final String DONE = "DONE";
+    private static final String PENDING = "PENDING";
+
+    // time until the record is written, and with GROUP_COMMIT until it is on disk
+    private static final Metrics.Timer APPEND = Metrics.timer("wal_append");
+    private static final Metrics.Timer CHECKPOINT = Metrics.timer("wal_checkpoint");
+
+    private final Path transactionsFile;
+    private final Path logFile;
+    private final Path checkpointFile;
+    private final long checkpointBytes;
+    private final AppendWriter log;
+    private final TransactionStore recovered;
+    private final ScheduledExecutorService checkpointer;
+
+    // appends hold the read lock so they still batch together, a checkpoint holds the write lock
+    private final ReentrantReadWriteLock checkpointLock = new ReentrantReadWriteLock();
+    // makes the order of sequence numbers the order of records in the log
+    private final ReentrantLock sequenceLock = new ReentrantLock();
+    private final AtomicLong logBytes = new AtomicLong();
+    private final AtomicBoolean checkpointScheduled = new AtomicBoolean();
+    private final StringBuilder line = new StringBuilder(128);
+    private final CRC32 crc = new CRC32();
+    private long nextSequence;
+    private long checkpointedSequence;
+    private volatile CopyListener copyListener;
+
+    /**
+     * Told about the bytes a checkpoint appends to the transactions file, so a reader that follows the file
+     * (LedgerFollower) can tell them apart from rows that other processes append.
+     */
+    public interface CopyListener {
+        /**
+         * A checkpoint starts appending at this offset, the bytes after it are not complete yet.
+         */
+        void copyStarted(long from);
+
+        /**
+         * The checkpoint appended [from, to), also called when it failed half way.
+         */
+        void copyFinished(long from, long to);
+    }
+
+    /**
+     * Recovers the files and opens the log with the default checkpoint size and interval.
+     * @param transactionsFile - main transactions file
+     * @param logFile - write-ahead log, created when it does not exist
+     * @param checkpointFile - checkpoint state, created when it does not exist
+     * @param durability - GROUP_COMMIT forces every row to disk before append() returns
+     */
+    public WriteAheadLog(Path transactionsFile, Path logFile, Path checkpointFile, AppendWriter.Durability durability) throws IOException {
+        this(transactionsFile, logFile, checkpointFile, durability, DEFAULT_CHECKPOINT_BYTES, DEFAULT_CHECKPOINT_INTERVAL_MILLIS);
+    }
+
+    /**
+     * Recovers the files and opens the log. Call it before the transactions file is loaded, recovery may cut it.
+     * @param checkpointBytes - log size that starts a checkpoint
+     * @param checkpointIntervalMillis - time between checkpoints, 0 disables the timer
+     */
+    public WriteAheadLog(Path transactionsFile, Path logFile, Path checkpointFile, AppendWriter.Durability durability,
+                         long checkpointBytes, long checkpointIntervalMillis) throws IOException {
+        this.transactionsFile = transactionsFile;
+        this.logFile = logFile;
+        this.checkpointFile = checkpointFile;
+        this.checkpointBytes = checkpointBytes;
+        this.recovered = recover();
+        this.log = new AppendWriter(logFile, durability);
+        this.checkpointer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "wal-checkpoint");
+            thread.setDaemon(true);
+            return thread;
+        });
+        if (checkpointIntervalMillis > 0) {
+            checkpointer.scheduleWithFixedDelay(this::checkpointQuietly, checkpointIntervalMillis, checkpointIntervalMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * @return - rows that were in the log but not in the transactions file yet, they must be added to the ledger
+     */
+    public TransactionStore getRecovered() {
+        return recovered;
+    }
+
+    /**
+     * @param listener - told about every checkpoint that appends to the transactions file, null for none
+     */
+    public void setCopyListener(CopyListener listener) {
+        this.copyListener = listener;
+    }
+
+    /* ------------------------------------------------------------------
+       Appending
+       ------------------------------------------------------------------ */
+
+    @Override
+    public void append(Transaction transaction) throws IOException {
+        AppendWriter.checkRow(transaction.getDate(), transaction.getDescription(), transaction.getVendor());
+        long start = APPEND.start();
+        long ticket;
+        checkpointLock.readLock().lock();
+        try {
+            sequenceLock.lock();
+            try {
+                line.setLength(0);
+                AppendWriter.formatRow(line, transaction.getDate(), transaction.getTime(), transaction.getDescription(),
+                        transaction.getVendor(), transaction.getCents());
+                ticket = log.write(record(nextSequence++, line));
+            } finally {
+                sequenceLock.unlock();
+            }
+            log.awaitCommit(ticket);
+        } finally {
+            checkpointLock.readLock().unlock();
+        }
+        APPEND.stop(start);
+        checkpointIfLarge();
+    }
+
+    /**
+     * Logs all rows of the store, in GROUP_COMMIT mode they share one fsync.
+     */
+    @Override
+    public void appendAll(TransactionStore rows) throws IOException {
+        if (rows.size() == 0) {
+            return;
+        }
+        //Recovery reads the log with BulkImporter.parseLine, which rejects an empty description or vendor
+        for (int i = 0; i < rows.size(); i++) {
+            AppendWriter.checkRow(LocalDate.ofEpochDay(rows.getEpochDay(i)), rows.getDescription(i), rows.getVendor(i));
+        }
+        long ticket = 0;
+        checkpointLock.readLock().lock();
+        try {
+            sequenceLock.lock();
+            try {
+                for (int i = 0; i < rows.size(); i++) {
+                    line.setLength(0);
+                    AppendWriter.formatRow(line, LocalDate.ofEpochDay(rows.getEpochDay(i)), LocalTime.ofSecondOfDay(rows.getSecondOfDay(i)),
+                            rows.getDescription(i), rows.getVendor(i), rows.getCents(i));
+                    ticket = log.write(record(nextSequence++, line));
+                }
+            } finally {
+                sequenceLock.unlock();
+            }
+            log.awaitCommit(ticket);
+        } finally {
+            checkpointLock.readLock().unlock();
+        }
+        checkpointIfLarge();
+    }
+
+    /**
+     * Frames one record. Must be called with the sequence lock held.
+     */
+    private byte[] record(long sequence, CharSequence row) {
+        byte[] payload = row.toString().getBytes(StandardCharsets.UTF_8);
+        ByteBuffer record = ByteBuffer.allocate(HEADER_SIZE + payload.length);
+        record.putInt(payload.length).putLong(sequence).putInt(checksum(sequence, payload, payload.length)).put(payload);
+        logBytes.addAndGet(record.capacity());
+        return record.array();
+    }
+
+    private int checksum(long sequence, byte[] payload, int length) {
+        crc.reset();
+        for (int shift = 56; shift >= 0; shift -= 8) {
+            crc.update((int) (sequence >>> shift));
+        }
+        crc.update(payload, 0, length);
+        return (int) crc.getValue();
+    }
+
+    @Override
+    public void flush() throws IOException {
+        log.flush();
+    }
+
+    /**
+     * Checkpoints the remaining rows and closes the log.
+     */
+    @Override
+    public void close() throws IOException {
+        checkpointer.shutdownNow();
+        checkpoint();
+        log.close();
+    }
+
+    /* ------------------------------------------------------------------
+       Checkpoints
+       ------------------------------------------------------------------ */
+
+    private void checkpointIfLarge() {
+        if (logBytes.get() >= checkpointBytes && checkpointScheduled.compareAndSet(false, true)) {
+            try {
+                checkpointer.execute(() -> {
+                    checkpointScheduled.set(false);
+                    checkpointQuietly();
+                });
+            } catch (RejectedExecutionException e) {
+                //closing, close() runs the last checkpoint
+            }
+        }
+    }
+
+    private void checkpointQuietly() {
+        try {
+            checkpoint();
+        } catch (IOException e) {
+            System.err.println("Could not copy the log to the transactions file: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Copies the logged rows to the transactions file and empties the log. Appends wait while it runs.
+     */
+    public void checkpoint() throws IOException {
+        checkpointLock.writeLock().lock();
+        try {
+            long lastSequence = nextSequence - 1;
+            if (lastSequence == checkpointedSequence) {
+                return;
+            }
+            long start = CHECKPOINT.start();
+            log.flush();
+            long length = Files.exists(transactionsFile) ? Files.size(transactionsFile) : 0;
+            writeCheckpoint(PENDING, checkpointedSequence, length);
+            CopyListener listener = copyListener;
+            try (FileChannel out = FileChannel.open(transactionsFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+                long from = out.size();
+                if (listener != null) {
+                    listener.copyStarted(from);
+                }
+                try {
+                    copyLog(out);
+                } finally {
+                    if (listener != null) {
+                        listener.copyFinished(from, out.size());
+                    }
+                }
+            }
+            writeCheckpoint(DONE, lastSequence, 0);
+            try (FileChannel channel = FileChannel.open(logFile, StandardOpenOption.WRITE)) {
+                channel.truncate(0);
+                channel.force(true);
+            }
+            checkpointedSequence = lastSequence;
+            logBytes.set(0);
+            CHECKPOINT.stop(start);
+        } finally {
+            checkpointLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Appends the logged rows after the last checkpoint to the transactions file and forces it to disk.
+     */
+    private void copyLog(FileChannel out) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(AppendWriter.DEFAULT_BUFFER_SIZE);
+        readLog(checkpointedSequence, (sequence, payload, payloadLength) -> {
+            if (buffer.remaining() < payloadLength + 1) {
+                writeFully(out, buffer);
+            }
+            if (buffer.remaining() < payloadLength + 1) {
+                writeFully(out, ByteBuffer.wrap(("\n" + new String(payload, 0, payloadLength, StandardCharsets.UTF_8)).getBytes(StandardCharsets.UTF_8)));
+            } else {
+                buffer.put((byte) '\n').put(payload, 0, payloadLength);
+            }
+        });
+        writeFully(out, buffer);
+        out.force(true);
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    /**
+     * Replaces the checkpoint file atomically: "state lastSequence transactionsFileLength".
+     */
+    private void writeCheckpoint(String state, long sequence, long length) throws IOException {
+        Path temp = checkpointFile.resolveSibling(checkpointFile.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            channel.write(ByteBuffer.wrap((state + " " + sequence + " " + length + "\n").getBytes(StandardCharsets.US_ASCII)));
+            channel.force(true);
+        }
+        Files.move(temp, checkpointFile, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        forceDirectory(checkpointFile);
+    }
+
+    /**
+     * Makes the rename durable. Not every platform can open a directory, there the rename is left to the file system.
+     */
+    private static void forceDirectory(Path file) {
+        Path directory = file.toAbsolutePath().getParent();
+        try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException | UnsupportedOperationException e) {
+            //not supported here
+        }
+    }
+
+    /* ------------------------------------------------------------------
+       Recovery
+       ------------------------------------------------------------------ */
+
+    private interface RecordVisitor {
+        void visit(long sequence, byte[] payload, int length) throws IOException;
+    }
+
+    /**
+     * Brings the files back to a consistent state after a crash.
+     * @return - rows of the log that are not in the transactions file
+     */
+    private TransactionStore recover() throws IOException {
+        long sequence = 0;
+        if (Files.exists(checkpointFile)) {
+            String[] state = Files.readString(checkpointFile, StandardCharsets.US_ASCII).trim().split(" ");
+            sequence = Long.parseLong(state[1]);
+            if (state[0].equals(PENDING)) {
+                //The checkpoint did not finish: drop what it copied, the rows are still in the log
+                long length = Long.parseLong(state[2]);
+                if (Files.exists(transactionsFile) && Files.size(transactionsFile) > length) {
+                    try (FileChannel channel = FileChannel.open(transactionsFile, StandardOpenOption.WRITE)) {
+                        channel.truncate(length);
+                        channel.force(true);
+                    }
+                }
+                writeCheckpoint(DONE, sequence, 0);
+            }
+        }
+        checkpointedSequence = sequence;
+
+        TransactionStore rows = new TransactionStore();
+        if (!Files.exists(logFile)) {
+            nextSequence = sequence + 1;
+            return rows;
+        }
+        long[] last = {sequence};
+        long validBytes = readLog(sequence, (recordSequence, payload, length) -> {
+            String row = new String(payload, 0, length, StandardCharsets.UTF_8);
+            if (BulkImporter.parseLine(row, rows) != null) {
+                throw new IOException("Log record " + recordSequence + " is not a valid row");
+            }
+            last[0] = recordSequence;
+        });
+        if (validBytes < Files.size(logFile)) {
+            try (FileChannel channel = FileChannel.open(logFile, StandardOpenOption.WRITE)) {
+                channel.truncate(validBytes);
+                channel.force(true);
+            }
+        }
+        logBytes.set(validBytes);
+        nextSequence = last[0] + 1;
+        return rows;
+    }
+
+    /**
+     * Reads the log from the start and passes every record with a sequence above the given one to the visitor.
+     * Reading stops at the end of the file or at the first record that is torn, fails its checksum or breaks the sequence.
+     * @return - length of the valid part of the log
+     */
+    private long readLog(long afterSequence, RecordVisitor visitor) throws IOException {
+        long valid = 0;
+        long previous = -1;
+        byte[] payload = new byte[256];
+        try (InputStream file = Files.newInputStream(logFile);
+             DataInputStream in = new DataInputStream(new BufferedInputStream(file, 1 << 16))) {
+            while (true) {
+                int length;
+                long sequence;
+                int checksum;
+                try {
+                    length = in.readInt();
+                    sequence = in.readLong();
+                    checksum = in.readInt();
+                    if (length < 0 || length > MAX_PAYLOAD || (previous >= 0 && sequence != previous + 1)) {
+                        return valid;
+                    }
+                    if (payload.length < length) {
+                        payload = new byte[Math.max(length, payload.length * 2)];
+                    }
+                    in.readFully(payload, 0, length);
+                } catch (EOFException e) {
+                    return valid;
+                }
+                if (checksum(sequence, payload, length) != checksum) {
+                    return valid;
+                }
+                if (sequence > afterSequence) {
+                    visitor.visit(sequence, payload, length);
+                }
+                previous = sequence;
+                valid += HEADER_SIZE + length;
+            }
+        }
+    }
+}